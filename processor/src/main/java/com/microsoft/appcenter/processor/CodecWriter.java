@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.processor;
+
+import java.util.List;
+
+import static com.microsoft.appcenter.processor.ModelField.Kind.DATE;
+import static com.microsoft.appcenter.processor.ModelField.Kind.MODEL;
+import static com.microsoft.appcenter.processor.ModelField.Kind.MODEL_LIST;
+import static com.microsoft.appcenter.processor.ModelField.Kind.STRING;
+
+/**
+ * Writes the codec of a model: static methods reading, writing, comparing and hashing its fields.
+ * <p>
+ * Keys are constants, fields are accessed through their getters and setters without reflection,
+ * and the streaming read dispatches on the key with a string switch.
+ */
+class CodecWriter {
+
+    private static final String JSON_READER = "android.util.JsonReader";
+
+    private static final String JSON_UTILS = "com.microsoft.appcenter.ingestion.models.json.JSONUtils";
+
+    private static final String JSON_DATE_UTILS = "com.microsoft.appcenter.ingestion.models.json.JSONDateUtils";
+
+    private static final String JSON_EXCEPTION = "org.json.JSONException";
+
+    private static final String JSON_OBJECT = "org.json.JSONObject";
+
+    private static final String JSON_STRINGER = "org.json.JSONStringer";
+
+    private static final String IO_EXCEPTION = "java.io.IOException";
+
+    private static final String UUID = "java.util.UUID";
+
+    /**
+     * Suffix of the generated class name.
+     */
+    static final String SUFFIX = "Codec";
+
+    private final String mPackageName;
+
+    private final String mModel;
+
+    private final String mCodec;
+
+    private final List<ModelField> mFields;
+
+    private final Imports mImports;
+
+    CodecWriter(String packageName, String model, List<ModelField> fields) {
+        mPackageName = packageName;
+        mModel = model;
+        mCodec = model + SUFFIX;
+        mFields = fields;
+        mImports = new Imports(packageName, model, mCodec);
+    }
+
+    /**
+     * Get the qualified name of the factory of a model, generated or written in the {@code json} sub-package.
+     *
+     * @param model qualified name of the model.
+     * @return qualified name of its factory.
+     */
+    static String factoryOf(String model) {
+        int lastDot = model.lastIndexOf('.');
+        return model.substring(0, lastDot) + ".json." + model.substring(lastDot + 1) + FactoryWriter.SUFFIX;
+    }
+
+    /**
+     * Get the Java literal of a string.
+     *
+     * @param value string.
+     * @return quoted and escaped string.
+     */
+    static String literal(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20 || c > 0x7e) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    /**
+     * Get the generated source.
+     *
+     * @return Java source.
+     */
+    String write() {
+
+        /* Write the body first to collect imports. */
+        StringBuilder body = new StringBuilder();
+        body.append("final class ").append(mCodec).append(" {\n");
+        for (ModelField field : mFields) {
+            body.append("\n    private static final String ").append(field.constant).append(" = ").append(literal(field.key)).append(";\n");
+        }
+        body.append("\n    private ").append(mCodec).append("() {\n    }\n");
+        writeReadObject(body);
+        writeReadStream(body);
+        writeWrite(body);
+        writeEquals(body);
+        writeHashCode(body);
+        body.append("}\n");
+        StringBuilder source = new StringBuilder();
+        source.append("/*\n * Generated by ").append(ModelProcessor.class.getName()).append(", do not edit.\n */\n\n");
+        source.append("package ").append(mPackageName).append(";\n\n");
+        mImports.appendTo(source);
+        return source.append(body).toString();
+    }
+
+    private void writeReadObject(StringBuilder body) {
+        boolean throwsException = false;
+        for (ModelField field : mFields) {
+            throwsException |= field.kind != STRING || field.required;
+        }
+        body.append("\n    static void read(").append(mImports.use(JSON_OBJECT)).append(" object, ").append(mModel).append(" model)");
+        if (throwsException) {
+            body.append(" throws ").append(mImports.use(JSON_EXCEPTION));
+        }
+        body.append(" {\n");
+        for (ModelField field : mFields) {
+            String key = field.constant;
+            String value;
+            boolean guarded = false;
+            switch (field.kind) {
+                case STRING:
+                    value = field.required ? "object.getString(" + key + ")" : "object.optString(" + key + ", null)";
+                    break;
+                case INTEGER:
+                    value = field.required ? "object.getInt(" + key + ")" : mImports.use(JSON_UTILS) + ".readInteger(object, " + key + ")";
+                    break;
+                case LONG:
+                    value = field.required ? "object.getLong(" + key + ")" : mImports.use(JSON_UTILS) + ".readLong(object, " + key + ")";
+                    break;
+                case BOOLEAN:
+                    value = field.required ? "object.getBoolean(" + key + ")" : mImports.use(JSON_UTILS) + ".readBoolean(object, " + key + ")";
+                    break;
+                case DOUBLE:
+                case PRIMITIVE_DOUBLE:
+                    value = "object.getDouble(" + key + ")";
+                    guarded = !field.required;
+                    break;
+                case PRIMITIVE_INT:
+                    value = "object.getInt(" + key + ")";
+                    guarded = !field.required;
+                    break;
+                case PRIMITIVE_LONG:
+                    value = "object.getLong(" + key + ")";
+                    guarded = !field.required;
+                    break;
+                case PRIMITIVE_BOOLEAN:
+                    value = "object.getBoolean(" + key + ")";
+                    guarded = !field.required;
+                    break;
+                case UUID:
+                    value = mImports.use(UUID) + ".fromString(object.getString(" + key + "))";
+                    guarded = !field.required;
+                    break;
+                case DATE:
+                    value = mImports.use(JSON_DATE_UTILS) + ".toDate(object.getString(" + key + "))";
+                    guarded = !field.required;
+                    break;
+                case STRING_LIST:
+                    writeRequiredCheck(body, field);
+                    value = mImports.use(JSON_UTILS) + ".readStringArray(object, " + key + ")";
+                    break;
+                case MODEL_LIST:
+                    writeRequiredCheck(body, field);
+                    value = mImports.use(JSON_UTILS) + ".readArray(object, " + key + ", " + mImports.use(factoryOf(field.modelType)) + ".getInstance())";
+                    break;
+                default:
+                    String type = mImports.use(field.modelType);
+                    String indent = field.required ? "        " : "            ";
+                    if (!field.required) {
+                        body.append("        if (object.has(").append(key).append(")) {\n");
+                    }
+                    body.append(indent).append(type).append(' ').append(variable(field)).append(" = new ").append(type).append("();\n");
+                    body.append(indent).append(variable(field)).append(".read(object.getJSONObject(").append(key).append("));\n");
+                    body.append(indent).append("model.").append(field.setter).append('(').append(variable(field)).append(");\n");
+                    if (!field.required) {
+                        body.append("        }\n");
+                    }
+                    continue;
+            }
+            if (guarded) {
+                body.append("        if (object.has(").append(key).append(")) {\n");
+                body.append("            model.").append(field.setter).append('(').append(value).append(");\n");
+                body.append("        }\n");
+            } else {
+                body.append("        model.").append(field.setter).append('(').append(value).append(");\n");
+            }
+        }
+        body.append("    }\n");
+    }
+
+    private void writeRequiredCheck(StringBuilder body, ModelField field) {
+        if (field.required) {
+            body.append("        if (!object.has(").append(field.constant).append(")) {\n");
+            body.append("            throw new ").append(mImports.use(JSON_EXCEPTION)).append("(\"Missing \" + ").append(field.constant).append(");\n");
+            body.append("        }\n");
+        }
+    }
+
+    private void writeReadStream(StringBuilder body) {
+        boolean throwsException = false;
+        for (ModelField field : mFields) {
+            throwsException |= field.kind == MODEL || field.kind == MODEL_LIST || field.kind == DATE;
+        }
+        body.append("\n    static void read(").append(mImports.use(JSON_READER)).append(" reader, ").append(mModel).append(" model) throws ").append(mImports.use(IO_EXCEPTION));
+        if (throwsException) {
+            body.append(", ").append(mImports.use(JSON_EXCEPTION));
+        }
+        body.append(" {\n");
+        body.append("        reader.beginObject();\n");
+        body.append("        while (reader.hasNext()) {\n");
+        body.append("            switch (reader.nextName()) {\n");
+        for (ModelField field : mFields) {
+            String value;
+            switch (field.kind) {
+                case STRING:
+                    value = mImports.use(JSON_UTILS) + ".readString(reader)";
+                    break;
+                case INTEGER:
+                    value = mImports.use(JSON_UTILS) + ".readInteger(reader)";
+                    break;
+                case LONG:
+                    value = mImports.use(JSON_UTILS) + ".readLong(reader)";
+                    break;
+                case DOUBLE:
+                    value = mImports.use(JSON_UTILS) + ".readDouble(reader)";
+                    break;
+                case BOOLEAN:
+                    value = mImports.use(JSON_UTILS) + ".readBoolean(reader)";
+                    break;
+                case PRIMITIVE_INT:
+                    value = "reader.nextInt()";
+                    break;
+                case PRIMITIVE_LONG:
+                    value = "reader.nextLong()";
+                    break;
+                case PRIMITIVE_DOUBLE:
+                    value = "reader.nextDouble()";
+                    break;
+                case PRIMITIVE_BOOLEAN:
+                    value = "reader.nextBoolean()";
+                    break;
+                case UUID:
+                    value = mImports.use(UUID) + ".fromString(reader.nextString())";
+                    break;
+                case DATE:
+                    value = mImports.use(JSON_DATE_UTILS) + ".toDate(reader.nextString())";
+                    break;
+                case STRING_LIST:
+                    value = mImports.use(JSON_UTILS) + ".readStringArray(reader)";
+                    break;
+                case MODEL_LIST:
+                    value = mImports.use(JSON_UTILS) + ".readArray(reader, " + mImports.use(factoryOf(field.modelType)) + ".getInstance())";
+                    break;
+                default:
+                    String type = mImports.use(field.modelType);
+                    body.append("                case ").append(field.constant).append(": {\n");
+                    body.append("                    ").append(type).append(' ').append(variable(field)).append(" = new ").append(type).append("();\n");
+                    body.append("                    ").append(variable(field)).append(".read(reader);\n");
+                    body.append("                    model.").append(field.setter).append('(').append(variable(field)).append(");\n");
+                    body.append("                    break;\n");
+                    body.append("                }\n");
+                    continue;
+            }
+            body.append("                case ").append(field.constant).append(":\n");
+            body.append("                    model.").append(field.setter).append('(').append(value).append(");\n");
+            body.append("                    break;\n");
+        }
+        body.append("                default:\n");
+        body.append("                    reader.skipValue();\n");
+        body.append("            }\n");
+        body.append("        }\n");
+        body.append("        reader.endObject();\n");
+        body.append("    }\n");
+    }
+
+    private void writeWrite(StringBuilder body) {
+        body.append("\n    static void write(").append(mImports.use(JSON_STRINGER)).append(" writer, ").append(mModel).append(" model) throws ").append(mImports.use(JSON_EXCEPTION)).append(" {\n");
+        for (ModelField field : mFields) {
+            String key = field.constant;
+            String value = "model." + field.getter + "()";
+            switch (field.kind) {
+                case STRING_LIST:
+                    body.append("        ").append(mImports.use(JSON_UTILS)).append(".writeStringArray(writer, ").append(key).append(", ").append(value).append(");\n");
+                    break;
+                case MODEL_LIST:
+                    body.append("        ").append(mImports.use(JSON_UTILS)).append(".writeArray(writer, ").append(key).append(", ").append(value).append(");\n");
+                    break;
+                case DATE:
+                case MODEL:
+                    String indent = field.required ? "        " : "            ";
+                    if (!field.required) {
+                        body.append("        if (").append(value).append(" != null) {\n");
+                    }
+                    if (field.kind == DATE) {
+                        body.append(indent).append("writer.key(").append(key).append(");\n");
+                        body.append(indent).append(mImports.use(JSON_DATE_UTILS)).append(".write(writer, ").append(value).append(");\n");
+                    } else {
+                        body.append(indent).append("writer.key(").append(key).append(").object();\n");
+                        body.append(indent).append(value).append(".write(writer);\n");
+                        body.append(indent).append("writer.endObject();\n");
+                    }
+                    if (!field.required) {
+                        body.append("        }\n");
+                    }
+                    break;
+                default:
+                    if (field.required || field.kind.isPrimitive()) {
+                        body.append("        writer.key(").append(key).append(").value(").append(value).append(");\n");
+                    } else {
+                        body.append("        ").append(mImports.use(JSON_UTILS)).append(".write(writer, ").append(key).append(", ").append(value).append(");\n");
+                    }
+            }
+        }
+        body.append("    }\n");
+    }
+
+    private void writeEquals(StringBuilder body) {
+        body.append("\n    static boolean equals(").append(mModel).append(" model, Object o) {\n");
+        body.append("        if (model == o) {\n");
+        body.append("            return true;\n");
+        body.append("        }\n");
+        body.append("        if (o == null || model.getClass() != o.getClass()) {\n");
+        body.append("            return false;\n");
+        body.append("        }\n");
+        body.append("        ").append(mModel).append(" that = (").append(mModel).append(") o;\n");
+        for (ModelField field : mFields) {
+            String value = "model." + field.getter + "()";
+            String other = "that." + field.getter + "()";
+            switch (field.kind) {
+                case PRIMITIVE_DOUBLE:
+                    body.append("        if (Double.compare(").append(value).append(", ").append(other).append(") != 0) {\n");
+                    break;
+                case PRIMITIVE_INT:
+                case PRIMITIVE_LONG:
+                case PRIMITIVE_BOOLEAN:
+                    body.append("        if (").append(value).append(" != ").append(other).append(") {\n");
+                    break;
+                default:
+                    body.append("        if (").append(value).append(" != null ? !").append(value).append(".equals(").append(other).append(") : ").append(other).append(" != null) {\n");
+            }
+            body.append("            return false;\n");
+            body.append("        }\n");
+        }
+        body.append("        return true;\n");
+        body.append("    }\n");
+    }
+
+    private void writeHashCode(StringBuilder body) {
+        body.append("\n    static int hashCode(").append(mModel).append(" model) {\n");
+        body.append("        int result = 0;\n");
+        for (ModelField field : mFields) {
+            String value = "model." + field.getter + "()";
+            String hash;
+            switch (field.kind) {
+                case PRIMITIVE_INT:
+                    hash = value;
+                    break;
+                case PRIMITIVE_LONG:
+                    hash = "(int) (" + value + " ^ (" + value + " >>> 32))";
+                    break;
+                case PRIMITIVE_BOOLEAN:
+                    hash = "(" + value + " ? 1 : 0)";
+                    break;
+                case PRIMITIVE_DOUBLE:
+                    hash = "(int) (Double.doubleToLongBits(" + value + ") ^ (Double.doubleToLongBits(" + value + ") >>> 32))";
+                    break;
+                default:
+                    hash = "(" + value + " != null ? " + value + ".hashCode() : 0)";
+            }
+            body.append("        result = 31 * result + ").append(hash).append(";\n");
+        }
+        body.append("        return result;\n");
+        body.append("    }\n");
+    }
+
+    private static String variable(ModelField field) {
+        return "value" + field.setter.substring(3);
+    }
+}
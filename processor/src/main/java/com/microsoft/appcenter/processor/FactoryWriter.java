@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.processor;
+
+/**
+ * Writes the singleton factory of a model in the {@code json} sub-package of the model.
+ */
+class FactoryWriter {
+
+    private static final String ABSTRACT_LOG_FACTORY = "com.microsoft.appcenter.ingestion.models.json.AbstractLogFactory";
+
+    private static final String MODEL_FACTORY = "com.microsoft.appcenter.ingestion.models.json.ModelFactory";
+
+    private static final String ARRAY_LIST = "java.util.ArrayList";
+
+    private static final String LIST = "java.util.List";
+
+    /**
+     * Suffix of the generated class name.
+     */
+    static final String SUFFIX = "Factory";
+
+    private final String mModel;
+
+    private final boolean mLog;
+
+    FactoryWriter(String model, boolean log) {
+        mModel = model;
+        mLog = log;
+    }
+
+    /**
+     * Get the generated source.
+     *
+     * @return Java source.
+     */
+    String write() {
+        String factory = CodecWriter.factoryOf(mModel);
+        int lastDot = factory.lastIndexOf('.');
+        String packageName = factory.substring(0, lastDot);
+        String factoryName = factory.substring(lastDot + 1);
+        Imports imports = new Imports(packageName, factoryName);
+        String model = imports.use(mModel);
+        StringBuilder body = new StringBuilder();
+        body.append("public class ").append(factoryName);
+        if (mLog) {
+            body.append(" extends ").append(imports.use(ABSTRACT_LOG_FACTORY));
+        } else {
+            body.append(" implements ").append(imports.use(MODEL_FACTORY)).append('<').append(model).append('>');
+        }
+        body.append(" {\n\n");
+        body.append("    private static final ").append(factoryName).append(" sInstance = new ").append(factoryName).append("();\n\n");
+        body.append("    private ").append(factoryName).append("() {\n    }\n\n");
+        body.append("    public static ").append(factoryName).append(" getInstance() {\n");
+        body.append("        return sInstance;\n");
+        body.append("    }\n\n");
+        body.append("    @Override\n");
+        body.append("    public ").append(model).append(" create() {\n");
+        body.append("        return new ").append(model).append("();\n");
+        body.append("    }\n");
+        if (!mLog) {
+            String list = imports.use(LIST);
+            body.append("\n    @Override\n");
+            body.append("    public ").append(list).append('<').append(model).append("> createList(int capacity) {\n");
+            body.append("        return new ").append(imports.use(ARRAY_LIST)).append("<>(capacity);\n");
+            body.append("    }\n");
+        }
+        body.append("}\n");
+        StringBuilder source = new StringBuilder();
+        source.append("/*\n * Generated by ").append(ModelProcessor.class.getName()).append(", do not edit.\n */\n\n");
+        source.append("package ").append(packageName).append(";\n\n");
+        imports.appendTo(source);
+        return source.append(body).toString();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.processor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Import declarations of a generated source file, grouped like the SDK sources.
+ */
+class Imports {
+
+    /**
+     * Import groups in order, classes not matching any prefix go in the last group.
+     */
+    private static final String[] GROUPS = {"android.", "com.", "org.", "java."};
+
+    /**
+     * Package of the generated class.
+     */
+    private final String mPackageName;
+
+    /**
+     * Imported qualified names by simple name.
+     */
+    private final Map<String, String> mImports = new HashMap<>();
+
+    Imports(String packageName, String... declaredSimpleNames) {
+        mPackageName = packageName;
+
+        /* Classes declared in the file take precedence on imports. */
+        for (String simpleName : declaredSimpleNames) {
+            mImports.put(simpleName, packageName + "." + simpleName);
+        }
+    }
+
+    /**
+     * Get the name to use for a class in the generated code, importing it when possible.
+     *
+     * @param qualifiedName qualified class name.
+     * @return simple name if imported or in the same package, qualified name otherwise.
+     */
+    String use(String qualifiedName) {
+        int lastDot = qualifiedName.lastIndexOf('.');
+        String simpleName = qualifiedName.substring(lastDot + 1);
+        String imported = mImports.get(simpleName);
+        if (imported == null) {
+            mImports.put(simpleName, qualifiedName);
+            return simpleName;
+        }
+        return imported.equals(qualifiedName) ? simpleName : qualifiedName;
+    }
+
+    /**
+     * Append the import declarations.
+     *
+     * @param builder source builder.
+     */
+    void appendTo(StringBuilder builder) {
+        List<TreeSet<String>> groups = new ArrayList<>();
+        for (int i = 0; i <= GROUPS.length; i++) {
+            groups.add(new TreeSet<String>());
+        }
+        for (String qualifiedName : mImports.values()) {
+            int lastDot = qualifiedName.lastIndexOf('.');
+            if (qualifiedName.substring(0, lastDot).equals(mPackageName)) {
+                continue;
+            }
+            int group = 0;
+            while (group < GROUPS.length && !qualifiedName.startsWith(GROUPS[group])) {
+                group++;
+            }
+            groups.get(group).add(qualifiedName);
+        }
+        for (TreeSet<String> group : groups) {
+            if (!group.isEmpty()) {
+                for (String qualifiedName : group) {
+                    builder.append("import ").append(qualifiedName).append(";\n");
+                }
+                builder.append('\n');
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.processor;
+
+/**
+ * Field of a model annotated with {@code JsonField}, as understood by the processor.
+ */
+class ModelField {
+
+    /**
+     * Supported field types.
+     */
+    enum Kind {
+        STRING,
+        INTEGER,
+        LONG,
+        DOUBLE,
+        BOOLEAN,
+        PRIMITIVE_INT,
+        PRIMITIVE_LONG,
+        PRIMITIVE_DOUBLE,
+        PRIMITIVE_BOOLEAN,
+        UUID,
+        DATE,
+        STRING_LIST,
+        MODEL,
+        MODEL_LIST;
+
+        boolean isPrimitive() {
+            return this == PRIMITIVE_INT || this == PRIMITIVE_LONG || this == PRIMITIVE_DOUBLE || this == PRIMITIVE_BOOLEAN;
+        }
+    }
+
+    /**
+     * JSON key.
+     */
+    final String key;
+
+    /**
+     * Whether the key is required.
+     */
+    final boolean required;
+
+    /**
+     * Type of the field.
+     */
+    final Kind kind;
+
+    /**
+     * Name of the constant holding the key in the generated code.
+     */
+    final String constant;
+
+    /**
+     * Getter method name.
+     */
+    final String getter;
+
+    /**
+     * Setter method name.
+     */
+    final String setter;
+
+    /**
+     * Qualified name of the model class for {@link Kind#MODEL} or of the list elements for {@link Kind#MODEL_LIST}.
+     */
+    final String modelType;
+
+    ModelField(String key, boolean required, Kind kind, String constant, String getter, String setter, String modelType) {
+        this.key = key;
+        this.required = required;
+        this.kind = kind;
+        this.constant = constant;
+        this.getter = getter;
+        this.setter = setter;
+        this.modelType = modelType;
+    }
+
+    /**
+     * Get the constant name of a property, for example {@code CLASS_NAME} for {@code className}.
+     *
+     * @param property property name.
+     * @return constant name.
+     */
+    static String toConstantName(String property) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < property.length(); i++) {
+            char c = property.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) {
+                builder.append('_');
+            }
+            builder.append(Character.toUpperCase(c));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the codec and factory of ingestion models annotated with {@code JsonModel}.
+ * <p>
+ * The processor does not depend on the SDK: annotations and SDK types are looked up by name.
+ */
+public class ModelProcessor extends AbstractProcessor {
+
+    static final String JSON_MODEL = "com.microsoft.appcenter.ingestion.models.json.JsonModel";
+
+    static final String JSON_FIELD = "com.microsoft.appcenter.ingestion.models.json.JsonField";
+
+    private static final String MODEL = "com.microsoft.appcenter.ingestion.models.Model";
+
+    private static final String LOG = "com.microsoft.appcenter.ingestion.models.Log";
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        Set<String> types = new LinkedHashSet<>();
+        types.add(JSON_MODEL);
+        types.add(JSON_FIELD);
+        return types;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        TypeElement jsonModel = processingEnv.getElementUtils().getTypeElement(JSON_MODEL);
+        TypeElement jsonField = processingEnv.getElementUtils().getTypeElement(JSON_FIELD);
+        if (jsonModel == null || jsonField == null) {
+            return false;
+        }
+
+        /* Fields must be declared in models. */
+        for (Element field : roundEnv.getElementsAnnotatedWith(jsonField)) {
+            if (getAnnotation(field.getEnclosingElement(), JSON_MODEL) == null) {
+                error(field, "@JsonField must be declared in a @JsonModel class.");
+            }
+        }
+        for (TypeElement model : ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(jsonModel))) {
+            processModel(model);
+        }
+        return true;
+    }
+
+    private void processModel(TypeElement model) {
+        if (model.getNestingKind().isNested()) {
+            error(model, "@JsonModel class must be a top level class.");
+            return;
+        }
+        TypeMirror modelInterface = erasure(MODEL);
+        if (modelInterface == null || !processingEnv.getTypeUtils().isAssignable(model.asType(), modelInterface)) {
+            error(model, "@JsonModel class must implement " + MODEL + ".");
+            return;
+        }
+
+        /* Parse fields. */
+        List<ModelField> fields = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        boolean valid = true;
+        for (VariableElement element : ElementFilter.fieldsIn(model.getEnclosedElements())) {
+            AnnotationMirror annotation = getAnnotation(element, JSON_FIELD);
+            if (annotation != null) {
+                ModelField field = parseField(model, element, annotation);
+                if (field == null) {
+                    valid = false;
+                } else if (!keys.add(field.key)) {
+                    error(element, "Duplicate JSON key \"" + field.key + "\".");
+                    valid = false;
+                } else {
+                    fields.add(field);
+                }
+            }
+        }
+        if (!valid) {
+            return;
+        }
+
+        /* Generate code. */
+        String qualifiedName = model.getQualifiedName().toString();
+        String packageName = processingEnv.getElementUtils().getPackageOf(model).getQualifiedName().toString();
+        String simpleName = model.getSimpleName().toString();
+        if (!fields.isEmpty()) {
+            String codec = new CodecWriter(packageName, simpleName, fields).write();
+            writeSource(model, packageName + "." + simpleName + CodecWriter.SUFFIX, codec);
+        }
+        AnnotationValue factory = getValue(getAnnotation(model, JSON_MODEL), "factory");
+        if (factory == null || (Boolean) factory.getValue()) {
+            if (model.getModifiers().contains(Modifier.ABSTRACT)) {
+                error(model, "Cannot generate the factory of an abstract class, use @JsonModel(factory = false).");
+                return;
+            }
+            TypeMirror logInterface = erasure(LOG);
+            boolean log = logInterface != null && processingEnv.getTypeUtils().isAssignable(model.asType(), logInterface);
+            writeSource(model, CodecWriter.factoryOf(qualifiedName), new FactoryWriter(qualifiedName, log).write());
+        }
+    }
+
+    private ModelField parseField(TypeElement model, VariableElement element, AnnotationMirror annotation) {
+        if (element.getModifiers().contains(Modifier.STATIC)) {
+            error(element, "@JsonField cannot be static.");
+            return null;
+        }
+        String key = (String) getValue(annotation, "value").getValue();
+        AnnotationValue requiredValue = getValue(annotation, "required");
+        boolean required = requiredValue != null && (Boolean) requiredValue.getValue();
+
+        /* Resolve type. */
+        TypeMirror type = element.asType();
+        String modelType = null;
+        ModelField.Kind kind = getKind(type);
+        if (kind == ModelField.Kind.MODEL) {
+            modelType = qualifiedName(type);
+        } else if (kind == ModelField.Kind.MODEL_LIST) {
+            modelType = qualifiedName(((DeclaredType) type).getTypeArguments().get(0));
+        } else if (kind == null) {
+            error(element, "Unsupported @JsonField type " + type + ".");
+            return null;
+        }
+
+        /* Find accessors, mName and name fields both use getName and setName. */
+        String name = element.getSimpleName().toString();
+        if (name.length() > 1 && name.charAt(0) == 'm' && Character.isUpperCase(name.charAt(1))) {
+            name = name.substring(1);
+        }
+        String property = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        String getter = null;
+        String setter = null;
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(model))) {
+            if (method.getModifiers().contains(Modifier.PRIVATE) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String methodName = method.getSimpleName().toString();
+            if (method.getParameters().isEmpty()
+                    && (methodName.equals("get" + property) || (methodName.equals("is" + property) && type.getKind() == TypeKind.BOOLEAN))
+                    && processingEnv.getTypeUtils().isSameType(method.getReturnType(), type)) {
+                getter = methodName;
+            } else if (method.getParameters().size() == 1 && methodName.equals("set" + property)
+                    && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), type)) {
+                setter = methodName;
+            }
+        }
+        if (getter == null || setter == null) {
+            error(element, "@JsonField needs get" + property + " and set" + property + " methods.");
+            return null;
+        }
+        return new ModelField(key, required, kind, ModelField.toConstantName(name), getter, setter, modelType);
+    }
+
+    private ModelField.Kind getKind(TypeMirror type) {
+        switch (type.getKind()) {
+            case INT:
+                return ModelField.Kind.PRIMITIVE_INT;
+            case LONG:
+                return ModelField.Kind.PRIMITIVE_LONG;
+            case DOUBLE:
+                return ModelField.Kind.PRIMITIVE_DOUBLE;
+            case BOOLEAN:
+                return ModelField.Kind.PRIMITIVE_BOOLEAN;
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+        String name = qualifiedName(type);
+        switch (name) {
+            case "java.lang.String":
+                return ModelField.Kind.STRING;
+            case "java.lang.Integer":
+                return ModelField.Kind.INTEGER;
+            case "java.lang.Long":
+                return ModelField.Kind.LONG;
+            case "java.lang.Double":
+                return ModelField.Kind.DOUBLE;
+            case "java.lang.Boolean":
+                return ModelField.Kind.BOOLEAN;
+            case "java.util.UUID":
+                return ModelField.Kind.UUID;
+            case "java.util.Date":
+                return ModelField.Kind.DATE;
+            case "java.util.List":
+                List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+                if (arguments.size() != 1 || arguments.get(0).getKind() != TypeKind.DECLARED) {
+                    return null;
+                }
+                TypeMirror element = arguments.get(0);
+                if (qualifiedName(element).equals("java.lang.String")) {
+                    return ModelField.Kind.STRING_LIST;
+                }
+                return isModel(element) ? ModelField.Kind.MODEL_LIST : null;
+            default:
+                return isModel(type) ? ModelField.Kind.MODEL : null;
+        }
+    }
+
+    private boolean isModel(TypeMirror type) {
+        TypeMirror modelInterface = erasure(MODEL);
+        return modelInterface != null && processingEnv.getTypeUtils().isAssignable(type, modelInterface);
+    }
+
+    private TypeMirror erasure(String qualifiedName) {
+        TypeElement element = processingEnv.getElementUtils().getTypeElement(qualifiedName);
+        return element == null ? null : processingEnv.getTypeUtils().erasure(element.asType());
+    }
+
+    private String qualifiedName(TypeMirror type) {
+        Element element = processingEnv.getTypeUtils().asElement(type);
+        return ((TypeElement) element).getQualifiedName().toString();
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String annotation) {
+        if (element == null || (element.getKind() != ElementKind.CLASS && element.getKind() != ElementKind.FIELD)) {
+            return null;
+        }
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static AnnotationValue getValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private void writeSource(TypeElement model, String qualifiedName, String source) {
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(qualifiedName, model);
+            try (Writer writer = file.openWriter()) {
+                writer.write(source);
+            }
+        } catch (IOException e) {
+            error(model, "Failed to write " + qualifiedName + ": " + e.getMessage());
+        }
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.processor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ModelProcessorTest {
+
+    /**
+     * Minimal SDK types the processor looks up by name.
+     */
+    private static final String[][] SDK_SOURCES = {
+            {"com.microsoft.appcenter.ingestion.models.Model", "package com.microsoft.appcenter.ingestion.models; public interface Model {}"},
+            {"com.microsoft.appcenter.ingestion.models.Log", "package com.microsoft.appcenter.ingestion.models; public interface Log extends Model {}"},
+            {"com.microsoft.appcenter.ingestion.models.json.JsonModel", "package com.microsoft.appcenter.ingestion.models.json; public @interface JsonModel { boolean factory() default true; }"},
+            {"com.microsoft.appcenter.ingestion.models.json.JsonField", "package com.microsoft.appcenter.ingestion.models.json; public @interface JsonField { String value(); boolean required() default false; }"}
+    };
+
+    private static final String IMPORTS = "import com.microsoft.appcenter.ingestion.models.*;\n"
+            + "import com.microsoft.appcenter.ingestion.models.json.*;\n"
+            + "import java.util.*;\n";
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private Result process(String className, String source) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null);
+        File generated = mTemporaryFolder.newFolder();
+        fileManager.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singletonList(generated));
+        fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(mTemporaryFolder.newFolder()));
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (String[] sdkSource : SDK_SOURCES) {
+            sources.add(new SourceFile(sdkSource[0], sdkSource[1]));
+        }
+        sources.add(new SourceFile(className, source));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, Collections.singletonList("-proc:only"), null, sources);
+        task.setProcessors(Collections.singletonList(new ModelProcessor()));
+        task.call();
+        Result result = new Result();
+
+        /* Generated code references SDK classes not available here, only keep processor errors. */
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && "compiler.err.proc.messager".equals(diagnostic.getCode())) {
+                result.errors.add(diagnostic.getMessage(null));
+            }
+        }
+        readSources(generated, generated, result.sources);
+        return result;
+    }
+
+    private static void readSources(File root, File directory, Map<String, String> sources) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    readSources(root, file, sources);
+                } else {
+                    String path = root.toURI().relativize(file.toURI()).getPath();
+                    String className = path.substring(0, path.length() - ".java".length()).replace('/', '.');
+                    sources.put(className, new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void generateModel() throws IOException {
+        Result result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel public class Sample implements Model {\n"
+                + "  @JsonField(value = \"id\", required = true) private long mId;\n"
+                + "  @JsonField(\"name\") private String mName;\n"
+                + "  @JsonField(\"count\") private Integer count;\n"
+                + "  @JsonField(\"ratio\") private double ratio;\n"
+                + "  @JsonField(\"enabled\") private boolean enabled;\n"
+                + "  @JsonField(\"installId\") private UUID installId;\n"
+                + "  @JsonField(\"timestamp\") private Date timestamp;\n"
+                + "  @JsonField(\"tags\") private List<String> tags;\n"
+                + "  @JsonField(\"child\") private Sample child;\n"
+                + "  @JsonField(\"children\") private List<Sample> children;\n"
+                + "  private String ignored;\n"
+                + "  public long getId() { return mId; } public void setId(long id) { mId = id; }\n"
+                + "  public String getName() { return mName; } public void setName(String name) { mName = name; }\n"
+                + "  public Integer getCount() { return count; } public void setCount(Integer count) { this.count = count; }\n"
+                + "  public double getRatio() { return ratio; } public void setRatio(double ratio) { this.ratio = ratio; }\n"
+                + "  public boolean isEnabled() { return enabled; } public void setEnabled(boolean enabled) { this.enabled = enabled; }\n"
+                + "  public UUID getInstallId() { return installId; } public void setInstallId(UUID installId) { this.installId = installId; }\n"
+                + "  public Date getTimestamp() { return timestamp; } public void setTimestamp(Date timestamp) { this.timestamp = timestamp; }\n"
+                + "  public List<String> getTags() { return tags; } public void setTags(List<String> tags) { this.tags = tags; }\n"
+                + "  public Sample getChild() { return child; } public void setChild(Sample child) { this.child = child; }\n"
+                + "  public List<Sample> getChildren() { return children; } public void setChildren(List<Sample> children) { this.children = children; }\n"
+                + "}\n");
+        assertEquals(Collections.emptyList(), result.errors);
+        String codec = result.sources.get("com.example.SampleCodec");
+        assertNotNull(codec);
+
+        /* Keys are constants named after properties. */
+        assertTrue(codec.contains("private static final String ID = \"id\";"));
+        assertTrue(codec.contains("private static final String INSTALL_ID = \"installId\";"));
+        assertFalse(codec.contains("IGNORED"));
+
+        /* Reading an object. */
+        assertTrue(codec.contains("model.setId(object.getLong(ID));"));
+        assertTrue(codec.contains("model.setName(object.optString(NAME, null));"));
+        assertTrue(codec.contains("model.setCount(JSONUtils.readInteger(object, COUNT));"));
+        assertTrue(codec.contains("if (object.has(RATIO)) {"));
+        assertTrue(codec.contains("model.setEnabled(object.getBoolean(ENABLED));"));
+        assertTrue(codec.contains("model.setTimestamp(JSONDateUtils.toDate(object.getString(TIMESTAMP)));"));
+        assertTrue(codec.contains("model.setTags(JSONUtils.readStringArray(object, TAGS));"));
+        assertTrue(codec.contains("valueChild.read(object.getJSONObject(CHILD));"));
+        assertTrue(codec.contains("model.setChildren(JSONUtils.readArray(object, CHILDREN, SampleFactory.getInstance()));"));
+        assertTrue(codec.contains("import com.example.json.SampleFactory;"));
+
+        /* Streaming read dispatches on keys. */
+        assertTrue(codec.contains("switch (reader.nextName()) {"));
+        assertTrue(codec.contains("model.setId(reader.nextLong());"));
+        assertTrue(codec.contains("model.setCount(JSONUtils.readInteger(reader));"));
+        assertTrue(codec.contains("reader.skipValue();"));
+        assertTrue(codec.contains("throws IOException, JSONException {"));
+
+        /* Writing, required and primitive fields are always written. */
+        assertTrue(codec.contains("writer.key(ID).value(model.getId());"));
+        assertTrue(codec.contains("writer.key(ENABLED).value(model.isEnabled());"));
+        assertTrue(codec.contains("JSONUtils.write(writer, NAME, model.getName());"));
+        assertTrue(codec.contains("writer.key(TIMESTAMP);\n            JSONDateUtils.write(writer, model.getTimestamp());"));
+        assertTrue(codec.contains("JSONUtils.writeStringArray(writer, TAGS, model.getTags());"));
+        assertTrue(codec.contains("JSONUtils.writeArray(writer, CHILDREN, model.getChildren());"));
+
+        /* Equals and hash code. */
+        assertTrue(codec.contains("if (Double.compare(model.getRatio(), that.getRatio()) != 0) {"));
+        assertTrue(codec.contains("if (model.getId() != that.getId()) {"));
+        assertTrue(codec.contains("result = 31 * result + (int) (model.getId() ^ (model.getId() >>> 32));"));
+        assertTrue(codec.contains("result = 31 * result + (model.isEnabled() ? 1 : 0);"));
+
+        /* Model factory. */
+        String factory = result.sources.get("com.example.json.SampleFactory");
+        assertNotNull(factory);
+        assertTrue(factory.contains("package com.example.json;"));
+        assertTrue(factory.contains("public class SampleFactory implements ModelFactory<Sample> {"));
+        assertTrue(factory.contains("public static SampleFactory getInstance() {"));
+        assertTrue(factory.contains("return new ArrayList<>(capacity);"));
+    }
+
+    @Test
+    public void generateLogFactory() throws IOException {
+        Result result = process("com.example.SampleLog", "package com.example;\n" + IMPORTS
+                + "@JsonModel public class SampleLog implements Log {}\n");
+        assertEquals(Collections.emptyList(), result.errors);
+        assertNull(result.sources.get("com.example.SampleLogCodec"));
+        String factory = result.sources.get("com.example.json.SampleLogFactory");
+        assertNotNull(factory);
+        assertTrue(factory.contains("public class SampleLogFactory extends AbstractLogFactory {"));
+        assertTrue(factory.contains("import com.microsoft.appcenter.ingestion.models.json.AbstractLogFactory;"));
+        assertTrue(factory.contains("public SampleLog create() {"));
+        assertFalse(factory.contains("createList"));
+    }
+
+    @Test
+    public void optionalStringsDoNotThrow() throws IOException {
+        Result result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel(factory = false) public class Sample implements Model {\n"
+                + "  @JsonField(\"name\") private String name;\n"
+                + "  public String getName() { return name; } public void setName(String name) { this.name = name; }\n"
+                + "}\n");
+        assertEquals(Collections.emptyList(), result.errors);
+        assertNull(result.sources.get("com.example.json.SampleFactory"));
+        String codec = result.sources.get("com.example.SampleCodec");
+        assertTrue(codec.contains("static void read(JSONObject object, Sample model) {"));
+        assertTrue(codec.contains("static void read(JsonReader reader, Sample model) throws IOException {"));
+    }
+
+    @Test
+    public void missingAccessor() throws IOException {
+        Result result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel public class Sample implements Model {\n"
+                + "  @JsonField(\"name\") private String name;\n"
+                + "  public String getName() { return name; }\n"
+                + "}\n");
+        assertEquals(Collections.singletonList("@JsonField needs getName and setName methods."), result.errors);
+        assertTrue(result.sources.isEmpty());
+    }
+
+    @Test
+    public void unsupportedType() throws IOException {
+        Result result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel public class Sample implements Model {\n"
+                + "  @JsonField(\"map\") private Map<String, String> map;\n"
+                + "  public Map<String, String> getMap() { return map; } public void setMap(Map<String, String> map) { this.map = map; }\n"
+                + "}\n");
+        assertEquals(1, result.errors.size());
+        assertTrue(result.errors.get(0).startsWith("Unsupported @JsonField type"));
+    }
+
+    @Test
+    public void duplicateKey() throws IOException {
+        Result result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel public class Sample implements Model {\n"
+                + "  @JsonField(\"name\") private String name;\n"
+                + "  @JsonField(\"name\") private String other;\n"
+                + "  public String getName() { return name; } public void setName(String name) { this.name = name; }\n"
+                + "  public String getOther() { return other; } public void setOther(String other) { this.other = other; }\n"
+                + "}\n");
+        assertEquals(Collections.singletonList("Duplicate JSON key \"name\"."), result.errors);
+    }
+
+    @Test
+    public void invalidModels() throws IOException {
+        Result result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel public class Sample {}\n");
+        assertEquals(Collections.singletonList("@JsonModel class must implement com.microsoft.appcenter.ingestion.models.Model."), result.errors);
+        result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "@JsonModel public abstract class Sample implements Log {}\n");
+        assertEquals(Collections.singletonList("Cannot generate the factory of an abstract class, use @JsonModel(factory = false)."), result.errors);
+        result = process("com.example.Sample", "package com.example;\n" + IMPORTS
+                + "public class Sample implements Model {\n"
+                + "  @JsonField(\"name\") private String name;\n"
+                + "}\n");
+        assertEquals(Collections.singletonList("@JsonField must be declared in a @JsonModel class."), result.errors);
+    }
+
+    @Test
+    public void constantNames() {
+        assertEquals("CLASS_NAME", ModelField.toConstantName("className"));
+        assertEquals("I_KEY", ModelField.toConstantName("iKey"));
+        assertEquals("TZ", ModelField.toConstantName("tz"));
+    }
+
+    @Test
+    public void literals() {
+        assertEquals("\"a\\\"b\\\\c\\u00e9\"", CodecWriter.literal("a\"b\\c\u00e9"));
+    }
+
+    private static class Result {
+
+        final List<String> errors = new ArrayList<>();
+
+        final Map<String, String> sources = new HashMap<>();
+    }
+
+    private static class SourceFile extends SimpleJavaFileObject {
+
+        private final String mSource;
+
+        SourceFile(String className, String source) {
+            super(URI.create("mem:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            mSource = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return mSource;
+        }
+    }
+}
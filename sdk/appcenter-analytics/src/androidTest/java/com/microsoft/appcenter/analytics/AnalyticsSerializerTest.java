@@ -131,8 +131,8 @@ public class AnalyticsSerializerTest {
             log.setDevice(device);
         }
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(StartSessionLog.TYPE, new StartSessionLogFactory());
-        serializer.addLogFactory(PageLog.TYPE, new PageLogFactory());
+        serializer.addLogFactory(StartSessionLog.TYPE, StartSessionLogFactory.getInstance());
+        serializer.addLogFactory(PageLog.TYPE, PageLogFactory.getInstance());
         serializer.addLogFactory(EventLog.TYPE, new EventLogFactory());
         String payload = serializer.serializeContainer(expectedContainer);
         android.util.Log.v(TAG, payload);
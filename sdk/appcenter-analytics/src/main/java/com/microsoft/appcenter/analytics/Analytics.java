@@ -16,6 +16,7 @@ import com.microsoft.appcenter.AbstractAppCenterService;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.UploadPolicy;
 import com.microsoft.appcenter.analytics.channel.AnalyticsListener;
 import com.microsoft.appcenter.analytics.channel.AnalyticsValidator;
 import com.microsoft.appcenter.analytics.channel.SessionTracker;
@@ -150,6 +151,11 @@ public class Analytics extends AbstractAppCenterService {
      */
     private long mTransmissionInterval;
 
+    /**
+     * Upload policy of events that are not critical, null to send them on every transmission interval.
+     */
+    private UploadPolicy mUploadPolicy;
+
     /**
      * Automatic page tracking flag.
      * TODO the backend does not support pages yet so the default value would be true after the service becomes public.
@@ -161,10 +167,10 @@ public class Analytics extends AbstractAppCenterService {
      */
     private Analytics() {
         mFactories = new HashMap<>();
-        mFactories.put(StartSessionLog.TYPE, new StartSessionLogFactory());
-        mFactories.put(PageLog.TYPE, new PageLogFactory());
+        mFactories.put(StartSessionLog.TYPE, StartSessionLogFactory.getInstance());
+        mFactories.put(PageLog.TYPE, PageLogFactory.getInstance());
         mFactories.put(EventLog.TYPE, new EventLogFactory());
-        mFactories.put(CommonSchemaEventLog.TYPE, new CommonSchemaEventLogFactory());
+        mFactories.put(CommonSchemaEventLog.TYPE, CommonSchemaEventLogFactory.getInstance());
         mTransmissionTargets = new HashMap<>();
         mTransmissionInterval = TimeUnit.SECONDS.toMillis(MINIMUM_TRANSMISSION_INTERVAL_IN_SECONDS);
     }
@@ -220,6 +226,18 @@ public class Analytics extends AbstractAppCenterService {
         return getInstance().setInstanceTransmissionInterval(seconds);
     }
 
+    /**
+     * Set the conditions to wait for before sending events, such as an unmetered network or the device charging.
+     * Events tracked with the {@link Flags#CRITICAL} flag are still sent right away.
+     * Should be called before the service is started.
+     *
+     * @param uploadPolicy the upload policy, null to send events on every transmission interval.
+     * @return <code>true</code> if the policy is set, <code>false</code> otherwise.
+     */
+    public static boolean setUploadPolicy(UploadPolicy uploadPolicy) {
+        return getInstance().setInstanceUploadPolicy(uploadPolicy);
+    }
+
     /**
      * Pauses log transmission. This API cannot be used if the service is disabled.
      * Transmission is resumed:
@@ -686,6 +704,16 @@ public class Analytics extends AbstractAppCenterService {
                     mAnalyticsListener.onSendingFailed(log, e);
                 }
             }
+
+            @Override
+            public boolean canSendWithoutCallbacks() {
+                return mAnalyticsListener == null;
+            }
+
+            @Override
+            public void onLogsEvicted(int count) {
+                AppCenterLog.warn(LOG_TAG, count + " analytics logs were deleted before being sent because storage is full.");
+            }
         };
     }
 
@@ -893,6 +921,7 @@ public class Analytics extends AbstractAppCenterService {
     public synchronized void onStarted(@NonNull Context context, @NonNull Channel channel, String appSecret, String transmissionTargetToken, boolean startedFromApp) {
         mContext = context;
         mStartedFromApp = startedFromApp;
+        channel.setUploadPolicy(ANALYTICS_GROUP, mUploadPolicy);
         super.onStarted(context, channel, appSecret, transmissionTargetToken, startedFromApp);
         setDefaultTransmissionTarget(transmissionTargetToken);
     }
@@ -938,6 +967,22 @@ public class Analytics extends AbstractAppCenterService {
         return true;
     }
 
+    /**
+     * Set the upload policy of events that are not critical.
+     * Should be called before the service is started.
+     *
+     * @param uploadPolicy the upload policy, can be null.
+     * @return <code>true</code> if the policy is set, <code>false</code> otherwise.
+     */
+    private synchronized boolean setInstanceUploadPolicy(UploadPolicy uploadPolicy) {
+        if (mChannel != null) {
+            AppCenterLog.error(LOG_TAG, "Upload policy should be set before the service is started.");
+            return false;
+        }
+        mUploadPolicy = uploadPolicy;
+        return true;
+    }
+
     /**
      * Post a command.
      *
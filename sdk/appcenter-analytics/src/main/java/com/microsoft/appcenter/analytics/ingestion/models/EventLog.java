@@ -5,6 +5,8 @@
 
 package com.microsoft.appcenter.analytics.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
 import com.microsoft.appcenter.ingestion.models.properties.TypedPropertyUtils;
@@ -13,6 +15,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
 
@@ -85,6 +88,18 @@ public class EventLog extends LogWithNameAndProperties {
         setTypedProperties(TypedPropertyUtils.read(object));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (ID.equals(name)) {
+            setId(UUID.fromString(reader.nextString()));
+        } else if (TYPED_PROPERTIES.equals(name)) {
+            setTypedProperties(TypedPropertyUtils.read(reader));
+        } else {
+            return super.readField(reader, name);
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
@@ -5,12 +5,16 @@
 
 package com.microsoft.appcenter.analytics.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
 
 public abstract class LogWithNameAndProperties extends LogWithProperties {
@@ -44,6 +48,15 @@ public abstract class LogWithNameAndProperties extends LogWithProperties {
         setName(object.getString(NAME));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (NAME.equals(name)) {
+            setName(reader.nextString());
+            return true;
+        }
+        return super.readField(reader, name);
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
@@ -5,9 +5,12 @@
 
 package com.microsoft.appcenter.analytics.ingestion.models;
 
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
+
 /**
  * Page log.
  */
+@JsonModel
 public class PageLog extends LogWithNameAndProperties {
 
     public static final String TYPE = "page";
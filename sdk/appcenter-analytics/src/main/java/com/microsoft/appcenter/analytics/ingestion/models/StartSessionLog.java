@@ -6,10 +6,12 @@
 package com.microsoft.appcenter.analytics.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 /**
  * Start session log.
  */
+@JsonModel
 public class StartSessionLog extends AbstractLog {
 
     public static final String TYPE = "startSession";
@@ -5,11 +5,13 @@
 
 package com.microsoft.appcenter.analytics.ingestion.models.one;
 
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 
 /**
  * Event log.
  */
+@JsonModel
 public class CommonSchemaEventLog extends CommonSchemaLog {
 
     /**
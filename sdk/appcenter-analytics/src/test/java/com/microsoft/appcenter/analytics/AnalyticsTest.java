@@ -9,6 +9,7 @@ import android.content.Context;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.UploadPolicy;
 import com.microsoft.appcenter.analytics.channel.AnalyticsListener;
 import com.microsoft.appcenter.analytics.channel.AnalyticsValidator;
 import com.microsoft.appcenter.analytics.channel.SessionTracker;
@@ -897,6 +898,21 @@ public class AnalyticsTest extends AbstractAnalyticsTest {
         assertFalse(result);
     }
 
+    @Test
+    public void setUploadPolicyBeforeStart() {
+        UploadPolicy uploadPolicy = new UploadPolicy(true, false, 0);
+        assertTrue(Analytics.setUploadPolicy(uploadPolicy));
+        Analytics analytics = Analytics.getInstance();
+        Channel channel = mock(Channel.class);
+        analytics.onStarting(mAppCenterHandler);
+        analytics.onStarted(mock(Context.class), channel, null, null, false);
+        verify(channel).setUploadPolicy(ANALYTICS_GROUP, uploadPolicy);
+        verify(channel, never()).setUploadPolicy(eq(ANALYTICS_CRITICAL_GROUP), any(UploadPolicy.class));
+
+        /* Too late after start. */
+        assertFalse(Analytics.setUploadPolicy(null));
+    }
+
     /**
      * Activity with page name automatically resolving to "My" (no "Activity" suffix).
      */
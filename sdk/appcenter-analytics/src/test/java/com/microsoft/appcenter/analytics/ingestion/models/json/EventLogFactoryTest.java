@@ -50,7 +50,7 @@ public class EventLogFactoryTest {
         /* Create event log with just a name and no target. */
         EventLog log = new EventLog();
         log.setName("test");
-        Collection<CommonSchemaLog> convertedLogs = new CommonSchemaEventLogFactory().toCommonSchemaLogs(log);
+        Collection<CommonSchemaLog> convertedLogs = CommonSchemaEventLogFactory.getInstance().toCommonSchemaLogs(log);
         assertNotNull(convertedLogs);
         assertEquals(0, convertedLogs.size());
     }
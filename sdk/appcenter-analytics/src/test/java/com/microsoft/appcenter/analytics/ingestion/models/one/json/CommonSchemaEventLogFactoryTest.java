@@ -16,7 +16,7 @@ public class CommonSchemaEventLogFactoryTest {
 
     @Test
     public void createEvent() {
-        CommonSchemaEventLog eventLog = new CommonSchemaEventLogFactory().create();
+        CommonSchemaEventLog eventLog = CommonSchemaEventLogFactory.getInstance().create();
         assertNotNull(eventLog);
         assertEquals(CommonSchemaEventLog.TYPE, eventLog.getType());
     }
@@ -37,6 +37,9 @@ public class ErrorModelTest {
         String payload = serializer.serializeLog(log);
         Log deSerializedLog = serializer.deserializeLog(payload, null);
         checkEquals(log, deSerializedLog);
+
+        /* Reading with the stored type streams the fields and must give the same log. */
+        checkEquals(log, serializer.deserializeLog(payload, log.getType()));
     }
 
     private static void checkSerializationThrowsException(Log log, LogSerializer serializer, Class expectedException) {
@@ -628,6 +631,16 @@ public class ErrorModelTest {
         } catch (JSONException e) {
             assertEquals("bad base-64", e.getMessage());
         }
+
+        /* Same error when streaming. */
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(ErrorAttachmentLog.TYPE, ErrorAttachmentLogFactory.getInstance());
+        try {
+            serializer.deserializeLog(json.toString(), ErrorAttachmentLog.TYPE);
+            Assert.fail("Expected json exception here");
+        } catch (JSONException e) {
+            assertEquals("bad base-64", e.getMessage());
+        }
     }
 
     private static class MockErrorLog extends AbstractErrorLog {
@@ -494,6 +494,18 @@ public class Crashes extends AbstractAppCenterService {
                     }
                 });
             }
+
+            @Override
+            public boolean canSendWithoutCallbacks() {
+
+                /* Stored throwables are cleaned up from callbacks. */
+                return false;
+            }
+
+            @Override
+            public void onLogsEvicted(int count) {
+                AppCenterLog.warn(LOG_TAG, count + " crash logs were deleted before being sent because storage is full.");
+            }
         };
     }
 
@@ -5,6 +5,8 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
@@ -13,6 +15,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.UUID;
 
@@ -288,6 +291,34 @@ public abstract class AbstractErrorLog extends AbstractLog {
         setArchitecture(object.optString(ARCHITECTURE, null));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (ID.equals(name)) {
+            setId(UUID.fromString(reader.nextString()));
+        } else if (PROCESS_ID.equals(name)) {
+            setProcessId(JSONUtils.readInteger(reader));
+        } else if (PROCESS_NAME.equals(name)) {
+            setProcessName(JSONUtils.readString(reader));
+        } else if (PARENT_PROCESS_ID.equals(name)) {
+            setParentProcessId(JSONUtils.readInteger(reader));
+        } else if (PARENT_PROCESS_NAME.equals(name)) {
+            setParentProcessName(JSONUtils.readString(reader));
+        } else if (ERROR_THREAD_ID.equals(name)) {
+            setErrorThreadId(JSONUtils.readLong(reader));
+        } else if (ERROR_THREAD_NAME.equals(name)) {
+            setErrorThreadName(JSONUtils.readString(reader));
+        } else if (FATAL.equals(name)) {
+            setFatal(JSONUtils.readBoolean(reader));
+        } else if (APP_LAUNCH_TIMESTAMP.equals(name)) {
+            setAppLaunchTimestamp(JSONDateUtils.toDate(reader.nextString()));
+        } else if (ARCHITECTURE.equals(name)) {
+            setArchitecture(JSONUtils.readString(reader));
+        } else {
+            return super.readField(reader, name);
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
@@ -299,7 +330,8 @@ public abstract class AbstractErrorLog extends AbstractLog {
         JSONUtils.write(writer, ERROR_THREAD_ID, getErrorThreadId());
         JSONUtils.write(writer, ERROR_THREAD_NAME, getErrorThreadName());
         JSONUtils.write(writer, FATAL, getFatal());
-        JSONUtils.write(writer, APP_LAUNCH_TIMESTAMP, JSONDateUtils.toString(getAppLaunchTimestamp()));
+        writer.key(APP_LAUNCH_TIMESTAMP);
+        JSONDateUtils.write(writer, getAppLaunchTimestamp());
         JSONUtils.write(writer, ARCHITECTURE, getArchitecture());
     }
 
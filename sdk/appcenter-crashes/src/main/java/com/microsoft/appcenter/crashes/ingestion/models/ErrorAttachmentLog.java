@@ -7,14 +7,17 @@ package com.microsoft.appcenter.crashes.ingestion.models;
 
 import android.support.annotation.VisibleForTesting;
 import android.util.Base64;
+import android.util.JsonReader;
 
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.UUID;
@@ -24,6 +27,7 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.ID;
 /**
  * Error attachment log.
  */
+@JsonModel
 public class ErrorAttachmentLog extends AbstractLog {
 
     /**
@@ -218,6 +222,28 @@ public class ErrorAttachmentLog extends AbstractLog {
         }
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (ID.equals(name)) {
+            setId(UUID.fromString(reader.nextString()));
+        } else if (ERROR_ID.equals(name)) {
+            setErrorId(UUID.fromString(reader.nextString()));
+        } else if (CONTENT_TYPE.equals(name)) {
+            setContentType(reader.nextString());
+        } else if (FILE_NAME.equals(name)) {
+            setFileName(JSONUtils.readString(reader));
+        } else if (DATA.equals(name)) {
+            try {
+                setData(Base64.decode(reader.nextString(), Base64.DEFAULT));
+            } catch (IllegalArgumentException e) {
+                throw new JSONException(e.getMessage());
+            }
+        } else {
+            return super.readField(reader, name);
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
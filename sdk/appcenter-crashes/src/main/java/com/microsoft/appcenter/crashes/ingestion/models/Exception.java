@@ -5,15 +5,17 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
-import com.microsoft.appcenter.crashes.ingestion.models.json.ExceptionFactory;
-import com.microsoft.appcenter.crashes.ingestion.models.json.StackFrameFactory;
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.List;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.FRAMES;
@@ -22,41 +24,37 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.TYPE;
 /**
  * The Exception model.
  */
-public class Exception implements Model {
-
-    private static final String MESSAGE = "message";
-
-    private static final String STACK_TRACE = "stackTrace";
-
-    private static final String INNER_EXCEPTIONS = "innerExceptions";
-
-    private static final String WRAPPER_SDK_NAME = "wrapperSdkName";
-
-    private static final String MINIDUMP_FILE_PATH = "minidumpFilePath";
+@JsonModel
+public class Exception implements Model.StreamingModel {
 
     /**
      * Exception type (fully qualified class name).
      */
+    @JsonField(TYPE)
     private String type;
 
     /**
      * Exception message.
      */
+    @JsonField("message")
     private String message;
 
     /**
      * Raw stack trace. Sent when the frames property is either missing or unreliable (used for Xamarin exceptions).
      */
+    @JsonField("stackTrace")
     private String stackTrace;
 
     /**
      * Exception stack trace elements.
      */
+    @JsonField(FRAMES)
     private List<StackFrame> frames;
 
     /**
      * Inner exceptions of this exception.
      */
+    @JsonField("innerExceptions")
     private List<Exception> innerExceptions;
 
     /**
@@ -64,12 +62,14 @@ public class Exception implements Model {
      * Consists of the name of the SDK and the wrapper platform,
      * e.g. "appcenter.xamarin", "hockeysdk.cordova".
      */
+    @JsonField("wrapperSdkName")
     private String wrapperSdkName;
 
     /**
      * The path to the minidump file. Used for reports from the NDK.
      * This is stored locally but will not be sent to the server.
      */
+    @JsonField("minidumpFilePath")
     private String minidumpFilePath;
 
     /**
@@ -202,57 +202,26 @@ public class Exception implements Model {
 
     @Override
     public void read(JSONObject object) throws JSONException {
-        setType(object.optString(TYPE, null));
-        setMessage(object.optString(MESSAGE, null));
-        setStackTrace(object.optString(STACK_TRACE, null));
-        setFrames(JSONUtils.readArray(object, FRAMES, StackFrameFactory.getInstance()));
-        setInnerExceptions(JSONUtils.readArray(object, INNER_EXCEPTIONS, ExceptionFactory.getInstance()));
-        setWrapperSdkName(object.optString(WRAPPER_SDK_NAME, null));
-        setMinidumpFilePath(object.optString(MINIDUMP_FILE_PATH, null));
+        ExceptionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        ExceptionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, TYPE, getType());
-        JSONUtils.write(writer, MESSAGE, getMessage());
-        JSONUtils.write(writer, STACK_TRACE, getStackTrace());
-        JSONUtils.writeArray(writer, FRAMES, getFrames());
-        JSONUtils.writeArray(writer, INNER_EXCEPTIONS, getInnerExceptions());
-        JSONUtils.write(writer, WRAPPER_SDK_NAME, getWrapperSdkName());
-        JSONUtils.write(writer, MINIDUMP_FILE_PATH, getMinidumpFilePath());
+        ExceptionCodec.write(writer, this);
     }
 
-    @SuppressWarnings("EqualsReplaceableByObjectsCall")
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        Exception exception = (Exception) o;
-
-        if (type != null ? !type.equals(exception.type) : exception.type != null) return false;
-        if (message != null ? !message.equals(exception.message) : exception.message != null)
-            return false;
-        if (stackTrace != null ? !stackTrace.equals(exception.stackTrace) : exception.stackTrace != null)
-            return false;
-        if (frames != null ? !frames.equals(exception.frames) : exception.frames != null)
-            return false;
-        if (innerExceptions != null ? !innerExceptions.equals(exception.innerExceptions) : exception.innerExceptions != null)
-            return false;
-        if (wrapperSdkName != null ? !wrapperSdkName.equals(exception.wrapperSdkName) : exception.wrapperSdkName != null)
-            return false;
-        return minidumpFilePath != null ? minidumpFilePath.equals(exception.minidumpFilePath) : exception.minidumpFilePath == null;
+        return ExceptionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        int result = type != null ? type.hashCode() : 0;
-        result = 31 * result + (message != null ? message.hashCode() : 0);
-        result = 31 * result + (stackTrace != null ? stackTrace.hashCode() : 0);
-        result = 31 * result + (frames != null ? frames.hashCode() : 0);
-        result = 31 * result + (innerExceptions != null ? innerExceptions.hashCode() : 0);
-        result = 31 * result + (wrapperSdkName != null ? wrapperSdkName.hashCode() : 0);
-        result = 31 * result + (minidumpFilePath != null ? minidumpFilePath.hashCode() : 0);
-        return result;
+        return ExceptionCodec.hashCode(this);
     }
 }
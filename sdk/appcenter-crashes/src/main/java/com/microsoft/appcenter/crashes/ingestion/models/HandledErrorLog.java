@@ -5,12 +5,16 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.ID;
@@ -18,6 +22,7 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.ID;
 /**
  * Handled Error log for managed platforms (such as Xamarin, Unity, Android Dalvik/ART).
  */
+@JsonModel
 public class HandledErrorLog extends LogWithProperties {
 
     /**
@@ -94,6 +99,20 @@ public class HandledErrorLog extends LogWithProperties {
         }
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (ID.equals(name)) {
+            setId(UUID.fromString(reader.nextString()));
+        } else if (EXCEPTION.equals(name)) {
+            Exception exception = new Exception();
+            exception.read(reader);
+            setException(exception);
+        } else {
+            return super.readField(reader, name);
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
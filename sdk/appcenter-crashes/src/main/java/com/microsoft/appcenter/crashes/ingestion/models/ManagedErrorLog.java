@@ -5,18 +5,23 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.crashes.ingestion.models.json.ThreadFactory;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
  * Error log for managed platforms (such as Android Dalvik).
  */
+@JsonModel
 public class ManagedErrorLog extends AbstractErrorLog {
 
     /**
@@ -91,6 +96,20 @@ public class ManagedErrorLog extends AbstractErrorLog {
         setThreads(JSONUtils.readArray(object, THREADS, ThreadFactory.getInstance()));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (EXCEPTION.equals(name)) {
+            Exception exception = new Exception();
+            exception.read(reader);
+            setException(exception);
+        } else if (THREADS.equals(name)) {
+            setThreads(JSONUtils.readArray(reader, ThreadFactory.getInstance()));
+        } else {
+            return super.readField(reader, name);
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
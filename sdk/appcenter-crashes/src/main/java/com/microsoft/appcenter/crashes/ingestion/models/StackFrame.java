@@ -5,48 +5,50 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * The StackFrame model.
  */
-public class StackFrame implements Model {
-
-    private static final String CLASS_NAME = "className";
-
-    private static final String METHOD_NAME = "methodName";
-
-    private static final String LINE_NUMBER = "lineNumber";
-
-    private static final String FILE_NAME = "fileName";
+@JsonModel
+public class StackFrame implements Model.StreamingModel {
 
     /**
      * The fully qualified name of the Class containing the execution point
      * represented by this stack trace element.
      */
+    @JsonField("className")
     private String className;
 
     /**
      * The name of the method containing the execution point represented by
      * this stack trace element.
      */
+    @JsonField("methodName")
     private String methodName;
 
     /**
      * The line number of the source line containing the execution point
      * represented by this stack trace element.
      */
+    @JsonField("lineNumber")
     private Integer lineNumber;
 
     /**
      * The name of the file containing the execution point represented by this
      * stack trace element.
      */
+    @JsonField("fileName")
     private String fileName;
 
     /**
@@ -123,48 +125,26 @@ public class StackFrame implements Model {
 
     @Override
     public void read(JSONObject object) throws JSONException {
-        setClassName(object.optString(CLASS_NAME, null));
-        setMethodName(object.optString(METHOD_NAME, null));
-        setLineNumber(JSONUtils.readInteger(object, LINE_NUMBER));
-        setFileName(object.optString(FILE_NAME, null));
+        StackFrameCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        StackFrameCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, CLASS_NAME, getClassName());
-        JSONUtils.write(writer, METHOD_NAME, getMethodName());
-        JSONUtils.write(writer, LINE_NUMBER, getLineNumber());
-        JSONUtils.write(writer, FILE_NAME, getFileName());
+        StackFrameCodec.write(writer, this);
     }
 
     @Override
-    @SuppressWarnings("SimplifiableIfStatement")
     public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if (o == null || getClass() != o.getClass()) {
-            return false;
-        }
-        StackFrame that = (StackFrame) o;
-        if (className != null ? !className.equals(that.className) : that.className != null) {
-            return false;
-        }
-        if (methodName != null ? !methodName.equals(that.methodName) : that.methodName != null) {
-            return false;
-        }
-        if (lineNumber != null ? !lineNumber.equals(that.lineNumber) : that.lineNumber != null) {
-            return false;
-        }
-        return fileName != null ? fileName.equals(that.fileName) : that.fileName == null;
+        return StackFrameCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        int result = className != null ? className.hashCode() : 0;
-        result = 31 * result + (methodName != null ? methodName.hashCode() : 0);
-        result = 31 * result + (lineNumber != null ? lineNumber.hashCode() : 0);
-        result = 31 * result + (fileName != null ? fileName.hashCode() : 0);
-        return result;
+        return StackFrameCodec.hashCode(this);
     }
 }
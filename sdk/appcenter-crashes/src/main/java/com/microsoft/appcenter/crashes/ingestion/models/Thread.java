@@ -5,14 +5,17 @@
 
 package com.microsoft.appcenter.crashes.ingestion.models;
 
-import com.microsoft.appcenter.crashes.ingestion.models.json.StackFrameFactory;
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.List;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.FRAMES;
@@ -22,21 +25,25 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
 /**
  * The Thread model.
  */
-public class Thread implements Model {
+@JsonModel
+public class Thread implements Model.StreamingModel {
 
     /**
      * Thread identifier.
      */
+    @JsonField(value = ID, required = true)
     private long id;
 
     /**
      * Thread name.
      */
+    @JsonField(NAME)
     private String name;
 
     /**
      * Stack frames.
      */
+    @JsonField(FRAMES)
     private List<StackFrame> frames;
 
     /**
@@ -95,42 +102,26 @@ public class Thread implements Model {
 
     @Override
     public void read(JSONObject object) throws JSONException {
-        setId(object.getLong(ID));
-        setName(object.optString(NAME, null));
-        setFrames(JSONUtils.readArray(object, FRAMES, StackFrameFactory.getInstance()));
+        ThreadCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        ThreadCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, ID, getId());
-        JSONUtils.write(writer, NAME, getName());
-        JSONUtils.writeArray(writer, FRAMES, getFrames());
+        ThreadCodec.write(writer, this);
     }
 
     @Override
-    @SuppressWarnings("SimplifiableIfStatement")
     public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if (o == null || getClass() != o.getClass()) {
-            return false;
-        }
-        Thread that = (Thread) o;
-        if (id != that.id) {
-            return false;
-        }
-        if (name != null ? !name.equals(that.name) : that.name != null) {
-            return false;
-        }
-        return frames != null ? frames.equals(that.frames) : that.frames == null;
+        return ThreadCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        int result = (int) (id ^ (id >>> 32));
-        result = 31 * result + (name != null ? name.hashCode() : 0);
-        result = 31 * result + (frames != null ? frames.hashCode() : 0);
-        return result;
+        return ThreadCodec.hashCode(this);
     }
 }
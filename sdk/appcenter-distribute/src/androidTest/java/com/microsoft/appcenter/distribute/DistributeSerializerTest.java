@@ -41,7 +41,7 @@ public class DistributeSerializerTest {
 
         /* Serialize and deserialize logs container. */
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(DistributionStartSessionLog.TYPE, new DistributionStartSessionLogFactory());
+        serializer.addLogFactory(DistributionStartSessionLog.TYPE, DistributionStartSessionLogFactory.getInstance());
         String payload = serializer.serializeContainer(expectedContainer);
         LogContainer actualContainer = serializer.deserializeContainer(payload, null);
 
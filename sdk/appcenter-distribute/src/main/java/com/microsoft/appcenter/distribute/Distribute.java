@@ -306,7 +306,7 @@ public class Distribute extends AbstractAppCenterService {
      */
     private Distribute() {
         mFactories = new HashMap<>();
-        mFactories.put(DistributionStartSessionLog.TYPE, new DistributionStartSessionLogFactory());
+        mFactories.put(DistributionStartSessionLog.TYPE, DistributionStartSessionLogFactory.getInstance());
     }
 
     /**
@@ -6,10 +6,12 @@
 package com.microsoft.appcenter.distribute.ingestion.models;
 
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 /**
  * Distribution start session log.
  */
+@JsonModel
 public class DistributionStartSessionLog extends AbstractLog {
 
     public static final String TYPE = "distributionStartSession";
@@ -41,7 +41,7 @@ public class PushSerializerTest {
         }
 
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(PushInstallationLog.TYPE, new PushInstallationLogFactory());
+        serializer.addLogFactory(PushInstallationLog.TYPE, PushInstallationLogFactory.getInstance());
         String payload = serializer.serializeContainer(expectedContainer);
         LogContainer actualContainer = serializer.deserializeContainer(payload, null);
         Assert.assertEquals(expectedContainer, actualContainer);
@@ -131,7 +131,7 @@ public class Push extends AbstractAppCenterService {
      */
     private Push() {
         mFactories = new HashMap<>();
-        mFactories.put(PushInstallationLog.TYPE, new PushInstallationLogFactory());
+        mFactories.put(PushInstallationLog.TYPE, PushInstallationLogFactory.getInstance());
     }
 
     /**
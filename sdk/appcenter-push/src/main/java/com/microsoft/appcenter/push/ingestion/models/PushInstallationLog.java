@@ -5,16 +5,22 @@
 
 package com.microsoft.appcenter.push.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * Push installation log.
  */
 
+@JsonModel
 public class PushInstallationLog extends AbstractLog {
 
     public static final String TYPE = "pushInstallation";
@@ -55,6 +61,15 @@ public class PushInstallationLog extends AbstractLog {
         setPushToken(object.getString(PUSH_TOKEN));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (PUSH_TOKEN.equals(name)) {
+            setPushToken(reader.nextString());
+            return true;
+        }
+        return super.readField(reader, name);
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
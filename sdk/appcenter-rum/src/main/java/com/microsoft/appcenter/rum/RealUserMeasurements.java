@@ -13,12 +13,10 @@ import android.util.Log;
 import com.microsoft.appcenter.AbstractAppCenterService;
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.channel.Channel;
-import com.microsoft.appcenter.http.DefaultHttpClient;
 import com.microsoft.appcenter.http.HttpClient;
-import com.microsoft.appcenter.http.HttpClientNetworkStateHandler;
+import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.utils.AppCenterLog;
-import com.microsoft.appcenter.utils.NetworkStateHelper;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 
 import org.json.JSONArray;
@@ -27,6 +25,7 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.net.URL;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -121,7 +120,7 @@ public class RealUserMeasurements extends AbstractAppCenterService {
     /**
      * HTTP client.
      */
-    private HttpClientNetworkStateHandler mHttpClient;
+    private HttpClient mHttpClient;
 
     /**
      * Rum configuration.
@@ -222,8 +221,7 @@ public class RealUserMeasurements extends AbstractAppCenterService {
             }
 
             /* Configure HTTP client with no retries but handling network state. */
-            NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(mContext);
-            mHttpClient = new HttpClientNetworkStateHandler(new DefaultHttpClient(), networkStateHelper);
+            mHttpClient = HttpUtils.createHttpClientWithoutRetries(mContext);
 
             /* Get configuration. */
             getConfiguration(0, rumKey, mHttpClient);
@@ -457,7 +455,7 @@ public class RealUserMeasurements extends AbstractAppCenterService {
                 reportUrl = String.format(REPORT_URL_FORMAT, reportUrl, reportId, rumKey, parameters);
                 final String finalReportUrl = reportUrl;
                 AppCenterLog.verbose(LOG_TAG, "Calling " + finalReportUrl);
-                mHttpClient.callAsync(finalReportUrl, METHOD_GET, HEADERS, null, new ServiceCallback() {
+                mHttpClient.callAsync(finalReportUrl, METHOD_GET, HEADERS, new ReportCallTemplate(reportId), new ServiceCallback() {
 
                     @Override
                     public void onCallSucceeded(String payload, Map<String, String> headers) {
@@ -537,4 +535,36 @@ public class RealUserMeasurements extends AbstractAppCenterService {
             this.conn = conn;
         }
     }
+
+    /**
+     * Report call template, the report is stored while offline so that measurements are not lost if the process dies.
+     */
+    private static class ReportCallTemplate implements HttpClient.PersistableCallTemplate {
+
+        /**
+         * Report identifier, reports to other endpoints replace the stored one.
+         */
+        private final String mReportId;
+
+        /**
+         * Init.
+         */
+        ReportCallTemplate(String reportId) {
+            mReportId = reportId;
+        }
+
+        @Override
+        public String getRequestKey() {
+            return SERVICE_NAME + ".report." + mReportId;
+        }
+
+        @Override
+        public String buildRequestBody() {
+            return null;
+        }
+
+        @Override
+        public void onBeforeCalling(URL url, Map<String, String> headers) {
+        }
+    }
 }
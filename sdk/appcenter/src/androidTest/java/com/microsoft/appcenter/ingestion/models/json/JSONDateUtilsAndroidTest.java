@@ -5,16 +5,57 @@
 
 package com.microsoft.appcenter.ingestion.models.json;
 
+import android.util.Log;
+
 import org.json.JSONException;
 import org.junit.Test;
 
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @SuppressWarnings("unused")
 public class JSONDateUtilsAndroidTest {
 
+    /**
+     * Log tag for benchmark results.
+     */
+    private static final String TAG = "JSONDateUtils";
+
+    /**
+     * Characters used to corrupt dates.
+     */
+    private static final String FUZZ_CHARACTERS = "0123456789-T:.Z +";
+
+    /**
+     * The formatter the fast conversion must behave like.
+     */
+    private static DateFormat newReferenceFormat() {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+
+    private static void checkRoundTrip(DateFormat reference, long time) throws JSONException {
+        String expected = reference.format(new Date(time));
+        assertEquals(expected, JSONDateUtils.toString(time));
+        assertEquals(expected, JSONDateUtils.toString(new Date(time)));
+        assertEquals(time, JSONDateUtils.toTime(expected));
+        StreamingJSONStringer writer = new StreamingJSONStringer();
+        writer.array();
+        writer.dateValue(time).endArray();
+        assertEquals("[\"" + expected + "\"]", writer.toString());
+    }
+
     @Test
     public void utilsCoverage() {
         new JSONDateUtils();
@@ -30,12 +71,116 @@ public class JSONDateUtilsAndroidTest {
         assertEquals(date, dateParsed);
     }
 
+    @Test
+    public void formatAndParseBoundaries() throws JSONException {
+        DateFormat reference = newReferenceFormat();
+        long[] times = {
+                0, -1, 1, 999, 1000, 86399999, 86400000, -86400000, -86400001,
+                JSONDateUtils.MIN_TIME, JSONDateUtils.MIN_TIME - 1, JSONDateUtils.MAX_TIME, JSONDateUtils.MAX_TIME + 1,
+                951782400000L, 951868799999L, 951868800000L,
+                -2203977600000L, -2203891200000L,
+                4107542399999L, 4107542400000L
+        };
+        for (long time : times) {
+            checkRoundTrip(reference, time);
+        }
+        assertFalse(JSONDateUtils.format(JSONDateUtils.MIN_TIME - 1, new char[JSONDateUtils.DATE_LENGTH], 0));
+        assertFalse(JSONDateUtils.format(JSONDateUtils.MAX_TIME + 1, new char[JSONDateUtils.DATE_LENGTH], 0));
+        char[] buffer = new char[JSONDateUtils.DATE_LENGTH + 2];
+        assertTrue(JSONDateUtils.format(0, buffer, 1));
+        assertEquals("1970-01-01T00:00:00.000Z", new String(buffer, 1, JSONDateUtils.DATE_LENGTH));
+    }
+
+    @Test
+    public void fuzzFormatAndParse() throws JSONException {
+        DateFormat reference = newReferenceFormat();
+        Random random = new Random(42);
+        long range = JSONDateUtils.MAX_TIME - JSONDateUtils.MIN_TIME;
+        for (int i = 0; i < 100000; i++) {
+
+            /* Mostly dates in the fast range, with a few outside. */
+            long time = JSONDateUtils.MIN_TIME - range / 100 + (long) (random.nextDouble() * range * 1.02);
+            checkRoundTrip(reference, time);
+        }
+    }
+
+    @Test
+    public void fuzzParseCorruptedDates() {
+        DateFormat reference = newReferenceFormat();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            char[] date = reference.format(new Date(random.nextLong() % JSONDateUtils.MAX_TIME)).toCharArray();
+            for (int j = random.nextInt(3); j >= 0; j--) {
+                date[random.nextInt(date.length)] = FUZZ_CHARACTERS.charAt(random.nextInt(FUZZ_CHARACTERS.length()));
+            }
+            String value = new String(date);
+            Long expected;
+            try {
+                expected = reference.parse(value).getTime();
+            } catch (ParseException e) {
+                expected = null;
+            }
+            try {
+                long time = JSONDateUtils.toTime(value);
+                assertEquals(value, expected, Long.valueOf(time));
+            } catch (JSONException e) {
+                if (expected != null) {
+                    fail("Could not parse " + value);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() throws JSONException, ParseException {
+        DateFormat reference = newReferenceFormat();
+        long[] times = new long[100000];
+        Random random = new Random(42);
+        for (int i = 0; i < times.length; i++) {
+            times[i] = System.currentTimeMillis() - (long) (random.nextDouble() * 1000L * 60 * 60 * 24 * 365 * 10);
+        }
+        String[] strings = new String[times.length];
+
+        /* Measure the formatter. */
+        long start = System.nanoTime();
+        for (int i = 0; i < times.length; i++) {
+            strings[i] = reference.format(new Date(times[i]));
+        }
+        long referenceFormatTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (String string : strings) {
+            reference.parse(string);
+        }
+        long referenceParseTime = System.nanoTime() - start;
+
+        /* Measure the fast conversion. */
+        char[] buffer = new char[JSONDateUtils.DATE_LENGTH];
+        start = System.nanoTime();
+        for (long time : times) {
+            JSONDateUtils.format(time, buffer, 0);
+        }
+        long formatTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (String string : strings) {
+            JSONDateUtils.toTime(string);
+        }
+        long parseTime = System.nanoTime() - start;
+        Log.i(TAG, "Converted " + times.length + " dates: format " + referenceFormatTime / 1000000 + "ms with SimpleDateFormat, "
+                + formatTime / 1000000 + "ms in buffer; parse " + referenceParseTime / 1000000 + "ms with SimpleDateFormat, "
+                + parseTime / 1000000 + "ms fast.");
+    }
+
     @SuppressWarnings("ResultOfMethodCallIgnored")
     @Test(expected = JSONException.class)
     public void formatNullDate() throws JSONException {
         JSONDateUtils.toString(null);
     }
 
+    @Test(expected = JSONException.class)
+    public void writeNullDate() throws JSONException {
+        JSONDateUtils.write(new StreamingJSONStringer().array(), null);
+    }
+
     @Test(expected = JSONException.class)
     public void parseNullDate() throws JSONException {
         JSONDateUtils.toDate(null);
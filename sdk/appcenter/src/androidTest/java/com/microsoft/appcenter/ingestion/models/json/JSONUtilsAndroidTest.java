@@ -5,10 +5,12 @@
 
 package com.microsoft.appcenter.ingestion.models.json;
 
+import android.util.JsonReader;
 import android.util.Log;
 
 import com.microsoft.appcenter.AndroidTestUtils;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import org.json.JSONException;
@@ -16,6 +18,8 @@ import org.json.JSONObject;
 import org.json.JSONStringer;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -112,6 +116,39 @@ public class JSONUtilsAndroidTest {
         assertNull(writer.toString());
     }
 
+    @Test
+    public void readModelWithoutStreaming() throws JSONException, IOException {
+
+        /* Models implemented outside the SDK may only read JSON objects. */
+        final JSONObject[] readObject = new JSONObject[1];
+        Model model = new Model() {
+
+            @Override
+            public void read(JSONObject object) {
+                readObject[0] = object;
+            }
+
+            @Override
+            public void write(JSONStringer writer) {
+            }
+        };
+        JsonReader reader = new JsonReader(new StringReader("[{\"name\":\"value\",\"list\":[1]},2]"));
+        reader.beginArray();
+        JSONUtils.readModel(reader, model);
+        assertEquals("{\"name\":\"value\",\"list\":[1]}", readObject[0].toString());
+        assertEquals(2, reader.nextInt());
+
+        /* Streaming models read fields themselves. */
+        MockLog log = AndroidTestUtils.generateMockLog();
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        log.write(writer);
+        writer.endObject();
+        MockLog readLog = new MockLog();
+        JSONUtils.readModel(new JsonReader(new StringReader(writer.toString())), readLog);
+        assertEquals(log, readLog);
+    }
+
     @Test
     public void writeReadStringArray() throws JSONException {
 
@@ -14,6 +14,8 @@ import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import org.json.JSONException;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -25,6 +27,8 @@ import java.util.UUID;
 import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
 import static com.microsoft.appcenter.test.TestUtils.TAG;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 
@@ -54,6 +58,185 @@ public class LogSerializerAndroidTest {
         assertEquals(expectedContainer.hashCode(), actualContainer.hashCode());
     }
 
+    @Test
+    public void serializedLogs() throws JSONException {
+        LogContainer expectedContainer = new LogContainer();
+        List<Log> logs = new ArrayList<>();
+        logs.add(AndroidTestUtils.generateMockLog());
+        logs.add(AndroidTestUtils.generateMockLog());
+        expectedContainer.setLogs(logs);
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Serialized logs are copied in the container payload, which is the same as serializing objects. */
+        List<String> serializedLogs = new ArrayList<>();
+        for (Log log : logs) {
+            serializedLogs.add(serializer.serializeLog(log));
+        }
+        LogContainer serializedContainer = new LogContainer();
+        serializedContainer.setSerializedLogs(serializedLogs);
+        String payload = serializer.serializeContainer(serializedContainer);
+        android.util.Log.v(TAG, payload);
+        assertEquals(serializer.serializeContainer(expectedContainer), payload);
+        LogContainer actualContainer = serializer.deserializeContainer(payload, null);
+        assertEquals(expectedContainer, actualContainer);
+    }
+
+    @Test
+    public void streamContainer() throws JSONException, IOException {
+        LogContainer container = new LogContainer();
+        List<Log> logs = new ArrayList<>();
+        logs.add(AndroidTestUtils.generateMockLog());
+        logs.add(AndroidTestUtils.generateMockLog());
+        container.setLogs(logs);
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Streaming writes the same payload, with log objects or serialized logs. */
+        StringWriter writer = new StringWriter();
+        serializer.serializeContainer(container, writer);
+        assertEquals(serializer.serializeContainer(container), writer.toString());
+        List<String> serializedLogs = new ArrayList<>();
+        for (Log log : logs) {
+            serializedLogs.add(serializer.serializeLog(log));
+        }
+        LogContainer serializedContainer = new LogContainer();
+        serializedContainer.setSerializedLogs(serializedLogs);
+        writer = new StringWriter();
+        serializer.serializeContainer(serializedContainer, writer);
+        assertEquals(serializer.serializeContainer(container), writer.toString());
+
+        /* Empty container. */
+        writer = new StringWriter();
+        container.setLogs(Collections.<Log>emptyList());
+        serializer.serializeContainer(container, writer);
+        assertEquals(serializer.serializeContainer(container), writer.toString());
+    }
+
+    @Test
+    public void binaryLogs() throws JSONException {
+        CustomPropertiesLog customPropertiesLog = new CustomPropertiesLog();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("t1", "test");
+        properties.put("t2", new Date(0));
+        properties.put("t3", 0);
+        properties.put("t4", 1.5);
+        properties.put("t5", false);
+
+        //noinspection ConstantConditions
+        properties.put("t6", null);
+        customPropertiesLog.setProperties(properties);
+        customPropertiesLog.setTimestamp(new Date());
+        List<Log> logs = new ArrayList<>();
+        logs.add(AndroidTestUtils.generateMockLog());
+        logs.add(customPropertiesLog);
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
+        for (Log log : logs) {
+
+            /* Binary payload is converted to the same JSON text and reads back the same log. */
+            byte[] binaryPayload = serializer.serializeLogToBinary(log);
+            String payload = serializer.serializeLog(log);
+            assertEquals(payload, BinaryJSONReader.toJson(binaryPayload));
+            assertEquals(log, serializer.deserializeLog(binaryPayload, null));
+            assertEquals(log, serializer.deserializeLog(binaryPayload, log.getType()));
+            assertTrue(binaryPayload.length < payload.length());
+        }
+    }
+
+    @Test
+    public void compareBinaryAndJsonFormats() throws JSONException {
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+
+        /* Warm up then measure both formats, results are only logged as timings are not reliable on emulators. */
+        long jsonSize = 0;
+        long binarySize = 0;
+        long jsonTime = 0;
+        long binaryTime = 0;
+        for (int run = 0; run < 2; run++) {
+            jsonSize = 0;
+            binarySize = 0;
+            long start = System.nanoTime();
+            for (Log log : logs) {
+                String payload = serializer.serializeLog(log);
+                serializer.deserializeLog(payload, null);
+                jsonSize += payload.length();
+            }
+            jsonTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (Log log : logs) {
+                byte[] payload = serializer.serializeLogToBinary(log);
+                serializer.deserializeLog(payload, null);
+                binarySize += payload.length;
+            }
+            binaryTime = System.nanoTime() - start;
+        }
+        android.util.Log.i(TAG, "JSON: " + jsonSize + " bytes, " + jsonTime / 1000 + "us; binary: " + binarySize + " bytes, " + binaryTime / 1000 + "us.");
+        assertTrue(binarySize < jsonSize);
+    }
+
+    @Test
+    public void streamedLogs() throws JSONException {
+        CustomPropertiesLog customPropertiesLog = new CustomPropertiesLog();
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("t1", "test");
+        properties.put("t2", new Date(0));
+        properties.put("t3", 0);
+        properties.put("t4", 1.5);
+
+        //noinspection ConstantConditions
+        properties.put("t5", null);
+        customPropertiesLog.setProperties(properties);
+        customPropertiesLog.setTimestamp(new Date());
+        StartServiceLog startServiceLog = new StartServiceLog();
+        startServiceLog.setServices(Collections.singletonList("FIRST"));
+        startServiceLog.setTimestamp(new Date());
+        List<Log> logs = new ArrayList<>();
+        logs.add(AndroidTestUtils.generateMockLog());
+        logs.add(customPropertiesLog);
+        logs.add(startServiceLog);
+        LogSerializer serializer = new DefaultLogSerializer();
+        serializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
+        serializer.addLogFactory(StartServiceLog.TYPE, StartServiceLogFactory.getInstance());
+        for (Log log : logs) {
+
+            /* Reading with the stored type streams the fields and gives the same log as reading the object. */
+            String payload = serializer.serializeLog(log);
+            assertEquals(log, serializer.deserializeLog(payload, log.getType()));
+            assertEquals(serializer.deserializeLog(payload, null), serializer.deserializeLog(payload, log.getType()));
+        }
+
+        /* Unknown fields are skipped. */
+        String payload = serializer.serializeLog(startServiceLog);
+        String extended = "{\"unknown\":{\"a\":[1,true,null]}," + payload.substring(1);
+        assertEquals(startServiceLog, serializer.deserializeLog(extended, StartServiceLog.TYPE));
+
+        /* Invalid payloads. */
+        String[] invalidPayloads = {
+                payload.substring(0, payload.length() - 1),
+                payload + "{}",
+                payload.replace(StartServiceLog.TYPE, MOCK_LOG_TYPE),
+                "{\"type\":\"startService\"}",
+                "[]"
+        };
+        for (String invalidPayload : invalidPayloads) {
+            try {
+                serializer.deserializeLog(invalidPayload, StartServiceLog.TYPE);
+                fail("Expected JSONException for " + invalidPayload);
+            } catch (JSONException ignore) {
+
+                /* Expected. */
+            }
+        }
+    }
+
     @Test(expected = JSONException.class)
     public void deserializeUnknownType() throws JSONException {
         MockLog log = AndroidTestUtils.generateMockLog();
@@ -77,7 +260,7 @@ public class LogSerializerAndroidTest {
 
         /* Verify serialize and deserialize. */
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
+        serializer.addLogFactory(StartServiceLog.TYPE, StartServiceLogFactory.getInstance());
         String payload = serializer.serializeLog(log);
         Log actualContainer = serializer.deserializeLog(payload, null);
         assertEquals(log, actualContainer);
@@ -116,7 +299,7 @@ public class LogSerializerAndroidTest {
 
         /* Verify serialize and deserialize. */
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
         String payload = serializer.serializeLog(log);
         Log actualContainer = serializer.deserializeLog(payload, null);
         assertEquals(log, actualContainer);
@@ -125,7 +308,7 @@ public class LogSerializerAndroidTest {
     @Test(expected = JSONException.class)
     public void deserializeWithoutProperties() throws JSONException {
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
         serializer.deserializeLog("{" +
                 "\"type\": \"customProperties\"," +
                 "\"timestamp\": \"2017-07-08T00:32:58.123Z\"" +
@@ -135,7 +318,7 @@ public class LogSerializerAndroidTest {
     @Test(expected = JSONException.class)
     public void deserializeWithInvalidType() throws JSONException {
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
         serializer.deserializeLog("{" +
                 "\"type\": \"customProperties\"," +
                 "\"timestamp\": \"2017-07-08T00:32:58.123Z\"," +
@@ -146,7 +329,7 @@ public class LogSerializerAndroidTest {
     @Test(expected = JSONException.class)
     public void deserializeWithInvalidDate() throws JSONException {
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
         serializer.deserializeLog("{" +
                 "\"type\": \"customProperties\"," +
                 "\"timestamp\": \"2017-07-08T00:32:58.123Z\"," +
@@ -157,7 +340,7 @@ public class LogSerializerAndroidTest {
     @Test(expected = JSONException.class)
     public void deserializeWithInvalidNumber() throws JSONException {
         LogSerializer serializer = new DefaultLogSerializer();
-        serializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
+        serializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
         serializer.deserializeLog("{" +
                 "\"type\": \"customProperties\"," +
                 "\"timestamp\": \"2017-07-08T00:32:58.123Z\"," +
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.ingestion.models.one.AppExtension;
+import com.microsoft.appcenter.ingestion.models.one.Data;
+import com.microsoft.appcenter.ingestion.models.one.Extensions;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+@SuppressWarnings("unused")
+public class StreamingJSONStringerAndroidTest {
+
+    private static JSONStringer writeSample(JSONStringer writer) throws JSONException {
+        writer.object();
+        writer.key("type").value("event");
+        writer.key("name").value("a \"quoted\"\n/name\\\u0001\u001f\t\b\r\f");
+        writer.key("count").value(42);
+        writer.key("negative").value(-1L);
+        writer.key("max").value(Long.MAX_VALUE);
+        writer.key("min").value(Long.MIN_VALUE);
+        writer.key("double").value(1.5);
+        writer.key("whole").value(2.0);
+        writer.key("large").value(1e20);
+        writer.key("small").value(-1.25e-7);
+        writer.key("negativeZero").value(-0d);
+        writer.key("boxedInteger").value((Object) 7);
+        writer.key("boxedDouble").value((Object) 3.0);
+        writer.key("boxedFloat").value((Object) 0.5f);
+        writer.key("boxedNegativeZero").value((Object) (-0d));
+        writer.key("enabled").value(true);
+        writer.key("disabled").value((Object) false);
+        writer.key("nothing").value(null);
+        writer.key("jsonNull").value(JSONObject.NULL);
+        writer.key("unicode").value("é€😀");
+        writer.key("object").value(new JSONObject().put("a", 1).put("b", new JSONArray().put("c").put(2.5)));
+        writer.key("empty").object().endObject();
+        writer.key("frames").array();
+        writer.object().key("name").value("event").endObject();
+        writer.array().endArray();
+        writer.value(12);
+        writer.endArray();
+        writer.endObject();
+        return writer;
+    }
+
+    @Test
+    public void sameTextAsJSONStringer() throws JSONException {
+        assertEquals(writeSample(new JSONStringer()).toString(), writeSample(new StreamingJSONStringer()).toString());
+    }
+
+    @Test
+    public void sameTextAsJSONStringerForLongStrings() throws JSONException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            builder.append((char) (i % 130));
+        }
+        String value = builder.toString();
+        JSONStringer expected = new JSONStringer().array().value(value).endArray();
+        JSONStringer actual = new StreamingJSONStringer().array().value(value).endArray();
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void sameTextAsJSONStringerForCommonSchemaLog() throws JSONException {
+        MockCommonSchemaLog log = new MockCommonSchemaLog();
+        log.setVer("3.0");
+        log.setName("test/name");
+        log.setTimestamp(new Date(123456789L));
+        log.setIKey("o:key");
+        log.setFlags(2L);
+        log.setExt(new Extensions());
+        log.getExt().setApp(new AppExtension());
+        log.getExt().getApp().setId("a:com.example");
+        log.setData(new Data());
+        log.getData().getProperties().put("baseType", "type");
+        log.getData().getProperties().put("nested", new JSONObject().put("value", 1.5).put("flag", true));
+        JSONStringer expected = new JSONStringer().object();
+        log.write(expected);
+        expected.endObject();
+        StreamingJSONStringer actual = new StreamingJSONStringer();
+        actual.object();
+        log.write(actual);
+        actual.endObject();
+        assertEquals(expected.toString(), actual.toString());
+    }
+
+    @Test
+    public void sameTextAsJSONStringerForSerializedLogs() throws JSONException, IOException {
+        LogContainer container = AndroidTestUtils.generateMockLogContainer();
+        container.getLogs().add(AndroidTestUtils.generateMockLog());
+        JSONStringer expected = new JSONStringer().object().key("logs").array();
+        for (Log log : container.getLogs()) {
+            expected.object();
+            log.write(expected);
+            expected.endObject();
+        }
+        expected.endArray().endObject();
+        LogSerializer serializer = new DefaultLogSerializer();
+        assertEquals(expected.toString(), serializer.serializeContainer(container));
+        StringWriter writer = new StringWriter();
+        serializer.serializeContainer(container, writer);
+        assertEquals(expected.toString(), writer.toString());
+
+        /* Writer is reused between logs. */
+        Log log = container.getLogs().get(1);
+        JSONStringer expectedLog = new JSONStringer().object();
+        log.write(expectedLog);
+        expectedLog.endObject();
+        assertEquals(expectedLog.toString(), serializer.serializeLog(log));
+    }
+}
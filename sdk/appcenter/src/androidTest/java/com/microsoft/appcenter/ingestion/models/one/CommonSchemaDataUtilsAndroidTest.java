@@ -15,6 +15,7 @@ import com.microsoft.appcenter.ingestion.models.properties.TypedProperty;
 
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.util.ArrayList;
@@ -41,6 +42,18 @@ public class CommonSchemaDataUtilsAndroidTest {
         return stringTypedProperty;
     }
 
+    private static LongTypedProperty longTypedProperty(String key, long value) {
+        LongTypedProperty longTypedProperty = new LongTypedProperty();
+        longTypedProperty.setName(key);
+        longTypedProperty.setValue(value);
+        return longTypedProperty;
+    }
+
+    @Before
+    public void setUp() {
+        CommonSchemaDataUtils.clearShapeCache();
+    }
+
     @Test
     public void coverInit() {
         new CommonSchemaDataUtils();
@@ -569,4 +582,99 @@ public class CommonSchemaDataUtilsAndroidTest {
         assertEquals("Some.Type", log.getData().getProperties().optString("baseType"));
         assertNull(log.getExt().getMetadata());
     }
+
+    @Test
+    public void shapeCacheFillsValues() throws JSONException {
+        MockCommonSchemaLog firstLog = new MockCommonSchemaLog();
+        List<TypedProperty> properties = new ArrayList<>();
+        properties.add(typedProperty("baseType", "Some.Type"));
+        properties.add(longTypedProperty("baseData.a", 1));
+        properties.add(typedProperty("p.b", "first"));
+        CommonSchemaDataUtils.addCommonSchemaData(properties, firstLog);
+        assertEquals(0, CommonSchemaDataUtils.getShapeCacheHitCount());
+        assertEquals(1, CommonSchemaDataUtils.getShapeCacheMissCount());
+        assertEquals(0, CommonSchemaDataUtils.getShapeCacheHitRate(), 0);
+
+        /* Same names and types with other values reuse the shape. */
+        MockCommonSchemaLog secondLog = new MockCommonSchemaLog();
+        properties.clear();
+        properties.add(typedProperty("baseType", "Other.Type"));
+        properties.add(longTypedProperty("baseData.a", 2));
+        properties.add(typedProperty("p.b", "second"));
+        CommonSchemaDataUtils.addCommonSchemaData(properties, secondLog);
+        assertEquals(1, CommonSchemaDataUtils.getShapeCacheHitCount());
+        assertEquals(1, CommonSchemaDataUtils.getShapeCacheMissCount());
+        assertEquals(0.5, CommonSchemaDataUtils.getShapeCacheHitRate(), 0);
+        assertEquals(1, CommonSchemaDataUtils.getShapeCacheSize());
+
+        /* Check data. */
+        JSONObject data = secondLog.getData().getProperties();
+        assertEquals(3, data.length());
+        assertEquals("Other.Type", data.getString("baseType"));
+        assertEquals(2, data.getJSONObject("baseData").getLong("a"));
+        assertEquals("second", data.getJSONObject("p").getString("b"));
+        assertEquals("first", firstLog.getData().getProperties().getJSONObject("p").getString("b"));
+
+        /* Check metadata is the same but not shared. */
+        JSONObject expectedMetadata = new JSONObject();
+        JSONObject a = new JSONObject();
+        a.put("a", DATA_TYPE_INT64);
+        JSONObject baseData = new JSONObject();
+        baseData.put(METADATA_FIELDS, a);
+        JSONObject fields = new JSONObject();
+        fields.put("baseData", baseData);
+        expectedMetadata.put(METADATA_FIELDS, fields);
+        assertEquals(expectedMetadata.toString(), firstLog.getExt().getMetadata().getMetadata().toString());
+        assertEquals(expectedMetadata.toString(), secondLog.getExt().getMetadata().getMetadata().toString());
+        firstLog.getExt().getMetadata().getMetadata().getJSONObject(METADATA_FIELDS).remove("baseData");
+        assertEquals(expectedMetadata.toString(), secondLog.getExt().getMetadata().getMetadata().toString());
+        MockCommonSchemaLog thirdLog = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(properties, thirdLog);
+        assertEquals(expectedMetadata.toString(), thirdLog.getExt().getMetadata().getMetadata().toString());
+    }
+
+    @Test
+    public void shapeCacheKeyedByTypes() throws JSONException {
+        MockCommonSchemaLog log = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(Collections.<TypedProperty>singletonList(longTypedProperty("a", 1)), log);
+        assertNotNull(log.getExt());
+        log = new MockCommonSchemaLog();
+        CommonSchemaDataUtils.addCommonSchemaData(Collections.<TypedProperty>singletonList(typedProperty("a", "1")), log);
+        assertNull(log.getExt());
+        assertEquals("1", log.getData().getProperties().getString("a"));
+        assertEquals(0, CommonSchemaDataUtils.getShapeCacheHitCount());
+        assertEquals(2, CommonSchemaDataUtils.getShapeCacheMissCount());
+        assertEquals(2, CommonSchemaDataUtils.getShapeCacheSize());
+    }
+
+    @Test
+    public void shapeCacheSkipsMissingValues() throws JSONException {
+        for (int i = 0; i < 2; i++) {
+            MockCommonSchemaLog log = new MockCommonSchemaLog();
+            List<TypedProperty> properties = new ArrayList<>();
+            properties.add(typedProperty("a", "b"));
+            properties.add(typedProperty("d", null));
+            CommonSchemaDataUtils.addCommonSchemaData(properties, log);
+            assertEquals(1, log.getData().getProperties().length());
+            assertEquals("b", log.getData().getProperties().getString("a"));
+        }
+        assertEquals(0, CommonSchemaDataUtils.getShapeCacheHitCount());
+        assertEquals(0, CommonSchemaDataUtils.getShapeCacheMissCount());
+        assertEquals(0, CommonSchemaDataUtils.getShapeCacheSize());
+    }
+
+    @Test
+    public void shapeCacheEvictsLeastRecentlyUsed() {
+        for (int i = 0; i <= CommonSchemaDataUtils.SHAPE_CACHE_SIZE; i++) {
+            CommonSchemaDataUtils.addCommonSchemaData(Collections.<TypedProperty>singletonList(typedProperty("key" + i, "value")), new MockCommonSchemaLog());
+        }
+        assertEquals(CommonSchemaDataUtils.SHAPE_CACHE_SIZE, CommonSchemaDataUtils.getShapeCacheSize());
+
+        /* First shape was evicted, last one is still there. */
+        CommonSchemaDataUtils.addCommonSchemaData(Collections.<TypedProperty>singletonList(typedProperty("key" + CommonSchemaDataUtils.SHAPE_CACHE_SIZE, "value")), new MockCommonSchemaLog());
+        assertEquals(1, CommonSchemaDataUtils.getShapeCacheHitCount());
+        CommonSchemaDataUtils.addCommonSchemaData(Collections.<TypedProperty>singletonList(typedProperty("key0", "value")), new MockCommonSchemaLog());
+        assertEquals(1, CommonSchemaDataUtils.getShapeCacheHitCount());
+        assertEquals(CommonSchemaDataUtils.SHAPE_CACHE_SIZE + 2, CommonSchemaDataUtils.getShapeCacheMissCount());
+    }
 }
@@ -21,6 +21,7 @@ import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogWithProperties;
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONReader;
 import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.json.MockLog;
@@ -71,6 +72,7 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 
 @SuppressWarnings("TryFinallyCanBeTryWithResources")
 @MediumTest
@@ -115,6 +117,21 @@ public class DatabasePersistenceAndroidTest {
         return values;
     }
 
+    private String getStoredTargetToken(DatabasePersistence persistence, ContentValues values) {
+        Long targetTokenId = values.getAsLong(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        assertNotNull(targetTokenId);
+        assertNull(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN));
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(DatabaseManager.PRIMARY_KEY + " = ?");
+        Cursor cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.TARGET_TOKEN_TABLE, builder, new String[]{DatabasePersistence.COLUMN_TARGET_TOKEN}, new String[]{String.valueOf(targetTokenId)}, null);
+        try {
+            assertTrue(cursor.moveToNext());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
     private void putLog(int inputFlags, Integer persistedPriorityFlag) throws PersistenceException {
 
         /* Initialize database persistence. */
@@ -227,6 +244,48 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void putLargeLogsEvictsOldestLogsAndFiles() throws PersistenceException {
+
+        /* Initialize database persistence with room for 2 large logs. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        assertTrue(persistence.setMaxStorageSize(5 * 1024 * 1024));
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate large logs. */
+            List<Long> ids = new ArrayList<>();
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                LogWithProperties log = AndroidTestUtils.generateMockLog();
+                Map<String, String> properties = new HashMap<>();
+                properties.put("key", generateString(2 * 1024 * 1024, 'x'));
+                log.setProperties(properties);
+                ids.add(persistence.putLog(log, "test-p1", NORMAL));
+                logs.add(log);
+            }
+
+            /* Verify the oldest log and its file were evicted. */
+            assertEquals(2, persistence.countLogs("test-p1"));
+            File groupDirectory = persistence.getLargePayloadGroupDirectory("test-p1");
+            assertFalse(persistence.getLargePayloadFile(groupDirectory, ids.get(0)).exists());
+            assertTrue(persistence.getLargePayloadFile(groupDirectory, ids.get(2)).exists());
+            verify(listener).onLogsEvicted("test-p1", 1);
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), 3, outputLogs, null, null);
+            assertEquals(logs.subList(1, 3), outputLogs);
+        } finally {
+            persistence.deleteLogs("test-p1");
+            persistence.close();
+        }
+    }
+
     @Test
     public void putLargeLogFails() {
 
@@ -930,6 +989,62 @@ public class DatabasePersistenceAndroidTest {
         }
     }
 
+    @Test
+    public void getLogsPageByPageWithMixedPriorities() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Put logs with mixed priorities. */
+            Log log1 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log1, "test", NORMAL);
+            Log log2 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log2, "test", CRITICAL);
+            Log log3 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log3, "test", NORMAL);
+            Log log4 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log4, "test", NORMAL);
+
+            /* Get first page. */
+            List<Log> actualLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, actualLogs, null, null);
+            assertEquals(Arrays.asList(log2, log1), actualLogs);
+
+            /* A new normal log is selected after the previous ones. */
+            Log log5 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log5, "test", NORMAL);
+            actualLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 2, actualLogs, null, null);
+            assertEquals(Arrays.asList(log3, log4), actualLogs);
+
+            /* A new critical log is selected first, pending logs are still skipped. */
+            Log log6 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log6, "test", CRITICAL);
+            actualLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 3, actualLogs, null, null);
+            assertEquals(Arrays.asList(log6, log5), actualLogs);
+
+            /* Nothing left. */
+            actualLogs = new ArrayList<>();
+            assertNull(persistence.getLogs("test", Collections.<String>emptyList(), 2, actualLogs, null, null));
+            assertEquals(0, actualLogs.size());
+
+            /* Logs are selected again from the start when pending state is cleared. */
+            persistence.clearPendingLogState();
+            actualLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 6, actualLogs, null, null);
+            assertEquals(Arrays.asList(log2, log6, log1, log3, log4, log5), actualLogs);
+        } finally {
+            persistence.close();
+        }
+    }
+
     @Test
     public void getLogsFilteringOutPausedTargetKeys() throws PersistenceException {
 
@@ -1242,6 +1357,9 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN);
         oldSchema.remove(DatabasePersistence.COLUMN_DATA_TYPE);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
@@ -1311,7 +1429,7 @@ public class DatabasePersistenceAndroidTest {
 
             /* Verify target token is encrypted. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            String token = getStoredTargetToken(persistence, values);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1332,6 +1450,9 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_TARGET_KEY);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
@@ -1401,7 +1522,7 @@ public class DatabasePersistenceAndroidTest {
 
             /* Verify target token is encrypted. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            String token = getStoredTargetToken(persistence, values);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1425,6 +1546,9 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_PRIORITY);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TARGET_KEY, oldSchema, mock(DatabaseManager.Listener.class));
@@ -1493,7 +1617,7 @@ public class DatabasePersistenceAndroidTest {
 
             /* Verify target token is encrypted. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            String token = getStoredTargetToken(persistence, values);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1517,6 +1641,9 @@ public class DatabasePersistenceAndroidTest {
 
         /* Initialize database persistence with old schema. */
         ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
         oldSchema.remove(DatabasePersistence.COLUMN_TIMESTAMP);
         DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_PRIORITY_KEY, oldSchema, mock(DatabaseManager.Listener.class));
 
@@ -1585,7 +1712,7 @@ public class DatabasePersistenceAndroidTest {
 
             /* Verify target token is encrypted. */
             ContentValues values = getContentValues(persistence, "test/one");
-            String token = values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN);
+            String token = getStoredTargetToken(persistence, values);
             assertNotNull(token);
             assertNotEquals("test-guid", token);
             assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(token, false).getDecryptedData());
@@ -1603,4 +1730,446 @@ public class DatabasePersistenceAndroidTest {
             persistence.close();
         }
     }
+
+    @Test
+    public void upgradeFromVersion5to6() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema, without the group and priority index. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_TIMESTAMP_KEY, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            contentValues.put(DatabasePersistence.COLUMN_TIMESTAMP, oldLog.getTimestamp().getTime());
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+
+        /* Check upgrade. */
+        try {
+
+            /* Get old data. */
+            assertEquals(1, persistence.countLogs("test"));
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(oldLog, outputLogs.get(0));
+
+            /* Check index was created. */
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere("type = 'index' AND name = ?");
+            Cursor cursor = persistence.mDatabaseManager.getCursor("sqlite_master", builder, null, new String[]{DatabasePersistence.INDEX_GROUP_PRIORITY}, null);
+            try {
+                assertTrue(cursor.moveToNext());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion6to7() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema, without the device table. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        oldSchema.remove(DatabasePersistence.COLUMN_DEVICE_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_GROUP_PRIORITY_INDEX, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade, with the device in the payload. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            contentValues.put(DatabasePersistence.COLUMN_TIMESTAMP, oldLog.getTimestamp().getTime());
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+
+        /* Check upgrade. */
+        try {
+
+            /* Old data can still be read. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(oldLog, outputLogs.get(0));
+
+            /* New data uses the device table. */
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(newLog, "test", NORMAL);
+            outputLogs.clear();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(newLog, outputLogs.get(0));
+            assertEquals(1, persistence.mDeviceIdentifiers.size());
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putLogsStoresSharedDeviceOnce() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Generate logs sharing the same device. */
+            Log log1 = AndroidTestUtils.generateMockLog();
+            Log log2 = AndroidTestUtils.generateMockLog();
+            log2.setDevice(log1.getDevice());
+            persistence.putLog(log1, "test-p1", NORMAL);
+            persistence.putLog(log2, "test-p1", NORMAL);
+
+            /* Device was stored once and not in the log payloads, the log objects are unchanged. */
+            assertEquals(1, persistence.mDeviceIdentifiers.size());
+            assertNotNull(log1.getDevice());
+            ContentValues contentValues = getContentValues(persistence, "test-p1");
+            assertNotNull(contentValues.getAsLong(DatabasePersistence.COLUMN_DEVICE_ID));
+            assertFalse(BinaryJSONReader.readObject(contentValues.getAsByteArray(DatabasePersistence.COLUMN_COMPRESSED_LOG)).has("device"));
+            Cursor cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.DEVICE_TABLE, null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+
+            /* Device is restored when reading logs as objects. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), 2, outputLogs, null, null);
+            assertEquals(Arrays.asList(log1, log2), outputLogs);
+
+            /* And when reading logs as they were serialized, with a new device that replaces the unused one. */
+            persistence.deleteLogs("test-p1");
+            Log log3 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log3, "test-p1", NORMAL);
+            List<String> outputSerializedLogs = new ArrayList<>();
+            persistence.getSerializedLogs("test-p1", Collections.<String>emptyList(), 1, outputSerializedLogs, null, null);
+            assertEquals(1, outputSerializedLogs.size());
+            assertEquals(log3, logSerializer.deserializeLog(outputSerializedLogs.get(0), null));
+            cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.DEVICE_TABLE, null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void deleteUnusedDevicesOncePerSessionAndAfterBulkDeletion() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Send a log so that its device is no longer referenced. */
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            List<Log> outputLogs = new ArrayList<>();
+            String batchId = persistence.getLogs("test-p1", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertNotNull(batchId);
+            persistence.deleteLogs("test-p1", batchId);
+
+            /* A new device does not scan logs again in the same session, the unused device stays. */
+            persistence.putLog(AndroidTestUtils.generateMockLog(), "test-p1", NORMAL);
+            assertEquals(2, getDeviceCount(persistence));
+
+            /* Deleting logs of a group deletes unused devices. */
+            persistence.deleteLogs("test-p1");
+            assertEquals(0, getDeviceCount(persistence));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    private static int getDeviceCount(DatabasePersistence persistence) {
+        Cursor cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.DEVICE_TABLE, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion7to8() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema, without the compressed log column. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_DEVICE_TABLE, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+
+        /* Insert old data before upgrade. */
+        Log oldLog = AndroidTestUtils.generateMockLog();
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MOCK_LOG_TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            contentValues.put(DatabasePersistence.COLUMN_TIMESTAMP, oldLog.getTimestamp().getTime());
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        persistence.setCompressionEnabled(true);
+
+        /* Check upgrade. */
+        try {
+
+            /* Old data can still be read. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(oldLog, outputLogs.get(0));
+
+            /* New data is compressed. */
+            Log newLog = AndroidTestUtils.generateMockLog();
+            persistence.putLog(newLog, "test", NORMAL);
+            outputLogs.clear();
+            persistence.getLogs("test", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(newLog, outputLogs.get(0));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void upgradeFromVersion8to9() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence with old schema, without the target token table. */
+        ContentValues oldSchema = new ContentValues(SCHEMA);
+        oldSchema.remove(DatabasePersistence.COLUMN_TARGET_TOKEN_ID);
+        DatabaseManager databaseManager = new DatabaseManager(sContext, DatabasePersistence.DATABASE, DatabasePersistence.TABLE, DatabasePersistence.VERSION_COMPRESSED_LOG, oldSchema, mock(DatabaseManager.Listener.class));
+
+        /* Init log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+
+        /* Insert old data with the encrypted token in the log row before upgrade. */
+        MockCommonSchemaLog oldLog = new MockCommonSchemaLog();
+        oldLog.setName("test");
+        oldLog.setIKey("o:test");
+        oldLog.setTimestamp(new Date());
+        oldLog.setVer("3.0");
+        try {
+            ContentValues contentValues = new ContentValues();
+            contentValues.put(DatabasePersistence.COLUMN_GROUP, "test/one");
+            contentValues.put(DatabasePersistence.COLUMN_LOG, logSerializer.serializeLog(oldLog));
+            contentValues.put(DatabasePersistence.COLUMN_TARGET_TOKEN, CryptoUtils.getInstance(sContext).encrypt("test-guid"));
+            contentValues.put(DatabasePersistence.COLUMN_DATA_TYPE, MockCommonSchemaLog.TYPE);
+            contentValues.put(DatabasePersistence.COLUMN_TARGET_KEY, "test");
+            contentValues.put(DatabasePersistence.COLUMN_PRIORITY, NORMAL);
+            contentValues.put(DatabasePersistence.COLUMN_TIMESTAMP, oldLog.getTimestamp().getTime());
+            databaseManager.put(contentValues, DatabasePersistence.COLUMN_PRIORITY);
+        } finally {
+            databaseManager.close();
+        }
+        oldLog.addTransmissionTarget("test-guid");
+
+        /* Upgrade. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+
+        /* Check upgrade. */
+        try {
+
+            /* Old data can still be read with its target token. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test/one", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(oldLog, outputLogs.get(0));
+            persistence.deleteLogs("test/one");
+
+            /* New data references the target token table. */
+            MockCommonSchemaLog newLog = new MockCommonSchemaLog();
+            newLog.setName("test");
+            newLog.setIKey("o:test");
+            newLog.setTimestamp(new Date());
+            newLog.setVer("3.0");
+            newLog.addTransmissionTarget("test-guid");
+            persistence.putLog(newLog, "test/one", NORMAL);
+            assertEquals("test-guid", CryptoUtils.getInstance(sContext).decrypt(getStoredTargetToken(persistence, getContentValues(persistence, "test/one")), false).getDecryptedData());
+            outputLogs.clear();
+            persistence.getLogs("test/one", Collections.<String>emptyList(), 1, outputLogs, null, null);
+            assertEquals(1, outputLogs.size());
+            assertEquals(newLog, outputLogs.get(0));
+        } finally {
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putCommonSchemaLogsStoresTargetTokenOnce() throws PersistenceException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Put logs for 2 targets. */
+            List<Log> logs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                MockCommonSchemaLog log = new MockCommonSchemaLog();
+                log.setName("test");
+                log.setIKey("o:test");
+                log.setTimestamp(new Date());
+                log.setVer("3.0");
+                log.addTransmissionTarget(i % 2 == 0 ? "test-guid" : "other-guid");
+                persistence.putLog(log, "test/one", NORMAL);
+                logs.add(log);
+            }
+
+            /* Each token is stored once. */
+            Cursor cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.TARGET_TOKEN_TABLE, null, null, null, null);
+            try {
+                assertEquals(2, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+
+            /* Tokens are restored, also after a restart. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test/one", Collections.<String>emptyList(), 4, outputLogs, null, null);
+            assertEquals(logs, outputLogs);
+            persistence.close();
+            persistence = new DatabasePersistence(sContext);
+            persistence.setLogSerializer(logSerializer);
+            outputLogs.clear();
+            persistence.getLogs("test/one", Collections.<String>emptyList(), 4, outputLogs, null, null);
+            assertEquals(logs, outputLogs);
+
+            /* Unused tokens are deleted when storing a new target. */
+            persistence.deleteLogs("test/one");
+            MockCommonSchemaLog log = new MockCommonSchemaLog();
+            log.setName("test");
+            log.setIKey("o:test");
+            log.setTimestamp(new Date());
+            log.setVer("3.0");
+            log.addTransmissionTarget("new-guid");
+            persistence.putLog(log, "test/one", NORMAL);
+            cursor = persistence.mDatabaseManager.getCursor(DatabasePersistence.TARGET_TOKEN_TABLE, null, null, null, null);
+            try {
+                assertEquals(1, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+        } finally {
+            persistence.deleteLogs("test/one");
+            persistence.close();
+        }
+    }
+
+    @Test
+    public void putCompressedLogs() throws PersistenceException, JSONException {
+
+        /* Initialize database persistence. */
+        DatabasePersistence persistence = new DatabasePersistence(sContext);
+
+        /* Set a mock log serializer. */
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        persistence.setLogSerializer(logSerializer);
+        try {
+
+            /* Store a log in binary then a log compressed. */
+            Log log1 = AndroidTestUtils.generateMockLog();
+            persistence.putLog(log1, "test-p1", NORMAL);
+            persistence.setCompressionEnabled(true);
+            LogWithProperties log2 = AndroidTestUtils.generateMockLog();
+            Map<String, String> properties = new HashMap<>();
+            properties.put("key", generateString(1024, 'x'));
+            log2.setProperties(properties);
+            persistence.putLog(log2, "test-p1", NORMAL);
+
+            /* Check storage. */
+            Cursor cursor = persistence.mDatabaseManager.getCursor(null, null, null, null);
+            try {
+                assertTrue(cursor.moveToNext());
+                ContentValues values = persistence.mDatabaseManager.buildValues(cursor);
+                assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+                byte[] binaryLog = values.getAsByteArray(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+                assertNotNull(binaryLog);
+                assertTrue(BinaryJSONReader.isBinary(binaryLog));
+                assertTrue(cursor.moveToNext());
+                values = persistence.mDatabaseManager.buildValues(cursor);
+                assertNull(values.getAsString(DatabasePersistence.COLUMN_LOG));
+                byte[] compressedLog = values.getAsByteArray(DatabasePersistence.COLUMN_COMPRESSED_LOG);
+                assertNotNull(compressedLog);
+                assertFalse(BinaryJSONReader.isBinary(compressedLog));
+                assertTrue(compressedLog.length < 1024);
+            } finally {
+                cursor.close();
+            }
+
+            /* Both formats are read. */
+            List<Log> outputLogs = new ArrayList<>();
+            persistence.getLogs("test-p1", Collections.<String>emptyList(), 2, outputLogs, null, null);
+            assertEquals(Arrays.asList(log1, log2), outputLogs);
+            List<String> outputSerializedLogs = new ArrayList<>();
+            persistence.clearPendingLogState();
+            persistence.getSerializedLogs("test-p1", Collections.<String>emptyList(), 2, outputSerializedLogs, null, null);
+            assertEquals(2, outputSerializedLogs.size());
+            assertEquals(log2, logSerializer.deserializeLog(outputSerializedLogs.get(1), null));
+        } finally {
+            persistence.deleteLogs("test-p1");
+            persistence.close();
+        }
+    }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.MediumTest;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.microsoft.appcenter.AndroidTestUtils;
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.DefaultLogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.json.MockLogFactory;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.MockCommonSchemaLogFactory;
+import com.microsoft.appcenter.utils.storage.FileManager;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static com.microsoft.appcenter.ingestion.models.json.MockLog.MOCK_LOG_TYPE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class SegmentedFilePersistenceAndroidTest {
+
+    /**
+     * Log tag for benchmark results.
+     */
+    private static final String TAG = "SegmentedFilePersistence";
+
+    /**
+     * Context instance.
+     */
+    @SuppressLint("StaticFieldLeak")
+    private static Context sContext;
+
+    @BeforeClass
+    public static void setUpClass() {
+        AppCenter.setLogLevel(android.util.Log.VERBOSE);
+        sContext = InstrumentationRegistry.getTargetContext();
+        FileManager.initialize(sContext);
+        SharedPreferencesManager.initialize(sContext);
+        Constants.loadFromContext(sContext);
+    }
+
+    @Before
+    @After
+    public void cleanUp() {
+        sContext.deleteDatabase(DatabasePersistence.DATABASE);
+        File directory = new File(Constants.FILES_PATH + SegmentedFilePersistence.DIRECTORY);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                FileManager.delete(file);
+            }
+        }
+    }
+
+    private static LogSerializer newLogSerializer() {
+        LogSerializer logSerializer = new DefaultLogSerializer();
+        logSerializer.addLogFactory(MOCK_LOG_TYPE, new MockLogFactory());
+        logSerializer.addLogFactory(MockCommonSchemaLog.TYPE, new MockCommonSchemaLogFactory());
+        return logSerializer;
+    }
+
+    private static MockCommonSchemaLog newCommonSchemaLog(String targetToken) {
+        MockCommonSchemaLog log = new MockCommonSchemaLog();
+        log.setVer("3.0");
+        log.setName("test");
+        log.setIKey("o:" + targetToken.split("-")[0]);
+        log.setTimestamp(new Date());
+        log.addTransmissionTarget(targetToken);
+        return log;
+    }
+
+    @Test
+    public void moveLogsBetweenStorages() throws Exception {
+
+        /* Store logs in the database. */
+        LogSerializer logSerializer = newLogSerializer();
+        DatabasePersistence databasePersistence = new DatabasePersistence(sContext);
+        databasePersistence.setLogSerializer(logSerializer);
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Log log = AndroidTestUtils.generateMockLog();
+            databasePersistence.putLog(log, "test", NORMAL);
+            logs.add(log);
+        }
+        Log criticalLog = AndroidTestUtils.generateMockLog();
+        databasePersistence.putLog(criticalLog, "test", CRITICAL);
+        MockCommonSchemaLog commonSchemaLog = newCommonSchemaLog("key-token");
+        databasePersistence.putLog(commonSchemaLog, "one", NORMAL);
+        databasePersistence.close();
+
+        /* Switch to segment files. */
+        SegmentedFilePersistence persistence = new SegmentedFilePersistence(sContext);
+        persistence.setLogSerializer(logSerializer);
+        assertTrue(persistence.importDatabaseLogs());
+        assertEquals(5, persistence.countLogs("test") + persistence.countLogs("one"));
+        assertFalse(sContext.getDatabasePath(DatabasePersistence.DATABASE).exists());
+        List<Log> outLogs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null));
+        assertEquals(4, outLogs.size());
+        assertEquals(criticalLog, outLogs.get(0));
+        assertEquals(logs, outLogs.subList(1, 4));
+        outLogs.clear();
+        persistence.getLogs("one", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(1, outLogs.size());
+        assertEquals(Collections.singleton("key-token"), outLogs.get(0).getTransmissionTargetTokens());
+        persistence.close();
+
+        /* Switch back to the database. */
+        databasePersistence = new DatabasePersistence(sContext);
+        databasePersistence.setLogSerializer(logSerializer);
+        assertTrue(SegmentedFilePersistence.moveStoredLogs(sContext, databasePersistence));
+        assertFalse(new File(Constants.FILES_PATH + SegmentedFilePersistence.DIRECTORY).exists());
+        outLogs.clear();
+        databasePersistence.getLogs("test", Collections.<String>emptyList(), 10, outLogs, null, null);
+        assertEquals(4, outLogs.size());
+        assertEquals(criticalLog, outLogs.get(0));
+        assertEquals(1, databasePersistence.countLogs("one"));
+        databasePersistence.close();
+    }
+
+    @Test
+    public void compareWithDatabasePersistence() throws Exception {
+        LogSerializer logSerializer = newLogSerializer();
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            logs.add(AndroidTestUtils.generateMockLog());
+        }
+        DatabasePersistence databasePersistence = new DatabasePersistence(sContext);
+        databasePersistence.setLogSerializer(logSerializer);
+        SegmentedFilePersistence segmentedFilePersistence = new SegmentedFilePersistence(sContext);
+        segmentedFilePersistence.setLogSerializer(logSerializer);
+
+        /* Results are only logged as timings are not reliable on emulators. */
+        long databaseTime = runWorkload(databasePersistence, logs);
+        long segmentTime = runWorkload(segmentedFilePersistence, logs);
+        android.util.Log.i(TAG, "Stored, read and deleted " + logs.size() + " logs: database " + databaseTime / 1000000 + "ms, segment files " + segmentTime / 1000000 + "ms.");
+        databasePersistence.close();
+        segmentedFilePersistence.close();
+    }
+
+    /**
+     * Store logs then read and delete them by batches like the channel does.
+     *
+     * @return The elapsed time in nanoseconds.
+     */
+    private static long runWorkload(Persistence persistence, List<Log> logs) throws Exception {
+        long start = System.nanoTime();
+        for (Log log : logs) {
+            persistence.putLog(log, "test", NORMAL);
+        }
+        List<Log> outLogs = new ArrayList<>();
+        String batchId;
+        while ((batchId = persistence.getLogs("test", Collections.<String>emptyList(), 50, outLogs, null, null)) != null) {
+            persistence.deleteLogs("test", batchId);
+        }
+        long time = System.nanoTime() - start;
+        assertEquals(logs.size(), outLogs.size());
+        assertTrue(persistence.countLogs("test") == 0);
+        return time;
+    }
+}
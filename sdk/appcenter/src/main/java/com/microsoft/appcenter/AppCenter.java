@@ -20,6 +20,8 @@ import android.util.Log;
 import com.microsoft.appcenter.channel.Channel;
 import com.microsoft.appcenter.channel.DefaultChannel;
 import com.microsoft.appcenter.channel.OneCollectorChannelListener;
+import com.microsoft.appcenter.channel.UploadPolicyEngine;
+import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.ingestion.models.CustomPropertiesLog;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.WrapperSdk;
@@ -210,6 +212,26 @@ public class AppCenter {
      */
     private DefaultAppCenterFuture<Boolean> mSetMaxStorageSizeFuture;
 
+    /**
+     * Whether logs are compressed in storage.
+     */
+    private boolean mStorageCompressionEnabled;
+
+    /**
+     * Whether logs are stored in segment files instead of a database.
+     */
+    private boolean mSegmentedStorageEnabled;
+
+    /**
+     * Whether batch size and parallelism are tuned from observed uploads.
+     */
+    private boolean mAdaptiveBatchingEnabled;
+
+    /**
+     * Whether batches of different modules are sent together when possible.
+     */
+    private boolean mRequestCoalescingEnabled;
+
     /**
      * Redirect selected traffic to One Collector.
      */
@@ -447,6 +469,61 @@ public class AppCenter {
         return getInstance().setInstanceMaxStorageSizeAsync(storageSizeInBytes);
     }
 
+    /**
+     * Enable or disable compression of logs in storage, so that more logs fit in the maximum storage size
+     * while the device is offline. Disabled by default.
+     * Logs already stored remain readable when changing this setting.
+     *
+     * @param enabled true to compress logs stored from now on, false to store them uncompressed.
+     */
+    public static void setStorageCompressionEnabled(boolean enabled) {
+        getInstance().setInstanceStorageCompressionEnabled(enabled);
+    }
+
+    /**
+     * Store logs in append-only segment files instead of a SQLite database, which is faster to write
+     * and delete logs in bulk. Disabled by default. Can only be called before AppCenter.start(...).
+     * <p>
+     * Logs stored with the other storage are moved when switching.
+     *
+     * @param enabled true to store logs in segment files, false to store them in a database.
+     */
+    public static void setSegmentedStorageEnabled(boolean enabled) {
+        getInstance().setInstanceSegmentedStorageEnabled(enabled);
+    }
+
+    /**
+     * Tune how many logs are sent per request and how many requests are sent in parallel from the observed
+     * upload durations and failures: more on a fast network, less on a slow one. Disabled by default.
+     *
+     * @param enabled true to adapt batching, false to use fixed values.
+     */
+    public static void setAdaptiveBatchingEnabled(boolean enabled) {
+        getInstance().setInstanceAdaptiveBatchingEnabled(enabled);
+    }
+
+    /**
+     * Send logs of different modules in a single request when they are ready at about the same time,
+     * instead of one request per module. Disabled by default.
+     *
+     * @param enabled true to coalesce requests, false to send one request per module.
+     */
+    public static void setRequestCoalescingEnabled(boolean enabled) {
+        getInstance().setInstanceRequestCoalescingEnabled(enabled);
+    }
+
+    /**
+     * Set the first job identifier used to check again, from Android 5, logs that wait for the conditions of their
+     * upload policy. App Center uses {@link UploadPolicyEngine#JOB_ID_COUNT} identifiers from this one, which must not
+     * be used for the jobs of the application. Defaults to {@link UploadPolicyEngine#DEFAULT_JOB_ID_BASE}.
+     * Can only be called before AppCenter.start(...).
+     *
+     * @param jobIdBase first job identifier.
+     */
+    public static void setUploadJobIdBase(int jobIdBase) {
+        getInstance().setInstanceUploadJobIdBase(jobIdBase);
+    }
+
     /**
      * {@link #setUserId(String)} implementation at instance level.
      */
@@ -543,6 +620,88 @@ public class AppCenter {
         }
     }
 
+    /**
+     * {@link #setStorageCompressionEnabled(boolean)} implementation at instance level.
+     */
+    private synchronized void setInstanceStorageCompressionEnabled(final boolean enabled) {
+        mStorageCompressionEnabled = enabled;
+
+        /* If SDK already configured, apply to channel. */
+        if (mHandler != null) {
+
+            /* Every channel operation must be in background since it uses locks and accesses disks. */
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setStorageCompressionEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setAdaptiveBatchingEnabled(boolean)} implementation at instance level.
+     */
+    private synchronized void setInstanceAdaptiveBatchingEnabled(final boolean enabled) {
+        mAdaptiveBatchingEnabled = enabled;
+
+        /* If SDK already configured, apply to channel. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setAdaptiveBatchingEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setRequestCoalescingEnabled(boolean)} implementation at instance level.
+     */
+    private synchronized void setInstanceRequestCoalescingEnabled(final boolean enabled) {
+        mRequestCoalescingEnabled = enabled;
+
+        /* If SDK already configured, apply to channel. */
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    mChannel.setRequestCoalescingEnabled(enabled);
+                }
+            });
+        }
+    }
+
+    /**
+     * {@link #setSegmentedStorageEnabled(boolean)} implementation at instance level.
+     */
+    private synchronized void setInstanceSegmentedStorageEnabled(boolean enabled) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setSegmentedStorageEnabled may not be called after App Center has been configured.");
+            return;
+        }
+        mSegmentedStorageEnabled = enabled;
+    }
+
+    /**
+     * {@link #setUploadJobIdBase(int)} implementation at instance level.
+     */
+    private synchronized void setInstanceUploadJobIdBase(int jobIdBase) {
+        if (mHandler != null) {
+            AppCenterLog.error(LOG_TAG, "setUploadJobIdBase may not be called after App Center has been configured.");
+            return;
+        }
+        if (jobIdBase > Integer.MAX_VALUE - UploadPolicyEngine.JOB_ID_COUNT) {
+            AppCenterLog.error(LOG_TAG, "Upload job identifier base is too large: " + jobIdBase);
+            return;
+        }
+        UploadPolicyEngine.setJobIdBase(jobIdBase);
+    }
+
     /**
      * {@link #setCustomProperties(CustomProperties)} implementation at instance level.
      *
@@ -665,6 +824,7 @@ public class AppCenter {
         mHandlerThread = new HandlerThread("AppCenter.Looper");
         mHandlerThread.start();
         mHandler = new Handler(mHandlerThread.getLooper());
+        HttpUtils.setStorageHandler(mHandler);
         mAppCenterHandler = new AppCenterHandler() {
 
             @Override
@@ -786,9 +946,9 @@ public class AppCenter {
 
         /* Init channel. */
         mLogSerializer = new DefaultLogSerializer();
-        mLogSerializer.addLogFactory(StartServiceLog.TYPE, new StartServiceLogFactory());
-        mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, new CustomPropertiesLogFactory());
-        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mHandler);
+        mLogSerializer.addLogFactory(StartServiceLog.TYPE, StartServiceLogFactory.getInstance());
+        mLogSerializer.addLogFactory(CustomPropertiesLog.TYPE, CustomPropertiesLogFactory.getInstance());
+        mChannel = new DefaultChannel(mApplication, mAppSecret, mLogSerializer, mHandler, mSegmentedStorageEnabled);
 
         /* Complete set maximum storage size future if starting from app. */
         if (configureFromApp) {
@@ -798,6 +958,9 @@ public class AppCenter {
             /* If from library, we apply storage size only later, we have to try using the default value in the mean time. */
             mChannel.setMaxStorageSize(DEFAULT_MAX_STORAGE_SIZE_IN_BYTES);
         }
+        mChannel.setStorageCompressionEnabled(mStorageCompressionEnabled);
+        mChannel.setAdaptiveBatchingEnabled(mAdaptiveBatchingEnabled);
+        mChannel.setRequestCoalescingEnabled(mRequestCoalescingEnabled);
         mChannel.setEnabled(enabled);
         mChannel.addGroup(CORE_GROUP, DEFAULT_TRIGGER_COUNT, DEFAULT_TRIGGER_INTERVAL, DEFAULT_TRIGGER_MAX_PARALLEL_REQUESTS, null, null);
         mOneCollectorChannelListener = new OneCollectorChannelListener(mApplication, mChannel, mLogSerializer, IdHelper.getInstallId());
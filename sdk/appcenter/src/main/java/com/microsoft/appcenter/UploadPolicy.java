@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter;
+
+/**
+ * Conditions to wait for before sending logs that are not {@link Flags#CRITICAL}.
+ * Logs are sent anyway once they have been waiting for the maximum staleness.
+ */
+public final class UploadPolicy {
+
+    /**
+     * Whether to wait for an unmetered network.
+     */
+    private final boolean mUnmeteredNetworkRequired;
+
+    /**
+     * Whether to wait for the device to be charging or for the network radio to be already active.
+     */
+    private final boolean mChargingRequired;
+
+    /**
+     * Maximum time logs can wait for the conditions, in ms, 0 to wait without limit.
+     */
+    private final long mMaxStaleness;
+
+    /**
+     * Init.
+     *
+     * @param unmeteredNetworkRequired true to wait for an unmetered network.
+     * @param chargingRequired         true to wait for the device to be charging,
+     *                                 or for the network radio to be already active for another reason.
+     * @param maxStaleness             maximum time logs can wait for the conditions in ms, 0 to wait without limit.
+     */
+    public UploadPolicy(boolean unmeteredNetworkRequired, boolean chargingRequired, long maxStaleness) {
+        mUnmeteredNetworkRequired = unmeteredNetworkRequired;
+        mChargingRequired = chargingRequired;
+        mMaxStaleness = Math.max(maxStaleness, 0);
+    }
+
+    /**
+     * Check whether to wait for an unmetered network.
+     *
+     * @return true to wait for an unmetered network.
+     */
+    public boolean isUnmeteredNetworkRequired() {
+        return mUnmeteredNetworkRequired;
+    }
+
+    /**
+     * Check whether to wait for the device to be charging or for the network radio to be already active.
+     *
+     * @return true to wait for charging or an active radio.
+     */
+    public boolean isChargingRequired() {
+        return mChargingRequired;
+    }
+
+    /**
+     * Get maximum time logs can wait for the conditions.
+     *
+     * @return maximum time logs can wait for the conditions in ms, 0 to wait without limit.
+     */
+    public long getMaxStaleness() {
+        return mMaxStaleness;
+    }
+
+    @Override
+    public String toString() {
+        return "unmeteredNetworkRequired=" + mUnmeteredNetworkRequired + " chargingRequired=" + mChargingRequired +
+                " maxStaleness=" + mMaxStaleness + "ms";
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.support.annotation.VisibleForTesting;
+
+/**
+ * Tunes the batch size and the number of parallel batches of a group from the observed uploads.
+ * <p>
+ * Batch size grows additively while full batches are sent fast and is halved when uploads are slow or fail,
+ * parallelism follows the same rule. Values stay between a fraction and a multiple of the configured batch size,
+ * and between 1 and the configured number of parallel batches.
+ */
+public class AdaptiveBatchController {
+
+    /**
+     * Upload duration above which the network is considered too slow for the current batch size, in ms.
+     * This is a quarter of the HTTP read timeout, so that batches are reduced before they time out.
+     */
+    @VisibleForTesting
+    static final long TARGET_LATENCY = 5000;
+
+    /**
+     * Maximum batch size relative to the configured one.
+     */
+    @VisibleForTesting
+    static final int MAX_BATCH_SIZE_FACTOR = 4;
+
+    /**
+     * Minimum batch size relative to the configured one.
+     */
+    @VisibleForTesting
+    static final int MIN_BATCH_SIZE_DIVISOR = 8;
+
+    /**
+     * Number of consecutive fast uploads before allowing one more parallel batch.
+     */
+    @VisibleForTesting
+    static final int PARALLEL_INCREASE_THRESHOLD = 5;
+
+    /**
+     * Weight of the latest sample in the moving averages.
+     */
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    /**
+     * Lowest batch size.
+     */
+    private final int mMinLogsPerBatch;
+
+    /**
+     * Highest batch size.
+     */
+    private final int mMaxLogsPerBatch;
+
+    /**
+     * Highest number of parallel batches.
+     */
+    private final int mMaxParallelBatches;
+
+    /**
+     * Batch size increment when uploads are fast.
+     */
+    private final int mIncreaseStep;
+
+    /**
+     * Current batch size.
+     */
+    private int mLogsPerBatch;
+
+    /**
+     * Current number of parallel batches.
+     */
+    private int mParallelBatches;
+
+    /**
+     * Consecutive fast uploads since parallelism last changed.
+     */
+    private int mConsecutiveFastUploads;
+
+    /**
+     * Moving average of upload durations in ms, negative until the first upload.
+     */
+    private double mAverageLatency = -1;
+
+    /**
+     * Moving average of upload throughput in bytes per second, negative while unknown.
+     */
+    private double mThroughput = -1;
+
+    /**
+     * Moving average of the failure rate, between 0 and 1.
+     */
+    private double mFailureRate;
+
+    /**
+     * Init.
+     *
+     * @param maxLogsPerBatch    configured batch size, used as the initial value.
+     * @param maxParallelBatches configured number of parallel batches, used as initial and maximum value.
+     */
+    AdaptiveBatchController(int maxLogsPerBatch, int maxParallelBatches) {
+        mLogsPerBatch = maxLogsPerBatch;
+        mMinLogsPerBatch = Math.max(1, maxLogsPerBatch / MIN_BATCH_SIZE_DIVISOR);
+        mMaxLogsPerBatch = maxLogsPerBatch * MAX_BATCH_SIZE_FACTOR;
+        mIncreaseStep = Math.max(1, maxLogsPerBatch / 4);
+        mParallelBatches = maxParallelBatches;
+        mMaxParallelBatches = maxParallelBatches;
+    }
+
+    /**
+     * @return current batch size.
+     */
+    int getLogsPerBatch() {
+        return mLogsPerBatch;
+    }
+
+    /**
+     * @return current number of parallel batches.
+     */
+    int getParallelBatches() {
+        return mParallelBatches;
+    }
+
+    /**
+     * Record a successful upload.
+     *
+     * @param logCount     number of logs in the batch.
+     * @param payloadBytes size of the logs in the batch, 0 if unknown.
+     * @param latency      upload duration in ms, including retries.
+     * @return true if the batch size or parallelism changed.
+     */
+    boolean onSuccess(int logCount, long payloadBytes, long latency) {
+        mAverageLatency = average(mAverageLatency, latency);
+        if (payloadBytes > 0) {
+            mThroughput = average(mThroughput, payloadBytes * 1000.0 / Math.max(latency, 1));
+        }
+        mFailureRate = average(mFailureRate, 0);
+        if (latency > TARGET_LATENCY) {
+            return decrease();
+        }
+        int logsPerBatch = mLogsPerBatch;
+        int parallelBatches = mParallelBatches;
+
+        /* Only a full batch shows that more logs were waiting. */
+        if (logCount >= mLogsPerBatch) {
+            mLogsPerBatch = Math.min(mMaxLogsPerBatch, mLogsPerBatch + mIncreaseStep);
+        }
+        if (++mConsecutiveFastUploads >= PARALLEL_INCREASE_THRESHOLD && mParallelBatches < mMaxParallelBatches) {
+            mParallelBatches++;
+            mConsecutiveFastUploads = 0;
+        }
+        return logsPerBatch != mLogsPerBatch || parallelBatches != mParallelBatches;
+    }
+
+    /**
+     * Record a failed upload.
+     *
+     * @param recoverable true if the failure is caused by the network, false if the server rejected the batch.
+     * @return true if the batch size or parallelism changed.
+     */
+    boolean onFailure(boolean recoverable) {
+        mFailureRate = average(mFailureRate, 1);
+
+        /* Rejected batches say nothing about the network capacity. */
+        return recoverable && decrease();
+    }
+
+    private boolean decrease() {
+        int logsPerBatch = mLogsPerBatch;
+        int parallelBatches = mParallelBatches;
+        mLogsPerBatch = Math.max(mMinLogsPerBatch, mLogsPerBatch / 2);
+        mParallelBatches = Math.max(1, mParallelBatches / 2);
+        mConsecutiveFastUploads = 0;
+        return logsPerBatch != mLogsPerBatch || parallelBatches != mParallelBatches;
+    }
+
+    private static double average(double average, double sample) {
+        return average < 0 ? sample : average + SMOOTHING_FACTOR * (sample - average);
+    }
+
+    /**
+     * Get the current decisions and measurements for diagnostics.
+     *
+     * @return a snapshot of the controller state.
+     */
+    Decision getDecision() {
+        return new Decision(mLogsPerBatch, mParallelBatches, (long) mAverageLatency, (long) mThroughput, mFailureRate);
+    }
+
+    /**
+     * Snapshot of the batching decisions for a group.
+     */
+    public static class Decision {
+
+        private final int mLogsPerBatch;
+
+        private final int mParallelBatches;
+
+        private final long mAverageLatency;
+
+        private final long mThroughput;
+
+        private final double mFailureRate;
+
+        Decision(int logsPerBatch, int parallelBatches, long averageLatency, long throughput, double failureRate) {
+            mLogsPerBatch = logsPerBatch;
+            mParallelBatches = parallelBatches;
+            mAverageLatency = averageLatency;
+            mThroughput = throughput;
+            mFailureRate = failureRate;
+        }
+
+        /**
+         * @return maximum number of logs per batch.
+         */
+        public int getLogsPerBatch() {
+            return mLogsPerBatch;
+        }
+
+        /**
+         * @return maximum number of batches sent in parallel.
+         */
+        public int getParallelBatches() {
+            return mParallelBatches;
+        }
+
+        /**
+         * @return average upload duration in ms, or -1 if nothing was sent yet.
+         */
+        public long getAverageLatency() {
+            return mAverageLatency;
+        }
+
+        /**
+         * @return average upload throughput in bytes per second, or -1 if unknown.
+         */
+        public long getThroughput() {
+            return mThroughput;
+        }
+
+        /**
+         * @return average failure rate, between 0 and 1.
+         */
+        public double getFailureRate() {
+            return mFailureRate;
+        }
+
+        @Override
+        public String toString() {
+            return "logsPerBatch=" + mLogsPerBatch + " parallelBatches=" + mParallelBatches +
+                    " averageLatency=" + mAverageLatency + "ms throughput=" + mThroughput + "B/s failureRate=" + mFailureRate;
+        }
+    }
+}
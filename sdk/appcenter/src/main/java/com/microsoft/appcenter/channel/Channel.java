@@ -8,6 +8,7 @@ package com.microsoft.appcenter.channel;
 import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 
+import com.microsoft.appcenter.UploadPolicy;
 import com.microsoft.appcenter.ingestion.Ingestion;
 import com.microsoft.appcenter.ingestion.models.Log;
 
@@ -35,6 +36,61 @@ public interface Channel {
      */
     boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Enable or disable compression of the logs stored from now on.
+     *
+     * @param enabled true to compress, false otherwise.
+     */
+    void setStorageCompressionEnabled(boolean enabled);
+
+    /**
+     * Enable or disable tuning batch size and parallelism of each group from observed uploads.
+     * When disabled, the values passed to {@link #addGroup} are used as is.
+     *
+     * @param enabled true to adapt batching, false otherwise.
+     */
+    void setAdaptiveBatchingEnabled(boolean enabled);
+
+    /**
+     * Enable or disable sending batches of groups that use the same ingestion in a single request.
+     * When a group triggers sending, the groups waiting for their timer with the same ingestion send their
+     * logs in the same request instead of a separate one.
+     *
+     * @param enabled true to coalesce requests, false to send each batch in its own request.
+     */
+    void setRequestCoalescingEnabled(boolean enabled);
+
+    /**
+     * Set the conditions to wait for before sending logs of a group that are not {@link com.microsoft.appcenter.Flags#CRITICAL}.
+     * The policy can be set before the group is added.
+     *
+     * @param groupName    the name of a group.
+     * @param uploadPolicy the upload policy, null to send logs as soon as the group timer fires.
+     */
+    void setUploadPolicy(@NonNull String groupName, UploadPolicy uploadPolicy);
+
+    /**
+     * Add a listener notified each time the upload policy of a group is evaluated.
+     *
+     * @param listener listener.
+     */
+    void addUploadDecisionListener(UploadPolicyEngine.Listener listener);
+
+    /**
+     * Remove an upload decision listener.
+     *
+     * @param listener listener.
+     */
+    void removeUploadDecisionListener(UploadPolicyEngine.Listener listener);
+
+    /**
+     * Get the current batching decisions and upload measurements of a group, for diagnostics.
+     *
+     * @param groupName the name of a group.
+     * @return batching decision, or null if the group is not registered.
+     */
+    AdaptiveBatchController.Decision getBatchingDecision(String groupName);
+
     /**
      * Add a group for logs to be persisted and sent.
      *
@@ -240,5 +296,22 @@ public interface Channel {
          * @param e   The exception for failure.
          */
         void onFailure(Log log, Exception e);
+
+        /**
+         * Check whether logs can be sent without calling this listener.
+         * When true, logs can be sent as they were serialized in storage without being deserialized,
+         * in which case none of the callbacks are called for them.
+         *
+         * @return true if callbacks can be skipped for the next logs to send, false otherwise.
+         */
+        boolean canSendWithoutCallbacks();
+
+        /**
+         * Called when logs of the group are deleted from storage before being sent because storage is full.
+         * Callbacks are not called for those logs.
+         *
+         * @param count The number of deleted logs.
+         */
+        void onLogsEvicted(int count);
     }
 }
@@ -13,6 +13,8 @@ import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 
 import com.microsoft.appcenter.CancellationException;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.UploadPolicy;
 import com.microsoft.appcenter.http.HttpUtils;
 import com.microsoft.appcenter.http.ServiceCallback;
 import com.microsoft.appcenter.ingestion.AppCenterIngestion;
@@ -24,6 +26,7 @@ import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.persistence.DatabasePersistence;
 import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.persistence.SegmentedFilePersistence;
 import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.DeviceInfoHelper;
 import com.microsoft.appcenter.utils.HandlerUtils;
@@ -64,11 +67,41 @@ public class DefaultChannel implements Channel {
     @VisibleForTesting
     static final String START_TIMER_PREFIX = "startTimerPrefix.";
 
+    /**
+     * Start of waiting for the conditions of an upload policy timestamp.
+     */
+    @VisibleForTesting
+    static final String UPLOAD_DEFERRED_PREFIX = "uploadDeferredPrefix.";
+
+    /**
+     * Preference set while logs may be left in segment files, so that they are only looked for after switching storage.
+     */
+    @VisibleForTesting
+    static final String SEGMENTED_STORAGE_USED_KEY = "segmentedStorageUsed";
+
+    /**
+     * Preference set once the logs of the Persistence database have all been moved to segment files.
+     */
+    @VisibleForTesting
+    static final String DATABASE_LOGS_MOVED_KEY = "databaseLogsMoved";
+
     /**
      * Transmission interval minimum value, in ms.
      */
     private static final long MINIMUM_TRANSMISSION_INTERVAL = 3000;
 
+    /**
+     * Default maximum number of logs staged in memory before being persisted in a single transaction.
+     */
+    @VisibleForTesting
+    static final int DEFAULT_LOG_BUFFER_SIZE = 50;
+
+    /**
+     * Maximum time to wait for more logs before persisting staged logs, in ms.
+     */
+    @VisibleForTesting
+    static final long LOG_BUFFER_FLUSH_DELAY = 200;
+
     /**
      * Application context.
      */
@@ -136,6 +169,52 @@ public class DefaultChannel implements Channel {
      */
     private int mCurrentState;
 
+    /**
+     * Maximum number of logs staged in {@link #mLogBuffer}, 1 or less to persist every log right away.
+     */
+    private final int mLogBufferSize;
+
+    /**
+     * Logs staged in memory, waiting to be persisted in a single transaction.
+     */
+    private final List<BufferedLog> mLogBuffer = new ArrayList<>();
+
+    /**
+     * Is persisting staged logs scheduled.
+     */
+    private boolean mLogBufferFlushScheduled;
+
+    /**
+     * Are batch size and parallelism tuned from observed uploads.
+     */
+    private boolean mAdaptiveBatchingEnabled;
+
+    /**
+     * Are batches of groups sharing an ingestion sent together in a single request.
+     */
+    private boolean mRequestCoalescingEnabled;
+
+    /**
+     * Upload policies by group name, groups without policy send logs as soon as their timer fires.
+     */
+    private final Map<String, UploadPolicy> mUploadPolicies = new HashMap<>();
+
+    /**
+     * Decides when groups with an upload policy can send logs.
+     */
+    private final UploadPolicyEngine mUploadPolicyEngine;
+
+    /**
+     * Runnable that persists staged logs.
+     */
+    private final Runnable mFlushLogBufferRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            flushLogBuffer();
+        }
+    };
+
     /**
      * Creates and initializes a new instance.
      *
@@ -145,7 +224,20 @@ public class DefaultChannel implements Channel {
      * @param appCenterHandler App Center looper thread handler.
      */
     public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull Handler appCenterHandler) {
-        this(context, appSecret, buildDefaultPersistence(context, logSerializer), new AppCenterIngestion(context, logSerializer), appCenterHandler);
+        this(context, appSecret, logSerializer, appCenterHandler, false);
+    }
+
+    /**
+     * Creates and initializes a new instance.
+     *
+     * @param context                 The context.
+     * @param appSecret               The application secret.
+     * @param logSerializer           The log serializer.
+     * @param appCenterHandler        App Center looper thread handler.
+     * @param segmentedStorageEnabled True to store logs in segment files instead of a database.
+     */
+    public DefaultChannel(@NonNull Context context, String appSecret, @NonNull LogSerializer logSerializer, @NonNull Handler appCenterHandler, boolean segmentedStorageEnabled) {
+        this(context, appSecret, buildDefaultPersistence(context, logSerializer, segmentedStorageEnabled), new AppCenterIngestion(context, logSerializer), appCenterHandler, DEFAULT_LOG_BUFFER_SIZE);
     }
 
     /**
@@ -159,25 +251,76 @@ public class DefaultChannel implements Channel {
      */
     @VisibleForTesting
     DefaultChannel(@NonNull Context context, String appSecret, @NonNull Persistence persistence, @NonNull Ingestion ingestion, @NonNull Handler appCenterHandler) {
+        this(context, appSecret, persistence, ingestion, appCenterHandler, 1);
+    }
+
+    /**
+     * Overloaded constructor with limited visibility that allows for dependency injection.
+     *
+     * @param context          The context.
+     * @param appSecret        The application secret.
+     * @param persistence      Persistence object for dependency injection.
+     * @param ingestion        Ingestion object for dependency injection.
+     * @param appCenterHandler App Center looper thread handler.
+     * @param logBufferSize    Maximum number of logs persisted in a single transaction, 1 to persist every log right away.
+     */
+    @VisibleForTesting
+    DefaultChannel(@NonNull Context context, String appSecret, @NonNull Persistence persistence, @NonNull Ingestion ingestion, @NonNull Handler appCenterHandler, int logBufferSize) {
         mContext = context;
         mAppSecret = appSecret;
         mInstallId = IdHelper.getInstallId();
         mGroupStates = new HashMap<>();
         mListeners = new LinkedHashSet<>();
         mPersistence = persistence;
+        mPersistence.setListener(new Persistence.Listener() {
+
+            @Override
+            public void onLogsEvicted(@NonNull String group, int count) {
+                DefaultChannel.this.onLogsEvicted(group, count);
+            }
+        });
         mIngestion = ingestion;
         mIngestions = new HashSet<>();
         mIngestions.add(mIngestion);
         mAppCenterHandler = appCenterHandler;
+        mLogBufferSize = logBufferSize;
+        mUploadPolicyEngine = new UploadPolicyEngine(context, appCenterHandler, new Runnable() {
+
+            @Override
+            public void run() {
+                checkDeferredUploads();
+            }
+        });
         mEnabled = true;
     }
 
     /**
      * Init Persistence for default constructor.
      */
-    private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer) {
-        Persistence persistence = new DatabasePersistence(context);
-        persistence.setLogSerializer(logSerializer);
+    private static Persistence buildDefaultPersistence(@NonNull Context context, @NonNull LogSerializer logSerializer, boolean segmentedStorageEnabled) {
+        Persistence persistence;
+        if (segmentedStorageEnabled) {
+            SegmentedFilePersistence segmentedFilePersistence = new SegmentedFilePersistence(context);
+            segmentedFilePersistence.setLogSerializer(logSerializer);
+
+            /* Keep the logs stored before switching storage, until they are all moved. */
+            if (!SharedPreferencesManager.getBoolean(SEGMENTED_STORAGE_USED_KEY)) {
+                SharedPreferencesManager.putBoolean(SEGMENTED_STORAGE_USED_KEY, true);
+            }
+            if (!SharedPreferencesManager.getBoolean(DATABASE_LOGS_MOVED_KEY) && segmentedFilePersistence.importDatabaseLogs()) {
+                SharedPreferencesManager.putBoolean(DATABASE_LOGS_MOVED_KEY, true);
+            }
+            persistence = segmentedFilePersistence;
+        } else {
+            persistence = new DatabasePersistence(context);
+            persistence.setLogSerializer(logSerializer);
+            if (SharedPreferencesManager.getBoolean(DATABASE_LOGS_MOVED_KEY)) {
+                SharedPreferencesManager.remove(DATABASE_LOGS_MOVED_KEY);
+            }
+            if (SharedPreferencesManager.getBoolean(SEGMENTED_STORAGE_USED_KEY) && SegmentedFilePersistence.moveStoredLogs(context, persistence)) {
+                SharedPreferencesManager.remove(SEGMENTED_STORAGE_USED_KEY);
+            }
+        }
         return persistence;
     }
 
@@ -186,6 +329,58 @@ public class DefaultChannel implements Channel {
         return mPersistence.setMaxStorageSize(maxStorageSizeInBytes);
     }
 
+    @Override
+    public synchronized void setStorageCompressionEnabled(boolean enabled) {
+        mPersistence.setCompressionEnabled(enabled);
+    }
+
+    @Override
+    public synchronized void setAdaptiveBatchingEnabled(boolean enabled) {
+        mAdaptiveBatchingEnabled = enabled;
+    }
+
+    @Override
+    public synchronized void setRequestCoalescingEnabled(boolean enabled) {
+        mRequestCoalescingEnabled = enabled;
+    }
+
+    @Override
+    public synchronized void setUploadPolicy(@NonNull String groupName, UploadPolicy uploadPolicy) {
+        AppCenterLog.debug(LOG_TAG, "setUploadPolicy(" + groupName + ", " + uploadPolicy + ")");
+        if (uploadPolicy != null) {
+            mUploadPolicies.put(groupName, uploadPolicy);
+        } else {
+            mUploadPolicies.remove(groupName);
+            mUploadPolicyEngine.cancelCheck(groupName);
+            SharedPreferencesManager.remove(UPLOAD_DEFERRED_PREFIX + groupName);
+        }
+
+        /* Apply the new policy to pending logs. */
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState != null && groupState.mUploadDeferred) {
+            groupState.mUploadDeferred = false;
+            if (mEnabled) {
+                checkPendingLogs(groupState);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void addUploadDecisionListener(UploadPolicyEngine.Listener listener) {
+        mUploadPolicyEngine.addListener(listener);
+    }
+
+    @Override
+    public synchronized void removeUploadDecisionListener(UploadPolicyEngine.Listener listener) {
+        mUploadPolicyEngine.removeListener(listener);
+    }
+
+    @Override
+    public synchronized AdaptiveBatchController.Decision getBatchingDecision(String groupName) {
+        GroupState groupState = mGroupStates.get(groupName);
+        return groupState != null ? groupState.mBatchController.getDecision() : null;
+    }
+
     /**
      * Call this after every async (such as database/ingestion) callback and stop processing if it returns false.
      * That means either the groupState was removed (or removed/added again),
@@ -371,6 +566,7 @@ public class DefaultChannel implements Channel {
             return;
         }
         AppCenterLog.debug(LOG_TAG, "clear(" + groupName + ")");
+        flushLogBuffer();
         mPersistence.deleteLogs(groupName);
 
         /* Call listeners so that they can react on group clearing. */
@@ -391,6 +587,9 @@ public class DefaultChannel implements Channel {
      * @param exception  the exception that caused suspension.
      */
     private void suspend(boolean deleteLogs, Exception exception) {
+
+        /* Persist staged logs first so that they are either kept or deleted as any other log. */
+        persistLogBuffer();
         mEnabled = false;
         mDiscardLogs = deleteLogs;
         mCurrentState++;
@@ -398,13 +597,14 @@ public class DefaultChannel implements Channel {
             cancelTimer(groupState);
 
             /* Delete all other batches and call callback method that are currently in progress. */
-            for (Iterator<Map.Entry<String, List<Log>>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
-                Map.Entry<String, List<Log>> entry = iterator.next();
+            for (Iterator<Map.Entry<String, LogContainer>> iterator = groupState.mSendingBatches.entrySet().iterator(); iterator.hasNext(); ) {
+                Map.Entry<String, LogContainer> entry = iterator.next();
                 iterator.remove();
                 if (deleteLogs) {
                     GroupListener groupListener = groupState.mListener;
-                    if (groupListener != null) {
-                        for (Log log : entry.getValue()) {
+                    List<Log> logs = entry.getValue().getLogs();
+                    if (groupListener != null && logs != null) {
+                        for (Log log : logs) {
                             groupListener.onFailure(log, exception);
                         }
                     }
@@ -464,14 +664,22 @@ public class DefaultChannel implements Channel {
         if (!mEnabled) {
             return;
         }
+
+        /* Staged logs are part of what we can send, other groups can be checked as usual. */
+        for (GroupState updatedGroupState : persistLogBuffer()) {
+            if (updatedGroupState != groupState) {
+                checkPendingLogsAfterPersisting(updatedGroupState);
+            }
+        }
         int pendingLogCount = groupState.mPendingLogCount;
-        int maxFetch = Math.min(pendingLogCount, groupState.mMaxLogsPerBatch);
+        int maxFetch = Math.min(pendingLogCount, groupState.getMaxLogsPerBatch());
         AppCenterLog.debug(LOG_TAG, "triggerIngestion(" + groupState.mName + ") pendingLogCount=" + pendingLogCount);
         cancelTimer(groupState);
 
         /* Check if we have reached the maximum number of pending batches, log to LogCat and don't trigger another sending. */
-        if (groupState.mSendingBatches.size() == groupState.mMaxParallelBatches) {
-            AppCenterLog.debug(LOG_TAG, "Already sending " + groupState.mMaxParallelBatches + " batches of analytics data to the server.");
+        int maxParallelBatches = groupState.getMaxParallelBatches();
+        if (groupState.mSendingBatches.size() >= maxParallelBatches) {
+            AppCenterLog.debug(LOG_TAG, "Already sending " + maxParallelBatches + " batches of analytics data to the server.");
             return;
         }
 
@@ -495,13 +703,22 @@ public class DefaultChannel implements Channel {
                 authToken = null;
             }
 
-            /* Get a batch from Persistence. */
-            final List<Log> batch = new ArrayList<>(maxFetch);
+            /* Get a batch from Persistence, serialized logs are sent as is when nobody needs the log objects. */
+            final LogContainer batch = new LogContainer();
             final int stateSnapshot = mCurrentState;
-            final String batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, batch, startTime, endTime);
+            final String batchId;
+            if (canSendSerializedLogs(groupState)) {
+                List<String> serializedLogs = new ArrayList<>(maxFetch);
+                batchId = mPersistence.getSerializedLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, serializedLogs, startTime, endTime);
+                batch.setSerializedLogs(serializedLogs);
+            } else {
+                List<Log> logs = new ArrayList<>(maxFetch);
+                batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, logs, startTime, endTime);
+                batch.setLogs(logs);
+            }
 
             /* Decrement counter. */
-            groupState.mPendingLogCount -= batch.size();
+            groupState.mPendingLogCount -= getLogCount(batch);
 
             /* If there are no logs to send. */
             if (batchId == null) {
@@ -515,15 +732,25 @@ public class DefaultChannel implements Channel {
             }
             AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") pendingLogCount=" + groupState.mPendingLogCount);
 
+            /* Critical logs are selected first. */
+            groupState.mCriticalLogPending = false;
+
             /* Call group listener before sending logs to ingestion service. */
-            if (groupState.mListener != null) {
-                for (Log log : batch) {
+            if (groupState.mListener != null && batch.getLogs() != null) {
+                for (Log log : batch.getLogs()) {
                     groupState.mListener.onBeforeSending(log);
                 }
             }
 
             /* Remember this batch. */
             groupState.mSendingBatches.put(batchId, batch);
+            final List<GroupBatch> batches = new ArrayList<>();
+            batches.add(new GroupBatch(groupState, batchId, batch));
+
+            /* Send batches of other groups waiting for their timer along with this one. */
+            if (mRequestCoalescingEnabled) {
+                addWaitingBatches(batches, batch.getSerializedLogs() != null, startTime, endTime);
+            }
 
             /*
              * Due to bug on old Android versions (verified on 4.0.4),
@@ -542,7 +769,7 @@ public class DefaultChannel implements Channel {
 
                 @Override
                 public void run() {
-                    sendLogs(groupState, stateSnapshot, batch, batchId, authToken);
+                    sendLogs(batches, stateSnapshot, authToken);
                 }
             });
             return;
@@ -553,54 +780,159 @@ public class DefaultChannel implements Channel {
     }
 
     /**
-     * Send logs.
+     * Get batches from the other groups that use the same ingestion and wait for their timer,
+     * so that they are sent in the same request as the batch of the triggered group.
+     * Groups with a custom transmission interval are left alone to honor that interval.
      *
-     * @param groupState   The group state.
-     * @param currentState The current state.
-     * @param batch        The log batch.
-     * @param batchId      The batch ID.
+     * @param batches    batches to send, starting with the batch of the triggered group.
+     * @param serialized true if the batches contain serialized logs, false if they contain log objects.
+     * @param startTime  start of the validity period of the auth token used to send the batches, can be null.
+     * @param endTime    end of the validity period of the auth token used to send the batches, can be null.
      */
-    @MainThread
-    private synchronized void sendLogs(final GroupState groupState, final int currentState, List<Log> batch, final String batchId, String authToken) {
-        if (checkStateDidNotChange(groupState, currentState)) {
+    private void addWaitingBatches(@NonNull List<GroupBatch> batches, boolean serialized, Date startTime, Date endTime) {
+        GroupState triggeredGroupState = batches.get(0).mGroupState;
+        for (GroupState groupState : mGroupStates.values()) {
+            if (groupState == triggeredGroupState || groupState.mIngestion != triggeredGroupState.mIngestion
+                    || !groupState.mScheduled || groupState.mBatchTimeInterval > MINIMUM_TRANSMISSION_INTERVAL
+                    || canSendSerializedLogs(groupState) != serialized
+                    || groupState.mSendingBatches.size() >= groupState.getMaxParallelBatches()) {
+                continue;
+            }
+            int maxFetch = Math.min(groupState.mPendingLogCount, groupState.getMaxLogsPerBatch());
+            LogContainer batch = new LogContainer();
+            String batchId;
+            if (serialized) {
+                List<String> serializedLogs = new ArrayList<>(maxFetch);
+                batchId = mPersistence.getSerializedLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, serializedLogs, startTime, endTime);
+                batch.setSerializedLogs(serializedLogs);
+            } else {
+                List<Log> logs = new ArrayList<>(maxFetch);
+                batchId = mPersistence.getLogs(groupState.mName, groupState.mPausedTargetKeys, maxFetch, logs, startTime, endTime);
+                batch.setLogs(logs);
+            }
 
-            /* Send logs. */
-            LogContainer logContainer = new LogContainer();
-            logContainer.setLogs(batch);
-            groupState.mIngestion.sendAsync(authToken, mAppSecret, mInstallId, logContainer, new ServiceCallback() {
+            /* Logs of other auth tokens wait for the timer of their group. */
+            if (batchId == null) {
+                continue;
+            }
+            groupState.mPendingLogCount -= getLogCount(batch);
+            groupState.mCriticalLogPending = false;
+            cancelTimer(groupState);
+            AppCenterLog.debug(LOG_TAG, "ingestLogs(" + groupState.mName + "," + batchId + ") along with " + triggeredGroupState.mName + " pendingLogCount=" + groupState.mPendingLogCount);
+            if (groupState.mListener != null && batch.getLogs() != null) {
+                for (Log log : batch.getLogs()) {
+                    groupState.mListener.onBeforeSending(log);
+                }
+            }
+            groupState.mSendingBatches.put(batchId, batch);
+            batches.add(new GroupBatch(groupState, batchId, batch));
+        }
+    }
 
-                @Override
-                public void onCallSucceeded(String payload, Map<String, String> headers) {
-                    mAppCenterHandler.post(new Runnable() {
+    /**
+     * Merge batches of several groups to send them in a single request.
+     *
+     * @param batches the batches to merge.
+     * @return a single batch containing all the logs.
+     */
+    private static LogContainer mergeBatches(@NonNull List<GroupBatch> batches) {
+        if (batches.size() == 1) {
+            return batches.get(0).mBatch;
+        }
+        LogContainer mergedBatch = new LogContainer();
+        if (batches.get(0).mBatch.getSerializedLogs() != null) {
+            List<String> serializedLogs = new ArrayList<>();
+            for (GroupBatch batch : batches) {
+                serializedLogs.addAll(batch.mBatch.getSerializedLogs());
+            }
+            mergedBatch.setSerializedLogs(serializedLogs);
+        } else {
+            List<Log> logs = new ArrayList<>();
+            for (GroupBatch batch : batches) {
+                logs.addAll(batch.mBatch.getLogs());
+            }
+            mergedBatch.setLogs(logs);
+        }
+        return mergedBatch;
+    }
 
-                        @Override
-                        public void run() {
-                            handleSendingSuccess(groupState, batchId);
-                        }
-                    });
-                }
+    /**
+     * Check if logs of a group can be sent as they were serialized in storage.
+     *
+     * @param groupState the group state.
+     * @return true if neither the ingestion nor the group listener need log objects.
+     */
+    private static boolean canSendSerializedLogs(@NonNull GroupState groupState) {
+        return groupState.mIngestion.isSerializedLogsSupported() && (groupState.mListener == null || groupState.mListener.canSendWithoutCallbacks());
+    }
 
-                @Override
-                public void onCallFailed(final Exception e) {
-                    mAppCenterHandler.post(new Runnable() {
+    /**
+     * Get the number of logs in a batch.
+     *
+     * @param batch the batch.
+     * @return number of log objects or serialized logs.
+     */
+    private static int getLogCount(@NonNull LogContainer batch) {
+        List<String> serializedLogs = batch.getSerializedLogs();
+        return serializedLogs != null ? serializedLogs.size() : batch.getLogs().size();
+    }
 
-                        @Override
-                        public void run() {
-                            handleSendingFailure(groupState, batchId, e);
-                        }
-                    });
-                }
-            });
+    /**
+     * Get the size of the logs in a batch.
+     *
+     * @param batch the batch.
+     * @return number of characters of serialized logs, 0 when the batch contains log objects.
+     */
+    private static long getPayloadSize(@NonNull LogContainer batch) {
+        long size = 0;
+        List<String> serializedLogs = batch.getSerializedLogs();
+        if (serializedLogs != null) {
+            for (String serializedLog : serializedLogs) {
+                size += serializedLog.length();
+            }
+        }
+        return size;
+    }
 
-            /* Check for more pending logs. */
-            mAppCenterHandler.post(new Runnable() {
+    private static void logBatchingDecision(@NonNull GroupState groupState) {
+        AppCenterLog.debug(LOG_TAG, "Batching of " + groupState.mName + " adapted: " + groupState.mBatchController.getDecision());
+    }
 
-                @Override
-                public void run() {
-                    checkPendingLogsAfterPost(groupState, currentState);
-                }
-            });
+    /**
+     * Send logs.
+     *
+     * @param batches      The batches to send in a single request, all using the same ingestion.
+     * @param currentState The current state.
+     * @param authToken    The auth token, can be null.
+     */
+    @MainThread
+    private synchronized void sendLogs(List<GroupBatch> batches, final int currentState, String authToken) {
+
+        /* Skip batches of groups removed in the meantime. */
+        final List<GroupBatch> validBatches = new ArrayList<>(batches.size());
+        for (GroupBatch batch : batches) {
+            if (checkStateDidNotChange(batch.mGroupState, currentState)) {
+                validBatches.add(batch);
+            }
         }
+        if (validBatches.isEmpty()) {
+            return;
+        }
+
+        /* Send logs. */
+        Ingestion ingestion = validBatches.get(0).mGroupState.mIngestion;
+        ingestion.sendAsync(authToken, mAppSecret, mInstallId, mergeBatches(validBatches), new SendingCallback(validBatches));
+
+        /* Check for more pending logs. */
+        mAppCenterHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                for (GroupBatch batch : validBatches) {
+                    checkPendingLogsAfterPost(batch.mGroupState, currentState);
+                }
+            }
+        });
     }
 
     private void checkPendingLogsAfterPost(@NonNull final GroupState groupState, int currentState) {
@@ -614,14 +946,21 @@ public class DefaultChannel implements Channel {
      *
      * @param groupState The group state.
      * @param batchId    The batch ID.
+     * @param startTime  The time the attempt that succeeded was sent at.
      */
-    private synchronized void handleSendingSuccess(@NonNull GroupState groupState, @NonNull String batchId) {
-        List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
+    private synchronized void handleSendingSuccess(@NonNull GroupState groupState, @NonNull String batchId, long startTime) {
+        LogContainer removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
         if (removedLogsForBatchId != null) {
             mPersistence.deleteLogs(groupState.mName, batchId);
+            if (mAdaptiveBatchingEnabled) {
+                long latency = Math.max(System.currentTimeMillis() - startTime, 0);
+                if (groupState.mBatchController.onSuccess(getLogCount(removedLogsForBatchId), getPayloadSize(removedLogsForBatchId), latency)) {
+                    logBatchingDecision(groupState);
+                }
+            }
             GroupListener groupListener = groupState.mListener;
-            if (groupListener != null) {
-                for (Log log : removedLogsForBatchId) {
+            if (groupListener != null && removedLogsForBatchId.getLogs() != null) {
+                for (Log log : removedLogsForBatchId.getLogs()) {
                     groupListener.onSuccess(log);
                 }
             }
@@ -630,30 +969,40 @@ public class DefaultChannel implements Channel {
     }
 
     /**
-     * The actual implementation to react to not being able to send a batch to the server.
+     * The actual implementation to react to not being able to send batches to the server.
      * Will disable the sender in case of a recoverable error.
-     * Will delete batch of data in case of a non-recoverable error.
+     * Will delete batches of data in case of a non-recoverable error.
      *
-     * @param groupState the group state
-     * @param batchId    the batch ID
-     * @param e          the exception
+     * @param batches the batches sent in the failed request.
+     * @param e       the exception
      */
-    private synchronized void handleSendingFailure(@NonNull GroupState groupState, @NonNull String batchId, @NonNull Exception e) {
-        String groupName = groupState.mName;
-        List<Log> removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
-        if (removedLogsForBatchId != null) {
-            AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupName + " id=" + batchId + " failed", e);
-            boolean recoverableError = HttpUtils.isRecoverableError(e);
+    private synchronized void handleSendingFailure(@NonNull List<GroupBatch> batches, @NonNull Exception e) {
+        boolean recoverableError = HttpUtils.isRecoverableError(e);
+        boolean failed = false;
+        for (GroupBatch batch : batches) {
+            GroupState groupState = batch.mGroupState;
+            String batchId = batch.mBatchId;
+            LogContainer removedLogsForBatchId = groupState.mSendingBatches.remove(batchId);
+            if (removedLogsForBatchId == null) {
+                continue;
+            }
+            failed = true;
+            AppCenterLog.error(LOG_TAG, "Sending logs groupName=" + groupState.mName + " id=" + batchId + " failed", e);
+            if (mAdaptiveBatchingEnabled && groupState.mBatchController.onFailure(recoverableError)) {
+                logBatchingDecision(groupState);
+            }
             if (recoverableError) {
-                groupState.mPendingLogCount += removedLogsForBatchId.size();
+                groupState.mPendingLogCount += getLogCount(removedLogsForBatchId);
             } else {
                 GroupListener groupListener = groupState.mListener;
-                if (groupListener != null) {
-                    for (Log log : removedLogsForBatchId) {
+                if (groupListener != null && removedLogsForBatchId.getLogs() != null) {
+                    for (Log log : removedLogsForBatchId.getLogs()) {
                         groupListener.onFailure(log, e);
                     }
                 }
             }
+        }
+        if (failed) {
             suspend(!recoverableError, e);
         }
     }
@@ -726,36 +1075,115 @@ public class DefaultChannel implements Channel {
                 AppCenterLog.debug(LOG_TAG, "Log of type '" + log.getType() + "' was not filtered out by listener(s) but no app secret was provided. Not persisting/sending the log.");
                 return;
             }
-            try {
 
-                /* Persist log. */
-                mPersistence.putLog(log, groupName, flags);
-            } catch (Persistence.PersistenceException e) {
-                AppCenterLog.error(LOG_TAG, "Error persisting log", e);
-                if (groupState.mListener != null) {
-                    groupState.mListener.onBeforeSending(log);
-                    groupState.mListener.onFailure(log, e);
+            /* Persist log right away or stage it to persist it along with the next logs. */
+            if (mLogBufferSize <= 1) {
+                if (persistLog(groupState, log, flags)) {
+                    checkPendingLogsAfterPersisting(groupState);
+                }
+            } else {
+                mLogBuffer.add(new BufferedLog(groupState, log, flags));
+                if (mLogBuffer.size() >= mLogBufferSize || Flags.getPersistenceFlag(flags, false) == Flags.CRITICAL) {
+                    flushLogBuffer();
+                } else if (!mLogBufferFlushScheduled) {
+                    mLogBufferFlushScheduled = true;
+                    mAppCenterHandler.postDelayed(mFlushLogBufferRunnable, LOG_BUFFER_FLUSH_DELAY);
                 }
-                return;
             }
+        }
+    }
 
-            /* Nothing more to do if the log is from a paused transmission target. */
-            Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
-            String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
-            if (groupState.mPausedTargetKeys.contains(targetKey)) {
-                AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
-                return;
+    /**
+     * Persist a log and update pending log counter.
+     *
+     * @param groupState the group state.
+     * @param log        the log to persist.
+     * @param flags      the flags for this log.
+     * @return true if the log is pending to be sent, false if it failed to be persisted or if its target is paused.
+     */
+    private boolean persistLog(@NonNull GroupState groupState, @NonNull Log log, int flags) {
+        try {
+
+            /* Persist log. */
+            mPersistence.putLog(log, groupState.mName, flags);
+        } catch (Persistence.PersistenceException e) {
+            AppCenterLog.error(LOG_TAG, "Error persisting log", e);
+            if (groupState.mListener != null) {
+                groupState.mListener.onBeforeSending(log);
+                groupState.mListener.onFailure(log, e);
             }
+            return false;
+        }
 
-            /* Increment counters and schedule ingestion if we are enabled. */
-            groupState.mPendingLogCount++;
-            AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
-            if (mEnabled) {
-                checkPendingLogs(groupState);
-            } else {
-                AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
+        /* Nothing more to do if the log is from a paused transmission target. */
+        Iterator<String> targetKeys = log.getTransmissionTargetTokens().iterator();
+        String targetKey = targetKeys.hasNext() ? PartAUtils.getTargetKey(targetKeys.next()) : null;
+        if (groupState.mPausedTargetKeys.contains(targetKey)) {
+            AppCenterLog.debug(LOG_TAG, "Transmission target ikey=" + targetKey + " is paused.");
+            return false;
+        }
+
+        /* Increment counters. */
+        groupState.mPendingLogCount++;
+        if (Flags.getPersistenceFlag(flags, false) == Flags.CRITICAL) {
+            groupState.mCriticalLogPending = true;
+        }
+        AppCenterLog.debug(LOG_TAG, "enqueue(" + groupState.mName + ") pendingLogCount=" + groupState.mPendingLogCount);
+        return true;
+    }
+
+    /**
+     * Schedule ingestion after logs have been persisted if we are enabled.
+     *
+     * @param groupState the group state.
+     */
+    private void checkPendingLogsAfterPersisting(@NonNull GroupState groupState) {
+        if (mEnabled) {
+            checkPendingLogs(groupState);
+        } else {
+            AppCenterLog.debug(LOG_TAG, "Channel is temporarily disabled, log was saved to disk.");
+        }
+    }
+
+    /**
+     * Persist all staged logs in a single transaction and check pending logs of their groups.
+     */
+    @VisibleForTesting
+    synchronized void flushLogBuffer() {
+        for (GroupState groupState : persistLogBuffer()) {
+            checkPendingLogsAfterPersisting(groupState);
+        }
+    }
+
+    /**
+     * Persist all staged logs in a single transaction.
+     *
+     * @return group states having new pending logs, excluding groups removed in the meantime.
+     */
+    private Collection<GroupState> persistLogBuffer() {
+        if (mLogBufferFlushScheduled) {
+            mLogBufferFlushScheduled = false;
+            mAppCenterHandler.removeCallbacks(mFlushLogBufferRunnable);
+        }
+        if (mLogBuffer.isEmpty()) {
+            return Collections.emptyList();
+        }
+        AppCenterLog.debug(LOG_TAG, "Persisting " + mLogBuffer.size() + " staged log(s).");
+        List<BufferedLog> bufferedLogs = new ArrayList<>(mLogBuffer);
+        mLogBuffer.clear();
+        Set<GroupState> updatedGroupStates = new LinkedHashSet<>();
+        mPersistence.beginTransaction();
+        try {
+            for (BufferedLog bufferedLog : bufferedLogs) {
+                GroupState groupState = bufferedLog.mGroupState;
+                if (persistLog(groupState, bufferedLog.mLog, bufferedLog.mFlags) && groupState == mGroupStates.get(groupState.mName)) {
+                    updatedGroupStates.add(groupState);
+                }
             }
+        } finally {
+            mPersistence.endTransaction();
         }
+        return updatedGroupStates;
     }
 
     /**
@@ -774,6 +1202,11 @@ public class DefaultChannel implements Channel {
             return;
         }
 
+        /* Wait for better conditions if the upload policy of the group says so. */
+        if (isUploadDeferred(groupState)) {
+            return;
+        }
+
         /* Trigger immediately. */
         if (batchTimeInterval == 0) {
             triggerIngestion(groupState);
@@ -786,6 +1219,63 @@ public class DefaultChannel implements Channel {
         }
     }
 
+    /**
+     * Check if the pending logs of a group have to wait for the conditions of its upload policy.
+     * When they do, the group timer is cancelled and a check is scheduled for when the conditions
+     * may be met or the logs become too stale.
+     *
+     * @param groupState the group state.
+     * @return true if logs have to wait, false if they can be sent.
+     */
+    private boolean isUploadDeferred(@NonNull GroupState groupState) {
+        UploadPolicy uploadPolicy = mUploadPolicies.get(groupState.mName);
+        if (uploadPolicy == null) {
+            return false;
+        }
+
+        /* Nothing changed until the scheduled check, unless a critical log is added. */
+        if (groupState.mUploadDeferred && !groupState.mCriticalLogPending) {
+            return true;
+        }
+
+        /* The waiting start is stored so that staleness is honored across processes. */
+        String key = UPLOAD_DEFERRED_PREFIX + groupState.mName;
+        long now = System.currentTimeMillis();
+        long deferredSince = SharedPreferencesManager.getLong(key);
+        if (deferredSince == 0 || deferredSince > now) {
+            deferredSince = now;
+        }
+        long waitingTime = now - deferredSince;
+        UploadPolicyEngine.Decision decision = mUploadPolicyEngine.evaluate(groupState.mName, uploadPolicy, groupState.mCriticalLogPending, waitingTime);
+        groupState.mUploadDeferred = decision.isDeferred();
+        if (groupState.mUploadDeferred) {
+            SharedPreferencesManager.putLong(key, deferredSince);
+            cancelTimer(groupState);
+            long maxStaleness = uploadPolicy.getMaxStaleness();
+            mUploadPolicyEngine.scheduleCheck(groupState.mName, uploadPolicy, maxStaleness > 0 ? maxStaleness - waitingTime : -1);
+        } else if (waitingTime > 0) {
+            SharedPreferencesManager.remove(key);
+            mUploadPolicyEngine.cancelCheck(groupState.mName);
+        }
+        return groupState.mUploadDeferred;
+    }
+
+    /**
+     * Check again the groups waiting for the conditions of their upload policy.
+     */
+    @VisibleForTesting
+    synchronized void checkDeferredUploads() {
+        if (!mEnabled) {
+            return;
+        }
+        for (GroupState groupState : mGroupStates.values()) {
+            if (groupState.mUploadDeferred) {
+                groupState.mUploadDeferred = false;
+                checkPendingLogs(groupState);
+            }
+        }
+    }
+
     /**
      * Calculate remaining interval to trigger ingestion based on initial batch interval and stored start value.
      *
@@ -830,12 +1320,39 @@ public class DefaultChannel implements Channel {
     }
 
     private Long resolveDefaultTriggerInterval(@NonNull GroupState groupState) {
-        if (groupState.mPendingLogCount >= groupState.mMaxLogsPerBatch) {
+        if (groupState.mPendingLogCount >= groupState.getMaxLogsPerBatch()) {
             return 0L;
         }
         return groupState.mPendingLogCount > 0 ? groupState.mBatchTimeInterval : null;
     }
 
+    /**
+     * Update state of a group after its logs were deleted from storage to free space.
+     *
+     * @param groupName The group name.
+     * @param count     The number of deleted logs that were not being sent.
+     */
+    @VisibleForTesting
+    synchronized void onLogsEvicted(@NonNull String groupName, int count) {
+        GroupState groupState = mGroupStates.get(groupName);
+        if (groupState == null) {
+            return;
+        }
+
+        /*
+         * Logs of paused targets are not pending and we don't know the targets of the deleted logs:
+         * only make sure the count is not above what is stored, the next trigger counts again.
+         */
+        if (groupState.mPausedTargetKeys.isEmpty()) {
+            groupState.mPendingLogCount = Math.max(0, groupState.mPendingLogCount - count);
+        } else {
+            groupState.mPendingLogCount = Math.min(groupState.mPendingLogCount, mPersistence.countLogs(groupName));
+        }
+        if (groupState.mListener != null) {
+            groupState.mListener.onLogsEvicted(count);
+        }
+    }
+
     @VisibleForTesting
     GroupState getGroupState(@SuppressWarnings("SameParameterValue") String groupName) {
         return mGroupStates.get(groupName);
@@ -854,6 +1371,7 @@ public class DefaultChannel implements Channel {
     @Override
     public synchronized void shutdown() {
         suspend(false, new CancellationException());
+        mUploadPolicyEngine.close();
     }
 
     /**
@@ -882,10 +1400,15 @@ public class DefaultChannel implements Channel {
          */
         final int mMaxParallelBatches;
 
+        /**
+         * Tunes batch size and parallelism, only fed with uploads when adaptive batching is enabled.
+         */
+        final AdaptiveBatchController mBatchController;
+
         /**
          * Batches being currently sent to ingestion.
          */
-        final Map<String, List<Log>> mSendingBatches = new HashMap<>();
+        final Map<String, LogContainer> mSendingBatches = new HashMap<>();
 
         /**
          * Ingestion for the group state.
@@ -912,6 +1435,16 @@ public class DefaultChannel implements Channel {
          */
         boolean mPaused;
 
+        /**
+         * Are critical logs pending, they are sent whatever the upload policy.
+         */
+        boolean mCriticalLogPending;
+
+        /**
+         * Are pending logs waiting for the conditions of the upload policy.
+         */
+        boolean mUploadDeferred;
+
         /**
          * List of paused target keys.
          */
@@ -945,13 +1478,132 @@ public class DefaultChannel implements Channel {
             mMaxLogsPerBatch = maxLogsPerBatch;
             mBatchTimeInterval = batchTimeInterval;
             mMaxParallelBatches = maxParallelBatches;
+            mBatchController = new AdaptiveBatchController(maxLogsPerBatch, maxParallelBatches);
             mIngestion = ingestion;
             mListener = listener;
         }
 
+        /**
+         * @return maximum log count for the next batch.
+         */
+        int getMaxLogsPerBatch() {
+            return mAdaptiveBatchingEnabled ? mBatchController.getLogsPerBatch() : mMaxLogsPerBatch;
+        }
+
+        /**
+         * @return maximum number of batches in parallel.
+         */
+        int getMaxParallelBatches() {
+            return mAdaptiveBatchingEnabled ? mBatchController.getParallelBatches() : mMaxParallelBatches;
+        }
+
         @Override
         public void onNewAuthToken(String authToken) {
             checkPendingLogs(this);
         }
     }
+
+    /**
+     * Batch of a group, possibly sent along with batches of other groups.
+     */
+    private static class GroupBatch {
+
+        /**
+         * Group state of the batch.
+         */
+        final GroupState mGroupState;
+
+        /**
+         * The batch ID.
+         */
+        final String mBatchId;
+
+        /**
+         * The logs of the batch.
+         */
+        final LogContainer mBatch;
+
+        GroupBatch(GroupState groupState, String batchId, LogContainer batch) {
+            mGroupState = groupState;
+            mBatchId = batchId;
+            mBatch = batch;
+        }
+    }
+
+    /**
+     * Callback of a request, measuring the attempt that succeeds so that retry delays are not counted as upload latency.
+     */
+    private class SendingCallback implements ServiceCallback, Ingestion.AttemptListener {
+
+        /**
+         * Batches sent in the request.
+         */
+        private final List<GroupBatch> mBatches;
+
+        /**
+         * Time the last attempt started, the call time if the ingestion does not report attempts.
+         */
+        private volatile long mAttemptStartTime = System.currentTimeMillis();
+
+        SendingCallback(List<GroupBatch> batches) {
+            mBatches = batches;
+        }
+
+        @Override
+        public void onAttemptStarted() {
+            mAttemptStartTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void onCallSucceeded(String payload, Map<String, String> headers) {
+            final long startTime = mAttemptStartTime;
+            mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    for (GroupBatch batch : mBatches) {
+                        handleSendingSuccess(batch.mGroupState, batch.mBatchId, startTime);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onCallFailed(final Exception e) {
+            mAppCenterHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    handleSendingFailure(mBatches, e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Log staged in memory before being persisted.
+     */
+    private static class BufferedLog {
+
+        /**
+         * Group state of the log.
+         */
+        final GroupState mGroupState;
+
+        /**
+         * The log.
+         */
+        final Log mLog;
+
+        /**
+         * The flags for this log.
+         */
+        final int mFlags;
+
+        BufferedLog(GroupState groupState, Log log, int flags) {
+            mGroupState = groupState;
+            mLog = log;
+            mFlags = flags;
+        }
+    }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.annotation.TargetApi;
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Build;
+
+/**
+ * Job scheduled by {@link UploadPolicyEngine} when logs wait for the conditions of their upload policy.
+ * <p>
+ * Starting the job starts the process if needed: the application then starts App Center, which checks
+ * pending logs of all groups. If App Center is already running, deferred groups are checked again.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class UploadJobService extends JobService {
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        UploadPolicyEngine.onJobStarted();
+
+        /* Sending is done by the channel, nothing to wait for here. */
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.UploadPolicy;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Decides whether the logs of a group with an {@link UploadPolicy} can be sent now, and schedules
+ * checking again when they have to wait.
+ * <p>
+ * From Lollipop, checks are scheduled with {@link JobScheduler} using the policy as job constraints and the
+ * remaining staleness as deadline, so that they also happen in a new process if this one is killed, and
+ * when the network radio becomes active for another reason. Before Lollipop, they are scheduled on the
+ * App Center handler.
+ * <p>
+ * Jobs use {@link #JOB_ID_COUNT} identifiers from a base that the application can change if it uses the same
+ * identifiers for its own jobs. Each group gets the identifier derived from its name, or the next free one
+ * if another group already uses it.
+ */
+public class UploadPolicyEngine {
+
+    /**
+     * Default first job identifier used for groups.
+     */
+    public static final int DEFAULT_JOB_ID_BASE = 0x41430000;
+
+    /**
+     * Number of job identifiers used for groups, from the base.
+     */
+    public static final int JOB_ID_COUNT = 64;
+
+    /**
+     * Maximum delay between checks when they are scheduled on the handler, in ms.
+     */
+    @VisibleForTesting
+    static final long CHECK_INTERVAL = 15 * 60 * 1000;
+
+    /**
+     * Engine notified when a scheduled job starts.
+     */
+    private static UploadPolicyEngine sScheduledInstance;
+
+    /**
+     * First job identifier used for groups.
+     */
+    private static int sJobIdBase = DEFAULT_JOB_ID_BASE;
+
+    /**
+     * Job identifiers by group name.
+     */
+    private static final Map<String, Integer> sJobIds = new HashMap<>();
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * App Center handler.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Called on the App Center handler when conditions must be checked again.
+     */
+    private final Runnable mCheckRunnable;
+
+    /**
+     * Decision listeners.
+     */
+    private final Collection<Listener> mListeners = new LinkedHashSet<>();
+
+    /**
+     * Handler callback for checks scheduled before Lollipop.
+     */
+    private final Runnable mScheduledCheckRunnable = new Runnable() {
+
+        @Override
+        public void run() {
+            synchronized (UploadPolicyEngine.this) {
+                mNextCheckTime = 0;
+            }
+            mCheckRunnable.run();
+        }
+    };
+
+    /**
+     * Time of the next check scheduled on the handler, 0 if none.
+     */
+    private long mNextCheckTime;
+
+    /**
+     * Listener called when the network radio becomes active, null if not registered.
+     */
+    private Object mNetworkActiveListener;
+
+    /**
+     * Init.
+     *
+     * @param context       application context.
+     * @param handler       App Center handler.
+     * @param checkRunnable called on the App Center handler when conditions must be checked again.
+     */
+    UploadPolicyEngine(@NonNull Context context, @NonNull Handler handler, @NonNull Runnable checkRunnable) {
+        mContext = context;
+        mHandler = handler;
+        mCheckRunnable = checkRunnable;
+    }
+
+    /**
+     * Called by {@link UploadJobService} when a scheduled check starts.
+     */
+    static synchronized void onJobStarted() {
+        if (sScheduledInstance != null) {
+            sScheduledInstance.mHandler.post(sScheduledInstance.mCheckRunnable);
+        }
+    }
+
+    /**
+     * Set the first job identifier used for groups. This must be called before scheduling any check.
+     *
+     * @param jobIdBase first job identifier, {@link #JOB_ID_COUNT} identifiers are used from it.
+     */
+    public static synchronized void setJobIdBase(int jobIdBase) {
+        sJobIdBase = jobIdBase;
+        sJobIds.clear();
+    }
+
+    /**
+     * Get the job identifier of a group.
+     *
+     * @param groupName group name.
+     * @return job identifier.
+     */
+    @VisibleForTesting
+    static synchronized int getJobId(@NonNull String groupName) {
+        Integer jobId = sJobIds.get(groupName);
+        if (jobId == null) {
+            int index = (groupName.hashCode() & Integer.MAX_VALUE) % JOB_ID_COUNT;
+            for (int i = 0; i < JOB_ID_COUNT; i++) {
+                int candidate = sJobIdBase + (index + i) % JOB_ID_COUNT;
+                if (!sJobIds.containsValue(candidate)) {
+                    jobId = candidate;
+                    break;
+                }
+                AppCenterLog.debug(LOG_TAG, "Job identifier " + candidate + " is already used by another group than " + groupName);
+            }
+            if (jobId == null) {
+                AppCenterLog.error(LOG_TAG, "No job identifier left for " + groupName + ", sharing one with another group.");
+                jobId = sJobIdBase + index;
+            }
+            sJobIds.put(groupName, jobId);
+        }
+        return jobId;
+    }
+
+    /**
+     * Add a listener notified of each decision.
+     *
+     * @param listener listener.
+     */
+    synchronized void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Remove a decision listener.
+     *
+     * @param listener listener.
+     */
+    synchronized void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Decide whether the pending logs of a group can be sent now.
+     *
+     * @param groupName    group name.
+     * @param uploadPolicy the upload policy of the group.
+     * @param critical     true if critical logs are pending.
+     * @param waitingTime  time the logs have been waiting for the conditions in ms.
+     * @return the decision.
+     */
+    synchronized Decision evaluate(@NonNull String groupName, @NonNull UploadPolicy uploadPolicy, boolean critical, long waitingTime) {
+        Reason reason;
+        long maxStaleness = uploadPolicy.getMaxStaleness();
+        if (critical) {
+            reason = Reason.CRITICAL;
+        } else if (maxStaleness > 0 && waitingTime >= maxStaleness) {
+            reason = Reason.MAX_STALENESS_REACHED;
+        } else if (uploadPolicy.isUnmeteredNetworkRequired() && NetworkStateHelper.getSharedInstance(mContext).isNetworkMetered()) {
+            reason = Reason.METERED_NETWORK;
+        } else if (uploadPolicy.isChargingRequired() && !isCharging() && !isNetworkActive()) {
+            reason = Reason.NOT_CHARGING;
+        } else {
+            reason = Reason.CONDITIONS_MET;
+        }
+        Decision decision = new Decision(groupName, reason, waitingTime);
+        AppCenterLog.debug(LOG_TAG, "Upload decision: " + decision);
+        for (Listener listener : mListeners) {
+            listener.onUploadDecision(decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Schedule checking the conditions of a group again.
+     *
+     * @param groupName    group name.
+     * @param uploadPolicy the upload policy of the group.
+     * @param maxDelay     time left before the logs must be sent anyway in ms, -1 if no limit.
+     */
+    synchronized void scheduleCheck(@NonNull String groupName, @NonNull UploadPolicy uploadPolicy, long maxDelay) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            scheduleJob(groupName, uploadPolicy, maxDelay);
+        } else {
+            long delay = maxDelay >= 0 ? Math.min(maxDelay, CHECK_INTERVAL) : CHECK_INTERVAL;
+            long checkTime = System.currentTimeMillis() + delay;
+            if (mNextCheckTime == 0 || checkTime < mNextCheckTime) {
+                mNextCheckTime = checkTime;
+                mHandler.removeCallbacks(mScheduledCheckRunnable);
+                mHandler.postDelayed(mScheduledCheckRunnable, delay);
+            }
+        }
+    }
+
+    /**
+     * Cancel the scheduled check of a group.
+     *
+     * @param groupName group name.
+     */
+    synchronized void cancelCheck(@NonNull String groupName) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            JobScheduler jobScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            int jobId = getJobId(groupName);
+            if (jobScheduler != null && !isUsedByApplication(jobScheduler, jobId)) {
+                jobScheduler.cancel(jobId);
+            }
+        }
+    }
+
+    /**
+     * Stop listening to the network radio and to scheduled checks in this process.
+     * Scheduled jobs are kept so that they are run in the next process.
+     */
+    synchronized void close() {
+        mHandler.removeCallbacks(mScheduledCheckRunnable);
+        mNextCheckTime = 0;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            unregisterNetworkActiveListener();
+        }
+        synchronized (UploadPolicyEngine.class) {
+            if (sScheduledInstance == this) {
+                sScheduledInstance = null;
+            }
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void scheduleJob(@NonNull String groupName, @NonNull UploadPolicy uploadPolicy, long maxDelay) {
+        synchronized (UploadPolicyEngine.class) {
+            sScheduledInstance = this;
+        }
+        registerNetworkActiveListener();
+        JobScheduler jobScheduler = (JobScheduler) mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        if (jobScheduler == null) {
+            return;
+        }
+
+        /* Do not replace a job of the application using the same identifier. */
+        int jobId = getJobId(groupName);
+        if (isUsedByApplication(jobScheduler, jobId)) {
+            return;
+        }
+
+        /* Builder setters return null in unit tests, do not chain them. */
+        JobInfo.Builder builder = new JobInfo.Builder(jobId, new ComponentName(mContext, UploadJobService.class));
+        builder.setRequiredNetworkType(uploadPolicy.isUnmeteredNetworkRequired() ? JobInfo.NETWORK_TYPE_UNMETERED : JobInfo.NETWORK_TYPE_ANY);
+        builder.setRequiresCharging(uploadPolicy.isChargingRequired());
+        if (maxDelay >= 0) {
+            builder.setOverrideDeadline(maxDelay);
+        }
+        try {
+            jobScheduler.schedule(builder.build());
+        } catch (RuntimeException e) {
+
+            /* Service not declared in the merged manifest or too many jobs. */
+            AppCenterLog.error(LOG_TAG, "Failed to schedule upload job for " + groupName, e);
+        }
+    }
+
+    /**
+     * Check if a job identifier is used by a pending job of the application that is not an upload job.
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean isUsedByApplication(@NonNull JobScheduler jobScheduler, int jobId) {
+        for (JobInfo pendingJob : jobScheduler.getAllPendingJobs()) {
+            ComponentName service = pendingJob.getService();
+            if (pendingJob.getId() == jobId && service != null && !UploadJobService.class.getName().equals(service.getClassName())) {
+                AppCenterLog.error(LOG_TAG, "Job identifier " + jobId + " is used by the application, change the ones of App Center with AppCenter.setUploadJobIdBase.");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void registerNetworkActiveListener() {
+        if (mNetworkActiveListener != null) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return;
+        }
+        ConnectivityManager.OnNetworkActiveListener listener = new ConnectivityManager.OnNetworkActiveListener() {
+
+            @Override
+            public void onNetworkActive() {
+                mHandler.post(mCheckRunnable);
+            }
+        };
+        try {
+            connectivityManager.addDefaultNetworkActiveListener(listener);
+            mNetworkActiveListener = listener;
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to listen to network activity", e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void unregisterNetworkActiveListener() {
+        if (mNetworkActiveListener == null) {
+            return;
+        }
+        ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager != null) {
+            try {
+                connectivityManager.removeDefaultNetworkActiveListener((ConnectivityManager.OnNetworkActiveListener) mNetworkActiveListener);
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to stop listening to network activity", e);
+            }
+        }
+        mNetworkActiveListener = null;
+    }
+
+    /**
+     * Check if the device is charging.
+     *
+     * @return true if plugged to a power source.
+     */
+    private boolean isCharging() {
+        try {
+            Intent batteryStatus = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            return batteryStatus != null && batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Could not get battery status", e);
+            return false;
+        }
+    }
+
+    /**
+     * Check if the network radio is already active, so that sending does not wake it up.
+     *
+     * @return true if known to be active.
+     */
+    private boolean isNetworkActive() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return false;
+        }
+        try {
+            ConnectivityManager connectivityManager = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            return connectivityManager != null && connectivityManager.isDefaultNetworkActive();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Could not get network activity", e);
+            return false;
+        }
+    }
+
+    /**
+     * Reason of a decision.
+     */
+    public enum Reason {
+
+        /**
+         * Logs are sent: the conditions of the policy are met.
+         */
+        CONDITIONS_MET,
+
+        /**
+         * Logs are sent: critical logs are pending.
+         */
+        CRITICAL,
+
+        /**
+         * Logs are sent: they have been waiting for the maximum staleness of the policy.
+         */
+        MAX_STALENESS_REACHED,
+
+        /**
+         * Logs wait: the network is metered.
+         */
+        METERED_NETWORK,
+
+        /**
+         * Logs wait: the device is not charging and the network radio is idle.
+         */
+        NOT_CHARGING
+    }
+
+    /**
+     * Decision about sending the pending logs of a group.
+     */
+    public static class Decision {
+
+        /**
+         * Group name.
+         */
+        private final String mGroupName;
+
+        /**
+         * Reason of the decision.
+         */
+        private final Reason mReason;
+
+        /**
+         * Time the logs have been waiting for the conditions in ms.
+         */
+        private final long mWaitingTime;
+
+        Decision(String groupName, Reason reason, long waitingTime) {
+            mGroupName = groupName;
+            mReason = reason;
+            mWaitingTime = waitingTime;
+        }
+
+        /**
+         * Get group name.
+         *
+         * @return group name.
+         */
+        public String getGroupName() {
+            return mGroupName;
+        }
+
+        /**
+         * Get reason of the decision.
+         *
+         * @return reason of the decision.
+         */
+        public Reason getReason() {
+            return mReason;
+        }
+
+        /**
+         * Get time the logs have been waiting for the conditions.
+         *
+         * @return waiting time in ms.
+         */
+        public long getWaitingTime() {
+            return mWaitingTime;
+        }
+
+        /**
+         * Check if logs have to wait.
+         *
+         * @return true if logs have to wait, false if they can be sent now.
+         */
+        public boolean isDeferred() {
+            return mReason == Reason.METERED_NETWORK || mReason == Reason.NOT_CHARGING;
+        }
+
+        @Override
+        public String toString() {
+            return "group=" + mGroupName + " reason=" + mReason + " waitingTime=" + mWaitingTime + "ms";
+        }
+    }
+
+    /**
+     * Listener of upload decisions.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the App Center handler for each decision.
+         *
+         * @param decision the decision.
+         */
+        void onUploadDecision(Decision decision);
+    }
+}
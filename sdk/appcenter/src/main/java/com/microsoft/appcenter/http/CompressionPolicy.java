@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Chooses how request bodies are compressed, for each request.
+ * <p>
+ * Small bodies are not compressed. Larger ones are compressed with gzip at default level, or at best level
+ * when the network is metered, stepping down when compressing takes too much CPU time. Compression is skipped
+ * for an origin when bodies turn out to barely compress or for a while when the server rejects compressed bodies.
+ * Decisions are taken only after a few measures, and are checked again from time to time.
+ */
+class CompressionPolicy {
+
+    /**
+     * Value of {@link #getLevel(String, long)} when the body must not be compressed.
+     */
+    static final int NO_COMPRESSION = Integer.MIN_VALUE;
+
+    /**
+     * Minimum body length in bytes to compress.
+     */
+    @VisibleForTesting
+    static final int MIN_COMPRESSION_LENGTH = 1400;
+
+    /**
+     * Compressed to uncompressed length ratio above which compression is not worth it.
+     */
+    @VisibleForTesting
+    static final double MAX_USEFUL_RATIO = 0.9;
+
+    /**
+     * Maximum compression time, in ms per MB of uncompressed body, before using a faster level.
+     */
+    @VisibleForTesting
+    static final double MAX_COMPRESSION_TIME_PER_MB = 100;
+
+    /**
+     * When compression is skipped because it is not useful or a faster level is used because the preferred one is slow,
+     * one request in that many is compressed with the next level up anyway to measure it again.
+     */
+    @VisibleForTesting
+    static final int PROBE_INTERVAL = 20;
+
+    /**
+     * Number of measures needed before skipping compression or using a faster level.
+     */
+    @VisibleForTesting
+    static final int MIN_SAMPLES = 3;
+
+    /**
+     * Time in nanoseconds during which compression is skipped after the server rejected a compressed body.
+     */
+    @VisibleForTesting
+    static final long ENCODING_REJECTED_DURATION = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * Weight of the last measure in moving averages.
+     */
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    /**
+     * Number of bytes in a MB.
+     */
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    /**
+     * Number of nanoseconds in a millisecond.
+     */
+    private static final double NANOS_PER_MS = 1000 * 1000;
+
+    /**
+     * Shared instance.
+     */
+    private static CompressionPolicy sSharedInstance;
+
+    /**
+     * Statistics by origin.
+     */
+    private final Map<String, Statistics> mStatistics = new HashMap<>();
+
+    /**
+     * Network state helper to check if network is metered, can be null.
+     */
+    private NetworkStateHelper mNetworkStateHelper;
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    static synchronized CompressionPolicy getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new CompressionPolicy();
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Set network state helper used to check if network is metered.
+     *
+     * @param networkStateHelper network state helper.
+     */
+    synchronized void setNetworkStateHelper(NetworkStateHelper networkStateHelper) {
+        mNetworkStateHelper = networkStateHelper;
+    }
+
+    private Statistics getStatistics(String origin) {
+        Statistics statistics = mStatistics.get(origin);
+        if (statistics == null) {
+            statistics = new Statistics();
+            mStatistics.put(origin, statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Choose how to compress a request body.
+     *
+     * @param origin origin, can be null.
+     * @param length body length in bytes, -1 if not known yet but at least {@link #MIN_COMPRESSION_LENGTH}.
+     * @return {@link Deflater} level to use, or {@link #NO_COMPRESSION}.
+     */
+    synchronized int getLevel(String origin, long length) {
+        if (length >= 0 && length < MIN_COMPRESSION_LENGTH) {
+            return NO_COMPRESSION;
+        }
+        Statistics statistics = getStatistics(origin);
+        if (statistics.mEncodingRejected) {
+            if (System.nanoTime() - statistics.mEncodingRejectedTime < ENCODING_REJECTED_DURATION) {
+                return NO_COMPRESSION;
+            }
+            statistics.mEncodingRejected = false;
+        }
+        if (statistics.mRatioSampleCount >= MIN_SAMPLES && statistics.mRatio > MAX_USEFUL_RATIO && ++statistics.mSkippedCount % PROBE_INTERVAL != 0) {
+            return NO_COMPRESSION;
+        }
+        boolean metered = mNetworkStateHelper != null && mNetworkStateHelper.isNetworkMetered();
+        int level = metered ? Deflater.BEST_COMPRESSION : Deflater.DEFAULT_COMPRESSION;
+        int higherLevel = level;
+        if (level == Deflater.BEST_COMPRESSION && statistics.isSlow(level)) {
+            level = Deflater.DEFAULT_COMPRESSION;
+        }
+        if (level == Deflater.DEFAULT_COMPRESSION && statistics.isSlow(level)) {
+            higherLevel = level;
+            level = Deflater.BEST_SPEED;
+        }
+
+        /* Measure the next level up again from time to time, as the device may not be as busy anymore. */
+        if (level != higherLevel && ++statistics.mSlowCount % PROBE_INTERVAL == 0) {
+            level = higherLevel;
+        }
+        return level;
+    }
+
+    /**
+     * Record the result of a compression.
+     *
+     * @param origin            origin, can be null.
+     * @param level             {@link Deflater} level used.
+     * @param uncompressedBytes body length before compression.
+     * @param compressedBytes   body length after compression.
+     * @param duration          compression time in nanoseconds, -1 if not measured.
+     */
+    synchronized void onCompressed(String origin, int level, long uncompressedBytes, long compressedBytes, long duration) {
+        if (uncompressedBytes <= 0) {
+            return;
+        }
+        Statistics statistics = getStatistics(origin);
+        double ratio = (double) compressedBytes / uncompressedBytes;
+        statistics.mRatio = statistics.mRatio < 0 ? ratio : SMOOTHING_FACTOR * ratio + (1 - SMOOTHING_FACTOR) * statistics.mRatio;
+        statistics.mRatioSampleCount++;
+        if (statistics.mRatio <= MAX_USEFUL_RATIO) {
+            statistics.mSkippedCount = 0;
+        }
+        if (duration >= 0) {
+            double timePerMegabyte = duration / NANOS_PER_MS * BYTES_PER_MB / uncompressedBytes;
+            Double previous = statistics.mTimePerMegabyte.get(level);
+            statistics.mTimePerMegabyte.put(level, previous == null ? timePerMegabyte : SMOOTHING_FACTOR * timePerMegabyte + (1 - SMOOTHING_FACTOR) * previous);
+            Integer sampleCount = statistics.mTimeSampleCounts.get(level);
+            statistics.mTimeSampleCounts.put(level, sampleCount == null ? 1 : sampleCount + 1);
+        }
+    }
+
+    /**
+     * Record that the server does not accept compressed bodies.
+     *
+     * @param origin origin, can be null.
+     */
+    synchronized void onEncodingRejected(String origin) {
+        AppCenterLog.warn(LOG_TAG, "Compressed requests rejected by " + origin + ", sending them uncompressed for a while.");
+        Statistics statistics = getStatistics(origin);
+        statistics.mEncodingRejected = true;
+        statistics.mEncodingRejectedTime = System.nanoTime();
+    }
+
+    /**
+     * Compression statistics of an origin.
+     */
+    private static class Statistics {
+
+        /**
+         * Compression time per MB of uncompressed body by level, in ms, as moving averages.
+         */
+        final Map<Integer, Double> mTimePerMegabyte = new HashMap<>();
+
+        /**
+         * Number of compression time measures by level.
+         */
+        final Map<Integer, Integer> mTimeSampleCounts = new HashMap<>();
+
+        /**
+         * Moving average of compression ratio, -1 if not measured yet.
+         */
+        double mRatio = -1;
+
+        /**
+         * Number of compression ratio measures.
+         */
+        int mRatioSampleCount;
+
+        /**
+         * Number of requests not compressed since the ratio is too high.
+         */
+        int mSkippedCount;
+
+        /**
+         * Number of requests compressed with a faster level than the preferred one.
+         */
+        int mSlowCount;
+
+        /**
+         * Whether the server rejected compressed bodies.
+         */
+        boolean mEncodingRejected;
+
+        /**
+         * {@link System#nanoTime()} when the server last rejected compressed bodies.
+         */
+        long mEncodingRejectedTime;
+
+        boolean isSlow(int level) {
+            Integer sampleCount = mTimeSampleCounts.get(level);
+            return sampleCount != null && sampleCount >= MIN_SAMPLES && mTimePerMegabyte.get(level) > MAX_COMPRESSION_TIME_PER_MB;
+        }
+    }
+}
@@ -5,7 +5,7 @@
 
 package com.microsoft.appcenter.http;
 
-import android.os.AsyncTask;
+import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.utils.AppCenterLog;
@@ -14,6 +14,7 @@ import com.microsoft.appcenter.utils.HandlerUtils;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
@@ -78,12 +79,28 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
      */
     private final boolean mCompressionEnabled;
 
+    /**
+     * Executor running the calls.
+     */
+    private final Executor mExecutor;
+
     public DefaultHttpClient() {
         this(true);
     }
 
     public DefaultHttpClient(boolean compressionEnabled) {
+        this(compressionEnabled, NetworkExecutor.getSharedInstance());
+    }
+
+    /**
+     * Init.
+     *
+     * @param compressionEnabled whether large payloads are compressed.
+     * @param executor           executor running the calls.
+     */
+    public DefaultHttpClient(boolean compressionEnabled, @NonNull Executor executor) {
         mCompressionEnabled = compressionEnabled;
+        mExecutor = executor;
     }
 
     @VisibleForTesting
@@ -95,11 +112,14 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
     public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, final ServiceCallback serviceCallback) {
         final DefaultHttpClientCallTask task = new DefaultHttpClientCallTask(url, method, headers, callTemplate, serviceCallback, this, mCompressionEnabled);
         try {
-            task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+            task.executeOnExecutor(mExecutor);
         } catch (final RejectedExecutionException e) {
 
+            /* The task was tracked before being rejected. */
+            onFinish(task);
+
             /*
-             * When executor saturated (shared with app), we should use the retry mechanism
+             * When executor saturated, we should use the retry mechanism
              * rather than creating more threads to avoid putting too much pressure on the hosting app.
              * Also we need to return the method before calling the listener,
              * so we post the callback on handler to make sure of that.
@@ -154,4 +174,9 @@ public class DefaultHttpClient implements HttpClient, DefaultHttpClientCallTask.
     boolean isCompressionEnabled() {
         return mCompressionEnabled;
     }
+
+    @VisibleForTesting
+    Executor getExecutor() {
+        return mExecutor;
+    }
 }
@@ -8,6 +8,7 @@ package com.microsoft.appcenter.http;
 import android.net.TrafficStats;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.support.annotation.NonNull;
 import android.util.Log;
 import android.util.Pair;
 
@@ -16,11 +17,17 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 import org.json.JSONObject;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.HashMap;
@@ -37,6 +44,8 @@ import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_KE
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_ENCODING_VALUE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_VALUE;
+import static com.microsoft.appcenter.http.CompressionPolicy.MIN_COMPRESSION_LENGTH;
+import static com.microsoft.appcenter.http.CompressionPolicy.NO_COMPRESSION;
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
@@ -56,11 +65,6 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
      */
     private static final int DEFAULT_STRING_BUILDER_CAPACITY = 16;
 
-    /**
-     * Minimum payload length in bytes to use gzip.
-     */
-    private static final int MIN_GZIP_LENGTH = 1400;
-
     /**
      * Read buffer size.
      */
@@ -96,6 +100,11 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
      */
     private static final Pattern TOKEN_REGEX_JSON = Pattern.compile("token\":\"[^\"]+\"");
 
+    /**
+     * Socket factory forcing TLS 1.2, shared so that connections using it can be reused.
+     */
+    private static TLS1_2SocketFactory sTls1_2SocketFactory;
+
     private final String mUrl;
 
     private final String mMethod;
@@ -110,6 +119,51 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
     private final boolean mCompressionEnabled;
 
+    /**
+     * Origin of the URL.
+     */
+    private final String mOrigin;
+
+    /**
+     * Compression level of the request body, {@link CompressionPolicy#NO_COMPRESSION} if not compressed.
+     */
+    private int mCompressionLevel = NO_COMPRESSION;
+
+    /**
+     * Response status code, for metrics.
+     */
+    private int mStatusCode = HttpMetrics.NO_RESPONSE;
+
+    /**
+     * Time to open the connection in ms, -1 if not measured.
+     */
+    private long mConnectTime = -1;
+
+    /**
+     * Time the request was fully sent at, 0 if not sent yet.
+     */
+    private long mRequestSentTime;
+
+    /**
+     * Time from request sent to response status received in ms, -1 if not measured.
+     */
+    private long mTimeToFirstByte = -1;
+
+    /**
+     * Request body length before compression.
+     */
+    private long mUncompressedRequestBytes;
+
+    /**
+     * Request body length sent.
+     */
+    private long mRequestBytes;
+
+    /**
+     * Response body length received.
+     */
+    private long mResponseBytes;
+
     DefaultHttpClientCallTask(String url, String method, Map<String, String> headers, HttpClient.CallTemplate callTemplate, ServiceCallback serviceCallback, Tracker tracker, boolean compressionEnabled) {
         mUrl = url;
         mMethod = method;
@@ -118,14 +172,42 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         mServiceCallback = serviceCallback;
         mTracker = tracker;
         mCompressionEnabled = compressionEnabled;
+        mOrigin = EndpointHealth.getOrigin(url);
     }
 
-    private static InputStream getInputStream(HttpsURLConnection httpsURLConnection) throws IOException {
+    private InputStream getInputStream(HttpsURLConnection httpsURLConnection) throws IOException {
         int status = httpsURLConnection.getResponseCode();
+        InputStream stream;
         if (status >= 200 && status < 400) {
-            return httpsURLConnection.getInputStream();
+            stream = httpsURLConnection.getInputStream();
         } else {
-            return httpsURLConnection.getErrorStream();
+            stream = httpsURLConnection.getErrorStream();
+        }
+        return new CountingInputStream(stream);
+    }
+
+    /**
+     * Reset the state of the attempt before sending the request again.
+     */
+    private void resetAttempt() {
+        mCompressionLevel = NO_COMPRESSION;
+        mStatusCode = HttpMetrics.NO_RESPONSE;
+        mConnectTime = -1;
+        mRequestSentTime = 0;
+        mTimeToFirstByte = -1;
+        mUncompressedRequestBytes = 0;
+        mRequestBytes = 0;
+        mResponseBytes = 0;
+    }
+
+    /**
+     * Open the connection if not yet opened, measuring how long it takes.
+     */
+    private void connect(HttpsURLConnection httpsURLConnection) throws IOException {
+        if (mConnectTime < 0) {
+            long startTime = System.currentTimeMillis();
+            httpsURLConnection.connect();
+            mConnectTime = System.currentTimeMillis() - startTime;
         }
     }
 
@@ -171,6 +253,31 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
+    private static synchronized TLS1_2SocketFactory getTls1_2SocketFactory() {
+        if (sTls1_2SocketFactory == null) {
+            sTls1_2SocketFactory = new TLS1_2SocketFactory();
+        }
+        return sTls1_2SocketFactory;
+    }
+
+    /**
+     * Send headers then call back before the payload is sent.
+     *
+     * @return false if the call was cancelled.
+     */
+    private boolean sendHeaders(HttpsURLConnection httpsURLConnection, URL url) {
+        for (Map.Entry<String, String> header : mHeaders.entrySet()) {
+            httpsURLConnection.setRequestProperty(header.getKey(), header.getValue());
+        }
+        if (isCancelled()) {
+            return false;
+        }
+        if (mCallTemplate != null) {
+            mCallTemplate.onBeforeCalling(url, mHeaders);
+        }
+        return true;
+    }
+
     /**
      * Do http call.
      */
@@ -188,6 +295,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         } else {
             throw new IOException("App Center supports only HTTPS connection.");
         }
+        boolean keepAlive = false;
         try {
 
             /*
@@ -204,7 +312,7 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
              * See https://github.com/square/okhttp/issues/2372#issuecomment-244807676
              */
             if (Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP) {
-                httpsURLConnection.setSSLSocketFactory(new TLS1_2SocketFactory());
+                httpsURLConnection.setSSLSocketFactory(getTls1_2SocketFactory());
             }
 
             /* Configure connection timeouts. */
@@ -215,72 +323,90 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             httpsURLConnection.setRequestMethod(mMethod);
             String payload = null;
             byte[] binaryPayload = null;
-            boolean shouldCompress = false;
+            HttpClient.StreamingCallTemplate streamingCallTemplate = null;
             boolean isPost = mMethod.equals(METHOD_POST);
             if (isPost && mCallTemplate != null) {
 
-                /* Get bytes, check if large enough to compress. */
-                payload = mCallTemplate.buildRequestBody();
-                binaryPayload = payload.getBytes(CHARSET_NAME);
-                shouldCompress = mCompressionEnabled && binaryPayload.length >= MIN_GZIP_LENGTH;
-
                 /* If no content type specified, assume json. */
                 if (!mHeaders.containsKey(CONTENT_TYPE_KEY)) {
                     mHeaders.put(CONTENT_TYPE_KEY, CONTENT_TYPE_VALUE);
                 }
-            }
 
-            /* If about to compress, add corresponding header. */
-            if (shouldCompress) {
-                mHeaders.put(CONTENT_ENCODING_KEY, CONTENT_ENCODING_VALUE);
-            }
+                /* Verbose logging needs the whole payload, stream it only otherwise. */
+                if (mCallTemplate instanceof HttpClient.StreamingCallTemplate && AppCenterLog.getLogLevel() > Log.VERBOSE) {
+                    streamingCallTemplate = (HttpClient.StreamingCallTemplate) mCallTemplate;
+                } else {
 
-            /* Send headers. */
-            for (Map.Entry<String, String> header : mHeaders.entrySet()) {
-                httpsURLConnection.setRequestProperty(header.getKey(), header.getValue());
-            }
-            if (isCancelled()) {
-                return null;
+                    /* Get bytes, check if large enough to compress. */
+                    payload = mCallTemplate.buildRequestBody();
+                    binaryPayload = payload.getBytes(CHARSET_NAME);
+                    if (mCompressionEnabled) {
+                        mCompressionLevel = CompressionPolicy.getSharedInstance().getLevel(mOrigin, binaryPayload.length);
+                    }
+                }
             }
 
-            /* Call back before the payload is sent. */
-            if (mCallTemplate != null) {
-                mCallTemplate.onBeforeCalling(url, mHeaders);
-            }
+            /* Stream payload, headers are sent once we know if the payload is large enough to compress. */
+            if (streamingCallTemplate != null) {
+                RequestBodyStream stream = new RequestBodyStream(httpsURLConnection, url);
+                Writer writer = new OutputStreamWriter(stream, CHARSET_NAME);
+                streamingCallTemplate.writeRequestBody(writer);
+                writer.close();
+            } else {
+
+                /* If about to compress, add corresponding header. */
+                if (mCompressionLevel != NO_COMPRESSION) {
+                    mHeaders.put(CONTENT_ENCODING_KEY, CONTENT_ENCODING_VALUE);
+                } else {
+                    mHeaders.remove(CONTENT_ENCODING_KEY);
+                }
+
+                /* Send headers. */
+                if (!sendHeaders(httpsURLConnection, url)) {
+                    return null;
+                }
 
-            /* Send payload. */
-            if (binaryPayload != null) {
+                /* Send payload. */
+                if (binaryPayload != null) {
 
-                /* Log payload. */
-                if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
-                    if (payload.length() < MAX_PRETTIFY_LOG_LENGTH) {
-                        payload = TOKEN_REGEX_URL_ENCODED.matcher(payload).replaceAll("token=***");
-                        if (CONTENT_TYPE_VALUE.equals(mHeaders.get(CONTENT_TYPE_KEY))) {
-                            payload = new JSONObject(payload).toString(2);
+                    /* Log payload. */
+                    if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
+                        if (payload.length() < MAX_PRETTIFY_LOG_LENGTH) {
+                            payload = TOKEN_REGEX_URL_ENCODED.matcher(payload).replaceAll("token=***");
+                            if (CONTENT_TYPE_VALUE.equals(mHeaders.get(CONTENT_TYPE_KEY))) {
+                                payload = new JSONObject(payload).toString(2);
+                            }
                         }
+                        AppCenterLog.verbose(LOG_TAG, payload);
                     }
-                    AppCenterLog.verbose(LOG_TAG, payload);
-                }
 
-                /* Compress payload if large enough to be worth it. */
-                if (shouldCompress) {
-                    ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(binaryPayload.length);
-                    GZIPOutputStream gzipStream = new GZIPOutputStream(gzipBuffer);
-                    gzipStream.write(binaryPayload);
-                    gzipStream.close();
-                    binaryPayload = gzipBuffer.toByteArray();
-                }
-
-                /* Send payload on the wire. */
-                httpsURLConnection.setDoOutput(true);
-                httpsURLConnection.setFixedLengthStreamingMode(binaryPayload.length);
-                OutputStream out = httpsURLConnection.getOutputStream();
+                    /* Compress payload if large enough to be worth it. */
+                    mUncompressedRequestBytes = binaryPayload.length;
+                    if (mCompressionLevel != NO_COMPRESSION) {
+                        long startTime = System.nanoTime();
+                        ByteArrayOutputStream gzipBuffer = new ByteArrayOutputStream(binaryPayload.length);
+                        GZIPOutputStream gzipStream = new LevelGZIPOutputStream(gzipBuffer, WRITE_BUFFER_SIZE, mCompressionLevel);
+                        gzipStream.write(binaryPayload);
+                        gzipStream.close();
+                        binaryPayload = gzipBuffer.toByteArray();
+                        long duration = System.nanoTime() - startTime;
+                        CompressionPolicy.getSharedInstance().onCompressed(mOrigin, mCompressionLevel, mUncompressedRequestBytes, binaryPayload.length, duration);
+                    }
 
-                //noinspection TryFinallyCanBeTryWithResources
-                try {
-                    writePayload(out, binaryPayload);
-                } finally {
-                    out.close();
+                    /* Send payload on the wire. */
+                    httpsURLConnection.setDoOutput(true);
+                    httpsURLConnection.setFixedLengthStreamingMode(binaryPayload.length);
+                    connect(httpsURLConnection);
+                    OutputStream out = httpsURLConnection.getOutputStream();
+
+                    //noinspection TryFinallyCanBeTryWithResources
+                    try {
+                        writePayload(out, binaryPayload);
+                        mRequestBytes = binaryPayload.length;
+                    } finally {
+                        out.close();
+                    }
+                    mRequestSentTime = System.currentTimeMillis();
                 }
             }
             if (isCancelled()) {
@@ -288,8 +414,17 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             }
 
             /* Read response. */
+            connect(httpsURLConnection);
+            if (mRequestSentTime == 0) {
+                mRequestSentTime = System.currentTimeMillis();
+            }
             int status = httpsURLConnection.getResponseCode();
+            mStatusCode = status;
+            mTimeToFirstByte = System.currentTimeMillis() - mRequestSentTime;
             String response = readResponse(httpsURLConnection);
+
+            /* The connection can be reused by the next call to the same host once the response is fully read. */
+            keepAlive = !isCancelled();
             if (AppCenterLog.getLogLevel() <= Log.VERBOSE) {
                 String contentType = httpsURLConnection.getHeaderField(CONTENT_TYPE_KEY);
                 String logPayload;
@@ -314,8 +449,10 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
             throw new HttpException(status, response, responseHeaders);
         } finally {
 
-            /* Release connection. */
-            httpsURLConnection.disconnect();
+            /* Close connection if it cannot be reused. */
+            if (!keepAlive) {
+                httpsURLConnection.disconnect();
+            }
         }
     }
 
@@ -324,15 +461,35 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
 
         /* Do tag socket to avoid strict mode issue. */
         TrafficStats.setThreadStatsTag(THREAD_STATS_TAG);
+        long startTime = System.currentTimeMillis();
         try {
-            return doHttpCall();
+            try {
+                return doHttpCall();
+            } catch (HttpException e) {
+
+                /* Send again without compression if the server does not support it. */
+                if (e.getStatusCode() == HttpURLConnection.HTTP_UNSUPPORTED_TYPE && mCompressionLevel != NO_COMPRESSION) {
+                    CompressionPolicy.getSharedInstance().onEncodingRejected(mOrigin);
+                    recordAttempt(startTime);
+                    resetAttempt();
+                    startTime = System.currentTimeMillis();
+                    return doHttpCall();
+                }
+                throw e;
+            }
         } catch (Exception e) {
             return e;
         } finally {
             TrafficStats.clearThreadStatsTag();
+            recordAttempt(startTime);
         }
     }
 
+    private void recordAttempt(long startTime) {
+        HttpMetrics.getSharedInstance().onAttemptCompleted(mUrl, mStatusCode, mConnectTime, mTimeToFirstByte,
+                System.currentTimeMillis() - startTime, mUncompressedRequestBytes, mRequestBytes, mResponseBytes);
+    }
+
     @Override
     protected void onPreExecute() {
         mTracker.onStart(this);
@@ -362,6 +519,213 @@ class DefaultHttpClientCallTask extends AsyncTask<Void, Void, Object> {
         }
     }
 
+    /**
+     * Request body stream that keeps payloads in memory only until they are large enough to be compressed.
+     * Larger payloads are compressed on the fly and sent in chunks.
+     */
+    private class RequestBodyStream extends OutputStream {
+
+        /**
+         * Connection.
+         */
+        private final HttpsURLConnection mHttpsURLConnection;
+
+        /**
+         * URL.
+         */
+        private final URL mUrl;
+
+        /**
+         * Start of the payload, until the connection stream is opened.
+         */
+        private final byte[] mBuffer = new byte[MIN_COMPRESSION_LENGTH];
+
+        /**
+         * Number of bytes in {@link #mBuffer}.
+         */
+        private int mCount;
+
+        /**
+         * Connection stream, possibly compressing, null until opened.
+         */
+        private OutputStream mOut;
+
+        /**
+         * Connection stream counting bytes sent below compression, null until opened.
+         */
+        private CountingOutputStream mCountingOut;
+
+        /**
+         * Time spent compressing, in nanoseconds.
+         */
+        private long mCompressionTime;
+
+        RequestBodyStream(HttpsURLConnection httpsURLConnection, URL url) {
+            mHttpsURLConnection = httpsURLConnection;
+            mUrl = url;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            mUncompressedRequestBytes += len;
+            if (mOut == null) {
+                if (mCount + len < MIN_COMPRESSION_LENGTH) {
+                    System.arraycopy(b, off, mBuffer, mCount, len);
+                    mCount += len;
+                    return;
+                }
+                open(true);
+            }
+            writeOut(b, off, len);
+            if (isCancelled()) {
+                throw new InterruptedIOException("HTTP call cancelled.");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            /* Small payloads are sent with a fixed length and never compressed. */
+            if (mOut == null) {
+                open(false);
+            }
+            if (mCompressionLevel != NO_COMPRESSION) {
+
+                /* Finish compressing before closing the connection stream, to measure compression time only. */
+                long startTime = System.nanoTime();
+                long writeTime = mCountingOut.mWriteTime;
+                ((GZIPOutputStream) mOut).finish();
+                mCompressionTime += System.nanoTime() - startTime - (mCountingOut.mWriteTime - writeTime);
+            }
+            mOut.close();
+            mRequestSentTime = System.currentTimeMillis();
+            if (mCompressionLevel != NO_COMPRESSION) {
+                CompressionPolicy.getSharedInstance().onCompressed(mOrigin, mCompressionLevel, mUncompressedRequestBytes, mRequestBytes, mCompressionTime);
+            }
+        }
+
+        /**
+         * Write to the connection stream, accumulating the time spent compressing apart from the time spent sending.
+         *
+         * @param b   data.
+         * @param off start offset in the data.
+         * @param len number of bytes to write.
+         */
+        private void writeOut(byte[] b, int off, int len) throws IOException {
+            long startTime = System.nanoTime();
+            long writeTime = mCountingOut.mWriteTime;
+            mOut.write(b, off, len);
+            mCompressionTime += System.nanoTime() - startTime - (mCountingOut.mWriteTime - writeTime);
+        }
+
+        /**
+         * Send headers and open the connection stream, then write what was buffered.
+         *
+         * @param chunked true to send a payload of unknown length in chunks, compressed if enabled.
+         */
+        private void open(boolean chunked) throws IOException {
+            if (chunked && mCompressionEnabled) {
+                mCompressionLevel = CompressionPolicy.getSharedInstance().getLevel(mOrigin, -1);
+            }
+            if (mCompressionLevel != NO_COMPRESSION) {
+                mHeaders.put(CONTENT_ENCODING_KEY, CONTENT_ENCODING_VALUE);
+            } else {
+                mHeaders.remove(CONTENT_ENCODING_KEY);
+            }
+            if (!sendHeaders(mHttpsURLConnection, mUrl)) {
+                throw new InterruptedIOException("HTTP call cancelled.");
+            }
+            mHttpsURLConnection.setDoOutput(true);
+            if (chunked) {
+                mHttpsURLConnection.setChunkedStreamingMode(WRITE_BUFFER_SIZE);
+            } else {
+                mHttpsURLConnection.setFixedLengthStreamingMode(mCount);
+            }
+            connect(mHttpsURLConnection);
+            mCountingOut = new CountingOutputStream(mHttpsURLConnection.getOutputStream());
+            mOut = mCountingOut;
+            if (mCompressionLevel != NO_COMPRESSION) {
+                mOut = new LevelGZIPOutputStream(mOut, WRITE_BUFFER_SIZE, mCompressionLevel);
+            }
+            writeOut(mBuffer, 0, mCount);
+        }
+    }
+
+    /**
+     * Gzip stream with a given compression level.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        LevelGZIPOutputStream(OutputStream out, int size, int level) throws IOException {
+            super(out, size);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Stream counting request bytes sent and the time spent sending them.
+     */
+    private class CountingOutputStream extends FilterOutputStream {
+
+        /**
+         * Time spent writing to the connection, in nanoseconds.
+         */
+        private long mWriteTime;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long startTime = System.nanoTime();
+            out.write(b);
+            mWriteTime += System.nanoTime() - startTime;
+            mRequestBytes++;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            long startTime = System.nanoTime();
+            out.write(b, off, len);
+            mWriteTime += System.nanoTime() - startTime;
+            mRequestBytes += len;
+        }
+    }
+
+    /**
+     * Stream counting response bytes received.
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                mResponseBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count > 0) {
+                mResponseBytes += count;
+            }
+            return count;
+        }
+    }
+
     /**
      * The callback used for maintain ongoing call tasks.
      */
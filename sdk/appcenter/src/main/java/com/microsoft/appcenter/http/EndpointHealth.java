@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Health of the endpoints called by the SDK, shared by all HTTP clients so that modules do not retry
+ * on their own against a degraded backend.
+ * <p>
+ * Each origin (scheme, host and port) has a circuit breaker. After {@link #FAILURE_THRESHOLD} consecutive
+ * recoverable failures, or when the server asks to retry later, the circuit opens and calls wait.
+ * Once the open period is over, a single probe call is let through: the circuit closes if it succeeds
+ * and opens again for twice as long if it fails.
+ * <p>
+ * Retries of all origins also share a budget: each recoverable failure spends a token, each
+ * success earns back a fraction of one and the budget refills over time. Retries stop while less than
+ * half of the budget is left, except for the first retry of a call.
+ */
+class EndpointHealth {
+
+    /**
+     * Consecutive recoverable failures opening a circuit.
+     */
+    @VisibleForTesting
+    static final int FAILURE_THRESHOLD = 5;
+
+    /**
+     * First open period of a circuit, doubled each time the probe fails.
+     */
+    @VisibleForTesting
+    static final long MIN_OPEN_DURATION = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * Longest open period of a circuit.
+     */
+    @VisibleForTesting
+    static final long MAX_OPEN_DURATION = TimeUnit.MINUTES.toMillis(20);
+
+    /**
+     * Maximum time to wait before checking again whether a probe call completed.
+     */
+    @VisibleForTesting
+    static final long PROBE_WAIT = TimeUnit.SECONDS.toMillis(5);
+
+    /**
+     * Time after which a probe that did not complete (cancelled call) no longer blocks other calls.
+     */
+    @VisibleForTesting
+    static final long PROBE_TIMEOUT = TimeUnit.MINUTES.toMillis(2);
+
+    /**
+     * Retry budget size, in tokens.
+     */
+    @VisibleForTesting
+    static final double RETRY_BUDGET = 10;
+
+    /**
+     * Tokens earned back on each success.
+     */
+    @VisibleForTesting
+    static final double RETRY_BUDGET_SUCCESS_CREDIT = 0.1;
+
+    /**
+     * Time to earn back one token without any call, in ms.
+     */
+    @VisibleForTesting
+    static final long RETRY_BUDGET_REFILL_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Shared instance.
+     */
+    private static EndpointHealth sSharedInstance;
+
+    /**
+     * Circuit breakers by origin.
+     */
+    private final Map<String, Circuit> mCircuits = new HashMap<>();
+
+    /**
+     * Random object for jitter.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Tokens left in the retry budget.
+     */
+    private double mRetryTokens = RETRY_BUDGET;
+
+    /**
+     * Time the retry budget was last refilled at.
+     */
+    private long mRetryBudgetTime = System.currentTimeMillis();
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    static synchronized EndpointHealth getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new EndpointHealth();
+        }
+        return sSharedInstance;
+    }
+
+    @VisibleForTesting
+    static synchronized void unsetInstance() {
+        sSharedInstance = null;
+    }
+
+    /**
+     * Get the origin of a URL. This is called for every call and attempt, so the URL is parsed without
+     * allocating a {@link java.net.URL}.
+     *
+     * @param url URL.
+     * @return scheme, host and port, or null if the URL is not a valid HTTP or HTTPS URL.
+     */
+    static String getOrigin(String url) {
+        if (url == null) {
+            return null;
+        }
+        int schemeEnd = url.indexOf("://");
+        if (schemeEnd <= 0) {
+            return null;
+        }
+        String scheme = url.substring(0, schemeEnd).toLowerCase(Locale.US);
+        String defaultPort;
+        if ("https".equals(scheme)) {
+            defaultPort = "443";
+        } else if ("http".equals(scheme)) {
+            defaultPort = "80";
+        } else {
+            return null;
+        }
+        int authorityStart = schemeEnd + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < url.length() && "/?#".indexOf(url.charAt(authorityEnd)) < 0) {
+            authorityEnd++;
+        }
+        int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+        hostStart = Math.max(hostStart, authorityStart);
+        int portSeparator = url.lastIndexOf(':', authorityEnd - 1);
+        int ipv6End = url.lastIndexOf(']', authorityEnd - 1);
+        String host;
+        String port;
+        if (portSeparator >= hostStart && portSeparator > ipv6End) {
+            host = url.substring(hostStart, portSeparator);
+            port = url.substring(portSeparator + 1, authorityEnd);
+            if (port.isEmpty()) {
+                port = defaultPort;
+            } else {
+                for (int i = 0; i < port.length(); i++) {
+                    if (!Character.isDigit(port.charAt(i))) {
+                        return null;
+                    }
+                }
+            }
+        } else {
+            host = url.substring(hostStart, authorityEnd);
+            port = defaultPort;
+        }
+        if (host.isEmpty()) {
+            return null;
+        }
+        return scheme + "://" + host + ":" + port;
+    }
+
+    /**
+     * Check whether a call to an origin can be made now. When the circuit is open for more than the
+     * probe wait, the caller is expected to call again after the returned delay.
+     *
+     * @param origin origin, can be null.
+     * @return 0 to make the call now, otherwise the delay in ms to wait before asking again.
+     */
+    synchronized long acquire(String origin) {
+        Circuit circuit = origin != null ? mCircuits.get(origin) : null;
+        if (circuit == null || circuit.mState == State.CLOSED) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        if (circuit.mState == State.OPEN) {
+            if (now < circuit.mOpenUntil) {
+
+                /* Spread the calls waiting for the same circuit. */
+                return circuit.mOpenUntil - now + mRandom.nextInt((int) PROBE_WAIT);
+            }
+            AppCenterLog.debug(LOG_TAG, "Probing " + origin + " after circuit was open.");
+            circuit.mState = State.HALF_OPEN;
+            circuit.mProbeStartTime = now;
+            return 0;
+        }
+
+        /* Half open: only one probe at a time. */
+        if (now - circuit.mProbeStartTime > PROBE_TIMEOUT) {
+            circuit.mProbeStartTime = now;
+            return 0;
+        }
+        return 1 + mRandom.nextInt((int) PROBE_WAIT);
+    }
+
+    /**
+     * Record that the server answered a call, even with a non recoverable error.
+     *
+     * @param origin origin, can be null.
+     */
+    synchronized void onSuccess(String origin) {
+        refillRetryBudget();
+        mRetryTokens = Math.min(RETRY_BUDGET, mRetryTokens + RETRY_BUDGET_SUCCESS_CREDIT);
+        Circuit circuit = origin != null ? mCircuits.remove(origin) : null;
+        if (circuit != null && circuit.mState != State.CLOSED) {
+            AppCenterLog.info(LOG_TAG, "Circuit closed for " + origin + ".");
+        }
+    }
+
+    /**
+     * Record a recoverable failure.
+     *
+     * @param origin     origin, can be null.
+     * @param retryAfter delay in ms requested by the server before calling again, 0 if none.
+     */
+    synchronized void onFailure(String origin, long retryAfter) {
+        refillRetryBudget();
+        mRetryTokens = Math.max(0, mRetryTokens - 1);
+        if (origin == null) {
+            return;
+        }
+        Circuit circuit = mCircuits.get(origin);
+        if (circuit == null) {
+            circuit = new Circuit();
+            mCircuits.put(origin, circuit);
+        }
+        long now = System.currentTimeMillis();
+        circuit.mConsecutiveFailures++;
+        switch (circuit.mState) {
+
+            case CLOSED:
+                if (circuit.mConsecutiveFailures >= FAILURE_THRESHOLD) {
+                    open(origin, circuit, now, retryAfter);
+                } else if (retryAfter > 0) {
+
+                    /* Throttled by the server: wait as requested without backing off further. */
+                    circuit.mOpenUntil = now + retryAfter;
+                    circuit.mState = State.OPEN;
+                    AppCenterLog.warn(LOG_TAG, "Circuit open for " + origin + " during " + retryAfter + " ms as requested by the server.");
+                }
+                break;
+
+            case HALF_OPEN:
+                open(origin, circuit, now, retryAfter);
+                break;
+
+            case OPEN:
+
+                /* Failure of a call made before opening: only honor a longer delay asked by the server. */
+                circuit.mOpenUntil = Math.max(circuit.mOpenUntil, now + retryAfter);
+                break;
+        }
+    }
+
+    private void open(String origin, Circuit circuit, long now, long retryAfter) {
+        circuit.mOpenDuration = circuit.mOpenDuration == 0 ? MIN_OPEN_DURATION : Math.min(MAX_OPEN_DURATION, circuit.mOpenDuration * 2);
+        long duration = Math.max(circuit.mOpenDuration, retryAfter);
+        circuit.mOpenUntil = now + duration;
+        circuit.mState = State.OPEN;
+        AppCenterLog.warn(LOG_TAG, "Circuit open for " + origin + " during " + duration + " ms after " + circuit.mConsecutiveFailures + " failure(s).");
+    }
+
+    /**
+     * Check whether the retry budget allows another retry.
+     * The first retry of a call is not subject to the budget, see {@link HttpClientRetryer}.
+     *
+     * @return true if a failed call can be retried.
+     */
+    synchronized boolean canRetry() {
+        refillRetryBudget();
+        return mRetryTokens > RETRY_BUDGET / 2;
+    }
+
+    /**
+     * Earn back the tokens of the time elapsed since last refill.
+     */
+    private void refillRetryBudget() {
+        long now = System.currentTimeMillis();
+        if (now > mRetryBudgetTime) {
+            mRetryTokens = Math.min(RETRY_BUDGET, mRetryTokens + (double) (now - mRetryBudgetTime) / RETRY_BUDGET_REFILL_INTERVAL);
+        }
+        mRetryBudgetTime = now;
+    }
+
+    @VisibleForTesting
+    synchronized State getState(String origin) {
+        Circuit circuit = mCircuits.get(origin);
+        return circuit != null ? circuit.mState : State.CLOSED;
+    }
+
+    /**
+     * Circuit breaker states.
+     */
+    enum State {
+
+        /**
+         * Calls are made.
+         */
+        CLOSED,
+
+        /**
+         * Calls wait.
+         */
+        OPEN,
+
+        /**
+         * A probe call is made, other calls wait for its result.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * Circuit breaker of an origin.
+     */
+    private static class Circuit {
+
+        /**
+         * Current state.
+         */
+        State mState = State.CLOSED;
+
+        /**
+         * Recoverable failures since last success.
+         */
+        int mConsecutiveFailures;
+
+        /**
+         * Last open period in ms, 0 if never opened since last success.
+         */
+        long mOpenDuration;
+
+        /**
+         * End of open period, as a timestamp.
+         */
+        long mOpenUntil;
+
+        /**
+         * Time the probe call started at, when half open.
+         */
+        long mProbeStartTime;
+    }
+}
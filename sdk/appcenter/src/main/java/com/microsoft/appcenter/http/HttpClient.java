@@ -8,6 +8,8 @@ package com.microsoft.appcenter.http;
 import org.json.JSONException;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.Map;
 
@@ -50,8 +52,63 @@ public interface HttpClient extends Closeable {
         void onBeforeCalling(URL url, Map<String, String> headers);
     }
 
+    /**
+     * Call callbacks that can write the request body as a stream instead of building it in memory.
+     */
+    interface StreamingCallTemplate extends CallTemplate {
+
+        /**
+         * Called when the method is POST to write request body.
+         * {@link #buildRequestBody()} is used instead when the whole request body is needed at once, for logging.
+         *
+         * @param writer writer to the request body stream, must not be closed.
+         * @throws JSONException callback can throw this to make the call fail if a JSON error occurs.
+         * @throws IOException   if writing fails.
+         */
+        void writeRequestBody(Writer writer) throws JSONException, IOException;
+    }
+
+    /**
+     * Call callbacks of a request that must not be lost if network is down until the client is closed or the process dies.
+     * The request is also stored on disk while waiting for network. If the call does not complete, the stored request
+     * is sent later without calling back: it must not need {@link #onBeforeCalling(URL, Map)} or any response handling
+     * to be useful.
+     */
+    interface PersistableCallTemplate extends CallTemplate {
+
+        /**
+         * Get the key identifying the request: a stored request replaces any other stored request with the same key.
+         *
+         * @return request key.
+         */
+        String getRequestKey();
+    }
+
     /**
      * Make this client active again after closing.
      */
     void reopen();
+
+    /**
+     * Creates the HTTP client at the bottom of the decorator chain, so that another network stack can be used.
+     * Retries, circuit breaking, offline handling and metrics are applied on top of the created clients.
+     * <p>
+     * Created clients must call back {@link ServiceCallback} exactly once per call unless the call is canceled,
+     * on the UI thread like {@link DefaultHttpClient}, and report HTTP errors as {@link HttpException} so that
+     * recoverable errors are retried. They must write the body of a {@link StreamingCallTemplate} with
+     * {@link StreamingCallTemplate#writeRequestBody(Writer)} to avoid building large bodies in memory.
+     * <p>
+     * The SDK only provides {@link DefaultHttpClient}: no HTTP/2 client is shipped.
+     */
+    interface Factory {
+
+        /**
+         * Create an HTTP client. This is called for each ingestion or module needing one,
+         * implementations can return clients sharing the same connections.
+         *
+         * @param compressionEnabled whether large request bodies should be compressed.
+         * @return a new HTTP client.
+         */
+        HttpClient createHttpClient(boolean compressionEnabled);
+    }
 }
@@ -17,11 +17,14 @@ abstract class HttpClientCallDecorator implements Runnable, ServiceCall, Service
      */
     private final HttpClient mDecoratedApi;
 
-    private final String mUrl;
+    /**
+     * URL.
+     */
+    final String mUrl;
 
-    private final String mMethod;
+    final String mMethod;
 
-    private final Map<String, String> mHeaders;
+    final Map<String, String> mHeaders;
 
     private final HttpClient.CallTemplate mCallTemplate;
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.VisibleForTesting;
+
+import java.util.Map;
+
+/**
+ * Decorator recording the latency and result of whole calls, including retries and time waiting for network,
+ * in {@link HttpMetrics}.
+ */
+public class HttpClientMetricsCollector extends HttpClientDecorator {
+
+    /**
+     * Metrics.
+     */
+    private final HttpMetrics mHttpMetrics;
+
+    /**
+     * Init with shared metrics.
+     *
+     * @param decoratedApi API to decorate.
+     */
+    HttpClientMetricsCollector(HttpClient decoratedApi) {
+        this(decoratedApi, HttpMetrics.getSharedInstance());
+    }
+
+    /**
+     * Init.
+     *
+     * @param decoratedApi API to decorate.
+     * @param httpMetrics  metrics.
+     */
+    @VisibleForTesting
+    HttpClientMetricsCollector(HttpClient decoratedApi, HttpMetrics httpMetrics) {
+        super(decoratedApi);
+        mHttpMetrics = httpMetrics;
+    }
+
+    @Override
+    public ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+        MeasuredCall call = new MeasuredCall(mDecoratedApi, url, method, headers, callTemplate, serviceCallback);
+        call.run();
+        return call;
+    }
+
+    /**
+     * Call wrapper logic.
+     */
+    private class MeasuredCall extends HttpClientCallDecorator {
+
+        /**
+         * Time the call was made at.
+         */
+        private final long mStartTime;
+
+        MeasuredCall(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
+            super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
+            mStartTime = System.currentTimeMillis();
+        }
+
+        @Override
+        public void onCallSucceeded(String payload, Map<String, String> headers) {
+            mHttpMetrics.onCallCompleted(mUrl, 200, System.currentTimeMillis() - mStartTime);
+            super.onCallSucceeded(payload, headers);
+        }
+
+        @Override
+        public void onCallFailed(Exception e) {
+            int statusCode = e instanceof HttpException ? ((HttpException) e).getStatusCode() : HttpMetrics.NO_RESPONSE;
+            mHttpMetrics.onCallCompleted(mUrl, statusCode, System.currentTimeMillis() - mStartTime);
+            super.onCallFailed(e);
+        }
+    }
+}
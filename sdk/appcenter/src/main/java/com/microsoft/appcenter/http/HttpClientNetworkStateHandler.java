@@ -5,30 +5,99 @@
 
 package com.microsoft.appcenter.http;
 
+import android.os.Handler;
+import android.support.annotation.VisibleForTesting;
+
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 
+import org.json.JSONException;
+
 import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static com.microsoft.appcenter.utils.AppCenterLog.LOG_TAG;
 
 /**
  * Decorator pausing calls while network is down.
+ * <p>
+ * Calls made with a {@link HttpClient.PersistableCallTemplate} are also stored on disk while waiting, when a request
+ * queue is provided, so that they are sent even if the client is closed or the process dies before network comes back.
+ * Stored requests left by such calls are replayed without callbacks, with retries. The queue is only accessed from the
+ * storage handler thread.
  */
 public class HttpClientNetworkStateHandler extends HttpClientDecorator implements NetworkStateHelper.Listener {
 
+    /**
+     * Number of pending calls submitted at once when network becomes available.
+     */
+    @VisibleForTesting
+    static final int REPLAY_BURST = 4;
+
+    /**
+     * Delay between each of the next pending calls when network becomes available.
+     */
+    @VisibleForTesting
+    static final long REPLAY_INTERVAL = 1000;
+
     /**
      * Network state helper.
      */
     private final NetworkStateHelper mNetworkStateHelper;
 
     /**
-     * All pending calls.
+     * Durable storage of persistable calls, null to keep pending calls in memory only.
+     */
+    private final PersistentRequestQueue mRequestQueue;
+
+    /**
+     * Handler to spread submission of pending calls and to retry stored calls.
+     */
+    private final Handler mHandler;
+
+    /**
+     * Handler of the background thread accessing the request queue, null if there is no queue.
+     */
+    private final Handler mStorageHandler;
+
+    /**
+     * All pending calls, in call order.
+     */
+    private final Set<Call> mCalls = new LinkedHashSet<>();
+
+    /**
+     * Stored requests being replayed.
+     */
+    private final Set<StoredCall> mStoredCalls = new HashSet<>();
+
+    /**
+     * Client replaying stored requests with retries on top of this one, created when first needed.
+     */
+    private HttpClient mReplayClient;
+
+    /**
+     * Whether calls are kept pending even if network is up, while stored requests are submitted for replay.
+     */
+    private boolean mDeferringCalls;
+
+    /**
+     * Whether requests stored by another client or process were replayed since this client was opened.
      */
-    private final Set<Call> mCalls = new HashSet<>();
+    private boolean mStoredRequestsReplayed;
+
+    /**
+     * Whether this client is closed.
+     */
+    private boolean mClosed;
 
     /**
      * Init.
@@ -37,44 +106,150 @@ public class HttpClientNetworkStateHandler extends HttpClientDecorator implement
      * @param networkStateHelper network state helper.
      */
     public HttpClientNetworkStateHandler(HttpClient decoratedApi, NetworkStateHelper networkStateHelper) {
+        this(decoratedApi, networkStateHelper, null, HandlerUtils.getMainHandler(), null);
+    }
+
+    /**
+     * Init.
+     *
+     * @param decoratedApi       decorated API.
+     * @param networkStateHelper network state helper.
+     * @param requestQueue       durable storage of persistable calls, can be null.
+     * @param handler            handler to spread submission of pending calls and to retry stored calls.
+     * @param storageHandler     handler of the background thread accessing the request queue, null if there is no queue.
+     */
+    HttpClientNetworkStateHandler(HttpClient decoratedApi, NetworkStateHelper networkStateHelper, PersistentRequestQueue requestQueue, Handler handler, Handler storageHandler) {
         super(decoratedApi);
         mNetworkStateHelper = networkStateHelper;
+        mRequestQueue = storageHandler != null ? requestQueue : null;
+        mHandler = handler;
+        mStorageHandler = storageHandler;
         mNetworkStateHelper.addListener(this);
     }
 
     @Override
     public synchronized ServiceCall callAsync(String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
         Call call = new Call(mDecoratedApi, url, method, headers, callTemplate, serviceCallback);
-        if (mNetworkStateHelper.isNetworkConnected()) {
+        if (mDeferringCalls) {
+            mCalls.add(call);
+        } else if (mNetworkStateHelper.isNetworkConnected()) {
             call.run();
+            if (!mStoredRequestsReplayed) {
+                addStoredCalls();
+                replayCalls();
+            }
         } else {
+            call.mPauseTime = System.currentTimeMillis();
             mCalls.add(call);
+            if (mRequestQueue != null && callTemplate instanceof PersistableCallTemplate) {
+                storeRequest(call, (PersistableCallTemplate) callTemplate);
+            }
             AppCenterLog.debug(LOG_TAG, "Call triggered with no network connectivity, waiting network to become available...");
         }
         return call;
     }
 
+    private void storeRequest(Call call, PersistableCallTemplate callTemplate) {
+        String body = null;
+        if (METHOD_POST.equals(call.mMethod)) {
+            try {
+                body = callTemplate.buildRequestBody();
+            } catch (JSONException e) {
+                AppCenterLog.error(LOG_TAG, "Cannot store call to " + call.mUrl + ", keeping it in memory only.", e);
+                return;
+            }
+        }
+        Map<String, String> storedHeaders = call.mHeaders != null ? new HashMap<>(call.mHeaders) : new HashMap<String, String>();
+        final PersistentRequestQueue.Request request = new PersistentRequestQueue.Request(callTemplate.getRequestKey(), System.currentTimeMillis(), call.mUrl, call.mMethod, storedHeaders, body);
+        call.mRequest = request;
+        mStorageHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                mRequestQueue.add(request);
+            }
+        });
+    }
+
+    /**
+     * Delete a stored request, once sent or no longer wanted.
+     *
+     * @param request stored request, can be null.
+     */
+    private void removeRequest(final PersistentRequestQueue.Request request) {
+        if (request != null) {
+            mStorageHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (request.mId != null) {
+                        mRequestQueue.remove(request.mId);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Make a stored request available for replay again.
+     *
+     * @param request stored request, can be null.
+     */
+    private void releaseRequest(final PersistentRequestQueue.Request request) {
+        if (request != null) {
+            mStorageHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (request.mId != null) {
+                        mRequestQueue.release(request.mId);
+                    }
+                }
+            });
+        }
+    }
+
     @Override
-    public synchronized void close() throws IOException {
-        mNetworkStateHelper.removeListener(this);
-        mCalls.clear();
+    public void close() throws IOException {
+        List<StoredCall> storedCalls;
+        synchronized (this) {
+            mNetworkStateHelper.removeListener(this);
+            mClosed = true;
+
+            /* Stored calls are not lost: they are replayed without callbacks later. */
+            for (Call call : mCalls) {
+                mHandler.removeCallbacks(call);
+                releaseRequest(call.mRequest);
+            }
+            mCalls.clear();
+            storedCalls = new ArrayList<>(mStoredCalls);
+            mStoredCalls.clear();
+        }
+
+        /* Cancel replays outside of the lock: retried calls hold their own lock while calling this client. */
+        for (StoredCall storedCall : storedCalls) {
+            storedCall.mServiceCall.cancel();
+            releaseRequest(storedCall.mRequest);
+        }
         super.close();
     }
 
     @Override
-    public void reopen() {
+    public synchronized void reopen() {
         mNetworkStateHelper.addListener(this);
+        mStoredRequestsReplayed = false;
+        mClosed = false;
         super.reopen();
     }
 
     @Override
     public synchronized void onNetworkStateUpdated(boolean connected) {
-        if (connected && mCalls.size() > 0) {
-            AppCenterLog.debug(LOG_TAG, "Network is available. " + mCalls.size() + " pending call(s) to submit now.");
-            for (Call call : mCalls) {
-                call.run();
+        if (connected) {
+            addStoredCalls();
+            if (mCalls.size() > 0) {
+                AppCenterLog.debug(LOG_TAG, "Network is available. " + mCalls.size() + " pending call(s) to submit now.");
+                replayCalls();
             }
-            mCalls.clear();
         }
 
         /*
@@ -83,11 +258,93 @@ public class HttpClientNetworkStateHandler extends HttpClientDecorator implement
          */
     }
 
+    /**
+     * Load the calls stored by another client or by a previous process, they are added to the pending calls
+     * and submitted when loaded.
+     */
+    private void addStoredCalls() {
+        mStoredRequestsReplayed = true;
+        if (mRequestQueue == null) {
+            return;
+        }
+        mStorageHandler.post(new Runnable() {
+
+            @Override
+            public void run() {
+                List<PersistentRequestQueue.Request> requests = mRequestQueue.takeStoredRequests();
+                if (requests.size() > 0) {
+                    onStoredRequestsLoaded(requests);
+                }
+            }
+        });
+    }
+
+    private synchronized void onStoredRequestsLoaded(List<PersistentRequestQueue.Request> requests) {
+        if (mClosed) {
+            for (PersistentRequestQueue.Request request : requests) {
+                mRequestQueue.release(request.mId);
+            }
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, requests.size() + " stored call(s) to submit.");
+        if (mReplayClient == null) {
+            mReplayClient = new HttpClientRetryer(this, mHandler, EndpointHealth.getSharedInstance());
+        }
+
+        /* Replays come back to this client through the retryer, they are kept pending to be submitted gradually. */
+        mDeferringCalls = true;
+        for (PersistentRequestQueue.Request request : requests) {
+            StoredCall storedCall = new StoredCall(request);
+            mStoredCalls.add(storedCall);
+            storedCall.mServiceCall = mReplayClient.callAsync(request.mUrl, request.mMethod, request.mHeaders, new StoredCallTemplate(request), storedCall);
+        }
+        mDeferringCalls = false;
+        if (mNetworkStateHelper.isNetworkConnected()) {
+            replayCalls();
+        }
+    }
+
+    private synchronized boolean onStoredCallCompleted(StoredCall storedCall) {
+        return mStoredCalls.remove(storedCall);
+    }
+
+    /**
+     * Submit pending calls: the first ones right away, then one by one to avoid flooding the network.
+     */
+    private void replayCalls() {
+        int index = 0;
+        for (Call call : new ArrayList<>(mCalls)) {
+            if (!call.mScheduled) {
+                call.mScheduled = true;
+                if (index < REPLAY_BURST) {
+                    call.run();
+                } else {
+                    mHandler.postDelayed(call, (index - REPLAY_BURST + 1) * REPLAY_INTERVAL);
+                }
+            }
+            index++;
+        }
+    }
+
+    private synchronized void onCallSubmitted(Call call) {
+        mCalls.remove(call);
+        if (call.mPauseTime > 0) {
+            HttpMetrics.getSharedInstance().onConnectivityWait(call.mUrl, System.currentTimeMillis() - call.mPauseTime);
+        }
+    }
+
     private synchronized void cancelCall(Call call) {
+        mHandler.removeCallbacks(call);
         if (call.mServiceCall != null) {
             call.mServiceCall.cancel();
         }
         mCalls.remove(call);
+        removeRequest(call.mRequest);
+    }
+
+    @VisibleForTesting
+    synchronized int getPendingCallCount() {
+        return mCalls.size();
     }
 
     /**
@@ -95,13 +352,110 @@ public class HttpClientNetworkStateHandler extends HttpClientDecorator implement
      */
     private class Call extends HttpClientCallDecorator {
 
+        /**
+         * Request in the persistent queue, null if not stored.
+         */
+        PersistentRequestQueue.Request mRequest;
+
+        /**
+         * Whether the call is scheduled for submission.
+         */
+        boolean mScheduled;
+
+        /**
+         * Time the call was paused at because network was down, 0 if not paused.
+         */
+        long mPauseTime;
+
         Call(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
             super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
         }
 
+        @Override
+        public void run() {
+            onCallSubmitted(this);
+            super.run();
+        }
+
         @Override
         public void cancel() {
             cancelCall(this);
         }
+
+        @Override
+        public void onCallSucceeded(String payload, Map<String, String> headers) {
+            removeRequest(mRequest);
+            super.onCallSucceeded(payload, headers);
+        }
+
+        @Override
+        public void onCallFailed(Exception e) {
+            removeRequest(mRequest);
+            super.onCallFailed(e);
+        }
+    }
+
+    /**
+     * Replay of a stored request, deleting it once sent.
+     */
+    private class StoredCall implements ServiceCallback {
+
+        /**
+         * Stored request.
+         */
+        final PersistentRequestQueue.Request mRequest;
+
+        /**
+         * Call of the replay client.
+         */
+        ServiceCall mServiceCall;
+
+        StoredCall(PersistentRequestQueue.Request request) {
+            mRequest = request;
+        }
+
+        @Override
+        public void onCallSucceeded(String payload, Map<String, String> headers) {
+            if (onStoredCallCompleted(this)) {
+                removeRequest(mRequest);
+            }
+        }
+
+        @Override
+        public void onCallFailed(Exception e) {
+            if (onStoredCallCompleted(this)) {
+
+                /* Retries are exhausted: try again on next network change. */
+                if (HttpUtils.isRecoverableError(e)) {
+                    AppCenterLog.warn(LOG_TAG, "Stored call failed, will try again later.", e);
+                    releaseRequest(mRequest);
+                } else {
+                    AppCenterLog.error(LOG_TAG, "Stored call failed, deleting it.", e);
+                    removeRequest(mRequest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call template of a stored request.
+     */
+    private static class StoredCallTemplate implements CallTemplate {
+
+        private final PersistentRequestQueue.Request mRequest;
+
+        StoredCallTemplate(PersistentRequestQueue.Request request) {
+            mRequest = request;
+        }
+
+        @Override
+        public String buildRequestBody() {
+            return mRequest.mBody;
+        }
+
+        @Override
+        public void onBeforeCalling(URL url, Map<String, String> headers) {
+            AppCenterLog.verbose(LOG_TAG, "Replaying stored call " + mRequest.mKey + " to " + url);
+        }
     }
 }
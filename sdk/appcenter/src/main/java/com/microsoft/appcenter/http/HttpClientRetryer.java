@@ -13,6 +13,11 @@ import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.utils.AppCenterLog;
 
 import java.net.UnknownHostException;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
@@ -20,12 +25,19 @@ import java.util.concurrent.TimeUnit;
 import static com.microsoft.appcenter.http.DefaultHttpClient.X_MS_RETRY_AFTER_MS_HEADER;
 
 /**
- * Decorator managing retries.
+ * Decorator managing retries, with circuit breakers and a retry budget shared with other clients.
  */
 public class HttpClientRetryer extends HttpClientDecorator {
 
     /**
-     * Retry intervals to use, array index is to use the value for each retry. When we used all the array values, we give up and forward the last error.
+     * Standard retry after header, in seconds or as an HTTP date.
+     */
+    @VisibleForTesting
+    static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    /**
+     * Maximum delay of each retry, array index is to use the value for each retry. The actual delay is random
+     * between 0 and that value. When we used all the array values, we give up and forward the last error.
      */
     @VisibleForTesting
     static final long[] RETRY_INTERVALS = new long[]{
@@ -34,6 +46,12 @@ public class HttpClientRetryer extends HttpClientDecorator {
             TimeUnit.MINUTES.toMillis(20)
     };
 
+    /**
+     * Maximum delay honored when the server requests one before calling again.
+     */
+    @VisibleForTesting
+    static final long MAX_RETRY_AFTER = TimeUnit.MINUTES.toMillis(20);
+
     /**
      * Android "timer" using the main thread loop.
      */
@@ -44,25 +62,42 @@ public class HttpClientRetryer extends HttpClientDecorator {
      */
     private final Random mRandom = new Random();
 
+    /**
+     * Endpoint health, shared by all clients in production.
+     */
+    private final EndpointHealth mEndpointHealth;
+
     /**
      * Init with default retry policy.
      *
      * @param decoratedApi API to decorate.
      */
     HttpClientRetryer(HttpClient decoratedApi) {
-        this(decoratedApi, new Handler(Looper.getMainLooper()));
+        this(decoratedApi, new Handler(Looper.getMainLooper()), EndpointHealth.getSharedInstance());
     }
 
     /**
-     * Init.
+     * Init with endpoint health not shared with other clients.
      *
      * @param decoratedApi API to decorate.
      * @param handler      handler for timed retries.
      */
     @VisibleForTesting
     HttpClientRetryer(HttpClient decoratedApi, Handler handler) {
+        this(decoratedApi, handler, new EndpointHealth());
+    }
+
+    /**
+     * Init.
+     *
+     * @param decoratedApi   API to decorate.
+     * @param handler        handler for timed retries.
+     * @param endpointHealth endpoint health.
+     */
+    HttpClientRetryer(HttpClient decoratedApi, Handler handler, EndpointHealth endpointHealth) {
         super(decoratedApi);
         mHandler = handler;
+        mEndpointHealth = endpointHealth;
     }
 
     @Override
@@ -74,46 +109,129 @@ public class HttpClientRetryer extends HttpClientDecorator {
         return retryableCall;
     }
 
+    /**
+     * Get the delay requested by the server before calling again.
+     *
+     * @param e call failure.
+     * @return delay in ms, 0 if none, at most {@link #MAX_RETRY_AFTER}.
+     */
+    @VisibleForTesting
+    static long getRetryAfter(Exception e) {
+        return Math.min(parseRetryAfter(e), MAX_RETRY_AFTER);
+    }
+
+    /**
+     * Parse the delay requested by the server before calling again.
+     *
+     * @param e call failure.
+     * @return delay in ms, 0 if none.
+     */
+    private static long parseRetryAfter(Exception e) {
+        if (!(e instanceof HttpException)) {
+            return 0;
+        }
+        Map<String, String> headers = ((HttpException) e).getHeaders();
+        String retryAfterMs = headers.get(X_MS_RETRY_AFTER_MS_HEADER);
+        if (retryAfterMs != null) {
+            try {
+                return Math.max(Long.parseLong(retryAfterMs), 0);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (RETRY_AFTER_HEADER.equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                String retryAfter = header.getValue().trim();
+                try {
+                    return Math.max(TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter)), 0);
+                } catch (NumberFormatException ignored) {
+                }
+                try {
+                    DateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+                    Date date = format.parse(retryAfter);
+                    return Math.max(date.getTime() - System.currentTimeMillis(), 0);
+                } catch (ParseException ignored) {
+                }
+            }
+        }
+        return 0;
+    }
+
     /**
      * Retry wrapper logic.
      */
     private class RetryableCall extends HttpClientCallDecorator {
 
+        /**
+         * Origin of the URL, to check its health.
+         */
+        private final String mOrigin;
+
         /**
          * Current retry counter. 0 means its the first try.
          */
         private int mRetryCount;
 
+        /**
+         * Whether the call was retried at least once. The first retry does not depend on the shared retry budget.
+         */
+        private boolean mRetried;
+
         RetryableCall(HttpClient decoratedApi, String url, String method, Map<String, String> headers, CallTemplate callTemplate, ServiceCallback serviceCallback) {
             super(decoratedApi, url, method, headers, callTemplate, serviceCallback);
+            mOrigin = EndpointHealth.getOrigin(url);
         }
 
         @Override
         public synchronized void cancel() {
             mHandler.removeCallbacks(this);
-            super.cancel();
+
+            /* Nothing to cancel if still waiting for the circuit before the first try. */
+            if (mServiceCall != null) {
+                super.cancel();
+            }
+        }
+
+        @Override
+        public synchronized void run() {
+            long delay = mEndpointHealth.acquire(mOrigin);
+            if (delay > 0) {
+                AppCenterLog.debug(AppCenter.LOG_TAG, "Circuit is not closed for " + mOrigin + ", call delayed by " + delay + " ms.");
+                mHandler.postDelayed(this, delay);
+            } else {
+                super.run();
+            }
+        }
+
+        @Override
+        public void onCallSucceeded(String payload, Map<String, String> headers) {
+            mEndpointHealth.onSuccess(mOrigin);
+            super.onCallSucceeded(payload, headers);
         }
 
         @Override
         public void onCallFailed(Exception e) {
-            if (mRetryCount < RETRY_INTERVALS.length && HttpUtils.isRecoverableError(e)) {
-                long delay = 0;
-                if (e instanceof HttpException) {
-                    HttpException httpException = (HttpException) e;
-                    String retryAfterMs = httpException.getHeaders().get(X_MS_RETRY_AFTER_MS_HEADER);
-                    if (retryAfterMs != null) {
-                        delay = Long.parseLong(retryAfterMs);
-                    }
-                }
+            boolean recoverableError = HttpUtils.isRecoverableError(e);
+            long retryAfter = getRetryAfter(e);
+            if (recoverableError) {
+                mEndpointHealth.onFailure(mOrigin, retryAfter);
+            } else {
+                mEndpointHealth.onSuccess(mOrigin);
+            }
+            if (mRetryCount < RETRY_INTERVALS.length && recoverableError && (!mRetried || mEndpointHealth.canRetry())) {
+                mRetried = true;
+
+                /* A delay requested by the server still counts as a retry. */
+                long delay = retryAfter;
                 if (delay == 0) {
-                    delay = RETRY_INTERVALS[mRetryCount++] / 2;
-                    delay += mRandom.nextInt((int) delay);
+                    delay = (long) (mRandom.nextDouble() * RETRY_INTERVALS[mRetryCount]);
                 }
+                mRetryCount++;
                 String message = "Try #" + mRetryCount + " failed and will be retried in " + delay + " ms";
                 if (e instanceof UnknownHostException) {
                     message += " (UnknownHostException)";
                 }
                 AppCenterLog.warn(AppCenter.LOG_TAG, message, e);
+                HttpMetrics.getSharedInstance().onRetry(mUrl);
                 mHandler.postDelayed(this, delay);
             } else {
                 mServiceCallback.onCallFailed(e);
@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.utils.AppCenterLog;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Network metrics of the SDK, aggregated by endpoint (scheme, host and port) for all HTTP clients.
+ * <p>
+ * Whole calls are measured by {@link HttpClientMetricsCollector}, including retries and time waiting for
+ * network. Details of each attempt (connection time, time to first byte, bytes) are only available
+ * with the default HTTP client.
+ */
+public class HttpMetrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets, in ms. A last bucket counts larger values.
+     */
+    @VisibleForTesting
+    static final long[] LATENCY_BUCKETS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    /**
+     * Status code used for attempts that did not get any HTTP response.
+     */
+    public static final int NO_RESPONSE = 0;
+
+    /**
+     * Shared instance.
+     */
+    private static HttpMetrics sSharedInstance;
+
+    /**
+     * Metrics by endpoint.
+     */
+    private final Map<String, EndpointMetrics> mEndpoints = new HashMap<>();
+
+    /**
+     * Listeners.
+     */
+    private final Set<Listener> mListeners = new CopyOnWriteArraySet<>();
+
+    @VisibleForTesting
+    HttpMetrics() {
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @return shared instance.
+     */
+    public static synchronized HttpMetrics getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new HttpMetrics();
+        }
+        return sSharedInstance;
+    }
+
+    /**
+     * Get a copy of the metrics collected since the process started or since last reset.
+     *
+     * @return metrics by endpoint, keys are in the form "https://host:443".
+     */
+    @NonNull
+    public synchronized Map<String, EndpointMetrics> getSnapshot() {
+        Map<String, EndpointMetrics> snapshot = new HashMap<>(mEndpoints.size());
+        for (Map.Entry<String, EndpointMetrics> entry : mEndpoints.entrySet()) {
+            snapshot.put(entry.getKey(), new EndpointMetrics(entry.getValue()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Clear all metrics, for example after sending them to a dashboard.
+     */
+    public synchronized void reset() {
+        mEndpoints.clear();
+    }
+
+    /**
+     * Add a listener notified of each completed call.
+     *
+     * @param listener listener.
+     */
+    public void addListener(@NonNull Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Remove a listener.
+     *
+     * @param listener listener.
+     */
+    public void removeListener(@NonNull Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private EndpointMetrics getEndpointMetrics(String url) {
+        String endpoint = EndpointHealth.getOrigin(url);
+        if (endpoint == null) {
+            return null;
+        }
+        EndpointMetrics metrics = mEndpoints.get(endpoint);
+        if (metrics == null) {
+            metrics = new EndpointMetrics();
+            mEndpoints.put(endpoint, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Record a completed call.
+     *
+     * @param url        URL.
+     * @param statusCode final HTTP status code, {@link #NO_RESPONSE} if none.
+     * @param latency    time from call to result, in ms.
+     */
+    void onCallCompleted(String url, int statusCode, long latency) {
+        synchronized (this) {
+            EndpointMetrics metrics = getEndpointMetrics(url);
+            if (metrics == null) {
+                return;
+            }
+            metrics.mCallCount++;
+            if (statusCode < 200 || statusCode >= 300) {
+                metrics.mFailedCallCount++;
+            }
+            metrics.mCallLatency.record(latency);
+        }
+        String endpoint = EndpointHealth.getOrigin(url);
+        for (Listener listener : mListeners) {
+            try {
+                listener.onCallCompleted(endpoint, statusCode, latency);
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "HTTP metrics listener failed.", e);
+            }
+        }
+    }
+
+    /**
+     * Record an attempt made by the default HTTP client.
+     *
+     * @param url                      URL.
+     * @param statusCode               HTTP status code, {@link #NO_RESPONSE} if none.
+     * @param connectTime              time to resolve host and open connection, including TLS handshake, in ms, -1 if not measured.
+     * @param timeToFirstByte          time from request sent to response status received, in ms, -1 if not measured.
+     * @param latency                  attempt duration in ms.
+     * @param uncompressedRequestBytes request body length before compression.
+     * @param requestBytes             request body length sent.
+     * @param responseBytes            response body length received.
+     */
+    synchronized void onAttemptCompleted(String url, int statusCode, long connectTime, long timeToFirstByte, long latency,
+                                         long uncompressedRequestBytes, long requestBytes, long responseBytes) {
+        EndpointMetrics metrics = getEndpointMetrics(url);
+        if (metrics == null) {
+            return;
+        }
+        metrics.mAttemptCount++;
+        Long count = metrics.mStatusCodeCounts.get(statusCode);
+        metrics.mStatusCodeCounts.put(statusCode, count == null ? 1 : count + 1);
+        metrics.mConnectLatency.record(connectTime);
+        metrics.mTimeToFirstByte.record(timeToFirstByte);
+        metrics.mAttemptLatency.record(latency);
+        metrics.mUncompressedRequestBytes += uncompressedRequestBytes;
+        metrics.mRequestBytes += requestBytes;
+        metrics.mResponseBytes += responseBytes;
+    }
+
+    /**
+     * Record that a call is retried.
+     *
+     * @param url URL.
+     */
+    synchronized void onRetry(String url) {
+        EndpointMetrics metrics = getEndpointMetrics(url);
+        if (metrics != null) {
+            metrics.mRetryCount++;
+        }
+    }
+
+    /**
+     * Record that a call was paused while network was down.
+     *
+     * @param url  URL.
+     * @param wait pause duration in ms.
+     */
+    synchronized void onConnectivityWait(String url, long wait) {
+        EndpointMetrics metrics = getEndpointMetrics(url);
+        if (metrics != null) {
+            metrics.mConnectivityWait.record(wait);
+        }
+    }
+
+    /**
+     * Listener of completed calls.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a call completes, after all retries. Called on the thread delivering call results,
+         * must not block.
+         *
+         * @param endpoint   endpoint in the form "https://host:443".
+         * @param statusCode final HTTP status code, 200 for any success, {@link #NO_RESPONSE} if no response.
+         * @param latency    time from call to result in ms, including retries and time waiting for network.
+         */
+        void onCallCompleted(String endpoint, int statusCode, long latency);
+    }
+
+    /**
+     * Metrics of an endpoint.
+     */
+    public static class EndpointMetrics {
+
+        private final Map<Integer, Long> mStatusCodeCounts;
+
+        private final Histogram mCallLatency;
+
+        private final Histogram mAttemptLatency;
+
+        private final Histogram mConnectLatency;
+
+        private final Histogram mTimeToFirstByte;
+
+        private final Histogram mConnectivityWait;
+
+        private long mCallCount;
+
+        private long mFailedCallCount;
+
+        private long mAttemptCount;
+
+        private long mRetryCount;
+
+        private long mUncompressedRequestBytes;
+
+        private long mRequestBytes;
+
+        private long mResponseBytes;
+
+        EndpointMetrics() {
+            mStatusCodeCounts = new HashMap<>();
+            mCallLatency = new Histogram();
+            mAttemptLatency = new Histogram();
+            mConnectLatency = new Histogram();
+            mTimeToFirstByte = new Histogram();
+            mConnectivityWait = new Histogram();
+        }
+
+        EndpointMetrics(EndpointMetrics metrics) {
+            mStatusCodeCounts = new HashMap<>(metrics.mStatusCodeCounts);
+            mCallLatency = new Histogram(metrics.mCallLatency);
+            mAttemptLatency = new Histogram(metrics.mAttemptLatency);
+            mConnectLatency = new Histogram(metrics.mConnectLatency);
+            mTimeToFirstByte = new Histogram(metrics.mTimeToFirstByte);
+            mConnectivityWait = new Histogram(metrics.mConnectivityWait);
+            mCallCount = metrics.mCallCount;
+            mFailedCallCount = metrics.mFailedCallCount;
+            mAttemptCount = metrics.mAttemptCount;
+            mRetryCount = metrics.mRetryCount;
+            mUncompressedRequestBytes = metrics.mUncompressedRequestBytes;
+            mRequestBytes = metrics.mRequestBytes;
+            mResponseBytes = metrics.mResponseBytes;
+        }
+
+        /**
+         * Get number of completed calls.
+         *
+         * @return number of completed calls.
+         */
+        public long getCallCount() {
+            return mCallCount;
+        }
+
+        /**
+         * Get number of calls that failed after all retries.
+         *
+         * @return number of calls that failed after all retries.
+         */
+        public long getFailedCallCount() {
+            return mFailedCallCount;
+        }
+
+        /**
+         * Get number of HTTP requests sent by the default HTTP client.
+         *
+         * @return number of HTTP requests sent by the default HTTP client.
+         */
+        public long getAttemptCount() {
+            return mAttemptCount;
+        }
+
+        /**
+         * Get number of retries.
+         *
+         * @return number of retries.
+         */
+        public long getRetryCount() {
+            return mRetryCount;
+        }
+
+        /**
+         * Get number of attempts by HTTP status code, {@link #NO_RESPONSE} counting network errors.
+         *
+         * @return number of attempts by HTTP status code, {@link #NO_RESPONSE} counting network errors.
+         */
+        public Map<Integer, Long> getStatusCodeCounts() {
+            return Collections.unmodifiableMap(mStatusCodeCounts);
+        }
+
+        /**
+         * Get latency of calls, including retries and time waiting for network.
+         *
+         * @return latency of calls, including retries and time waiting for network.
+         */
+        public Histogram getCallLatency() {
+            return mCallLatency;
+        }
+
+        /**
+         * Get latency of each HTTP request.
+         *
+         * @return latency of each HTTP request.
+         */
+        public Histogram getAttemptLatency() {
+            return mAttemptLatency;
+        }
+
+        /**
+         * Get time to open connections: DNS resolution, TCP connection and TLS handshake. Reused connections take close to 0.
+         *
+         * @return time to open connections: DNS resolution, TCP connection and TLS handshake. Reused connections take close to 0.
+         */
+        public Histogram getConnectLatency() {
+            return mConnectLatency;
+        }
+
+        /**
+         * Get time from request sent to response status received.
+         *
+         * @return time from request sent to response status received.
+         */
+        public Histogram getTimeToFirstByte() {
+            return mTimeToFirstByte;
+        }
+
+        /**
+         * Get time calls were paused while network was down.
+         *
+         * @return time calls were paused while network was down.
+         */
+        public Histogram getConnectivityWait() {
+            return mConnectivityWait;
+        }
+
+        /**
+         * Get total request body bytes before compression.
+         *
+         * @return total request body bytes before compression.
+         */
+        public long getUncompressedRequestBytes() {
+            return mUncompressedRequestBytes;
+        }
+
+        /**
+         * Get total request body bytes sent.
+         *
+         * @return total request body bytes sent.
+         */
+        public long getRequestBytes() {
+            return mRequestBytes;
+        }
+
+        /**
+         * Get total response body bytes received.
+         *
+         * @return total response body bytes received.
+         */
+        public long getResponseBytes() {
+            return mResponseBytes;
+        }
+    }
+
+    /**
+     * Histogram of durations in ms.
+     */
+    public static class Histogram {
+
+        private final long[] mBucketCounts;
+
+        private long mCount;
+
+        private long mSum;
+
+        private long mMax;
+
+        Histogram() {
+            mBucketCounts = new long[LATENCY_BUCKETS.length + 1];
+        }
+
+        Histogram(Histogram histogram) {
+            mBucketCounts = histogram.mBucketCounts.clone();
+            mCount = histogram.mCount;
+            mSum = histogram.mSum;
+            mMax = histogram.mMax;
+        }
+
+        /**
+         * Add a value, ignored if negative.
+         *
+         * @param value value in ms.
+         */
+        void record(long value) {
+            if (value < 0) {
+                return;
+            }
+            int index = Arrays.binarySearch(LATENCY_BUCKETS, value);
+            if (index < 0) {
+                index = -index - 1;
+            }
+            mBucketCounts[index]++;
+            mCount++;
+            mSum += value;
+            mMax = Math.max(mMax, value);
+        }
+
+        /**
+         * Get number of values.
+         *
+         * @return number of values.
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * Get sum of values.
+         *
+         * @return sum of values.
+         */
+        public long getSum() {
+            return mSum;
+        }
+
+        /**
+         * Get largest value.
+         *
+         * @return largest value.
+         */
+        public long getMax() {
+            return mMax;
+        }
+
+        /**
+         * Get inclusive upper bound of each bucket but the last one, which has no bound.
+         *
+         * @return inclusive upper bound of each bucket but the last one, which has no bound.
+         */
+        public long[] getBucketUpperBounds() {
+            return LATENCY_BUCKETS.clone();
+        }
+
+        /**
+         * Get number of values in each bucket.
+         *
+         * @return number of values in each bucket.
+         */
+        public long[] getBucketCounts() {
+            return mBucketCounts.clone();
+        }
+
+        /**
+         * Estimate a percentile.
+         *
+         * @param percentile percentile between 0 and 100.
+         * @return upper bound of the bucket containing the percentile, capped to the largest value, 0 if empty.
+         */
+        public long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * mCount);
+            long count = 0;
+            for (int i = 0; i < LATENCY_BUCKETS.length; i++) {
+                count += mBucketCounts[i];
+                if (count >= rank && count > 0) {
+                    return Math.min(LATENCY_BUCKETS[i], mMax);
+                }
+            }
+            return mMax;
+        }
+    }
+}
@@ -6,9 +6,11 @@
 package com.microsoft.appcenter.http;
 
 import android.content.Context;
+import android.os.Handler;
 import android.support.annotation.NonNull;
 import android.support.annotation.VisibleForTesting;
 
+import com.microsoft.appcenter.utils.HandlerUtils;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 
 import java.io.EOFException;
@@ -59,10 +61,40 @@ public class HttpUtils {
      */
     private static final Pattern API_KEY_PATTERN = Pattern.compile("-[^,]+(,|$)");
 
+    /**
+     * Factory used to create HTTP clients, null to use {@link DefaultHttpClient}.
+     */
+    private static HttpClient.Factory sHttpClientFactory;
+
+    /**
+     * Handler of the SDK background thread, used to store requests made while offline. Null until the SDK is configured.
+     */
+    private static Handler sStorageHandler;
+
     @VisibleForTesting
     HttpUtils() {
     }
 
+    /**
+     * Set the factory creating the HTTP clients used by the SDK. Retries and network state handling are still
+     * applied on top of the created clients. This must be called before starting the SDK to apply to all calls.
+     *
+     * @param httpClientFactory factory, or null to use the default HTTP client.
+     */
+    public static synchronized void setHttpClientFactory(HttpClient.Factory httpClientFactory) {
+        sHttpClientFactory = httpClientFactory;
+    }
+
+    /**
+     * Set the handler of the SDK background thread where HTTP clients read and write requests stored while offline.
+     * Clients created before this is called keep offline requests in memory only.
+     *
+     * @param storageHandler handler of the SDK background thread.
+     */
+    public static synchronized void setStorageHandler(Handler storageHandler) {
+        sStorageHandler = storageHandler;
+    }
+
     /**
      * Check whether an exception/error describes a recoverable error or not.
      *
@@ -174,11 +206,36 @@ public class HttpUtils {
     }
 
     public static HttpClient createHttpClient(@NonNull Context context, boolean compressionEnabled) {
-        HttpClient httpClient = new DefaultHttpClient(compressionEnabled);
-        NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
-        httpClient = new HttpClientNetworkStateHandler(httpClient, networkStateHelper);
+        HttpClient httpClient = createNetworkStateHandler(context, compressionEnabled);
+
+        /* Retryer should be applied after network state handler to avoid retries in offline. */
+        httpClient = new HttpClientRetryer(httpClient);
 
-        /* Retryer should be applied last to avoid retries in offline. */
-        return new HttpClientRetryer(httpClient);
+        /* Metrics are collected for whole calls, including retries. */
+        return new HttpClientMetricsCollector(httpClient);
+    }
+
+    /**
+     * Create an HTTP client waiting for network but without retries, for callers measuring each call.
+     * Calls made with a {@link HttpClient.PersistableCallTemplate} are still stored while offline.
+     *
+     * @param context any context.
+     * @return HTTP client.
+     */
+    public static HttpClient createHttpClientWithoutRetries(@NonNull Context context) {
+        return createNetworkStateHandler(context, false);
+    }
+
+    private static HttpClient createNetworkStateHandler(@NonNull Context context, boolean compressionEnabled) {
+        HttpClient httpClient;
+        Handler storageHandler;
+        synchronized (HttpUtils.class) {
+            httpClient = sHttpClientFactory != null ? sHttpClientFactory.createHttpClient(compressionEnabled) : new DefaultHttpClient(compressionEnabled);
+            storageHandler = sStorageHandler;
+        }
+        NetworkStateHelper networkStateHelper = NetworkStateHelper.getSharedInstance(context);
+        CompressionPolicy.getSharedInstance().setNetworkStateHelper(networkStateHelper);
+        PersistentRequestQueue requestQueue = storageHandler != null ? PersistentRequestQueue.getSharedInstance(context) : null;
+        return new HttpClientNetworkStateHandler(httpClient, networkStateHelper, requestQueue, HandlerUtils.getMainHandler(), storageHandler);
     }
 }
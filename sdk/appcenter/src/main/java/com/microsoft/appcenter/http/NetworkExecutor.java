@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executor dedicated to SDK network calls, so that they do not compete with the application
+ * tasks in the shared {@link android.os.AsyncTask} thread pool.
+ * <p>
+ * The number of threads and waiting calls are bounded, calls beyond that are rejected and counted.
+ */
+public class NetworkExecutor extends ThreadPoolExecutor {
+
+    /**
+     * Default maximum number of threads.
+     */
+    static final int DEFAULT_MAX_THREADS = 4;
+
+    /**
+     * Default maximum number of calls waiting for a thread.
+     */
+    static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /**
+     * Time after which idle threads are stopped.
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * Thread name prefix.
+     */
+    private static final String THREAD_NAME_PREFIX = "AppCenter.network-";
+
+    /**
+     * Shared instance.
+     */
+    private static NetworkExecutor sSharedInstance;
+
+    /**
+     * Number of rejected calls.
+     */
+    private final AtomicLong mRejectedCount = new AtomicLong();
+
+    /**
+     * Init.
+     *
+     * @param maxThreads     maximum number of threads.
+     * @param queueCapacity  maximum number of calls waiting for a thread.
+     * @param threadPriority thread priority, one of the {@link Process} THREAD_PRIORITY constants.
+     */
+    public NetworkExecutor(int maxThreads, int queueCapacity, int threadPriority) {
+        super(maxThreads, maxThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity), new NetworkThreadFactory(threadPriority));
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                long rejectedCount = mRejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("Network executor is saturated, " + rejectedCount + " call(s) rejected so far.");
+            }
+        });
+    }
+
+    /**
+     * Get shared instance, used by default by HTTP clients.
+     *
+     * @return shared instance.
+     */
+    public static synchronized NetworkExecutor getSharedInstance() {
+        if (sSharedInstance == null) {
+            sSharedInstance = new NetworkExecutor(DEFAULT_MAX_THREADS, DEFAULT_QUEUE_CAPACITY, Process.THREAD_PRIORITY_BACKGROUND);
+        }
+        return sSharedInstance;
+    }
+
+    /**
+     * Get the number of calls rejected because all threads were busy and the queue was full.
+     *
+     * @return number of rejected calls.
+     */
+    public long getRejectedCount() {
+        return mRejectedCount.get();
+    }
+
+    /**
+     * Create named threads with the configured priority.
+     */
+    private static class NetworkThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread priority.
+         */
+        private final int mThreadPriority;
+
+        /**
+         * Number of created threads, used in thread names.
+         */
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        NetworkThreadFactory(int threadPriority) {
+            mThreadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            return new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    Process.setThreadPriority(mThreadPriority);
+                    runnable.run();
+                }
+            }, THREAD_NAME_PREFIX + mThreadCount.incrementAndGet());
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+import static com.microsoft.appcenter.Constants.APP_SECRET;
+import static com.microsoft.appcenter.Constants.AUTHORIZATION_HEADER;
+
+/**
+ * Requests made while offline that must survive the process, one file per request.
+ * <p>
+ * Requests sharing a key are deduplicated: storing a request deletes the older ones with the same key.
+ * Requests stored by a previous process are handed out only once for replay.
+ * Credential headers are encrypted on disk. Methods do disk I/O and must be called from a background thread.
+ */
+class PersistentRequestQueue {
+
+    /**
+     * Directory under the application files directory.
+     */
+    @VisibleForTesting
+    static final String DIRECTORY = "/appcenter/requests";
+
+    /**
+     * Maximum number of stored requests, the oldest are deleted beyond that.
+     */
+    @VisibleForTesting
+    static final int MAX_REQUESTS = 100;
+
+    /**
+     * Age after which stored requests are no longer replayed.
+     */
+    @VisibleForTesting
+    static final long MAX_AGE = TimeUnit.DAYS.toMillis(7);
+
+    /**
+     * Request file extension.
+     */
+    private static final String REQUEST_FILE_EXTENSION = ".req";
+
+    /**
+     * Temporary file extension, used while writing a request.
+     */
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+
+    /**
+     * File format version.
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * Charset of request bodies.
+     */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Shared instance.
+     */
+    private static PersistentRequestQueue sSharedInstance;
+
+    /**
+     * Directory of request files.
+     */
+    private final File mDirectory;
+
+    /**
+     * Crypto utils to protect credential headers.
+     */
+    private final CryptoUtils mCryptoUtils;
+
+    /**
+     * Identifiers of the requests stored by a previous process and not handed out yet, null until loaded.
+     */
+    private Set<String> mStoredRequestIds;
+
+    /**
+     * Init.
+     *
+     * @param directory   directory of request files.
+     * @param cryptoUtils crypto utils to protect credential headers.
+     */
+    @VisibleForTesting
+    PersistentRequestQueue(File directory, CryptoUtils cryptoUtils) {
+        mDirectory = directory;
+        mCryptoUtils = cryptoUtils;
+    }
+
+    /**
+     * Get shared instance.
+     *
+     * @param context any context.
+     * @return shared instance, null if the application files directory is not known.
+     */
+    static synchronized PersistentRequestQueue getSharedInstance(@NonNull Context context) {
+        if (sSharedInstance == null && Constants.FILES_PATH != null) {
+            sSharedInstance = new PersistentRequestQueue(new File(Constants.FILES_PATH + DIRECTORY), CryptoUtils.getInstance(context));
+        }
+        return sSharedInstance;
+    }
+
+    /**
+     * List request files from a previous process the first time the queue is used.
+     */
+    private void loadStoredRequestIds() {
+        if (mStoredRequestIds == null) {
+            mStoredRequestIds = new HashSet<>();
+            for (File file : listFiles()) {
+                mStoredRequestIds.add(file.getName());
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        File[] files = mDirectory.listFiles(new FilenameFilter() {
+
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.endsWith(REQUEST_FILE_EXTENSION);
+            }
+        });
+        return files != null ? files : new File[0];
+    }
+
+    /**
+     * Store a request, replacing requests with the same key.
+     *
+     * @param request request to store, its identifier is set on success.
+     * @return request identifier, or null if it could not be stored.
+     */
+    synchronized String add(@NonNull Request request) {
+        loadStoredRequestIds();
+        String keyPrefix = UUID.nameUUIDFromBytes(request.mKey.getBytes(CHARSET)).toString();
+        String id = keyPrefix + "." + UUID.randomUUID() + REQUEST_FILE_EXTENSION;
+        File temporaryFile = new File(mDirectory, id + TEMPORARY_FILE_EXTENSION);
+        try {
+
+            /* Write then rename so that a process death never leaves a partial request. */
+            if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+                throw new IOException("Cannot create directory " + mDirectory);
+            }
+            write(temporaryFile, request);
+            if (!temporaryFile.renameTo(new File(mDirectory, id))) {
+                throw new IOException("Cannot rename " + temporaryFile);
+            }
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to store request for " + request.mUrl, e);
+            deleteFile(temporaryFile);
+            return null;
+        }
+        request.mId = id;
+
+        /* Deduplicate and bound. */
+        File[] files = listFiles();
+        List<File> remainingFiles = new ArrayList<>(files.length);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(keyPrefix) && !name.equals(id)) {
+                AppCenterLog.debug(LOG_TAG, "Replacing stored request " + name + " by " + id);
+                delete(name);
+            } else {
+                remainingFiles.add(file);
+            }
+        }
+        if (remainingFiles.size() > MAX_REQUESTS) {
+            File[] sortedFiles = remainingFiles.toArray(new File[0]);
+            Arrays.sort(sortedFiles, new Comparator<File>() {
+
+                @Override
+                public int compare(File file1, File file2) {
+                    return Long.compare(file1.lastModified(), file2.lastModified());
+                }
+            });
+            for (int i = 0; i < sortedFiles.length - MAX_REQUESTS; i++) {
+                AppCenterLog.warn(LOG_TAG, "Too many stored requests, deleting " + sortedFiles[i].getName());
+                delete(sortedFiles[i].getName());
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Delete a request, once sent or no longer wanted.
+     *
+     * @param id request identifier.
+     */
+    synchronized void remove(@NonNull String id) {
+        delete(id);
+    }
+
+    /**
+     * Make a request that could not be sent available again for {@link #takeStoredRequests()}.
+     *
+     * @param id request identifier.
+     */
+    synchronized void release(@NonNull String id) {
+        loadStoredRequestIds();
+        if (new File(mDirectory, id).exists()) {
+            mStoredRequestIds.add(id);
+        }
+    }
+
+    /**
+     * Hand out the requests that are not tracked by a live call, oldest first. Each request is returned only once,
+     * unless released.
+     *
+     * @return stored requests.
+     */
+    synchronized List<Request> takeStoredRequests() {
+        loadStoredRequestIds();
+        List<Request> requests = new ArrayList<>(mStoredRequestIds.size());
+        long now = System.currentTimeMillis();
+        for (String id : mStoredRequestIds) {
+            File file = new File(mDirectory, id);
+            try {
+                Request request = read(file);
+                request.mId = id;
+                if (now - request.mTime > MAX_AGE) {
+                    AppCenterLog.warn(LOG_TAG, "Stored request " + id + " expired.");
+                    deleteFile(file);
+                } else {
+                    requests.add(request);
+                }
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to read stored request " + id, e);
+                deleteFile(file);
+            }
+        }
+        mStoredRequestIds.clear();
+        Collections.sort(requests, new Comparator<Request>() {
+
+            @Override
+            public int compare(Request request1, Request request2) {
+                return Long.compare(request1.mTime, request2.mTime);
+            }
+        });
+        return requests;
+    }
+
+    private void delete(String id) {
+        if (mStoredRequestIds != null) {
+            mStoredRequestIds.remove(id);
+        }
+        deleteFile(new File(mDirectory, id));
+    }
+
+    private static void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            AppCenterLog.warn(LOG_TAG, "Failed to delete " + file);
+        }
+    }
+
+    private static boolean isSecretHeader(String name) {
+        return APP_SECRET.equals(name) || AUTHORIZATION_HEADER.equals(name);
+    }
+
+    private void write(File file, Request request) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(VERSION);
+            output.writeUTF(request.mKey);
+            output.writeLong(request.mTime);
+            output.writeUTF(request.mUrl);
+            output.writeUTF(request.mMethod);
+            output.writeInt(request.mHeaders.size());
+            for (Map.Entry<String, String> header : request.mHeaders.entrySet()) {
+                String name = header.getKey();
+                String value = header.getValue();
+                output.writeUTF(name);
+                output.writeUTF(isSecretHeader(name) ? mCryptoUtils.encrypt(value) : value);
+            }
+            if (request.mBody != null) {
+                byte[] body = request.mBody.getBytes(CHARSET);
+                output.writeInt(body.length);
+                output.write(body);
+            } else {
+                output.writeInt(-1);
+            }
+        } finally {
+            output.close();
+        }
+    }
+
+    private Request read(File file) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            int version = input.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported request file version " + version);
+            }
+            String key = input.readUTF();
+            long time = input.readLong();
+            String url = input.readUTF();
+            String method = input.readUTF();
+            int headerCount = input.readInt();
+            Map<String, String> headers = new HashMap<>(headerCount);
+            for (int i = 0; i < headerCount; i++) {
+                String name = input.readUTF();
+                String value = input.readUTF();
+                headers.put(name, isSecretHeader(name) ? mCryptoUtils.decrypt(value, false).getDecryptedData() : value);
+            }
+            String body = null;
+            int bodyLength = input.readInt();
+            if (bodyLength >= 0) {
+                byte[] bytes = new byte[bodyLength];
+                input.readFully(bytes);
+                body = new String(bytes, CHARSET);
+            }
+            return new Request(key, time, url, method, headers, body);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Stored request.
+     */
+    static class Request {
+
+        /**
+         * Deduplication key.
+         */
+        final String mKey;
+
+        /**
+         * Time the request was made at.
+         */
+        final long mTime;
+
+        final String mUrl;
+
+        final String mMethod;
+
+        final Map<String, String> mHeaders;
+
+        /**
+         * Request body, null if none.
+         */
+        final String mBody;
+
+        /**
+         * Identifier, set once stored.
+         */
+        String mId;
+
+        Request(String key, long time, String url, String method, Map<String, String> headers, String body) {
+            mKey = key;
+            mTime = time;
+            mUrl = url;
+            mMethod = method;
+            mHeaders = headers;
+            mBody = body;
+        }
+    }
+}
@@ -20,6 +20,8 @@ import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
 import org.json.JSONException;
 
 import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -95,10 +97,15 @@ public class AppCenterIngestion implements Ingestion {
         if (authToken != null) {
             headers.put(AUTHORIZATION_HEADER, String.format(Constants.AUTH_TOKEN_FORMAT, authToken));
         }
-        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer);
+        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer, serviceCallback);
         return mHttpClient.callAsync(mLogUrl + API_PATH, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
+    @Override
+    public boolean isSerializedLogsSupported() {
+        return true;
+    }
+
     @Override
     public void close() throws IOException {
         mHttpClient.close();
@@ -112,15 +119,26 @@ public class AppCenterIngestion implements Ingestion {
     /**
      * Inner class is used to be able to mock System.currentTimeMillis, does not work if using anonymous inner class...
      */
-    private static class IngestionCallTemplate extends AbstractAppCallTemplate {
+    private static class IngestionCallTemplate extends AbstractAppCallTemplate implements HttpClient.StreamingCallTemplate {
 
         private final LogSerializer mLogSerializer;
 
         private final LogContainer mLogContainer;
 
-        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer) {
+        private final ServiceCallback mServiceCallback;
+
+        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer, ServiceCallback serviceCallback) {
             mLogSerializer = logSerializer;
             mLogContainer = logContainer;
+            mServiceCallback = serviceCallback;
+        }
+
+        @Override
+        public void onBeforeCalling(URL url, Map<String, String> headers) {
+            if (mServiceCallback instanceof AttemptListener) {
+                ((AttemptListener) mServiceCallback).onAttemptStarted();
+            }
+            super.onBeforeCalling(url, headers);
         }
 
         @Override
@@ -129,5 +147,10 @@ public class AppCenterIngestion implements Ingestion {
             /* Serialize payload. */
             return mLogSerializer.serializeContainer(mLogContainer);
         }
+
+        @Override
+        public void writeRequestBody(Writer writer) throws JSONException, IOException {
+            mLogSerializer.serializeContainer(mLogContainer, writer);
+        }
     }
 }
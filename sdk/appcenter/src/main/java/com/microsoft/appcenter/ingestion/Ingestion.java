@@ -30,6 +30,13 @@ public interface Ingestion extends Closeable {
      */
     ServiceCall sendAsync(String authToken, String appSecret, UUID installId, LogContainer logContainer, ServiceCallback serviceCallback) throws IllegalArgumentException;
 
+    /**
+     * Check whether {@link #sendAsync} accepts a {@link LogContainer} with serialized logs instead of log objects.
+     *
+     * @return true if serialized logs are supported, false otherwise.
+     */
+    boolean isSerializedLogsSupported();
+
     /**
      * Update log URL.
      *
@@ -41,4 +48,16 @@ public interface Ingestion extends Closeable {
      * Make ingestion active again after closing.
      */
     void reopen();
+
+    /**
+     * Optional interface for the callback passed to {@link #sendAsync}, to measure each attempt of a call separately
+     * from retry delays and waiting for network.
+     */
+    interface AttemptListener {
+
+        /**
+         * Called each time the request is about to be sent, including retries.
+         */
+        void onAttemptStarted();
+    }
 }
@@ -25,6 +25,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
@@ -173,7 +174,7 @@ public class OneCollectorIngestion implements Ingestion {
         headers.put(UPLOAD_TIME_KEY, String.valueOf(System.currentTimeMillis()));
 
         /* Make the call. */
-        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer);
+        HttpClient.CallTemplate callTemplate = new IngestionCallTemplate(mLogSerializer, logContainer, serviceCallback);
         return mHttpClient.callAsync(mLogUrl, METHOD_POST, headers, callTemplate, serviceCallback);
     }
 
@@ -193,6 +194,13 @@ public class OneCollectorIngestion implements Ingestion {
         mHttpClient.reopen();
     }
 
+    @Override
+    public boolean isSerializedLogsSupported() {
+
+        /* Headers are computed from log objects. */
+        return false;
+    }
+
     @Override
     public void close() throws IOException {
         mHttpClient.close();
@@ -201,7 +209,7 @@ public class OneCollectorIngestion implements Ingestion {
     /**
      * Call template implementation for One Collector.
      */
-    private static class IngestionCallTemplate implements HttpClient.CallTemplate {
+    private static class IngestionCallTemplate implements HttpClient.StreamingCallTemplate {
 
         /**
          * Log serializer.
@@ -213,12 +221,18 @@ public class OneCollectorIngestion implements Ingestion {
          */
         private final LogContainer mLogContainer;
 
+        /**
+         * Callback of the call, notified of each attempt if it is an {@link AttemptListener}.
+         */
+        private final ServiceCallback mServiceCallback;
+
         /**
          * Init.
          */
-        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer) {
+        IngestionCallTemplate(LogSerializer logSerializer, LogContainer logContainer, ServiceCallback serviceCallback) {
             mLogSerializer = logSerializer;
             mLogContainer = logContainer;
+            mServiceCallback = serviceCallback;
         }
 
         @Override
@@ -235,8 +249,19 @@ public class OneCollectorIngestion implements Ingestion {
             return jsonStream.toString();
         }
 
+        @Override
+        public void writeRequestBody(Writer writer) throws JSONException, IOException {
+            for (Log log : mLogContainer.getLogs()) {
+                writer.write(mLogSerializer.serializeLog(log));
+                writer.write('\n');
+            }
+        }
+
         @Override
         public void onBeforeCalling(URL url, Map<String, String> headers) {
+            if (mServiceCallback instanceof AttemptListener) {
+                ((AttemptListener) mServiceCallback).onAttemptStarted();
+            }
             if (AppCenterLog.getLogLevel() <= VERBOSE) {
 
                 /* Log url. */
@@ -7,6 +7,7 @@ package com.microsoft.appcenter.ingestion.models;
 
 
 import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
 
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
@@ -15,6 +16,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedHashSet;
@@ -26,7 +28,7 @@ import static com.microsoft.appcenter.ingestion.models.CommonProperties.TYPE;
 /**
  * The AbstractLog model.
  */
-public abstract class AbstractLog implements Log {
+public abstract class AbstractLog implements Log, Model.StreamingModel {
 
     /**
      * timestamp property.
@@ -162,7 +164,8 @@ public abstract class AbstractLog implements Log {
     @Override
     public void write(JSONStringer writer) throws JSONException {
         JSONUtils.write(writer, TYPE, getType());
-        writer.key(TIMESTAMP).value(JSONDateUtils.toString(getTimestamp()));
+        writer.key(TIMESTAMP);
+        JSONDateUtils.write(writer, getTimestamp());
         JSONUtils.write(writer, SID, getSid());
         JSONUtils.write(writer, DISTRIBUTION_GROUP_ID, getDistributionGroupId());
         JSONUtils.write(writer, USER_ID, getUserId());
@@ -191,6 +194,52 @@ public abstract class AbstractLog implements Log {
         }
     }
 
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!readField(reader, reader.nextName())) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (getTimestamp() == null) {
+            throw new JSONException("Missing timestamp");
+        }
+    }
+
+    /**
+     * Read a field from a stream, subclasses read their own fields before calling this method.
+     *
+     * @param reader reader positioned before the value.
+     * @param name   field name.
+     * @return true if the value was read, false if the field is unknown and its value must be skipped.
+     * @throws IOException   if the stream is not valid JSON.
+     * @throws JSONException if the value is not valid.
+     */
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (TYPE.equals(name)) {
+            if (!reader.nextString().equals(getType())) {
+                throw new JSONException("Invalid type");
+            }
+        } else if (TIMESTAMP.equals(name)) {
+            setTimestamp(JSONDateUtils.toDate(reader.nextString()));
+        } else if (SID.equals(name)) {
+            setSid(UUID.fromString(reader.nextString()));
+        } else if (DISTRIBUTION_GROUP_ID.equals(name)) {
+            setDistributionGroupId(JSONUtils.readString(reader));
+        } else if (USER_ID.equals(name)) {
+            setUserId(JSONUtils.readString(reader));
+        } else if (DEVICE.equals(name)) {
+            Device device = new Device();
+            device.read(reader);
+            setDevice(device);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     @SuppressWarnings("EqualsReplaceableByObjectsCall")
     @Override
     public boolean equals(Object o) {
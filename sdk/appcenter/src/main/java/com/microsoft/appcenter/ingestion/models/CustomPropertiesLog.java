@@ -5,14 +5,18 @@
 
 package com.microsoft.appcenter.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
@@ -20,6 +24,7 @@ import java.util.Map;
 /**
  * The custom properties log model.
  */
+@JsonModel
 public class CustomPropertiesLog extends AbstractLog {
 
     /**
@@ -62,6 +67,17 @@ public class CustomPropertiesLog extends AbstractLog {
         return properties;
     }
 
+    private static Map<String, Object> readProperties(JsonReader reader) throws IOException, JSONException {
+        Map<String, Object> properties = new HashMap<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JSONObject jProperty = JSONUtils.readObject(reader);
+            properties.put(jProperty.getString(PROPERTY_NAME), readPropertyValue(jProperty));
+        }
+        reader.endArray();
+        return properties;
+    }
+
     @SuppressWarnings("IfCanBeSwitch")
     private static Object readPropertyValue(JSONObject object) throws JSONException {
         String type = object.getString(PROPERTY_TYPE);
@@ -111,7 +127,8 @@ public class CustomPropertiesLog extends AbstractLog {
             JSONUtils.write(writer, PROPERTY_VALUE, value);
         } else if (value instanceof Date) {
             JSONUtils.write(writer, PROPERTY_TYPE, PROPERTY_TYPE_DATETIME);
-            JSONUtils.write(writer, PROPERTY_VALUE, JSONDateUtils.toString((Date) value));
+            writer.key(PROPERTY_VALUE);
+            JSONDateUtils.write(writer, (Date) value);
         } else if (value instanceof String) {
             JSONUtils.write(writer, PROPERTY_TYPE, PROPERTY_TYPE_STRING);
             JSONUtils.write(writer, PROPERTY_VALUE, value);
@@ -149,6 +166,15 @@ public class CustomPropertiesLog extends AbstractLog {
         setProperties(readProperties(object));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (PROPERTIES.equals(name)) {
+            setProperties(readProperties(reader));
+            return true;
+        }
+        return super.readField(reader, name);
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
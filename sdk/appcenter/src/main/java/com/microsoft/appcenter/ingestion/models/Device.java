@@ -5,12 +5,16 @@
 
 package com.microsoft.appcenter.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * Device characteristic log.
  */
@@ -439,6 +443,46 @@ public class Device extends WrapperSdk {
         setAppNamespace(object.optString(APP_NAMESPACE, null));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (SDK_NAME.equals(name)) {
+            setSdkName(JSONUtils.readString(reader));
+        } else if (SDK_VERSION.equals(name)) {
+            setSdkVersion(JSONUtils.readString(reader));
+        } else if (MODEL.equals(name)) {
+            setModel(JSONUtils.readString(reader));
+        } else if (OEM_NAME.equals(name)) {
+            setOemName(JSONUtils.readString(reader));
+        } else if (OS_NAME.equals(name)) {
+            setOsName(JSONUtils.readString(reader));
+        } else if (OS_VERSION.equals(name)) {
+            setOsVersion(JSONUtils.readString(reader));
+        } else if (OS_BUILD.equals(name)) {
+            setOsBuild(JSONUtils.readString(reader));
+        } else if (OS_API_LEVEL.equals(name)) {
+            setOsApiLevel(JSONUtils.readInteger(reader));
+        } else if (LOCALE.equals(name)) {
+            setLocale(JSONUtils.readString(reader));
+        } else if (TIME_ZONE_OFFSET.equals(name)) {
+            setTimeZoneOffset(JSONUtils.readInteger(reader));
+        } else if (SCREEN_SIZE.equals(name)) {
+            setScreenSize(JSONUtils.readString(reader));
+        } else if (APP_VERSION.equals(name)) {
+            setAppVersion(JSONUtils.readString(reader));
+        } else if (CARRIER_NAME.equals(name)) {
+            setCarrierName(JSONUtils.readString(reader));
+        } else if (CARRIER_COUNTRY.equals(name)) {
+            setCarrierCountry(JSONUtils.readString(reader));
+        } else if (APP_BUILD.equals(name)) {
+            setAppBuild(JSONUtils.readString(reader));
+        } else if (APP_NAMESPACE.equals(name)) {
+            setAppNamespace(JSONUtils.readString(reader));
+        } else {
+            return super.readField(reader, name);
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
@@ -17,6 +17,11 @@ public class LogContainer {
      */
     private List<Log> logs;
 
+    /**
+     * The list of logs already serialized to JSON, used instead of {@link #logs} when set.
+     */
+    private List<String> serializedLogs;
+
     /**
      * Get the logs value.
      *
@@ -35,6 +40,24 @@ public class LogContainer {
         this.logs = logs;
     }
 
+    /**
+     * Get the serializedLogs value.
+     *
+     * @return the serializedLogs value
+     */
+    public List<String> getSerializedLogs() {
+        return this.serializedLogs;
+    }
+
+    /**
+     * Set the serializedLogs value.
+     *
+     * @param serializedLogs the serializedLogs value to set
+     */
+    public void setSerializedLogs(List<String> serializedLogs) {
+        this.serializedLogs = serializedLogs;
+    }
+
     @SuppressWarnings("EqualsReplaceableByObjectsCall")
     @Override
     public boolean equals(Object o) {
@@ -45,11 +68,16 @@ public class LogContainer {
             return false;
         }
         LogContainer container = (LogContainer) o;
-        return logs != null ? logs.equals(container.logs) : container.logs == null;
+        if (logs != null ? !logs.equals(container.logs) : container.logs != null) {
+            return false;
+        }
+        return serializedLogs != null ? serializedLogs.equals(container.serializedLogs) : container.serializedLogs == null;
     }
 
     @Override
     public int hashCode() {
-        return logs != null ? logs.hashCode() : 0;
+        int result = logs != null ? logs.hashCode() : 0;
+        result = 31 * result + (serializedLogs != null ? serializedLogs.hashCode() : 0);
+        return result;
     }
 }
@@ -5,13 +5,34 @@
 
 package com.microsoft.appcenter.ingestion.models;
 
+import android.util.JsonReader;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 public interface Model {
 
     void read(JSONObject object) throws JSONException;
 
     void write(JSONStringer writer) throws JSONException;
+
+    /**
+     * Model that can also be read from a stream. Other models are read from a {@link JSONObject}
+     * built from the stream, see {@link com.microsoft.appcenter.ingestion.models.json.JSONUtils#readModel(JsonReader, Model)}.
+     */
+    interface StreamingModel extends Model {
+
+        /**
+         * Read the model from a stream positioned before its object, without building a {@link JSONObject}.
+         * Unknown fields are skipped.
+         *
+         * @param reader reader.
+         * @throws IOException   if the stream is not valid JSON.
+         * @throws JSONException if the content is not a valid model.
+         */
+        void read(JsonReader reader) throws IOException, JSONException;
+    }
 }
@@ -5,18 +5,23 @@
 
 package com.microsoft.appcenter.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
  * Describe a AppCenter.start call from the SDK.
  */
 @SuppressWarnings("RedundantSuppression")
+@JsonModel
 public class StartServiceLog extends AbstractLog {
 
     /**
@@ -60,6 +65,15 @@ public class StartServiceLog extends AbstractLog {
         setServices(JSONUtils.readStringArray(object, SERVICES));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (SERVICES.equals(name)) {
+            setServices(JSONUtils.readStringArray(reader));
+            return true;
+        }
+        return super.readField(reader, name);
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
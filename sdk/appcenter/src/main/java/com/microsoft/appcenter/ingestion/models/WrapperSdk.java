@@ -5,13 +5,17 @@
 
 package com.microsoft.appcenter.ingestion.models;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
-public class WrapperSdk implements Model {
+import java.io.IOException;
+
+public class WrapperSdk implements Model.StreamingModel {
 
     private static final String WRAPPER_SDK_VERSION = "wrapperSdkVersion";
 
@@ -178,6 +182,45 @@ public class WrapperSdk implements Model {
         setLiveUpdatePackageHash(object.optString(LIVE_UPDATE_PACKAGE_HASH, null));
     }
 
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!readField(reader, reader.nextName())) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read a field from a stream, subclasses read their own fields before calling this method.
+     *
+     * @param reader reader positioned before the value.
+     * @param name   field name.
+     * @return true if the value was read, false if the field is unknown and its value must be skipped.
+     * @throws IOException   if the stream is not valid JSON.
+     * @throws JSONException if the value is not valid.
+     */
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (WRAPPER_SDK_VERSION.equals(name)) {
+            setWrapperSdkVersion(JSONUtils.readString(reader));
+        } else if (WRAPPER_SDK_NAME.equals(name)) {
+            setWrapperSdkName(JSONUtils.readString(reader));
+        } else if (WRAPPER_RUNTIME_VERSION.equals(name)) {
+            setWrapperRuntimeVersion(JSONUtils.readString(reader));
+        } else if (LIVE_UPDATE_RELEASE_LABEL.equals(name)) {
+            setLiveUpdateReleaseLabel(JSONUtils.readString(reader));
+        } else if (LIVE_UPDATE_DEPLOYMENT_KEY.equals(name)) {
+            setLiveUpdateDeploymentKey(JSONUtils.readString(reader));
+        } else if (LIVE_UPDATE_PACKAGE_HASH.equals(name)) {
+            setLiveUpdatePackageHash(JSONUtils.readString(reader));
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         JSONUtils.write(writer, WRAPPER_SDK_VERSION, getWrapperSdkVersion());
@@ -0,0 +1,466 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.CHARSET;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.MAGIC;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_ARRAY;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_DOUBLE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_END;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_FALSE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_LONG;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_NULL;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_OBJECT;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_STRING;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_STRING_REFERENCE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.TAG_TRUE;
+import static com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer.VERSION;
+
+/**
+ * Reader for payloads written by {@link BinaryJSONStringer}.
+ */
+public class BinaryJSONReader {
+
+    /**
+     * Hexadecimal digits for escaping strings.
+     */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Payload.
+     */
+    private final byte[] mData;
+
+    /**
+     * Strings read so far, by index.
+     */
+    private final List<String> mStringTable = new ArrayList<>();
+
+    /**
+     * Read position.
+     */
+    private int mPosition;
+
+    private BinaryJSONReader(byte[] data) throws JSONException {
+        if (!isBinary(data)) {
+            throw new JSONException("Not a binary payload.");
+        }
+        if (data[1] != VERSION) {
+            throw new JSONException("Unsupported binary payload version: " + data[1]);
+        }
+        mData = data;
+        mPosition = 2;
+    }
+
+    /**
+     * Check whether data was written by {@link BinaryJSONStringer}.
+     *
+     * @param data data to check.
+     * @return true if data is a binary payload.
+     */
+    public static boolean isBinary(@NonNull byte[] data) {
+        return data.length >= 2 && data[0] == MAGIC;
+    }
+
+    /**
+     * Read a binary payload as a JSON object, to read models.
+     *
+     * @param data binary payload.
+     * @return JSON object.
+     * @throws JSONException if the payload is invalid or not an object.
+     */
+    @NonNull
+    public static JSONObject readObject(@NonNull byte[] data) throws JSONException {
+        BinaryJSONReader reader = new BinaryJSONReader(data);
+        if (reader.readByte() != TAG_OBJECT) {
+            throw new JSONException("Binary payload is not an object.");
+        }
+        JSONObject object = reader.readObjectContent();
+        reader.checkEnd();
+        return object;
+    }
+
+    /**
+     * Convert a binary payload to JSON text, without creating JSON objects.
+     *
+     * @param data binary payload.
+     * @return JSON text, identical to what {@link org.json.JSONStringer} produces for the same model.
+     * @throws JSONException if the payload is invalid.
+     */
+    @NonNull
+    public static String toJson(@NonNull byte[] data) throws JSONException {
+        BinaryJSONReader reader = new BinaryJSONReader(data);
+        StringBuilder builder = new StringBuilder(data.length * 2);
+        reader.appendValue(builder, reader.readByte());
+        reader.checkEnd();
+        return builder.toString();
+    }
+
+    /**
+     * Convert a binary payload to JSON text as it is read, so that models can be read from a
+     * {@link android.util.JsonReader} without building the whole text or JSON objects first.
+     *
+     * @param data binary payload.
+     * @return reader of JSON text, identical to what {@link #toJson(byte[])} returns.
+     * Invalid payload content is reported as an {@link IOException} while reading.
+     * @throws JSONException if the payload header is invalid.
+     */
+    @NonNull
+    public static Reader toJsonReader(@NonNull byte[] data) throws JSONException {
+        return new JsonTextReader(new BinaryJSONReader(data));
+    }
+
+    private JSONObject readObjectContent() throws JSONException {
+        JSONObject object = new JSONObject();
+        byte tag;
+        while ((tag = readByte()) != TAG_END) {
+            String key = readString(tag);
+            object.put(key, readValue(readByte()));
+        }
+        return object;
+    }
+
+    private Object readValue(byte tag) throws JSONException {
+        switch (tag) {
+            case TAG_OBJECT:
+                return readObjectContent();
+
+            case TAG_ARRAY:
+                JSONArray array = new JSONArray();
+                while ((tag = readByte()) != TAG_END) {
+                    array.put(readValue(tag));
+                }
+                return array;
+
+            case TAG_LONG:
+
+                /* Same number types as parsing JSON text. */
+                long value = readLong();
+                if (value == (int) value) {
+                    return (int) value;
+                }
+                return value;
+
+            case TAG_DOUBLE:
+                return readDouble();
+
+            case TAG_TRUE:
+                return true;
+
+            case TAG_FALSE:
+                return false;
+
+            case TAG_NULL:
+                return JSONObject.NULL;
+
+            default:
+                return readString(tag);
+        }
+    }
+
+    private void appendValue(StringBuilder builder, byte tag) throws JSONException {
+        switch (tag) {
+            case TAG_OBJECT:
+                builder.append('{');
+                boolean first = true;
+                while ((tag = readByte()) != TAG_END) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    first = false;
+                    appendString(builder, readString(tag));
+                    builder.append(':');
+                    appendValue(builder, readByte());
+                }
+                builder.append('}');
+                break;
+
+            case TAG_ARRAY:
+                builder.append('[');
+                first = true;
+                while ((tag = readByte()) != TAG_END) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    first = false;
+                    appendValue(builder, tag);
+                }
+                builder.append(']');
+                break;
+
+            case TAG_LONG:
+                builder.append(readLong());
+                break;
+
+            case TAG_DOUBLE:
+                double value = readDouble();
+                if (Double.doubleToRawLongBits(value) == Double.doubleToRawLongBits(-0d)) {
+                    builder.append("-0");
+                } else {
+                    builder.append(value);
+                }
+                break;
+
+            case TAG_TRUE:
+                builder.append("true");
+                break;
+
+            case TAG_FALSE:
+                builder.append("false");
+                break;
+
+            case TAG_NULL:
+                builder.append("null");
+                break;
+
+            default:
+                appendString(builder, readString(tag));
+        }
+    }
+
+    /**
+     * Append a quoted string, escaped like {@link org.json.JSONStringer} does.
+     */
+    private static void appendString(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    builder.append('\\').append(c);
+                    break;
+
+                case '\t':
+                    builder.append("\\t");
+                    break;
+
+                case '\b':
+                    builder.append("\\b");
+                    break;
+
+                case '\n':
+                    builder.append("\\n");
+                    break;
+
+                case '\r':
+                    builder.append("\\r");
+                    break;
+
+                case '\f':
+                    builder.append("\\f");
+                    break;
+
+                default:
+                    if (c <= 0x1F) {
+                        builder.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+                    } else {
+                        builder.append(c);
+                    }
+            }
+        }
+        builder.append('"');
+    }
+
+    private String readString(byte tag) throws JSONException {
+        if (tag == TAG_STRING) {
+            int length = readLength();
+            if (length > mData.length - mPosition) {
+                throw new JSONException("Binary payload is truncated.");
+            }
+            String value = new String(mData, mPosition, length, CHARSET);
+            mPosition += length;
+            mStringTable.add(value);
+            return value;
+        }
+        if (tag == TAG_STRING_REFERENCE) {
+            int index = readLength();
+            if (index >= mStringTable.size()) {
+                throw new JSONException("Invalid string reference in binary payload: " + index);
+            }
+            return mStringTable.get(index);
+        }
+        throw new JSONException("Invalid tag in binary payload: " + tag);
+    }
+
+    private long readLong() throws JSONException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private double readDouble() throws JSONException {
+        if (mData.length - mPosition < 8) {
+            throw new JSONException("Binary payload is truncated.");
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | (mData[mPosition++] & 0xFF);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    private int readLength() throws JSONException {
+        long value = readVarint();
+        if (value > Integer.MAX_VALUE) {
+            throw new JSONException("Invalid length in binary payload: " + value);
+        }
+        return (int) value;
+    }
+
+    private long readVarint() throws JSONException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new JSONException("Invalid integer in binary payload.");
+    }
+
+    private byte readByte() throws JSONException {
+        if (mPosition >= mData.length) {
+            throw new JSONException("Binary payload is truncated.");
+        }
+        return mData[mPosition++];
+    }
+
+    private void checkEnd() throws JSONException {
+        if (mPosition != mData.length) {
+            throw new JSONException("Unexpected data at the end of binary payload.");
+        }
+    }
+
+    /**
+     * Reader producing JSON text one token at a time from a binary payload.
+     */
+    private static class JsonTextReader extends Reader {
+
+        /**
+         * Binary payload reader.
+         */
+        private final BinaryJSONReader mReader;
+
+        /**
+         * Text of the current token.
+         */
+        private final StringBuilder mToken = new StringBuilder();
+
+        /**
+         * Open containers from the innermost one: true for objects, false for arrays.
+         */
+        private final Deque<Boolean> mContainers = new ArrayDeque<>();
+
+        /**
+         * Position in the current token text.
+         */
+        private int mTokenPosition;
+
+        /**
+         * Whether the next value is the first one of the innermost container.
+         */
+        private boolean mFirst;
+
+        /**
+         * Whether the root value has been read.
+         */
+        private boolean mStarted;
+
+        private JsonTextReader(BinaryJSONReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public int read(@NonNull char[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            try {
+                while (mTokenPosition == mToken.length()) {
+                    if (!readToken()) {
+                        return -1;
+                    }
+                }
+            } catch (JSONException e) {
+                throw new IOException(e.getMessage());
+            }
+            int count = Math.min(length, mToken.length() - mTokenPosition);
+            mToken.getChars(mTokenPosition, mTokenPosition + count, buffer, offset);
+            mTokenPosition += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        /**
+         * Convert the next token of the payload.
+         *
+         * @return false at the end of the payload.
+         */
+        private boolean readToken() throws JSONException {
+            mToken.setLength(0);
+            mTokenPosition = 0;
+            if (!mStarted) {
+                mStarted = true;
+                appendToken(mReader.readByte());
+                return true;
+            }
+            Boolean object = mContainers.peek();
+            if (object == null) {
+                mReader.checkEnd();
+                return false;
+            }
+            byte tag = mReader.readByte();
+            if (tag == TAG_END) {
+                mContainers.pop();
+                mToken.append(object ? '}' : ']');
+                mFirst = false;
+                return true;
+            }
+            if (!mFirst) {
+                mToken.append(',');
+            }
+            mFirst = false;
+            if (object) {
+                appendString(mToken, mReader.readString(tag));
+                mToken.append(':');
+                tag = mReader.readByte();
+            }
+            appendToken(tag);
+            return true;
+        }
+
+        /**
+         * Append a scalar value or the start of a container, whose content is read by next tokens.
+         */
+        private void appendToken(byte tag) throws JSONException {
+            if (tag == TAG_OBJECT || tag == TAG_ARRAY) {
+                mToken.append(tag == TAG_OBJECT ? '{' : '[');
+                mContainers.push(tag == TAG_OBJECT);
+                mFirst = true;
+            } else {
+                mReader.appendValue(mToken, tag);
+            }
+        }
+    }
+}
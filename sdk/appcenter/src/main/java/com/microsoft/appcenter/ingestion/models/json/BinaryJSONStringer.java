@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writer for models that encodes them in a compact binary format instead of JSON text.
+ * Models write themselves with the usual {@link JSONStringer} calls,
+ * the result is read back with {@link BinaryJSONReader}.
+ * <p>
+ * Format, version 1:
+ * <ul>
+ * <li>The payload starts with {@link #MAGIC} and {@link #VERSION}, followed by a value.</li>
+ * <li>Each value starts with a tag byte.</li>
+ * <li>Objects are a sequence of key and value pairs ended by {@link #TAG_END}, arrays a sequence of values ended by {@link #TAG_END}.</li>
+ * <li>Keys and strings are written in UTF-8 with their length on first use, then referenced by their index in a string table.</li>
+ * <li>Integers are written as zigzag variable length integers, other numbers as 8 bytes doubles.</li>
+ * </ul>
+ */
+public class BinaryJSONStringer extends JSONStringer {
+
+    /**
+     * First byte of a binary payload, distinct from any JSON text or deflate stream first byte.
+     */
+    static final byte MAGIC = (byte) 0xAC;
+
+    /**
+     * Version of the format.
+     */
+    static final byte VERSION = 1;
+
+    /**
+     * Object start.
+     */
+    static final byte TAG_OBJECT = 1;
+
+    /**
+     * Array start.
+     */
+    static final byte TAG_ARRAY = 2;
+
+    /**
+     * Object or array end.
+     */
+    static final byte TAG_END = 3;
+
+    /**
+     * String written inline, added to the string table.
+     */
+    static final byte TAG_STRING = 4;
+
+    /**
+     * String referenced by its index in the string table.
+     */
+    static final byte TAG_STRING_REFERENCE = 5;
+
+    /**
+     * Integer.
+     */
+    static final byte TAG_LONG = 6;
+
+    /**
+     * Floating point number.
+     */
+    static final byte TAG_DOUBLE = 7;
+
+    /**
+     * True.
+     */
+    static final byte TAG_TRUE = 8;
+
+    /**
+     * False.
+     */
+    static final byte TAG_FALSE = 9;
+
+    /**
+     * Null.
+     */
+    static final byte TAG_NULL = 10;
+
+    /**
+     * Charset of strings.
+     */
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Size of {@link #MAGIC} and {@link #VERSION}.
+     */
+    private static final int HEADER_SIZE = 2;
+
+    /**
+     * Initial buffer size.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Negative zero is written as a double, like {@link JSONObject#numberToString(Number)} does.
+     */
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0d);
+
+    /**
+     * Index of strings already written.
+     */
+    private final Map<String, Integer> mStringTable = new HashMap<>();
+
+    /**
+     * Encoded bytes.
+     */
+    private byte[] mBuffer = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Number of bytes used in {@link #mBuffer}.
+     */
+    private int mSize;
+
+    /**
+     * Nesting of objects and arrays.
+     */
+    private int mDepth;
+
+    /**
+     * Init.
+     */
+    public BinaryJSONStringer() {
+        mBuffer[mSize++] = MAGIC;
+        mBuffer[mSize++] = VERSION;
+    }
+
+    @Override
+    public JSONStringer object() {
+        writeByte(TAG_OBJECT);
+        mDepth++;
+        return this;
+    }
+
+    @Override
+    public JSONStringer endObject() throws JSONException {
+        return end();
+    }
+
+    @Override
+    public JSONStringer array() {
+        writeByte(TAG_ARRAY);
+        mDepth++;
+        return this;
+    }
+
+    @Override
+    public JSONStringer endArray() throws JSONException {
+        return end();
+    }
+
+    @Override
+    public JSONStringer key(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        writeString(name);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(Object value) throws JSONException {
+        if (value == null || value == JSONObject.NULL) {
+            writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            value((boolean) (Boolean) value);
+        } else if (value instanceof Number) {
+            writeNumber((Number) value);
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            object();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                key(key).value(object.opt(key));
+            }
+            endObject();
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            endArray();
+        } else {
+            writeString(value.toString());
+        }
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(boolean value) {
+        writeByte(value ? TAG_TRUE : TAG_FALSE);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(double value) throws JSONException {
+        writeDouble(value);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(long value) {
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Get the encoded payload.
+     *
+     * @return the encoded payload.
+     */
+    @NonNull
+    public byte[] toByteArray() {
+        return Arrays.copyOf(mBuffer, mSize);
+    }
+
+    /**
+     * Get the JSON text of the value, as {@link JSONStringer} would have written it.
+     * This decodes the whole payload, use {@link #toByteArray()} to get the encoded payload.
+     *
+     * @return the JSON text, or null if nothing was written.
+     * @throws IllegalStateException if objects or arrays are not ended yet.
+     */
+    @Override
+    public String toString() {
+        if (mSize == HEADER_SIZE) {
+            return null;
+        }
+        if (mDepth > 0) {
+            throw new IllegalStateException("Binary payload can be converted to JSON only when all objects and arrays are ended.");
+        }
+        try {
+            return BinaryJSONReader.toJson(toByteArray());
+        } catch (JSONException e) {
+            throw new IllegalStateException("Cannot convert binary payload to JSON: " + e.getMessage(), e);
+        }
+    }
+
+    private JSONStringer end() throws JSONException {
+        if (mDepth == 0) {
+            throw new JSONException("Nesting problem");
+        }
+        mDepth--;
+        writeByte(TAG_END);
+        return this;
+    }
+
+    private void writeNumber(Number value) throws JSONException {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeLong(value.longValue());
+        } else {
+            writeDouble(value.doubleValue());
+        }
+    }
+
+    private void writeDouble(double value) throws JSONException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("Forbidden numeric value: " + value);
+        }
+
+        /* Write whole numbers as integers, they are written that way in JSON text. */
+        long longValue = (long) value;
+        if (value == longValue && Double.doubleToRawLongBits(value) != NEGATIVE_ZERO_BITS) {
+            writeLong(longValue);
+            return;
+        }
+        ensureCapacity(9);
+        mBuffer[mSize++] = TAG_DOUBLE;
+        long bits = Double.doubleToRawLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mBuffer[mSize++] = (byte) (bits >>> shift);
+        }
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(11);
+        mBuffer[mSize++] = TAG_LONG;
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeString(String value) {
+        Integer index = mStringTable.get(value);
+        if (index != null) {
+            ensureCapacity(11);
+            mBuffer[mSize++] = TAG_STRING_REFERENCE;
+            writeVarint(index);
+            return;
+        }
+        mStringTable.put(value, mStringTable.size());
+        byte[] bytes = value.getBytes(CHARSET);
+        ensureCapacity(11 + bytes.length);
+        mBuffer[mSize++] = TAG_STRING;
+        writeVarint(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+        mSize += bytes.length;
+    }
+
+    private void writeVarint(long value) {
+        while ((value & ~0x7FL) != 0) {
+            mBuffer[mSize++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        mBuffer[mSize++] = (byte) value;
+    }
+
+    private void writeByte(byte value) {
+        ensureCapacity(1);
+        mBuffer[mSize++] = value;
+    }
+
+    private void ensureCapacity(int length) {
+        if (mSize + length > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + length));
+        }
+    }
+}
@@ -6,6 +6,8 @@
 package com.microsoft.appcenter.ingestion.models.json;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.ingestion.models.LogContainer;
@@ -16,6 +18,9 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -28,10 +33,28 @@ public class DefaultLogSerializer implements LogSerializer {
 
     private static final String LOGS = "logs";
 
+    /**
+     * Writer reused by each thread to serialize logs without allocating a new buffer every time.
+     */
+    private static final ThreadLocal<StreamingJSONStringer> WRITER = new ThreadLocal<StreamingJSONStringer>() {
+
+        @Override
+        protected StreamingJSONStringer initialValue() {
+            return new StreamingJSONStringer();
+        }
+    };
+
     private final Map<String, LogFactory> mLogFactories = new HashMap<>();
 
     @NonNull
-    private JSONStringer writeLog(JSONStringer writer, Log log) throws JSONException {
+    private static StreamingJSONStringer obtainWriter() {
+        StreamingJSONStringer writer = WRITER.get();
+        writer.reset();
+        return writer;
+    }
+
+    @NonNull
+    private <T extends JSONStringer> T writeLog(T writer, Log log) throws JSONException {
         writer.object();
         log.write(writer);
         writer.endObject();
@@ -39,29 +62,74 @@ public class DefaultLogSerializer implements LogSerializer {
     }
 
     @NonNull
-    private Log readLog(JSONObject object, String type) throws JSONException {
-        if (type == null) {
-            type = object.getString(TYPE);
-        }
+    private Log createLog(String type) throws JSONException {
         LogFactory logFactory = mLogFactories.get(type);
         if (logFactory == null) {
             throw new JSONException("Unknown log type: " + type);
         }
-        Log log = logFactory.create();
+        return logFactory.create();
+    }
+
+    @NonNull
+    private Log readLog(JSONObject object, String type) throws JSONException {
+        if (type == null) {
+            type = object.getString(TYPE);
+        }
+        Log log = createLog(type);
         log.read(object);
         return log;
     }
 
+    @NonNull
+    private Log readLog(JsonReader reader, String type) throws JSONException {
+        Log log = createLog(type);
+        try {
+            JSONUtils.readModel(reader, log);
+            if (reader.peek() != JsonToken.END_DOCUMENT) {
+                throw new JSONException("Unexpected data after log.");
+            }
+        } catch (IOException | RuntimeException e) {
+
+            /* Invalid JSON, unexpected token types or invalid values are all reported as invalid logs. */
+            throw new JSONException(e.getMessage());
+        }
+        return log;
+    }
+
     @NonNull
     @Override
     public String serializeLog(@NonNull Log log) throws JSONException {
-        return writeLog(new JSONStringer(), log).toString();
+        return writeLog(obtainWriter(), log).toString();
     }
 
     @NonNull
     @Override
     public Log deserializeLog(@NonNull String json, String type) throws JSONException {
-        return readLog(new JSONObject(json), type);
+
+        /* Without the stored type, the whole object is needed to find it. */
+        if (type == null) {
+            return readLog(new JSONObject(json), null);
+        }
+
+        /* Otherwise read the log fields as they come, without building a JSON object first. */
+        return readLog(new JsonReader(new StringReader(json)), type);
+    }
+
+    @NonNull
+    @Override
+    public byte[] serializeLogToBinary(@NonNull Log log) throws JSONException {
+        return writeLog(new BinaryJSONStringer(), log).toByteArray();
+    }
+
+    @NonNull
+    @Override
+    public Log deserializeLog(@NonNull byte[] data, String type) throws JSONException {
+        if (type == null) {
+            return readLog(BinaryJSONReader.readObject(data), null);
+        }
+
+        /* Pull JSON tokens from the binary payload as the log fields are read. */
+        return readLog(new JsonReader(BinaryJSONReader.toJsonReader(data)), type);
     }
 
     @Override
@@ -73,8 +141,21 @@ public class DefaultLogSerializer implements LogSerializer {
     @Override
     public String serializeContainer(@NonNull LogContainer logContainer) throws JSONException {
 
+        /* Logs that are already serialized are copied as is in the array. */
+        List<String> serializedLogs = logContainer.getSerializedLogs();
+        if (serializedLogs != null) {
+            StringBuilder builder = new StringBuilder("{").append(JSONObject.quote(LOGS)).append(":[");
+            for (int i = 0; i < serializedLogs.size(); i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(serializedLogs.get(i));
+            }
+            return builder.append("]}").toString();
+        }
+
         /* Init JSON serializer. */
-        JSONStringer writer = new JSONStringer();
+        StreamingJSONStringer writer = obtainWriter();
 
         /* Start writing JSON. */
         writer.object();
@@ -87,6 +168,28 @@ public class DefaultLogSerializer implements LogSerializer {
         return writer.toString();
     }
 
+    @Override
+    public void serializeContainer(@NonNull LogContainer logContainer, @NonNull Writer writer) throws JSONException, IOException {
+
+        /* Write logs one by one so that the whole container is never in memory. */
+        writer.write("{");
+        writer.write(JSONObject.quote(LOGS));
+        writer.write(":[");
+        List<String> serializedLogs = logContainer.getSerializedLogs();
+        int count = serializedLogs != null ? serializedLogs.size() : logContainer.getLogs().size();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (serializedLogs != null) {
+                writer.write(serializedLogs.get(i));
+            } else {
+                writeLog(obtainWriter(), logContainer.getLogs().get(i)).writeTo(writer);
+            }
+        }
+        writer.write("]}");
+    }
+
     @NonNull
     @Override
     public LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException {
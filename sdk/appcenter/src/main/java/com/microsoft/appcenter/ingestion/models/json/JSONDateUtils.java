@@ -5,7 +5,10 @@
 
 package com.microsoft.appcenter.ingestion.models.json;
 
+import android.support.annotation.VisibleForTesting;
+
 import org.json.JSONException;
+import org.json.JSONStringer;
 
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -18,9 +21,49 @@ import java.util.TimeZone;
  * Utility to convert date to string and vice versa to use in JSON payloads.
  * The date format is using ISO 8601 and includes date and time to milliseconds accuracy.
  * It also always uses UTC timezone.
+ * <p>
+ * Dates from year 1583 to 9999 are converted with plain arithmetic on epoch milliseconds.
+ * Other dates, and strings that are not in the exact format, are converted with {@link SimpleDateFormat}.
  */
 public final class JSONDateUtils {
 
+    /**
+     * Number of characters of a formatted date, like 2017-07-07T17:43:56.123Z.
+     */
+    public static final int DATE_LENGTH = 24;
+
+    /**
+     * Number of milliseconds in a day.
+     */
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+
+    /**
+     * Days in a year that is not a leap year, by month.
+     */
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * First year of the fast conversion. {@link SimpleDateFormat} uses the Julian calendar before October 1582.
+     */
+    private static final int MIN_YEAR = 1583;
+
+    /**
+     * Last year of the fast conversion, later years do not fit in 4 digits.
+     */
+    private static final int MAX_YEAR = 9999;
+
+    /**
+     * First time of the fast conversion.
+     */
+    @VisibleForTesting
+    static final long MIN_TIME = toEpochDay(MIN_YEAR, 1, 1) * DAY_MILLIS;
+
+    /**
+     * Last time of the fast conversion.
+     */
+    @VisibleForTesting
+    static final long MAX_TIME = toEpochDay(MAX_YEAR + 1, 1, 1) * DAY_MILLIS - 1;
+
     /**
      * Date formatter.
      */
@@ -55,7 +98,95 @@ public final class JSONDateUtils {
      */
     public static String toString(Date date) throws JSONException {
         checkNull(date);
-        return DATE_FORMAT.get().format(date);
+        return toString(date.getTime());
+    }
+
+    /**
+     * Convert time to string.
+     *
+     * @param time milliseconds since epoch.
+     * @return string.
+     */
+    public static String toString(long time) {
+        char[] buffer = new char[DATE_LENGTH];
+        if (format(time, buffer, 0)) {
+            return new String(buffer);
+        }
+        return DATE_FORMAT.get().format(new Date(time));
+    }
+
+    /**
+     * Write a date as a JSON string value.
+     * Dates are written without intermediate string with {@link StreamingJSONStringer}.
+     *
+     * @param writer JSON writer positioned after a key or in an array.
+     * @param date   date.
+     * @throws JSONException if the date is null or the writer is not expecting a value.
+     */
+    public static void write(JSONStringer writer, Date date) throws JSONException {
+        checkNull(date);
+        if (writer instanceof StreamingJSONStringer) {
+            ((StreamingJSONStringer) writer).dateValue(date.getTime());
+        } else {
+            writer.value(toString(date.getTime()));
+        }
+    }
+
+    /**
+     * Format time in a buffer if the year is between 1583 and 9999.
+     *
+     * @param time   milliseconds since epoch.
+     * @param buffer buffer with at least {@link #DATE_LENGTH} characters available at offset.
+     * @param offset index of the first character to write.
+     * @return true if written, false if the date must be formatted with {@link #toString(long)}.
+     */
+    public static boolean format(long time, char[] buffer, int offset) {
+        if (time < MIN_TIME || time > MAX_TIME) {
+            return false;
+        }
+
+        /* Split time in days and milliseconds in day, rounding days down for dates before 1970. */
+        long epochDay = time / DAY_MILLIS;
+        int millisOfDay = (int) (time % DAY_MILLIS);
+        if (millisOfDay < 0) {
+            millisOfDay += DAY_MILLIS;
+            epochDay--;
+        }
+
+        /*
+         * Convert days to civil date in eras of 400 years starting on March 1st,
+         * so that the leap day is the last day of the year.
+         */
+        long shiftedDay = epochDay + 719468;
+        long era = (shiftedDay >= 0 ? shiftedDay : shiftedDay - 146096) / 146097;
+        int dayOfEra = (int) (shiftedDay - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        /* Write yyyy-MM-ddTHH:mm:ss.SSSZ. */
+        writeDigits(buffer, offset, year / 100);
+        writeDigits(buffer, offset + 2, year % 100);
+        buffer[offset + 4] = '-';
+        writeDigits(buffer, offset + 5, month);
+        buffer[offset + 7] = '-';
+        writeDigits(buffer, offset + 8, day);
+        buffer[offset + 10] = 'T';
+        int seconds = millisOfDay / 1000;
+        writeDigits(buffer, offset + 11, seconds / 3600);
+        buffer[offset + 13] = ':';
+        writeDigits(buffer, offset + 14, seconds / 60 % 60);
+        buffer[offset + 16] = ':';
+        writeDigits(buffer, offset + 17, seconds % 60);
+        buffer[offset + 19] = '.';
+        int millis = millisOfDay % 1000;
+        buffer[offset + 20] = (char) ('0' + millis / 100);
+        writeDigits(buffer, offset + 21, millis % 100);
+        buffer[offset + 23] = 'Z';
+        return true;
     }
 
     /**
@@ -66,11 +197,100 @@ public final class JSONDateUtils {
      * @throws JSONException if string has a wrong format or is null.
      */
     public static Date toDate(String date) throws JSONException {
+        return new Date(toTime(date));
+    }
+
+    /**
+     * Convert string to time.
+     *
+     * @param date date.
+     * @return milliseconds since epoch.
+     * @throws JSONException if string has a wrong format or is null.
+     */
+    public static long toTime(String date) throws JSONException {
         checkNull(date);
+        long time = parse(date);
+        if (time != Long.MIN_VALUE) {
+            return time;
+        }
+
+        /* Let the formatter handle other formats the way it always did, it is lenient. */
         try {
-            return DATE_FORMAT.get().parse(date);
+            return DATE_FORMAT.get().parse(date).getTime();
         } catch (ParseException e) {
             throw new JSONException(e.getMessage());
         }
     }
+
+    /**
+     * Parse a date in the exact format with a year between 1583 and 9999.
+     *
+     * @param date date.
+     * @return milliseconds since epoch, or {@link Long#MIN_VALUE} if not in the exact format or range.
+     */
+    private static long parse(String date) {
+        if (date.length() != DATE_LENGTH
+                || date.charAt(4) != '-' || date.charAt(7) != '-' || date.charAt(10) != 'T'
+                || date.charAt(13) != ':' || date.charAt(16) != ':' || date.charAt(19) != '.' || date.charAt(23) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+        int century = readDigits(date, 0);
+        int yearOfCentury = readDigits(date, 2);
+        int month = readDigits(date, 5);
+        int day = readDigits(date, 8);
+        int hours = readDigits(date, 11);
+        int minutes = readDigits(date, 14);
+        int seconds = readDigits(date, 17);
+        int millisHundreds = date.charAt(20) - '0';
+        int millisRest = readDigits(date, 21);
+        if (century < 0 || yearOfCentury < 0 || month < 1 || month > 12 || day < 1 || hours < 0 || hours > 23
+                || minutes < 0 || minutes > 59 || seconds < 0 || seconds > 59 || millisHundreds < 0 || millisHundreds > 9 || millisRest < 0) {
+            return Long.MIN_VALUE;
+        }
+        int year = century * 100 + yearOfCentury;
+        if (year < MIN_YEAR || day > getDaysInMonth(year, month)) {
+            return Long.MIN_VALUE;
+        }
+        return toEpochDay(year, month, day) * DAY_MILLIS + ((hours * 60 + minutes) * 60 + seconds) * 1000L + millisHundreds * 100 + millisRest;
+    }
+
+    private static int getDaysInMonth(int year, int month) {
+        if (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) {
+            return 29;
+        }
+        return DAYS_IN_MONTH[month - 1];
+    }
+
+    /**
+     * Convert civil date to days since epoch, in eras of 400 years starting on March 1st.
+     */
+    private static long toEpochDay(int year, int month, int day) {
+        if (month <= 2) {
+            year--;
+        }
+        int era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = year - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    private static void writeDigits(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    /**
+     * Read 2 ASCII digits.
+     *
+     * @return value or a negative number if not digits.
+     */
+    private static int readDigits(String date, int offset) {
+        int tens = date.charAt(offset) - '0';
+        int units = date.charAt(offset + 1) - '0';
+        if (tens < 0 || tens > 9 || units < 0 || units > 9) {
+            return -1;
+        }
+        return tens * 10 + units;
+    }
 }
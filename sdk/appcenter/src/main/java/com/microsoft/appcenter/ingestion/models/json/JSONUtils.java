@@ -6,6 +6,8 @@
 package com.microsoft.appcenter.ingestion.models.json;
 
 import android.support.annotation.VisibleForTesting;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import com.microsoft.appcenter.ingestion.models.Model;
 
@@ -14,6 +16,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -88,6 +91,182 @@ public class JSONUtils {
         return array;
     }
 
+    public static String readString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    public static Integer readInteger(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextInt();
+    }
+
+    public static Long readLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextLong();
+    }
+
+    public static Double readDouble(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextDouble();
+    }
+
+    public static Boolean readBoolean(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextBoolean();
+    }
+
+    public static Map<String, String> readMap(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        Map<String, String> properties = new HashMap<>();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            properties.put(reader.nextName(), reader.nextString());
+        }
+        reader.endObject();
+        return properties;
+    }
+
+    public static <M extends Model> List<M> readArray(JsonReader reader, ModelFactory<M> factory) throws IOException, JSONException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<M> array = factory.createList(0);
+        reader.beginArray();
+        while (reader.hasNext()) {
+            M model = factory.create();
+            readModel(reader, model);
+            array.add(model);
+        }
+        reader.endArray();
+        return array;
+    }
+
+    /**
+     * Read a model from a stream, field by field if it supports it.
+     *
+     * @param reader reader positioned before the model object.
+     * @param model  model to read.
+     * @throws IOException   if the stream is not valid JSON.
+     * @throws JSONException if the content is not a valid model.
+     */
+    public static void readModel(JsonReader reader, Model model) throws IOException, JSONException {
+        if (model instanceof Model.StreamingModel) {
+            ((Model.StreamingModel) model).read(reader);
+        } else {
+            model.read(readObject(reader));
+        }
+    }
+
+    public static List<String> readStringArray(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<String> array = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            array.add(reader.nextString());
+        }
+        reader.endArray();
+        return array;
+    }
+
+    /**
+     * Read any JSON object from a stream, for models that keep free-form content as a {@link JSONObject}.
+     *
+     * @param reader reader positioned before the object.
+     * @return the object.
+     * @throws IOException   if the stream is not valid JSON.
+     * @throws JSONException if the next value is not an object.
+     */
+    public static JSONObject readObject(JsonReader reader) throws IOException, JSONException {
+        Object value = readValue(reader);
+        if (!(value instanceof JSONObject)) {
+            throw new JSONException("Expected an object but was " + value);
+        }
+        return (JSONObject) value;
+    }
+
+    /**
+     * Read any JSON value from a stream, with the same types {@link JSONObject} uses when parsing text.
+     *
+     * @param reader reader positioned before the value.
+     * @return {@link JSONObject}, {@link JSONArray}, {@link String}, {@link Boolean}, {@link Integer},
+     * {@link Long}, {@link Double} or {@link JSONObject#NULL}.
+     * @throws IOException   if the stream is not valid JSON.
+     * @throws JSONException if a key is duplicated.
+     */
+    public static Object readValue(JsonReader reader) throws IOException, JSONException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                JSONObject object = new JSONObject();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    object.put(reader.nextName(), readValue(reader));
+                }
+                reader.endObject();
+                return object;
+
+            case BEGIN_ARRAY:
+                JSONArray array = new JSONArray();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    array.put(readValue(reader));
+                }
+                reader.endArray();
+                return array;
+
+            case BOOLEAN:
+                return reader.nextBoolean();
+
+            case NUMBER:
+                return readNumber(reader.nextString());
+
+            case NULL:
+                reader.nextNull();
+                return JSONObject.NULL;
+
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static Number readNumber(String number) {
+
+        /* Integers that fit are returned as Integer then Long, like JSONTokener does. */
+        if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+            try {
+                long longValue = Long.parseLong(number);
+                if (longValue <= Integer.MAX_VALUE && longValue >= Integer.MIN_VALUE) {
+                    return (int) longValue;
+                }
+                return longValue;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return Double.valueOf(number);
+    }
+
     public static void write(JSONStringer writer, String key, Object value) throws JSONException {
         if (value != null) {
             writer.key(key).value(value);
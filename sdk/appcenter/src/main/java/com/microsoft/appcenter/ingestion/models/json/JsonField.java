@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Field of a {@link JsonModel} serialized by the generated codec.
+ * <p>
+ * The field needs a getter and a setter. Supported types are strings, numbers, booleans,
+ * {@link java.util.UUID}, {@link java.util.Date}, lists of strings,
+ * and other {@link JsonModel} models or lists of them.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface JsonField {
+
+    /**
+     * JSON key.
+     */
+    String value();
+
+    /**
+     * Whether reading fails when the key is missing and writing always writes the key.
+     */
+    boolean required() default false;
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generate the serialization code of a model at compile time.
+ * <p>
+ * When the model has {@link JsonField} fields, a package private {@code <Model>Codec} class is generated
+ * next to it with static methods to read, write, compare and hash these fields through their accessors.
+ * The model delegates its {@link com.microsoft.appcenter.ingestion.models.Model} methods, equals and hashCode to it.
+ * <p>
+ * Unless disabled, a singleton {@code <Model>Factory} is also generated in the {@code json} sub-package:
+ * a {@link LogFactory} for logs or a {@link ModelFactory} for other models.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface JsonModel {
+
+    /**
+     * Whether to generate the factory, disable it when the factory needs custom code.
+     */
+    boolean factory() default true;
+}
@@ -13,6 +13,8 @@ import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 
 import org.json.JSONException;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 
 public interface LogSerializer {
@@ -23,11 +25,19 @@ public interface LogSerializer {
     @NonNull
     Log deserializeLog(@NonNull String json, String type) throws JSONException;
 
+    @NonNull
+    byte[] serializeLogToBinary(@NonNull Log log) throws JSONException;
+
+    @NonNull
+    Log deserializeLog(@NonNull byte[] data, String type) throws JSONException;
+
     Collection<CommonSchemaLog> toCommonSchemaLog(@NonNull Log log);
 
     @NonNull
     String serializeContainer(@NonNull LogContainer container) throws JSONException;
 
+    void serializeContainer(@NonNull LogContainer container, @NonNull Writer writer) throws JSONException, IOException;
+
     @NonNull
     LogContainer deserializeContainer(@NonNull String json, String type) throws JSONException;
 
@@ -1,17 +0,0 @@
-/*
- * Copyright (c) Microsoft Corporation. All rights reserved.
- * Licensed under the MIT License.
- */
-
-package com.microsoft.appcenter.ingestion.models.json;
-
-import com.microsoft.appcenter.ingestion.models.Log;
-import com.microsoft.appcenter.ingestion.models.StartServiceLog;
-
-public class StartServiceLogFactory extends AbstractLogFactory {
-
-    @Override
-    public Log create() {
-        return new StartServiceLog();
-    }
-}
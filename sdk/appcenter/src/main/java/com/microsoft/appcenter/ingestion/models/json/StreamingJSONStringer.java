@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import android.support.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Writer for models that produces the same JSON text as {@link JSONStringer} into a reusable buffer.
+ * Numbers and booleans are written without boxing, strings are escaped with a lookup table,
+ * and the result can be copied to a {@link Writer} without building a {@link String}.
+ * <p>
+ * Call {@link #reset()} to write another value with the same buffer. This class is not thread safe.
+ */
+public class StreamingJSONStringer extends JSONStringer {
+
+    /**
+     * Initial buffer size.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Buffers larger than this are released on {@link #reset()} instead of being kept for the next value.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /**
+     * Scope of an array without values yet.
+     */
+    private static final byte EMPTY_ARRAY = 1;
+
+    /**
+     * Scope of an array with at least one value.
+     */
+    private static final byte NONEMPTY_ARRAY = 2;
+
+    /**
+     * Scope of an object without keys yet.
+     */
+    private static final byte EMPTY_OBJECT = 3;
+
+    /**
+     * Scope of an object with a key waiting for its value.
+     */
+    private static final byte DANGLING_KEY = 4;
+
+    /**
+     * Scope of an object with at least one key and value.
+     */
+    private static final byte NONEMPTY_OBJECT = 5;
+
+    /**
+     * Replacement of ASCII characters that must be escaped, null for characters written as is.
+     * Same escaping as {@link JSONStringer}, including the forward slash.
+     */
+    private static final String[] ESCAPES = new String[128];
+
+    /**
+     * Negative zero is written as "-0", like {@link JSONObject#numberToString(Number)} does.
+     */
+    private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0d);
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        ESCAPES['"'] = "\\\"";
+        ESCAPES['\\'] = "\\\\";
+        ESCAPES['/'] = "\\/";
+        ESCAPES['\t'] = "\\t";
+        ESCAPES['\b'] = "\\b";
+        ESCAPES['\n'] = "\\n";
+        ESCAPES['\r'] = "\\r";
+        ESCAPES['\f'] = "\\f";
+    }
+
+    /**
+     * JSON text.
+     */
+    private char[] mBuffer = new char[INITIAL_CAPACITY];
+
+    /**
+     * Number of characters used in {@link #mBuffer}.
+     */
+    private int mSize;
+
+    /**
+     * Scopes of the objects and arrays being written.
+     */
+    private byte[] mScopes = new byte[16];
+
+    /**
+     * Number of scopes used in {@link #mScopes}.
+     */
+    private int mDepth;
+
+    @Override
+    public JSONStringer object() throws JSONException {
+        return open(EMPTY_OBJECT, '{');
+    }
+
+    @Override
+    public JSONStringer endObject() throws JSONException {
+        return close(EMPTY_OBJECT, NONEMPTY_OBJECT, '}');
+    }
+
+    @Override
+    public JSONStringer array() throws JSONException {
+        return open(EMPTY_ARRAY, '[');
+    }
+
+    @Override
+    public JSONStringer endArray() throws JSONException {
+        return close(EMPTY_ARRAY, NONEMPTY_ARRAY, ']');
+    }
+
+    @Override
+    public JSONStringer key(String name) throws JSONException {
+        if (name == null) {
+            throw new JSONException("Names must be non-null");
+        }
+        byte scope = peek();
+        if (scope == NONEMPTY_OBJECT) {
+            writeChar(',');
+        } else if (scope != EMPTY_OBJECT) {
+            throw new JSONException("Nesting problem");
+        }
+        mScopes[mDepth - 1] = DANGLING_KEY;
+        writeString(name);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(Object value) throws JSONException {
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            array();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            object();
+            Iterator<String> keys = object.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                key(key).value(object.opt(key));
+            }
+            return endObject();
+        }
+        beforeLiteral();
+        if (value == null || value == JSONObject.NULL) {
+            writeRaw("null");
+        } else if (value instanceof Boolean) {
+            writeRaw((Boolean) value ? "true" : "false");
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            writeLong(((Number) value).longValue());
+        } else if (value instanceof Double) {
+            writeDouble((Double) value);
+        } else if (value instanceof Number) {
+            writeRaw(JSONObject.numberToString((Number) value));
+        } else {
+            writeString(value.toString());
+        }
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(boolean value) throws JSONException {
+        beforeLiteral();
+        writeRaw(value ? "true" : "false");
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(double value) throws JSONException {
+        beforeLiteral();
+        writeDouble(value);
+        return this;
+    }
+
+    @Override
+    public JSONStringer value(long value) throws JSONException {
+        beforeLiteral();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Write a date as an ISO 8601 string value directly in the buffer.
+     *
+     * @param time milliseconds since epoch.
+     * @return this writer.
+     * @throws JSONException if not expecting a value.
+     */
+    public JSONStringer dateValue(long time) throws JSONException {
+        beforeLiteral();
+        ensureCapacity(JSONDateUtils.DATE_LENGTH + 2);
+        mBuffer[mSize] = '"';
+        if (JSONDateUtils.format(time, mBuffer, mSize + 1)) {
+            mSize += JSONDateUtils.DATE_LENGTH + 1;
+            mBuffer[mSize++] = '"';
+        } else {
+            writeString(JSONDateUtils.toString(time));
+        }
+        return this;
+    }
+
+    /**
+     * Get the JSON text written so far.
+     *
+     * @return the JSON text, or null if nothing was written.
+     */
+    @Override
+    public String toString() {
+        return mSize == 0 ? null : new String(mBuffer, 0, mSize);
+    }
+
+    /**
+     * Get the number of characters written so far.
+     *
+     * @return number of characters.
+     */
+    public int length() {
+        return mSize;
+    }
+
+    /**
+     * Copy the JSON text written so far to a writer.
+     *
+     * @param writer writer.
+     * @throws IOException if the writer fails.
+     */
+    public void writeTo(@NonNull Writer writer) throws IOException {
+        writer.write(mBuffer, 0, mSize);
+    }
+
+    /**
+     * Clear the text and scopes to write another value, keeping the buffer unless it grew too large.
+     */
+    public void reset() {
+        mSize = 0;
+        mDepth = 0;
+        if (mBuffer.length > MAX_RETAINED_CAPACITY) {
+            mBuffer = new char[INITIAL_CAPACITY];
+        }
+    }
+
+    private JSONStringer open(byte scope, char bracket) throws JSONException {
+        if (mDepth == 0 && mSize > 0) {
+            throw new JSONException("Nesting problem: multiple top-level roots");
+        }
+        beforeValue();
+        if (mDepth == mScopes.length) {
+            mScopes = Arrays.copyOf(mScopes, mDepth * 2);
+        }
+        mScopes[mDepth++] = scope;
+        writeChar(bracket);
+        return this;
+    }
+
+    private JSONStringer close(byte emptyScope, byte nonEmptyScope, char bracket) throws JSONException {
+        byte scope = peek();
+        if (scope != emptyScope && scope != nonEmptyScope) {
+            throw new JSONException("Nesting problem");
+        }
+        mDepth--;
+        writeChar(bracket);
+        return this;
+    }
+
+    private byte peek() throws JSONException {
+        if (mDepth == 0) {
+            throw new JSONException("Nesting problem");
+        }
+        return mScopes[mDepth - 1];
+    }
+
+    private void beforeLiteral() throws JSONException {
+        if (mDepth == 0) {
+            throw new JSONException("Nesting problem");
+        }
+        beforeValue();
+    }
+
+    private void beforeValue() throws JSONException {
+        if (mDepth == 0) {
+            if (mSize > 0) {
+                throw new JSONException("Nesting problem");
+            }
+            return;
+        }
+        byte scope = mScopes[mDepth - 1];
+        if (scope == EMPTY_ARRAY) {
+            mScopes[mDepth - 1] = NONEMPTY_ARRAY;
+        } else if (scope == NONEMPTY_ARRAY) {
+            writeChar(',');
+        } else if (scope == DANGLING_KEY) {
+            writeChar(':');
+            mScopes[mDepth - 1] = NONEMPTY_OBJECT;
+        } else {
+            throw new JSONException("Nesting problem");
+        }
+    }
+
+    private void writeDouble(double value) throws JSONException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new JSONException("Forbidden numeric value: " + value);
+        }
+        if (Double.doubleToRawLongBits(value) == NEGATIVE_ZERO_BITS) {
+            writeRaw("-0");
+            return;
+        }
+
+        /* Whole numbers are written as integers. */
+        long longValue = (long) value;
+        if (value == longValue) {
+            writeLong(longValue);
+        } else {
+            writeRaw(Double.toString(value));
+        }
+    }
+
+    private void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            writeRaw("-9223372036854775808");
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            mBuffer[mSize++] = '-';
+            value = -value;
+        }
+
+        /* Write digits from the end. */
+        int digits = 1;
+        for (long remaining = value / 10; remaining != 0; remaining /= 10) {
+            digits++;
+        }
+        int position = mSize + digits;
+        mSize = position;
+        do {
+            mBuffer[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        ensureCapacity(length + 2);
+        char[] buffer = mBuffer;
+        int size = mSize;
+        buffer[size++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String escape = c < 128 ? ESCAPES[c] : null;
+            if (escape == null) {
+                buffer[size++] = c;
+            } else {
+
+                /* Longest escape is 6 characters, plus the rest of the string and the closing quote. */
+                mSize = size;
+                ensureCapacity(6 + length - i);
+                buffer = mBuffer;
+                escape.getChars(0, escape.length(), buffer, size);
+                size += escape.length();
+            }
+        }
+        buffer[size++] = '"';
+        mSize = size;
+    }
+
+    private void writeRaw(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        value.getChars(0, length, mBuffer, mSize);
+        mSize += length;
+    }
+
+    private void writeChar(char value) {
+        ensureCapacity(1);
+        mBuffer[mSize++] = value;
+    }
+
+    private void ensureCapacity(int length) {
+        if (mSize + length > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + length));
+        }
+    }
+}
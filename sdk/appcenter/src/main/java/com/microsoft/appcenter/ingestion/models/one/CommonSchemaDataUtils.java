@@ -19,8 +19,13 @@ import com.microsoft.appcenter.utils.AppCenterLog;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import static com.microsoft.appcenter.ingestion.models.one.Data.BASE_DATA;
 import static com.microsoft.appcenter.ingestion.models.one.Data.BASE_TYPE;
@@ -44,8 +49,39 @@ public class CommonSchemaDataUtils {
     @VisibleForTesting
     static final int DATA_TYPE_DATETIME = 9;
 
+    /**
+     * Maximum number of property shapes kept in {@link #sShapeCache}.
+     */
+    @VisibleForTesting
+    static final int SHAPE_CACHE_SIZE = 64;
+
+    /**
+     * Data and metadata structures by property names and types.
+     * Least recently used shapes are evicted above {@link #SHAPE_CACHE_SIZE} entries.
+     */
+    private static final Map<ShapeKey, Shape> sShapeCache = new LinkedHashMap<ShapeKey, Shape>(SHAPE_CACHE_SIZE, 0.75f, true) {
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ShapeKey, Shape> eldest) {
+            return size() > SHAPE_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Number of conversions that reused a cached shape.
+     */
+    private static long sShapeCacheHitCount;
+
+    /**
+     * Number of conversions that computed a shape.
+     */
+    private static long sShapeCacheMissCount;
+
     /**
      * Adds part B and part C properties to a log and Part A metadata.
+     * <p>
+     * The structure of data and metadata only depends on property names and types,
+     * so it is computed once for each list of names and types and only values are filled in afterwards.
      *
      * @param properties custom properties as source of data.
      * @param dest       destination common schema log.
@@ -54,99 +90,284 @@ public class CommonSchemaDataUtils {
         if (properties == null) {
             return;
         }
-        try {
 
-            /* Part B and C are mixed into the same top level data property. */
-            Data data = new Data();
-            dest.setData(data);
+        /* Values that are null or cannot be written are reported while building data, without cache. */
+        Object[] values = getValues(properties);
+        if (values == null) {
+            addCommonSchemaDataWithoutCache(properties, dest);
+            return;
+        }
 
-            /* We also build Part A metadata extension at the same time to reflect the data. */
-            MetadataExtension metadata = new MetadataExtension();
-            for (TypedProperty property : properties) {
+        /* Get or compute shape. */
+        ShapeKey key = new ShapeKey(properties);
+        Shape shape;
+        synchronized (sShapeCache) {
+            shape = sShapeCache.get(key);
+            if (shape != null) {
+                sShapeCacheHitCount++;
+            } else {
+                sShapeCacheMissCount++;
+            }
+        }
+        if (shape == null) {
 
-                /* Validate property and get type. */
-                Object value;
+            /* Convert this time by walking names, then compute the shape for next conversions. */
+            if (addCommonSchemaDataWithoutCache(properties, dest)) {
                 try {
-                    value = validateProperty(property);
-                } catch (IllegalArgumentException e) {
-                    AppCenterLog.warn(LOG_TAG, e.getMessage());
-                    continue;
-                }
-
-                /* Get metadata type. */
-                Integer metadataType = getMetadataType(property);
-
-                /* Split property name by dot. */
-                String key = property.getName();
-                String[] keys = key.split("\\.", -1);
-                int lastIndex = keys.length - 1;
-
-                /* Handle all intermediate keys. */
-                JSONObject destProperties = data.getProperties();
-                JSONObject destMetadata = metadata.getMetadata();
-                for (int i = 0; i < lastIndex; i++) {
-
-                    /* Add data sub object. */
-                    String subKey = keys[i];
-                    JSONObject subDataObject = destProperties.optJSONObject(subKey);
-                    if (subDataObject == null) {
-                        if (destProperties.has(subKey)) {
-                            AppCenterLog.warn(LOG_TAG, "Property key '" + subKey + "' already has a value, the old value will be overridden.");
-                        }
-
-                        /* Add sub data intermediate object. */
-                        subDataObject = new JSONObject();
-                        destProperties.put(subKey, subDataObject);
+                    shape = new Shape(properties);
+                    synchronized (sShapeCache) {
+                        sShapeCache.put(key, shape);
                     }
-                    destProperties = subDataObject;
+                } catch (JSONException ignore) {
 
-                    /* Handle metadata. */
-                    destMetadata = addIntermediateMetadata(destMetadata, subKey);
+                    /* Can only happen with NaN or Infinite but this is already checked before. */
                 }
+            }
+            return;
+        }
 
-                /* Handle the last key for data, the leaf. */
-                String lastKey = keys[lastIndex];
-                if (destProperties.has(lastKey)) {
-                    AppCenterLog.warn(LOG_TAG, "Property key '" + lastKey + "' already has a value, the old value will be overridden.");
+        /* Fill in values. */
+        for (String warning : shape.mWarnings) {
+            AppCenterLog.warn(LOG_TAG, warning);
+        }
+        Data data = new Data();
+        dest.setData(data);
+        try {
+            shape.mData.fill(data.getProperties(), values);
+            if (shape.mMetadata != null) {
+                MetadataExtension metadata = new MetadataExtension();
+                copy(shape.mMetadata, metadata.getMetadata());
+                if (dest.getExt() == null) {
+                    dest.setExt(new Extensions());
                 }
-                destProperties.put(lastKey, value);
-
-                /* Handle the last key for meta-data, the leaf. */
-                addLeafMetadata(metadataType, destMetadata, lastKey);
+                dest.getExt().setMetadata(metadata);
             }
+        } catch (JSONException ignore) {
 
-            /* Warn/cleanup if baseData and baseType are not paired. */
-            JSONObject dataObject = data.getProperties();
-            String baseType = dataObject.optString(BASE_TYPE, null);
-            JSONObject baseData = dataObject.optJSONObject(BASE_DATA);
-            if (baseType == null && baseData != null) {
+            /* Can only happen with NaN or Infinite but this is already checked before. */
+        }
+    }
 
-                /* Discard unpaired data and metadata. */
-                AppCenterLog.warn(LOG_TAG, "baseData was set but baseType is missing.");
-                dataObject.remove(BASE_DATA);
-                JSONObject baseMetaData = metadata.getMetadata().optJSONObject(METADATA_FIELDS);
+    /**
+     * Get the number of conversions that reused a cached data and metadata structure.
+     *
+     * @return number of cache hits.
+     */
+    public static long getShapeCacheHitCount() {
+        synchronized (sShapeCache) {
+            return sShapeCacheHitCount;
+        }
+    }
+
+    /**
+     * Get the number of conversions that had to compute a data and metadata structure.
+     * Conversions of properties with invalid values are not counted.
+     *
+     * @return number of cache misses.
+     */
+    public static long getShapeCacheMissCount() {
+        synchronized (sShapeCache) {
+            return sShapeCacheMissCount;
+        }
+    }
+
+    /**
+     * Get the ratio of conversions that reused a cached data and metadata structure.
+     *
+     * @return hit rate between 0 and 1, 0 if there was no conversion yet.
+     */
+    public static double getShapeCacheHitRate() {
+        synchronized (sShapeCache) {
+            long count = sShapeCacheHitCount + sShapeCacheMissCount;
+            return count == 0 ? 0 : (double) sShapeCacheHitCount / count;
+        }
+    }
+
+    /**
+     * Get the number of cached data and metadata structures.
+     *
+     * @return cache size.
+     */
+    public static int getShapeCacheSize() {
+        synchronized (sShapeCache) {
+            return sShapeCache.size();
+        }
+    }
+
+    /**
+     * Clear cached structures and counters.
+     */
+    @VisibleForTesting
+    static void clearShapeCache() {
+        synchronized (sShapeCache) {
+            sShapeCache.clear();
+            sShapeCacheHitCount = 0;
+            sShapeCacheMissCount = 0;
+        }
+    }
+
+    /**
+     * Add data and metadata by walking each property name.
+     *
+     * @param properties custom properties as source of data.
+     * @param dest       destination common schema log.
+     * @return true if all properties were processed, false if a JSON error interrupted the conversion.
+     */
+    private static boolean addCommonSchemaDataWithoutCache(List<TypedProperty> properties, CommonSchemaLog dest) {
+
+        /* Part B and C are mixed into the same top level data property. */
+        Data data = new Data();
+        dest.setData(data);
+
+        /* We also build Part A metadata extension at the same time to reflect the data. */
+        MetadataExtension metadata = new MetadataExtension();
+        List<String> warnings = new ArrayList<>();
+        boolean hasMetadata;
+        try {
+            hasMetadata = addProperties(properties, false, data.getProperties(), metadata.getMetadata(), warnings);
+        } catch (JSONException ignore) {
 
-                /* baseMetaData is always non null as baseData has at least 1 sub object and not cleaned up yet if empty. */
-                baseMetaData.remove(BASE_DATA);
+            /* Can only happen with NaN or Infinite but this is already checked before. */
+            return false;
+        } finally {
+            for (String warning : warnings) {
+                AppCenterLog.warn(LOG_TAG, warning);
             }
-            if (baseType != null && baseData == null) {
+        }
 
-                /* Discard unpaired base type. */
-                AppCenterLog.warn(LOG_TAG, "baseType was set but baseData is missing.");
-                dataObject.remove(BASE_TYPE);
+        /* Add metadata extension only if not empty after cleanup. */
+        if (hasMetadata) {
+            if (dest.getExt() == null) {
+                dest.setExt(new Extensions());
             }
+            dest.getExt().setMetadata(metadata);
+        }
+        return true;
+    }
 
-            /* Add metadata extension only if not empty after cleanup. */
-            if (!cleanUpEmptyObjectsInMetadata(metadata.getMetadata())) {
-                if (dest.getExt() == null) {
-                    dest.setExt(new Extensions());
+    /**
+     * Add properties to data and metadata objects.
+     *
+     * @param properties   custom properties as source of data.
+     * @param placeholders true to put {@link Integer} property indexes instead of values in data.
+     * @param dataObject   data properties to fill.
+     * @param metadata     metadata to fill.
+     * @param warnings     list where to add warnings about properties.
+     * @return true if metadata is not empty after cleanup.
+     * @throws JSONException if a value cannot be put in JSON.
+     */
+    private static boolean addProperties(List<TypedProperty> properties, boolean placeholders, JSONObject dataObject, JSONObject metadata, List<String> warnings) throws JSONException {
+        for (int propertyIndex = 0; propertyIndex < properties.size(); propertyIndex++) {
+            TypedProperty property = properties.get(propertyIndex);
+
+            /* Validate property and get type. */
+            Object value;
+            try {
+                value = validateProperty(property);
+            } catch (IllegalArgumentException e) {
+                warnings.add(e.getMessage());
+                continue;
+            }
+            if (placeholders) {
+                value = propertyIndex;
+            }
+
+            /* Get metadata type. */
+            Integer metadataType = getMetadataType(property);
+
+            /* Split property name by dot. */
+            String key = property.getName();
+            String[] keys = key.split("\\.", -1);
+            int lastIndex = keys.length - 1;
+
+            /* Handle all intermediate keys. */
+            JSONObject destProperties = dataObject;
+            JSONObject destMetadata = metadata;
+            for (int i = 0; i < lastIndex; i++) {
+
+                /* Add data sub object. */
+                String subKey = keys[i];
+                JSONObject subDataObject = destProperties.optJSONObject(subKey);
+                if (subDataObject == null) {
+                    if (destProperties.has(subKey)) {
+                        warnings.add("Property key '" + subKey + "' already has a value, the old value will be overridden.");
+                    }
+
+                    /* Add sub data intermediate object. */
+                    subDataObject = new JSONObject();
+                    destProperties.put(subKey, subDataObject);
                 }
-                dest.getExt().setMetadata(metadata);
+                destProperties = subDataObject;
+
+                /* Handle metadata. */
+                destMetadata = addIntermediateMetadata(destMetadata, subKey);
             }
-        } catch (JSONException ignore) {
 
-            /* Can only happen with NaN or Infinite but this is already checked before. */
+            /* Handle the last key for data, the leaf. */
+            String lastKey = keys[lastIndex];
+            if (destProperties.has(lastKey)) {
+                warnings.add("Property key '" + lastKey + "' already has a value, the old value will be overridden.");
+            }
+            destProperties.put(lastKey, value);
+
+            /* Handle the last key for meta-data, the leaf. */
+            addLeafMetadata(metadataType, destMetadata, lastKey);
+        }
+
+        /* Warn/cleanup if baseData and baseType are not paired. */
+        String baseType = dataObject.optString(BASE_TYPE, null);
+        JSONObject baseData = dataObject.optJSONObject(BASE_DATA);
+        if (baseType == null && baseData != null) {
+
+            /* Discard unpaired data and metadata. */
+            warnings.add("baseData was set but baseType is missing.");
+            dataObject.remove(BASE_DATA);
+            JSONObject baseMetaData = metadata.optJSONObject(METADATA_FIELDS);
+
+            /* baseMetaData is always non null as baseData has at least 1 sub object and not cleaned up yet if empty. */
+            baseMetaData.remove(BASE_DATA);
+        }
+        if (baseType != null && baseData == null) {
+
+            /* Discard unpaired base type. */
+            warnings.add("baseType was set but baseData is missing.");
+            dataObject.remove(BASE_TYPE);
+        }
+        return !cleanUpEmptyObjectsInMetadata(metadata);
+    }
+
+    /**
+     * Get the values to put in data if all properties have a value that can be written.
+     *
+     * @param properties properties.
+     * @return values by property index, or null if a value is missing or invalid.
+     */
+    private static Object[] getValues(List<TypedProperty> properties) {
+        Object[] values = new Object[properties.size()];
+        for (int i = 0; i < values.length; i++) {
+            TypedProperty property = properties.get(i);
+            Object value;
+            if (property instanceof StringTypedProperty) {
+                value = ((StringTypedProperty) property).getValue();
+            } else if (property instanceof LongTypedProperty) {
+                value = ((LongTypedProperty) property).getValue();
+            } else if (property instanceof DoubleTypedProperty) {
+                double doubleValue = ((DoubleTypedProperty) property).getValue();
+                value = Double.isNaN(doubleValue) || Double.isInfinite(doubleValue) ? null : doubleValue;
+            } else if (property instanceof DateTimeTypedProperty) {
+                Date date = ((DateTimeTypedProperty) property).getValue();
+                value = date != null ? JSONDateUtils.toString(date.getTime()) : null;
+            } else if (property instanceof BooleanTypedProperty) {
+                value = ((BooleanTypedProperty) property).getValue();
+            } else {
+                value = null;
+            }
+            if (value == null) {
+                return null;
+            }
+            values[i] = value;
         }
+        return values;
     }
 
     /**
@@ -295,4 +516,125 @@ public class CommonSchemaDataUtils {
         }
         return object.length() == 0;
     }
+
+    /**
+     * Deep copy metadata.
+     *
+     * @param source metadata to copy.
+     * @param dest   empty object to copy into.
+     * @throws JSONException if JSON put fails.
+     */
+    private static void copy(JSONObject source, JSONObject dest) throws JSONException {
+        for (Iterator<String> iterator = source.keys(); iterator.hasNext(); ) {
+            String key = iterator.next();
+            Object value = source.get(key);
+            if (value instanceof JSONObject) {
+                JSONObject child = new JSONObject();
+                copy((JSONObject) value, child);
+                value = child;
+            }
+            dest.put(key, value);
+        }
+    }
+
+    /**
+     * Property names and types in order, identifying a shape.
+     */
+    private static class ShapeKey {
+
+        private final String[] mNames;
+
+        private final Class<?>[] mTypes;
+
+        private final int mHashCode;
+
+        ShapeKey(List<TypedProperty> properties) {
+            mNames = new String[properties.size()];
+            mTypes = new Class<?>[mNames.length];
+            for (int i = 0; i < mNames.length; i++) {
+                TypedProperty property = properties.get(i);
+                mNames[i] = property.getName();
+                mTypes[i] = property.getClass();
+            }
+            mHashCode = 31 * Arrays.hashCode(mNames) + Arrays.hashCode(mTypes);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ShapeKey shapeKey = (ShapeKey) o;
+            return Arrays.equals(mNames, shapeKey.mNames) && Arrays.equals(mTypes, shapeKey.mTypes);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+
+    /**
+     * Precomputed result of converting properties with the same names and types, without values.
+     * Instances are immutable once built.
+     */
+    private static class Shape {
+
+        /**
+         * Warnings to log for each conversion.
+         */
+        private final List<String> mWarnings = new ArrayList<>();
+
+        /**
+         * Data structure.
+         */
+        private final Node mData;
+
+        /**
+         * Metadata to copy, null if empty.
+         */
+        private final JSONObject mMetadata;
+
+        Shape(List<TypedProperty> properties) throws JSONException {
+            JSONObject data = new JSONObject();
+            JSONObject metadata = new JSONObject();
+            boolean hasMetadata = addProperties(properties, true, data, metadata, mWarnings);
+            mData = new Node(data);
+            mMetadata = hasMetadata ? metadata : null;
+        }
+    }
+
+    /**
+     * Data object with, for each key in order, either a nested node or the index of the property holding the value.
+     */
+    private static class Node {
+
+        private final String[] mKeys;
+
+        private final Object[] mChildren;
+
+        Node(JSONObject template) throws JSONException {
+            mKeys = new String[template.length()];
+            mChildren = new Object[mKeys.length];
+            Iterator<String> iterator = template.keys();
+            for (int i = 0; i < mKeys.length; i++) {
+                String key = iterator.next();
+                Object child = template.get(key);
+                mKeys[i] = key;
+                mChildren[i] = child instanceof JSONObject ? new Node((JSONObject) child) : child;
+            }
+        }
+
+        void fill(JSONObject dest, Object[] values) throws JSONException {
+            for (int i = 0; i < mKeys.length; i++) {
+                Object child = mChildren[i];
+                if (child instanceof Node) {
+                    JSONObject object = new JSONObject();
+                    ((Node) child).fill(object, values);
+                    dest.put(mKeys[i], object);
+                } else {
+                    dest.put(mKeys[i], values[(Integer) child]);
+                }
+            }
+        }
+    }
 }
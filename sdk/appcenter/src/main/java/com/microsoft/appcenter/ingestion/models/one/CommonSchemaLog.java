@@ -5,6 +5,8 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.AbstractLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
@@ -13,6 +15,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * Common schema has 1 log type with extensions, everything is called an event.
  * Part B can be used in the future for domain specific typing (like reflecting AppCenter log type).
@@ -287,6 +291,38 @@ public abstract class CommonSchemaLog extends AbstractLog {
         }
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+
+        /* Common Schema fields replace the abstract log ones. */
+        if (VER.equals(name)) {
+            setVer(reader.nextString());
+        } else if (NAME.equals(name)) {
+            setName(reader.nextString());
+        } else if (TIME.equals(name)) {
+            setTimestamp(JSONDateUtils.toDate(reader.nextString()));
+        } else if (POP_SAMPLE.equals(name)) {
+            setPopSample(JSONUtils.readDouble(reader));
+        } else if (IKEY.equals(name)) {
+            setIKey(JSONUtils.readString(reader));
+        } else if (FLAGS.equals(name)) {
+            setFlags(JSONUtils.readLong(reader));
+        } else if (CV.equals(name)) {
+            setCV(JSONUtils.readString(reader));
+        } else if (EXT.equals(name)) {
+            Extensions extensions = new Extensions();
+            extensions.read(reader);
+            setExt(extensions);
+        } else if (DATA.equals(name)) {
+            Data data = new Data();
+            data.read(reader);
+            setData(data);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
 
@@ -295,7 +331,8 @@ public abstract class CommonSchemaLog extends AbstractLog {
         /* Part A. */
         writer.key(VER).value(getVer());
         writer.key(NAME).value(getName());
-        writer.key(TIME).value(JSONDateUtils.toString(getTimestamp()));
+        writer.key(TIME);
+        JSONDateUtils.write(writer, getTimestamp());
         JSONUtils.write(writer, POP_SAMPLE, getPopSample());
         JSONUtils.write(writer, IKEY, getIKey());
         JSONUtils.write(writer, FLAGS, getFlags());
@@ -5,26 +5,28 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * The "device" extension tracks common device elements that are not available in the core envelope.
  */
-public class DeviceExtension implements Model {
-
-    /**
-     * Local ID property.
-     */
-    private static final String LOCAL_ID = "localId";
+@JsonModel
+public class DeviceExtension implements Model.StreamingModel {
 
     /**
      * Local ID.
      */
+    @JsonField("localId")
     private String localId;
 
     /**
@@ -47,26 +49,26 @@ public class DeviceExtension implements Model {
 
     @Override
     public void read(JSONObject object) {
-        setLocalId(object.optString(LOCAL_ID, null));
+        DeviceExtensionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        DeviceExtensionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, LOCAL_ID, getLocalId());
+        DeviceExtensionCodec.write(writer, this);
     }
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        DeviceExtension that = (DeviceExtension) o;
-
-        return localId != null ? localId.equals(that.localId) : that.localId == null;
+        return DeviceExtensionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        return localId != null ? localId.hashCode() : 0;
+        return DeviceExtensionCodec.hashCode(this);
     }
 }
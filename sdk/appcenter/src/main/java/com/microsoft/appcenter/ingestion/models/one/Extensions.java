@@ -5,16 +5,20 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * Common Schema Part A extensions.
  */
-public class Extensions implements Model {
+public class Extensions implements Model.StreamingModel {
 
     /**
      * Metadata extension.
@@ -337,6 +341,54 @@ public class Extensions implements Model {
         }
     }
 
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (METADATA.equals(name)) {
+                MetadataExtension metadata = new MetadataExtension();
+                metadata.read(reader);
+                setMetadata(metadata);
+            } else if (PROTOCOL.equals(name)) {
+                ProtocolExtension protocol = new ProtocolExtension();
+                protocol.read(reader);
+                setProtocol(protocol);
+            } else if (USER.equals(name)) {
+                UserExtension user = new UserExtension();
+                user.read(reader);
+                setUser(user);
+            } else if (DEVICE.equals(name)) {
+                DeviceExtension device = new DeviceExtension();
+                device.read(reader);
+                setDevice(device);
+            } else if (OS.equals(name)) {
+                OsExtension os = new OsExtension();
+                os.read(reader);
+                setOs(os);
+            } else if (APP.equals(name)) {
+                AppExtension app = new AppExtension();
+                app.read(reader);
+                setApp(app);
+            } else if (NET.equals(name)) {
+                NetExtension net = new NetExtension();
+                net.read(reader);
+                setNet(net);
+            } else if (SDK.equals(name)) {
+                SdkExtension sdk = new SdkExtension();
+                sdk.read(reader);
+                setSdk(sdk);
+            } else if (LOC.equals(name)) {
+                LocExtension loc = new LocExtension();
+                loc.read(reader);
+                setLoc(loc);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
 
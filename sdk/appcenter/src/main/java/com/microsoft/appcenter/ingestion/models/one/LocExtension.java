@@ -5,26 +5,28 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * Describes the location from which the event was logged.
  */
-public class LocExtension implements Model {
-
-    /**
-     * Time zone property.
-     */
-    private static final String TZ = "tz";
+@JsonModel
+public class LocExtension implements Model.StreamingModel {
 
     /**
      * Time zone on the device.
      */
+    @JsonField("tz")
     private String tz;
 
     /**
@@ -47,26 +49,26 @@ public class LocExtension implements Model {
 
     @Override
     public void read(JSONObject object) {
-        setTz(object.optString(TZ, null));
+        LocExtensionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        LocExtensionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, TZ, getTz());
+        LocExtensionCodec.write(writer, this);
     }
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        LocExtension that = (LocExtension) o;
-
-        return tz != null ? tz.equals(that.tz) : that.tz == null;
+        return LocExtensionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        return tz != null ? tz.hashCode() : 0;
+        return LocExtensionCodec.hashCode(this);
     }
 }
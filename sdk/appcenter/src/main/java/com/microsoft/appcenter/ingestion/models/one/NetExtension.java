@@ -5,26 +5,28 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * Extension for network connectivity information.
  */
-public class NetExtension implements Model {
-
-    /**
-     * Network provider property.
-     */
-    private static final String PROVIDER = "provider";
+@JsonModel
+public class NetExtension implements Model.StreamingModel {
 
     /**
      * Network provider on the device.
      */
+    @JsonField("provider")
     private String provider;
 
     /**
@@ -47,26 +49,26 @@ public class NetExtension implements Model {
 
     @Override
     public void read(JSONObject object) {
-        setProvider(object.optString(PROVIDER, null));
+        NetExtensionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        NetExtensionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, PROVIDER, getProvider());
+        NetExtensionCodec.write(writer, this);
     }
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        NetExtension that = (NetExtension) o;
-
-        return provider != null ? provider.equals(that.provider) : that.provider == null;
+        return NetExtensionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        return provider != null ? provider.hashCode() : 0;
+        return NetExtensionCodec.hashCode(this);
     }
 }
@@ -5,36 +5,34 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * The "os" extension tracks common os elements that are not available in the core envelope.
  */
-public class OsExtension implements Model {
-
-    /**
-     * Name property.
-     */
-    private static final String NAME = "name";
-
-    /**
-     * Ver property.
-     */
-    private static final String VER = "ver";
+@JsonModel
+public class OsExtension implements Model.StreamingModel {
 
     /**
      * Os name.
      */
+    @JsonField("name")
     private String name;
 
     /**
      * Os version.
      */
+    @JsonField("ver")
     private String ver;
 
     /**
@@ -75,32 +73,26 @@ public class OsExtension implements Model {
 
     @Override
     public void read(JSONObject object) {
-        setName(object.optString(NAME, null));
-        setVer(object.optString(VER, null));
+        OsExtensionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        OsExtensionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, NAME, getName());
-        JSONUtils.write(writer, VER, getVer());
+        OsExtensionCodec.write(writer, this);
     }
 
-    @SuppressWarnings("SimplifiableIfStatement")
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        OsExtension that = (OsExtension) o;
-
-        if (name != null ? !name.equals(that.name) : that.name != null) return false;
-        return ver != null ? ver.equals(that.ver) : that.ver == null;
+        return OsExtensionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        int result = name != null ? name.hashCode() : 0;
-        result = 31 * result + (ver != null ? ver.hashCode() : 0);
-        return result;
+        return OsExtensionCodec.hashCode(this);
     }
 }
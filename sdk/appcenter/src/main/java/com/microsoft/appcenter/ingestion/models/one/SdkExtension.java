@@ -5,59 +5,48 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.UUID;
 
 /**
  * The SDK extension is used by platform specific library to record field that are specifically
  * required for a specific SDK.
  */
-public class SdkExtension implements Model {
-
-    /**
-     * Library version property.
-     */
-    private static final String LIB_VER = "libVer";
-
-    /**
-     * Epoch property.
-     */
-    private static final String EPOCH = "epoch";
-
-    /**
-     * Sequence property.
-     */
-    private static final String SEQ = "seq";
-
-    /**
-     * InstallId property.
-     */
-    private static final String INSTALL_ID = "installId";
+@JsonModel
+public class SdkExtension implements Model.StreamingModel {
 
     /**
      * SDK version.
      */
+    @JsonField("libVer")
     private String libVer;
 
     /**
      * Seed for each SDK initialization.
      */
+    @JsonField("epoch")
     private String epoch;
 
     /**
      * ID incremented for each event.
      */
+    @JsonField("seq")
     private Long seq;
 
     /**
      * Install identifier.
      */
+    @JsonField("installId")
     private UUID installId;
 
     /**
@@ -136,42 +125,26 @@ public class SdkExtension implements Model {
 
     @Override
     public void read(JSONObject object) throws JSONException {
-        setLibVer(object.optString(LIB_VER, null));
-        setEpoch(object.optString(EPOCH, null));
-        setSeq(JSONUtils.readLong(object, SEQ));
-        if (object.has(INSTALL_ID)) {
-            setInstallId(UUID.fromString(object.getString(INSTALL_ID)));
-        }
+        SdkExtensionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        SdkExtensionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, LIB_VER, getLibVer());
-        JSONUtils.write(writer, EPOCH, getEpoch());
-        JSONUtils.write(writer, SEQ, getSeq());
-        JSONUtils.write(writer, INSTALL_ID, getInstallId());
+        SdkExtensionCodec.write(writer, this);
     }
 
-    @SuppressWarnings("SimplifiableIfStatement")
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        SdkExtension that = (SdkExtension) o;
-
-        if (libVer != null ? !libVer.equals(that.libVer) : that.libVer != null) return false;
-        if (epoch != null ? !epoch.equals(that.epoch) : that.epoch != null) return false;
-        if (seq != null ? !seq.equals(that.seq) : that.seq != null) return false;
-        return installId != null ? installId.equals(that.installId) : that.installId == null;
+        return SdkExtensionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        int result = libVer != null ? libVer.hashCode() : 0;
-        result = 31 * result + (epoch != null ? epoch.hashCode() : 0);
-        result = 31 * result + (seq != null ? seq.hashCode() : 0);
-        result = 31 * result + (installId != null ? installId.hashCode() : 0);
-        return result;
+        return SdkExtensionCodec.hashCode(this);
     }
 }
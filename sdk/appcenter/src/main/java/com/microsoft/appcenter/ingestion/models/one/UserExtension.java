@@ -5,36 +5,34 @@
 
 package com.microsoft.appcenter.ingestion.models.one;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
-import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
+import com.microsoft.appcenter.ingestion.models.json.JsonField;
+import com.microsoft.appcenter.ingestion.models.json.JsonModel;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 /**
  * The "user" extension tracks common user elements that are not available in the core envelope.
  */
-public class UserExtension implements Model {
-
-    /**
-     * LocalId property.
-     */
-    private static final String LOCAL_ID = "localId";
-
-    /**
-     * Locale property.
-     */
-    private static final String LOCALE = "locale";
+@JsonModel
+public class UserExtension implements Model.StreamingModel {
 
     /**
      * Local Id.
      */
+    @JsonField("localId")
     private String localId;
 
     /**
      * User locale.
      */
+    @JsonField("locale")
     private String locale;
 
     /**
@@ -77,31 +75,26 @@ public class UserExtension implements Model {
 
     @Override
     public void read(JSONObject object) {
-        setLocalId(object.optString(LOCAL_ID, null));
-        setLocale(object.optString(LOCALE, null));
+        UserExtensionCodec.read(object, this);
+    }
+
+    @Override
+    public void read(JsonReader reader) throws IOException {
+        UserExtensionCodec.read(reader, this);
     }
 
     @Override
     public void write(JSONStringer writer) throws JSONException {
-        JSONUtils.write(writer, LOCAL_ID, getLocalId());
-        JSONUtils.write(writer, LOCALE, getLocale());
+        UserExtensionCodec.write(writer, this);
     }
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        UserExtension that = (UserExtension) o;
-
-        if (localId != null ? !localId.equals(that.localId) : that.localId != null) return false;
-        return locale != null ? locale.equals(that.locale) : that.locale == null;
+        return UserExtensionCodec.equals(this, o);
     }
 
     @Override
     public int hashCode() {
-        int result = localId != null ? localId.hashCode() : 0;
-        result = 31 * result + (locale != null ? locale.hashCode() : 0);
-        return result;
+        return UserExtensionCodec.hashCode(this);
     }
 }
@@ -5,12 +5,15 @@
 
 package com.microsoft.appcenter.ingestion.models.properties;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.Date;
 
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.VALUE;
@@ -53,10 +56,20 @@ public class DateTimeTypedProperty extends TypedProperty {
         setValue(JSONDateUtils.toDate(object.getString(VALUE)));
     }
 
+    @Override
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (VALUE.equals(name)) {
+            setValue(JSONDateUtils.toDate(reader.nextString()));
+            return true;
+        }
+        return super.readField(reader, name);
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         super.write(writer);
-        writer.key(VALUE).value(JSONDateUtils.toString(getValue()));
+        writer.key(VALUE);
+        JSONDateUtils.write(writer, getValue());
     }
 
     @Override
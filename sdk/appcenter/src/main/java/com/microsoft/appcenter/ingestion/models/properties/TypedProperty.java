@@ -5,16 +5,20 @@
 
 package com.microsoft.appcenter.ingestion.models.properties;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
+
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.NAME;
 import static com.microsoft.appcenter.ingestion.models.CommonProperties.TYPE;
 
-public abstract class TypedProperty implements Model {
+public abstract class TypedProperty implements Model.StreamingModel {
 
     /**
      * Property name.
@@ -54,6 +58,39 @@ public abstract class TypedProperty implements Model {
         setName(object.getString(NAME));
     }
 
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (!readField(reader, reader.nextName())) {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read a field from a stream, subclasses read their value before calling this method.
+     *
+     * @param reader reader positioned before the value.
+     * @param name   field name.
+     * @return true if the value was read, false if the field is unknown and its value must be skipped.
+     * @throws IOException   if the stream is not valid JSON.
+     * @throws JSONException if the value is not valid.
+     */
+    protected boolean readField(JsonReader reader, String name) throws IOException, JSONException {
+        if (TYPE.equals(name)) {
+            if (!reader.nextString().equals(getType())) {
+                throw new JSONException("Invalid type");
+            }
+        } else if (NAME.equals(name)) {
+            setName(reader.nextString());
+        } else {
+            return false;
+        }
+        return true;
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         writer.key(TYPE).value(getType());
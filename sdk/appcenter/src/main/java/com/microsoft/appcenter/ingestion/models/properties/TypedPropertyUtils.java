@@ -6,11 +6,16 @@
 package com.microsoft.appcenter.ingestion.models.properties;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,4 +54,23 @@ public class TypedPropertyUtils {
         }
         return null;
     }
+
+    public static List<TypedProperty> read(JsonReader reader) throws IOException, JSONException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+
+        /* The type of each property is needed first to create it, read them as small objects. */
+        List<TypedProperty> array = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            JSONObject jsonObject = JSONUtils.readObject(reader);
+            TypedProperty typedProperty = TypedPropertyUtils.create(jsonObject.getString(TYPE));
+            typedProperty.read(jsonObject);
+            array.add(typedProperty);
+        }
+        reader.endArray();
+        return array;
+    }
 }
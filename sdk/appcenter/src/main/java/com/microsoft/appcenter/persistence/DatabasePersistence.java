@@ -17,16 +17,21 @@ import android.support.annotation.VisibleForTesting;
 
 import com.microsoft.appcenter.Constants;
 import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Device;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONReader;
 import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.HashUtils;
 import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 import com.microsoft.appcenter.utils.storage.FileManager;
 import com.microsoft.appcenter.utils.storage.SQLiteUtils;
 
 import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONStringer;
 
 import java.io.File;
 import java.io.IOException;
@@ -40,6 +45,8 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 
 import static com.microsoft.appcenter.AppCenter.LOG_TAG;
@@ -68,6 +75,36 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final int VERSION_PRIORITY_KEY = 4;
 
+    /**
+     * Version of the schema that introduced timestamp field.
+     */
+    @VisibleForTesting
+    static final int VERSION_TIMESTAMP_KEY = 5;
+
+    /**
+     * Version of the schema that introduced group and priority index for paginated log selection.
+     */
+    @VisibleForTesting
+    static final int VERSION_GROUP_PRIORITY_INDEX = 6;
+
+    /**
+     * Version of the schema that introduced the device table referenced by logs.
+     */
+    @VisibleForTesting
+    static final int VERSION_DEVICE_TABLE = 7;
+
+    /**
+     * Version of the schema that introduced compressed log payloads.
+     */
+    @VisibleForTesting
+    static final int VERSION_COMPRESSED_LOG = 8;
+
+    /**
+     * Version of the schema that introduced the target token table referenced by logs.
+     */
+    @VisibleForTesting
+    static final int VERSION_TARGET_TOKEN_TABLE = 9;
+
     /**
      * Table name.
      */
@@ -86,6 +123,13 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final String COLUMN_LOG = "log";
 
+    /**
+     * Name of the log column in the table for logs stored in binary format, see {@link com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer},
+     * and compressed when enabled, see {@link PayloadCompression}. Used instead of {@link #COLUMN_LOG}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_COMPRESSED_LOG = "compressed_log";
+
     /**
      * Name of date column in the table.
      * Value is stored in milliseconds.
@@ -94,7 +138,9 @@ public class DatabasePersistence extends Persistence {
     static final String COLUMN_TIMESTAMP = "timestamp";
 
     /**
-     * Name of target token column in the table.
+     * Name of target token column in the table, also used in {@link #TARGET_TOKEN_TABLE}.
+     * Logs stored before {@link #VERSION_TARGET_TOKEN_TABLE}, or when the token could not be stored in {@link #TARGET_TOKEN_TABLE},
+     * have the encrypted token in this column.
      */
     @VisibleForTesting
     static final String COLUMN_TARGET_TOKEN = "target_token";
@@ -117,11 +163,65 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     static final String COLUMN_PRIORITY = "priority";
 
+    /**
+     * Name of the column referencing the device of the log in {@link #DEVICE_TABLE}.
+     * Null if the device is stored in the log payload.
+     */
+    @VisibleForTesting
+    static final String COLUMN_DEVICE_ID = "device_id";
+
+    /**
+     * Name of the column referencing the encrypted target token of the log in {@link #TARGET_TOKEN_TABLE}.
+     */
+    @VisibleForTesting
+    static final String COLUMN_TARGET_TOKEN_ID = "target_token_id";
+
     /**
      * Table schema for Persistence.
      */
     @VisibleForTesting
-    static final ContentValues SCHEMA = getContentValues("", "", "", "", "", 0, 0L);
+    static final ContentValues SCHEMA = getContentValues("", "", new byte[0], "", "", "", 0, 0L, 0L, 0L);
+
+    /**
+     * Table name for devices shared by logs.
+     */
+    @VisibleForTesting
+    static final String DEVICE_TABLE = "devices";
+
+    /**
+     * Name of device content hash column in the device table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_DEVICE_HASH = "hash";
+
+    /**
+     * Name of serialized device column in the device table.
+     */
+    @VisibleForTesting
+    static final String COLUMN_DEVICE = "device";
+
+    /**
+     * Table name for encrypted target tokens shared by logs.
+     */
+    @VisibleForTesting
+    static final String TARGET_TOKEN_TABLE = "target_tokens";
+
+    /**
+     * Maximum number of target tokens kept in memory in each direction of the encryption.
+     */
+    @VisibleForTesting
+    static final int TARGET_TOKEN_CACHE_SIZE = 32;
+
+    /**
+     * Size of the timestamp ranges logs are counted by, in milliseconds.
+     */
+    @VisibleForTesting
+    static final long TIMESTAMP_BUCKET_SIZE = 60 * 1000L;
+
+    /**
+     * JSON property of the device in a log payload.
+     */
+    private static final String DEVICE_PROPERTY = "device";
 
     /**
      * Database name.
@@ -132,13 +232,19 @@ public class DatabasePersistence extends Persistence {
     /**
      * Current version of the schema.
      */
-    private static final int VERSION = 5;
+    private static final int VERSION = VERSION_TARGET_TOKEN_TABLE;
 
     /**
      * Priority index.
      */
     private static final String INDEX_PRIORITY = "ix_" + TABLE + "_" + COLUMN_PRIORITY;
 
+    /**
+     * Index matching the order used to select logs, sorted like {@link #GET_SORT_ORDER} within a group.
+     */
+    @VisibleForTesting
+    static final String INDEX_GROUP_PRIORITY = "ix_" + TABLE + "_" + COLUMN_GROUP + "_" + COLUMN_PRIORITY;
+
     /**
      * Order by clause to select logs.
      */
@@ -147,8 +253,27 @@ public class DatabasePersistence extends Persistence {
     /**
      * Size limit (in bytes) for a database row log payload.
      * A separate file is used if payload is larger.
+     * This is also the size limit of the JSON of a log sent to One Collector.
+     */
+    static final int PAYLOAD_MAX_SIZE = (int) (1.9 * 1024 * 1024);
+
+    /**
+     * Ratio of the maximum storage size to go back to when evicting logs,
+     * so that the next logs can be stored without evicting again.
+     */
+    @VisibleForTesting
+    static final float EVICTION_LOW_WATER_MARK = 0.9f;
+
+    /**
+     * Approximate size of a log row in addition to its payload (other columns and indexes), in bytes.
      */
-    private static final int PAYLOAD_MAX_SIZE = (int) (1.9 * 1024 * 1024);
+    @VisibleForTesting
+    static final int LOG_ROW_OVERHEAD = 100;
+
+    /**
+     * Order by clause to select logs to evict.
+     */
+    private static final String EVICTION_SORT_ORDER = COLUMN_PRIORITY + ", " + PRIMARY_KEY;
 
     /**
      * Sub path for directory where to store large payloads.
@@ -178,6 +303,64 @@ public class DatabasePersistence extends Persistence {
     @VisibleForTesting
     final Set<Long> mPendingDbIdentifiers;
 
+    /**
+     * Timestamps of pending logs by database identifier, to update log counts when they are deleted.
+     */
+    private final Map<Long, Long> mPendingDbTimestamps;
+
+    /**
+     * Number of stored logs per group, loaded from the database on first count.
+     * Null when it needs to be loaded again.
+     */
+    @VisibleForTesting
+    Map<String, LogCount> mLogCounts;
+
+    /**
+     * Position of the last log selected by {@link #getLogs}, per group and query filters.
+     * Used to select next logs without scanning the logs that were already returned.
+     */
+    @VisibleForTesting
+    final Map<String, LogPosition> mLogPositions;
+
+    /**
+     * Identifiers of devices in {@link #DEVICE_TABLE} by content hash.
+     */
+    @VisibleForTesting
+    final Map<String, Long> mDeviceIdentifiers;
+
+    /**
+     * Serialized devices read from or written to {@link #DEVICE_TABLE} by identifier.
+     */
+    private final Map<Long, String> mSerializedDevices;
+
+    /**
+     * Deserialized devices by identifier, shared by the logs referencing them.
+     */
+    private final Map<Long, Device> mDevices;
+
+    /**
+     * Whether devices no longer referenced by logs were deleted during this session.
+     */
+    private boolean mUnusedDevicesDeleted;
+
+    /**
+     * Identifiers of target tokens in {@link #TARGET_TOKEN_TABLE} by clear text token, to avoid encrypting them again.
+     */
+    @VisibleForTesting
+    final Map<String, Long> mTargetTokenIdentifiers;
+
+    /**
+     * Clear text target tokens by identifier in {@link #TARGET_TOKEN_TABLE}, to avoid decrypting them again.
+     */
+    @VisibleForTesting
+    final Map<Long, String> mTargetTokens;
+
+    /**
+     * Clear text target tokens by encrypted token, for logs stored before {@link #VERSION_TARGET_TOKEN_TABLE}
+     * or when the token could not be stored in {@link #TARGET_TOKEN_TABLE}.
+     */
+    private final Map<String, String> mDecryptedTargetTokens;
+
     /**
      * Application context.
      */
@@ -188,6 +371,22 @@ public class DatabasePersistence extends Persistence {
      */
     private final File mLargePayloadDirectory;
 
+    /**
+     * Total size of large payload files in bytes, -1 until computed.
+     */
+    @VisibleForTesting
+    long mLargePayloadsSize = -1;
+
+    /**
+     * Whether new log payloads are stored compressed.
+     */
+    private boolean mCompressionEnabled;
+
+    /**
+     * Whether a transaction started by {@link #beginTransaction()} is in progress.
+     */
+    private boolean mInTransaction;
+
     /**
      * Initializes variables with default values.
      *
@@ -208,15 +407,38 @@ public class DatabasePersistence extends Persistence {
         mContext = context;
         mPendingDbIdentifiersGroups = new HashMap<>();
         mPendingDbIdentifiers = new HashSet<>();
+        mPendingDbTimestamps = new HashMap<>();
+        mLogPositions = new HashMap<>();
+        mDeviceIdentifiers = new HashMap<>();
+        mSerializedDevices = new HashMap<>();
+        mDevices = new HashMap<>();
+        mTargetTokenIdentifiers = newTargetTokenCache();
+        mTargetTokens = newTargetTokenCache();
+        mDecryptedTargetTokens = newTargetTokenCache();
         mDatabaseManager = new DatabaseManager(context, DATABASE, TABLE, version, schema, new DatabaseManager.Listener() {
 
             private void createPriorityIndex(SQLiteDatabase db) {
                 db.execSQL("CREATE INDEX `" + INDEX_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_PRIORITY + "`)");
             }
 
+            private void createGroupPriorityIndex(SQLiteDatabase db) {
+                db.execSQL("CREATE INDEX `" + INDEX_GROUP_PRIORITY + "` ON " + TABLE + " (`" + COLUMN_GROUP + "`, `" + COLUMN_PRIORITY + "` DESC, `" + PRIMARY_KEY + "`)");
+            }
+
+            private void createDeviceTable(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `" + DEVICE_TABLE + "` (`" + PRIMARY_KEY + "` INTEGER PRIMARY KEY AUTOINCREMENT, `" + COLUMN_DEVICE_HASH + "` TEXT, `" + COLUMN_DEVICE + "` TEXT)");
+            }
+
+            private void createTargetTokenTable(SQLiteDatabase db) {
+                db.execSQL("CREATE TABLE IF NOT EXISTS `" + TARGET_TOKEN_TABLE + "` (`" + PRIMARY_KEY + "` INTEGER PRIMARY KEY AUTOINCREMENT, `" + COLUMN_TARGET_TOKEN + "` TEXT)");
+            }
+
             @Override
             public void onCreate(SQLiteDatabase db) {
                 createPriorityIndex(db);
+                createGroupPriorityIndex(db);
+                createDeviceTable(db);
+                createTargetTokenTable(db);
             }
 
             @Override
@@ -233,8 +455,24 @@ public class DatabasePersistence extends Persistence {
                 if (oldVersion < VERSION_PRIORITY_KEY) {
                     db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_PRIORITY + "` INTEGER DEFAULT " + NORMAL);
                 }
-                db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TIMESTAMP + "` INTEGER DEFAULT 0");
-                createPriorityIndex(db);
+                if (oldVersion < VERSION_TIMESTAMP_KEY) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TIMESTAMP + "` INTEGER DEFAULT 0");
+                    createPriorityIndex(db);
+                }
+                if (oldVersion < VERSION_GROUP_PRIORITY_INDEX) {
+                    createGroupPriorityIndex(db);
+                }
+                if (oldVersion < VERSION_DEVICE_TABLE) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_DEVICE_ID + "` INTEGER");
+                    createDeviceTable(db);
+                }
+                if (oldVersion < VERSION_COMPRESSED_LOG) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_COMPRESSED_LOG + "` BLOB");
+                }
+                if (oldVersion < VERSION_TARGET_TOKEN_TABLE) {
+                    db.execSQL("ALTER TABLE " + TABLE + " ADD COLUMN `" + COLUMN_TARGET_TOKEN_ID + "` INTEGER");
+                    createTargetTokenTable(db);
+                }
                 return true;
             }
         });
@@ -247,54 +485,139 @@ public class DatabasePersistence extends Persistence {
     /**
      * Instantiates {@link ContentValues} with the give values.
      *
-     * @param group       The group of the storage for the log.
-     * @param logJ        The JSON string for a log.
-     * @param targetToken The target token if the log is common schema.
-     * @param targetKey   The project identifier part of the target token in clear text.
-     * @param priority    The persistence priority.
+     * @param group         The group of the storage for the log.
+     * @param logJ          The JSON string for a log.
+     * @param compressedLog The compressed JSON string for a log, when not using logJ.
+     * @param targetToken   The target token if the log is common schema.
+     * @param targetKey     The project identifier part of the target token in clear text.
+     * @param priority      The persistence priority.
+     * @param deviceId      The identifier of the device in the device table, null if in the log payload.
+     * @param targetTokenId The identifier of the encrypted target token in the target token table, null if none.
      * @return A {@link ContentValues} instance.
      */
-    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, String targetToken, String type, String targetKey, int priority, Long timestamp) {
+    private static ContentValues getContentValues(@Nullable String group, @Nullable String logJ, @Nullable byte[] compressedLog, String targetToken, String type, String targetKey, int priority, Long timestamp, Long deviceId, Long targetTokenId) {
         ContentValues values = new ContentValues();
         values.put(COLUMN_GROUP, group);
         values.put(COLUMN_LOG, logJ);
+        values.put(COLUMN_COMPRESSED_LOG, compressedLog);
         values.put(COLUMN_TARGET_TOKEN, targetToken);
         values.put(COLUMN_DATA_TYPE, type);
         values.put(COLUMN_TARGET_KEY, targetKey);
         values.put(COLUMN_PRIORITY, priority);
         values.put(COLUMN_TIMESTAMP, timestamp);
+        values.put(COLUMN_DEVICE_ID, deviceId);
+        values.put(COLUMN_TARGET_TOKEN_ID, targetTokenId);
         return values;
     }
 
+    /**
+     * Create a map evicting its least recently used entry above {@link #TARGET_TOKEN_CACHE_SIZE} entries.
+     */
+    private static <K, V> Map<K, V> newTargetTokenCache() {
+        return new LinkedHashMap<K, V>(TARGET_TOKEN_CACHE_SIZE, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+                return size() > TARGET_TOKEN_CACHE_SIZE;
+            }
+        };
+    }
+
     @Override
     public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
         return mDatabaseManager.setMaxSize(maxStorageSizeInBytes);
     }
 
+    @Override
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
+
+    @Override
+    public void beginTransaction() {
+        mInTransaction = mDatabaseManager.beginTransaction();
+    }
+
+    @Override
+    public void endTransaction() {
+        if (mInTransaction) {
+            mInTransaction = false;
+            mDatabaseManager.endTransaction();
+        }
+    }
+
     @Override
     public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
 
         /* Convert log to JSON string and put in the database. */
         try {
             AppCenterLog.debug(LOG_TAG, "Storing a log to the Persistence database for log type " + log.getType() + " with flags=" + flags);
-            String payload = getLogSerializer().serializeLog(log);
-            ContentValues contentValues;
 
-            //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
-            int payloadSize = payload.getBytes("UTF-8").length;
+            /* Store the device once and reference it, common schema logs don't serialize it anyway. */
+            Device device = log.getDevice();
+            Long deviceId = null;
+            if (device != null && !(log instanceof CommonSchemaLog)) {
+                deviceId = putDevice(device);
+            }
+
+            /* Logs are stored in binary format, JSON is produced only when sending them or for large payload files. */
+            byte[] binaryPayload;
+            if (deviceId != null) {
+                log.setDevice(null);
+                try {
+                    binaryPayload = getLogSerializer().serializeLogToBinary(log);
+                } finally {
+                    log.setDevice(device);
+                }
+            } else {
+                binaryPayload = getLogSerializer().serializeLogToBinary(log);
+            }
+            ContentValues contentValues;
+            byte[] storedPayload = binaryPayload;
+            int payloadSize = binaryPayload.length;
+
+            /* Keep the compressed payload only if it saves space, size limits then apply to what is stored. */
+            if (mCompressionEnabled) {
+                byte[] compressedPayload = PayloadCompression.compressBinary(binaryPayload);
+                if (compressedPayload.length < payloadSize) {
+                    storedPayload = compressedPayload;
+                    payloadSize = compressedPayload.length;
+                }
+            }
             boolean isLargePayload = payloadSize >= PAYLOAD_MAX_SIZE;
+            String payload = null;
+            if (isLargePayload) {
+
+                /* Files are stored as JSON. */
+                payload = BinaryJSONReader.toJson(binaryPayload);
+
+                //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+                payloadSize = payload.getBytes("UTF-8").length;
+                storedPayload = null;
+            }
             String targetKey;
-            String targetToken;
+            Long targetTokenId;
+            String encryptedTargetToken = null;
             if (log instanceof CommonSchemaLog) {
-                if (isLargePayload) {
+
+                /* One Collector limits the JSON it receives, whatever the stored size is. */
+                String json = payload != null ? payload : BinaryJSONReader.toJson(binaryPayload);
+
+                //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+                if (json.getBytes("UTF-8").length >= PAYLOAD_MAX_SIZE) {
                     throw new PersistenceException("Log is larger than " + PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
                 }
-                targetToken = log.getTransmissionTargetTokens().iterator().next();
+                String targetToken = log.getTransmissionTargetTokens().iterator().next();
                 targetKey = PartAUtils.getTargetKey(targetToken);
-                targetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+                targetTokenId = putTargetToken(targetToken);
+
+                /* Keep the log sendable if the token could not be stored separately. */
+                if (targetTokenId == null) {
+                    encryptedTargetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+                }
             } else {
                 targetKey = null;
-                targetToken = null;
+                targetTokenId = null;
             }
             long maxSize = mDatabaseManager.getMaxSize();
             if (maxSize == -1) {
@@ -304,12 +627,50 @@ public class DatabasePersistence extends Persistence {
                 throw new PersistenceException("Log is too large (" + payloadSize + " bytes) to store in database. " +
                         "Current maximum database size is " + maxSize + " bytes.");
             }
-            contentValues = getContentValues(group, isLargePayload ? null : payload, targetToken, log.getType(), targetKey, Flags.getPersistenceFlag(flags, false), log.getTimestamp().getTime());
-            long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY);
+            int priority = Flags.getPersistenceFlag(flags, false);
+
+            /* Evict logs in bulk when the storage is full, large payload files included, rather than one by one on insert failures. */
+            long logSize = payloadSize + LOG_ROW_OVERHEAD;
+            long storageSize = getStorageSize();
+            if (storageSize >= 0 && logSize < maxSize && storageSize + logSize > maxSize) {
+                evictLogs(priority, storageSize + logSize - (long) (maxSize * EVICTION_LOW_WATER_MARK));
+            }
+            contentValues = getContentValues(group, null, storedPayload, encryptedTargetToken, log.getType(), targetKey, priority, log.getTimestamp().getTime(), deviceId, targetTokenId);
+            List<Long> deletedIds = new ArrayList<>();
+            long databaseId = mDatabaseManager.put(contentValues, COLUMN_PRIORITY, deletedIds);
+            boolean logCounted = false;
+            if (!deletedIds.isEmpty()) {
+
+                /* Storage was still full, we don't know which groups the deleted logs belonged to, count again. */
+                Set<Long> deletedPendingIds = new HashSet<>(deletedIds);
+                deletedPendingIds.retainAll(mPendingDbIdentifiers);
+                mPendingDbIdentifiers.removeAll(deletedIds);
+                mPendingDbTimestamps.keySet().removeAll(deletedIds);
+                deleteLargePayloadFiles(deletedIds);
+                Map<String, LogCount> previousLogCounts = mLogCounts;
+                mLogCounts = null;
+                Map<String, LogCount> logCounts = getLogCounts();
+                logCounted = databaseId != -1;
+                if (previousLogCounts != null && logCounts != null) {
+                    Map<String, Integer> evictedCounts = new HashMap<>();
+                    for (Map.Entry<String, LogCount> entry : previousLogCounts.entrySet()) {
+                        LogCount logCount = logCounts.get(entry.getKey());
+                        int evictedCount = entry.getValue().mCount - (logCount != null ? logCount.mCount : 0) - countPendingLogs(entry.getKey(), deletedPendingIds);
+                        if (logCounted && entry.getKey().equals(group)) {
+                            evictedCount++;
+                        }
+                        if (evictedCount > 0) {
+                            evictedCounts.put(entry.getKey(), evictedCount);
+                        }
+                    }
+                    notifyLogsEvicted(evictedCounts);
+                }
+            }
             if (databaseId == -1) {
                 throw new PersistenceException("Failed to store a log to the Persistence database for log type " + log.getType() + ".");
             }
             AppCenterLog.debug(LOG_TAG, "Stored a log to the Persistence database for log type " + log.getType() + " with databaseId=" + databaseId);
+            removeLogPositions(group, priority);
             if (isLargePayload) {
                 AppCenterLog.debug(LOG_TAG, "Payload is larger than what SQLite supports, storing payload in a separate file.");
                 File directory = getLargePayloadGroupDirectory(group);
@@ -323,10 +684,17 @@ public class DatabasePersistence extends Persistence {
 
                     /* Remove database entry if we cannot save payload as a file. */
                     mDatabaseManager.delete(databaseId);
+                    if (logCounted) {
+                        updateLogCount(group, log.getTimestamp().getTime(), -1);
+                    }
                     throw e;
                 }
+                updateLargePayloadsSize(payloadSize);
                 AppCenterLog.debug(LOG_TAG, "Payload written to " + payloadFile);
             }
+            if (!logCounted) {
+                updateLogCount(group, log.getTimestamp().getTime(), 1);
+            }
             return databaseId;
         } catch (JSONException e) {
             throw new PersistenceException("Cannot convert to JSON string.", e);
@@ -335,6 +703,234 @@ public class DatabasePersistence extends Persistence {
         }
     }
 
+    /**
+     * Get the identifier of a device in the device table, storing it if needed.
+     *
+     * @param device The device.
+     * @return The device identifier, or null if the device could not be stored separately.
+     * @throws JSONException If the device cannot be serialized.
+     */
+    @Nullable
+    private Long putDevice(@NonNull Device device) throws JSONException {
+        JSONStringer writer = new JSONStringer();
+        writer.object();
+        device.write(writer);
+        writer.endObject();
+        String serializedDevice = writer.toString();
+        String hash = HashUtils.sha256(serializedDevice);
+        Long deviceId = mDeviceIdentifiers.get(hash);
+        if (deviceId == null) {
+
+            /* Devices of previous sessions may no longer be referenced, check that only once per session. */
+            if (!mUnusedDevicesDeleted) {
+                deleteUnusedDevices();
+            }
+
+            /* Reuse the row if the device was stored before. */
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_DEVICE_HASH, hash);
+            values.put(COLUMN_DEVICE, serializedDevice);
+            long id = mDatabaseManager.replace(DEVICE_TABLE, values, COLUMN_DEVICE_HASH);
+            if (id == -1) {
+                AppCenterLog.warn(LOG_TAG, "Failed to store device, keeping it in the log payload.");
+                return null;
+            }
+            deviceId = id;
+            mDeviceIdentifiers.put(hash, deviceId);
+            mSerializedDevices.put(deviceId, serializedDevice);
+        }
+        return deviceId;
+    }
+
+    /**
+     * Delete the devices no longer referenced by any log.
+     * This scans the log table, so it runs after logs are evicted or deleted in bulk rather than for each new log.
+     */
+    private void deleteUnusedDevices() {
+        mUnusedDevicesDeleted = true;
+        int deletedCount = mDatabaseManager.delete(DEVICE_TABLE, PRIMARY_KEY + " NOT IN (SELECT `" + COLUMN_DEVICE_ID + "` FROM " + TABLE + " WHERE `" + COLUMN_DEVICE_ID + "` IS NOT NULL)", null);
+        if (deletedCount > 0) {
+            AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " unused devices.");
+            mDeviceIdentifiers.clear();
+            mSerializedDevices.clear();
+            mDevices.clear();
+        }
+    }
+
+    /**
+     * Get a serialized device from the device table.
+     *
+     * @param deviceId The device identifier.
+     * @return The serialized device.
+     * @throws JSONException If the device is missing.
+     */
+    @NonNull
+    private String getSerializedDevice(long deviceId) throws JSONException {
+        String serializedDevice = mSerializedDevices.get(deviceId);
+        if (serializedDevice == null) {
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(DEVICE_TABLE, builder, new String[]{COLUMN_DEVICE}, new String[]{String.valueOf(deviceId)}, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        serializedDevice = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get device: ", e);
+            }
+            if (serializedDevice == null) {
+                throw new JSONException("Device " + deviceId + " referenced by log is missing.");
+            }
+            mSerializedDevices.put(deviceId, serializedDevice);
+        }
+        return serializedDevice;
+    }
+
+    /**
+     * Get a device from the device table.
+     *
+     * @param deviceId The device identifier.
+     * @return The device, shared with other logs referencing it.
+     * @throws JSONException If the device is missing or cannot be deserialized.
+     */
+    @NonNull
+    private Device getDevice(long deviceId) throws JSONException {
+        Device device = mDevices.get(deviceId);
+        if (device == null) {
+            device = new Device();
+            device.read(new JSONObject(getSerializedDevice(deviceId)));
+            mDevices.put(deviceId, device);
+        }
+        return device;
+    }
+
+    /**
+     * Get the identifier of a target token in the target token table, storing it encrypted if needed.
+     *
+     * @param targetToken The target token in clear text.
+     * @return The target token identifier, or null if the token could not be stored separately and must be stored encrypted in the log.
+     */
+    @Nullable
+    private Long putTargetToken(@NonNull String targetToken) {
+        Long targetTokenId = mTargetTokenIdentifiers.get(targetToken);
+        if (targetTokenId != null) {
+            return targetTokenId;
+        }
+
+        /* A new target is rare, this is a good time to delete the tokens no longer referenced. */
+        int deletedCount = mDatabaseManager.delete(TARGET_TOKEN_TABLE, PRIMARY_KEY + " NOT IN (SELECT `" + COLUMN_TARGET_TOKEN_ID + "` FROM " + TABLE + " WHERE `" + COLUMN_TARGET_TOKEN_ID + "` IS NOT NULL)", null);
+        if (deletedCount > 0) {
+            AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " unused target tokens.");
+            mTargetTokenIdentifiers.clear();
+            mTargetTokens.clear();
+        }
+
+        /*
+         * Look for the token stored before so that it's not encrypted again.
+         * Tokens are not fingerprinted in storage: decrypt them, there are only a few since unused ones were just deleted.
+         */
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(TARGET_TOKEN_TABLE, null, new String[]{PRIMARY_KEY, COLUMN_TARGET_TOKEN}, null, null);
+            try {
+                while (targetTokenId == null && cursor.moveToNext()) {
+                    long id = cursor.getLong(0);
+                    String storedTargetToken = mTargetTokens.get(id);
+                    if (storedTargetToken == null) {
+                        String encryptedTargetToken = cursor.getString(1);
+                        if (encryptedTargetToken == null) {
+                            continue;
+                        }
+                        storedTargetToken = CryptoUtils.getInstance(mContext).decrypt(encryptedTargetToken, false).getDecryptedData();
+                    }
+                    if (targetToken.equals(storedTargetToken)) {
+                        targetTokenId = id;
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get target token: ", e);
+        }
+        if (targetTokenId == null) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_TARGET_TOKEN, CryptoUtils.getInstance(mContext).encrypt(targetToken));
+            long id = mDatabaseManager.replace(TARGET_TOKEN_TABLE, values);
+            if (id == -1) {
+                AppCenterLog.warn(LOG_TAG, "Failed to store target token, storing it in the log.");
+                return null;
+            }
+            targetTokenId = id;
+        }
+        mTargetTokenIdentifiers.put(targetToken, targetTokenId);
+        mTargetTokens.put(targetTokenId, targetToken);
+        return targetTokenId;
+    }
+
+    /**
+     * Get a target token from the target token table.
+     *
+     * @param targetTokenId The target token identifier.
+     * @return The target token in clear text.
+     * @throws JSONException If the target token is missing.
+     */
+    @NonNull
+    private String getTargetToken(long targetTokenId) throws JSONException {
+        String targetToken = mTargetTokens.get(targetTokenId);
+        if (targetToken == null) {
+            String encryptedTargetToken = null;
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(PRIMARY_KEY + " = ?");
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(TARGET_TOKEN_TABLE, builder, new String[]{COLUMN_TARGET_TOKEN}, new String[]{String.valueOf(targetTokenId)}, null);
+                try {
+                    if (cursor.moveToNext()) {
+                        encryptedTargetToken = cursor.getString(0);
+                    }
+                } finally {
+                    cursor.close();
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get target token: ", e);
+            }
+            if (encryptedTargetToken == null) {
+                throw new JSONException("Target token " + targetTokenId + " referenced by log is missing.");
+            }
+            CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(encryptedTargetToken, false);
+            targetToken = data.getDecryptedData();
+
+            /* Store the token encrypted again if it was encrypted with an older algorithm. */
+            if (data.getNewEncryptedData() != null) {
+                ContentValues values = new ContentValues();
+                values.put(PRIMARY_KEY, targetTokenId);
+                values.put(COLUMN_TARGET_TOKEN, data.getNewEncryptedData());
+                mDatabaseManager.replace(TARGET_TOKEN_TABLE, values);
+            }
+            mTargetTokens.put(targetTokenId, targetToken);
+            mTargetTokenIdentifiers.put(targetToken, targetTokenId);
+        }
+        return targetToken;
+    }
+
+    /**
+     * Decrypt a target token stored in a log row, before {@link #VERSION_TARGET_TOKEN_TABLE} or when it could not be stored in {@link #TARGET_TOKEN_TABLE}.
+     *
+     * @param encryptedTargetToken The encrypted target token.
+     * @return The target token in clear text.
+     */
+    private String decryptTargetToken(@NonNull String encryptedTargetToken) {
+        String targetToken = mDecryptedTargetTokens.get(encryptedTargetToken);
+        if (targetToken == null) {
+            targetToken = CryptoUtils.getInstance(mContext).decrypt(encryptedTargetToken, false).getDecryptedData();
+            mDecryptedTargetTokens.put(encryptedTargetToken, targetToken);
+        }
+        return targetToken;
+    }
+
     @NonNull
     @VisibleForTesting
     File getLargePayloadGroupDirectory(String group) {
@@ -348,12 +944,175 @@ public class DatabasePersistence extends Persistence {
     }
 
     private void deleteLog(File groupLargePayloadDirectory, long id) {
-
-        //noinspection ResultOfMethodCallIgnored SQLite delete does not have return type either.
-        getLargePayloadFile(groupLargePayloadDirectory, id).delete();
+        deleteLargePayloadFile(groupLargePayloadDirectory, id);
         mDatabaseManager.delete(id);
     }
 
+    private void deleteLargePayloadFile(File groupLargePayloadDirectory, long id) {
+        File file = getLargePayloadFile(groupLargePayloadDirectory, id);
+        long length = file.length();
+        if (file.delete()) {
+            updateLargePayloadsSize(-length);
+        }
+    }
+
+    /**
+     * Delete large payload files of logs in any group.
+     *
+     * @param ids The database identifiers of the logs.
+     */
+    private void deleteLargePayloadFiles(Collection<Long> ids) {
+        File[] groupDirectories = mLargePayloadDirectory.listFiles();
+        if (groupDirectories != null) {
+            for (File groupDirectory : groupDirectories) {
+                for (Long id : ids) {
+                    deleteLargePayloadFile(groupDirectory, id);
+                }
+            }
+        }
+    }
+
+    private void updateLargePayloadsSize(long delta) {
+        if (mLargePayloadsSize >= 0) {
+            mLargePayloadsSize += delta;
+        }
+    }
+
+    /**
+     * Get the size used by logs, large payload files included.
+     *
+     * @return The size in bytes, or -1 if it cannot be computed.
+     */
+    private long getStorageSize() {
+        long databaseSize = mDatabaseManager.getUsedSize();
+        if (databaseSize < 0) {
+            return -1;
+        }
+
+        /* Large payload files are measured once, then sizes are tracked as files are written and deleted. */
+        if (mLargePayloadsSize < 0) {
+            long largePayloadsSize = 0;
+            File[] groupDirectories = mLargePayloadDirectory.listFiles();
+            if (groupDirectories != null) {
+                for (File groupDirectory : groupDirectories) {
+                    File[] files = groupDirectory.listFiles();
+                    if (files != null) {
+                        for (File file : files) {
+                            largePayloadsSize += file.length();
+                        }
+                    }
+                }
+            }
+            mLargePayloadsSize = largePayloadsSize;
+        }
+        return databaseSize + mLargePayloadsSize;
+    }
+
+    /**
+     * Delete the oldest logs with the lowest priority at once to free storage.
+     *
+     * @param priority The highest priority of logs that can be deleted.
+     * @param size     The approximate number of bytes to free.
+     */
+    private void evictLogs(int priority, long size) {
+
+        /* Select logs in eviction order until enough bytes are freed. */
+        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+        builder.appendWhere(COLUMN_PRIORITY + " <= ?");
+        String[] columns = {PRIMARY_KEY, COLUMN_GROUP, COLUMN_PRIORITY, COLUMN_TIMESTAMP, "COALESCE(LENGTH(`" + COLUMN_LOG + "`), LENGTH(`" + COLUMN_COMPRESSED_LOG + "`))"};
+        List<EvictedLog> evictedLogs = new ArrayList<>();
+        long freedSize = 0;
+        try {
+            Cursor cursor = mDatabaseManager.getCursor(builder, columns, new String[]{String.valueOf(priority)}, EVICTION_SORT_ORDER);
+            try {
+                while (freedSize < size && cursor.moveToNext()) {
+                    EvictedLog evictedLog = new EvictedLog(cursor.getLong(0), cursor.getString(1), cursor.getInt(2), cursor.isNull(3) ? null : cursor.getLong(3), cursor.isNull(4));
+                    if (evictedLog.mLargePayload) {
+                        freedSize += getLargePayloadFile(getLargePayloadGroupDirectory(evictedLog.mGroup), evictedLog.mId).length();
+                    } else {
+                        freedSize += cursor.getLong(4);
+                    }
+                    freedSize += LOG_ROW_OVERHEAD;
+                    evictedLogs.add(evictedLog);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to select logs to evict: ", e);
+            return;
+        }
+        if (evictedLogs.isEmpty()) {
+            return;
+        }
+
+        /* Logs are sorted by priority then identifier, so a single statement deletes all of them. */
+        EvictedLog lastLog = evictedLogs.get(evictedLogs.size() - 1);
+        String lastPriority = String.valueOf(lastLog.mPriority);
+        int deletedCount = mDatabaseManager.delete(TABLE, COLUMN_PRIORITY + " < ? OR (" + COLUMN_PRIORITY + " = ? AND " + PRIMARY_KEY + " <= ?)", new String[]{lastPriority, lastPriority, String.valueOf(lastLog.mId)});
+        if (deletedCount == 0) {
+            return;
+        }
+        AppCenterLog.debug(LOG_TAG, "Evicted " + deletedCount + " logs to free about " + freedSize + " bytes.");
+        if (deletedCount != evictedLogs.size()) {
+            mLogCounts = null;
+        }
+
+        /* Update state of deleted logs. */
+        Map<String, Integer> evictedCounts = new HashMap<>();
+        for (EvictedLog evictedLog : evictedLogs) {
+            if (evictedLog.mLargePayload) {
+                deleteLargePayloadFile(getLargePayloadGroupDirectory(evictedLog.mGroup), evictedLog.mId);
+            }
+            mPendingDbTimestamps.remove(evictedLog.mId);
+            updateLogCount(evictedLog.mGroup, evictedLog.mTimestamp, -1);
+
+            /* Logs being sent are reported when their batch completes. */
+            if (!mPendingDbIdentifiers.remove(evictedLog.mId)) {
+                Integer evictedCount = evictedCounts.get(evictedLog.mGroup);
+                evictedCounts.put(evictedLog.mGroup, evictedCount != null ? evictedCount + 1 : 1);
+            }
+        }
+        deleteUnusedDevices();
+        notifyLogsEvicted(evictedCounts);
+    }
+
+    /**
+     * Count the logs of a group among logs returned by {@link #getLogs}.
+     *
+     * @param group         The group of the storage for logs.
+     * @param dbIdentifiers The database identifiers of logs returned by {@link #getLogs}.
+     * @return The number of logs of the group.
+     */
+    private int countPendingLogs(String group, Set<Long> dbIdentifiers) {
+        int count = 0;
+        for (Map.Entry<String, List<Long>> entry : mPendingDbIdentifiersGroups.entrySet()) {
+            if (entry.getKey().startsWith(group)) {
+                for (Long dbIdentifier : entry.getValue()) {
+                    if (dbIdentifiers.contains(dbIdentifier)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Notify the listener of evicted logs.
+     *
+     * @param evictedCounts The number of evicted logs by group.
+     */
+    private void notifyLogsEvicted(Map<String, Integer> evictedCounts) {
+        Listener listener = getListener();
+        for (Map.Entry<String, Integer> entry : evictedCounts.entrySet()) {
+            AppCenterLog.warn(LOG_TAG, "Storage is full, deleted " + entry.getValue() + " logs from " + entry.getKey() + ".");
+            if (listener != null) {
+                listener.onLogsEvicted(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     @Override
     public void deleteLogs(@NonNull String group, @NonNull String id) {
 
@@ -368,7 +1127,11 @@ public class DatabasePersistence extends Persistence {
             for (Long dbIdentifier : dbIdentifiers) {
                 AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
                 deleteLog(directory, dbIdentifier);
-                mPendingDbIdentifiers.remove(dbIdentifier);
+
+                /* Logs that are no longer pending were evicted and are no longer counted. */
+                if (mPendingDbIdentifiers.remove(dbIdentifier)) {
+                    updateLogCount(group, mPendingDbTimestamps.remove(dbIdentifier), -1);
+                }
             }
         }
     }
@@ -384,9 +1147,10 @@ public class DatabasePersistence extends Persistence {
         File[] files = directory.listFiles();
         if (files != null) {
             for (File file : files) {
-
-                //noinspection ResultOfMethodCallIgnored we are not checking SQLite result either.
-                file.delete();
+                long length = file.length();
+                if (file.delete()) {
+                    updateLargePayloadsSize(-length);
+                }
             }
         }
 
@@ -396,23 +1160,136 @@ public class DatabasePersistence extends Persistence {
         /* Delete from database. */
         int deletedCount = mDatabaseManager.delete(COLUMN_GROUP, group);
         AppCenterLog.debug(LOG_TAG, "Deleted " + deletedCount + " logs.");
+        if (deletedCount > 0) {
+            deleteUnusedDevices();
+        }
 
         /* Delete from pending state. */
-        for (Iterator<String> iterator = mPendingDbIdentifiersGroups.keySet().iterator(); iterator.hasNext(); ) {
-            String key = iterator.next();
-            if (key.startsWith(group)) {
+        for (Iterator<Map.Entry<String, List<Long>>> iterator = mPendingDbIdentifiersGroups.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, List<Long>> entry = iterator.next();
+            if (entry.getKey().startsWith(group)) {
+                mPendingDbTimestamps.keySet().removeAll(entry.getValue());
                 iterator.remove();
             }
         }
+        removeLogPositions(group, null);
+        if (mLogCounts != null) {
+            mLogCounts.remove(group);
+        }
+    }
+
+    /**
+     * Get the number of stored logs per group, loading them from the database if needed.
+     *
+     * @return log counts by group, or null if they could not be loaded.
+     */
+    @Nullable
+    private Map<String, LogCount> getLogCounts() {
+        if (mLogCounts == null) {
+            Map<String, LogCount> logCounts = new HashMap<>();
+            try {
+                Cursor cursor = mDatabaseManager.getCursor(null, new String[]{COLUMN_GROUP, "MIN(`" + COLUMN_TIMESTAMP + "`)", "MAX(`" + COLUMN_TIMESTAMP + "`)", "COUNT(*)"}, null, COLUMN_GROUP + ", `" + COLUMN_TIMESTAMP + "` / " + TIMESTAMP_BUCKET_SIZE, null, null);
+                try {
+                    while (cursor.moveToNext()) {
+                        String group = cursor.getString(0);
+                        LogCount logCount = logCounts.get(group);
+                        if (logCount == null) {
+                            logCount = new LogCount();
+                            logCounts.put(group, logCount);
+                        }
+                        logCount.add(cursor.getLong(1), cursor.getLong(2), cursor.getInt(3));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                mLogCounts = logCounts;
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to load logs count: ", e);
+            }
+        }
+        return mLogCounts;
+    }
+
+    /**
+     * Update the number of stored logs of a group after a change.
+     *
+     * @param group     The group of the storage for logs.
+     * @param timestamp The timestamp of the added or deleted log, null if unknown.
+     * @param delta     1 for an added log, -1 for a deleted log.
+     */
+    private void updateLogCount(String group, Long timestamp, int delta) {
+
+        /* Not loaded yet, the next count will include the change. */
+        if (mLogCounts == null) {
+            return;
+        }
+        LogCount logCount = mLogCounts.get(group);
+        if (logCount == null) {
+            logCount = new LogCount();
+            mLogCounts.put(group, logCount);
+        }
+        if (timestamp == null || !logCount.add(timestamp, delta)) {
+
+            /* Out of sync, count again. */
+            mLogCounts = null;
+        }
+    }
+
+    /**
+     * Forget where {@link #getLogs} stopped for a group, so that the next call scans logs from the start.
+     *
+     * @param group    The group of the storage for logs.
+     * @param priority Only forget positions before a new log of that priority, null to forget all positions of the group.
+     */
+    private void removeLogPositions(String group, Integer priority) {
+        for (Iterator<LogPosition> iterator = mLogPositions.values().iterator(); iterator.hasNext(); ) {
+            LogPosition position = iterator.next();
+            if (position.mGroup.equals(group) && (priority == null || position.mPriority < priority)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the key of a position in {@link #mLogPositions} for the given {@link #getLogs} filters.
+     */
+    private static String getLogPositionKey(String group, Collection<String> pausedTargetKeys, Date from, Date to) {
+        StringBuilder key = new StringBuilder(group);
+        key.append('/').append(new TreeSet<>(pausedTargetKeys));
+        key.append('/').append(from != null ? from.getTime() : "");
+        key.append('/').append(to != null ? to.getTime() : "");
+        return key.toString();
     }
 
     @Override
     public int countLogs(@NonNull String group) {
+        Map<String, LogCount> logCounts = getLogCounts();
+        if (logCounts != null) {
+            LogCount logCount = logCounts.get(group);
+            return logCount != null ? logCount.mCount : 0;
+        }
         return countLogs(COLUMN_GROUP + " = ?", group);
     }
 
     @Override
     public int countLogs(@NonNull Date timestamp) {
+        Map<String, LogCount> logCounts = getLogCounts();
+        if (logCounts != null) {
+            int count = 0;
+            for (LogCount logCount : logCounts.values()) {
+                int countBefore = logCount.countBefore(timestamp.getTime());
+
+                /* Counting within a timestamp range needs the database. */
+                if (countBefore < 0) {
+                    count = -1;
+                    break;
+                }
+                count += countBefore;
+            }
+            if (count >= 0) {
+                return count;
+            }
+        }
         return countLogs(COLUMN_TIMESTAMP + " < ?", String.valueOf(timestamp.getTime()));
     }
 
@@ -439,13 +1316,35 @@ public class DatabasePersistence extends Persistence {
     @Override
     @Nullable
     public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, outLogs, null, from, to);
+    }
+
+    @Override
+    @Nullable
+    public String getSerializedLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<String> outSerializedLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, null, outSerializedLogs, from, to);
+    }
+
+    /**
+     * Gets an array of logs for the given {@code group}, either as objects or as they were serialized.
+     *
+     * @param group             The group of the storage for logs.
+     * @param pausedTargetKeys  List of target token keys to exclude from the log query.
+     * @param limit             The max number of logs to be returned.
+     * @param outLogs           A list to receive {@link Log} objects, null to get serialized logs instead.
+     * @param outSerializedLogs A list to receive serialized logs if {@code outLogs} is null.
+     * @param from              A time to select only logs with time after specified.
+     * @param to                A time to select only logs with time before specified.
+     * @return An ID for the logs. {@code null} if no logs exist.
+     */
+    @Nullable
+    private String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, int limit, @Nullable List<Log> outLogs, @Nullable List<String> outSerializedLogs, @Nullable Date from, @Nullable Date to) {
 
         /* Log. */
         AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from the Persistence database for " + group);
 
-        /* Query database. */
-        SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
-        builder.appendWhere(COLUMN_GROUP + " = ?");
+        /* Build filter. */
+        StringBuilder whereClause = new StringBuilder(COLUMN_GROUP + " = ?");
         List<String> selectionArgs = new ArrayList<>();
         selectionArgs.add(group);
         if (!pausedTargetKeys.isEmpty()) {
@@ -454,113 +1353,153 @@ public class DatabasePersistence extends Persistence {
                 filter.append("?,");
             }
             filter.deleteCharAt(filter.length() - 1);
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TARGET_KEY + " NOT IN (" + filter.toString() + ")");
+            whereClause.append(" AND ").append(COLUMN_TARGET_KEY).append(" NOT IN (").append(filter).append(")");
             selectionArgs.addAll(pausedTargetKeys);
         }
 
         /* Filter by time. */
         if (from != null) {
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TIMESTAMP + " >= ?");
+            whereClause.append(" AND ").append(COLUMN_TIMESTAMP).append(" >= ?");
             selectionArgs.add(String.valueOf(from.getTime()));
         }
         if (to != null) {
-            builder.appendWhere(" AND ");
-            builder.appendWhere(COLUMN_TIMESTAMP + " < ?");
+            whereClause.append(" AND ").append(COLUMN_TIMESTAMP).append(" < ?");
             selectionArgs.add(String.valueOf(to.getTime()));
         }
 
-        /* Add logs to output parameter after deserialization if logs are not already sent. */
+        /*
+         * Resume after the last log selected with the same filter if any.
+         * Otherwise scan from the first log and skip the pending ones.
+         */
+        String positionKey = getLogPositionKey(group, pausedTargetKeys, from, to);
+        LogPosition position = mLogPositions.get(positionKey);
+        boolean samePriority = true;
         int count = 0;
-        Map<Long, Log> candidates = new LinkedHashMap<>();
+        Map<Long, Object> candidates = new LinkedHashMap<>();
+        Map<Long, Long> timestamps = new HashMap<>();
         List<Long> failedDbIdentifiers = new ArrayList<>();
         File largePayloadGroupDirectory = getLargePayloadGroupDirectory(group);
-        String[] selectionArgsArray = selectionArgs.toArray(new String[0]);
-        Cursor cursor = null;
-        ContentValues values;
-        try {
-            cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER);
-        } catch (RuntimeException e) {
-            AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
-        }
-        while (cursor != null &&
-                (values = mDatabaseManager.nextValues(cursor)) != null &&
-                count < limit) {
-            Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
-
-            /*
-             * When we can't even read the identifier (in this case ContentValues is most likely empty).
-             * That probably means it contained a record larger than 2MB (from a previous SDK version)
-             * and we hit the cursor limit.
-             * Get rid of first non pending log.
-             */
-            if (dbIdentifier == null) {
-                AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
-                List<Long> corruptedIds = getLogsIds(builder, selectionArgsArray);
-                for (Long corruptedId : corruptedIds) {
-                    if (!mPendingDbIdentifiers.contains(corruptedId) && !candidates.containsKey(corruptedId)) {
-
-                        /* Found the record to delete that we could not read when selecting all fields. */
-                        deleteLog(largePayloadGroupDirectory, corruptedId);
-                        AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + corruptedId);
-                        break;
-                    }
+        while (count < limit) {
+
+            /* Select the next logs of the same priority then move to lower priorities. */
+            SQLiteQueryBuilder builder = SQLiteUtils.newSQLiteQueryBuilder();
+            builder.appendWhere(whereClause);
+            List<String> pageSelectionArgs = new ArrayList<>(selectionArgs);
+            int pageSize = limit - count;
+            String pageLimit = null;
+            if (position != null) {
+                if (samePriority) {
+                    builder.appendWhere(" AND " + COLUMN_PRIORITY + " = ? AND " + PRIMARY_KEY + " > ?");
+                    pageSelectionArgs.add(String.valueOf(position.mPriority));
+                    pageSelectionArgs.add(String.valueOf(position.mId));
+                } else {
+                    builder.appendWhere(" AND " + COLUMN_PRIORITY + " < ?");
+                    pageSelectionArgs.add(String.valueOf(position.mPriority));
                 }
-                continue;
+                pageLimit = String.valueOf(pageSize);
             }
-
-            /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
-            if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
-                try {
-
-                    /* Deserialize JSON to Log. */
-                    String logPayload;
-                    String databasePayload = values.getAsString(COLUMN_LOG);
-                    if (databasePayload == null) {
-                        File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
-                        AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
-                        logPayload = FileManager.read(file);
-                        if (logPayload == null) {
-                            throw new JSONException("Log payload is null and not stored as a file.");
+            String[] selectionArgsArray = pageSelectionArgs.toArray(new String[0]);
+            Cursor cursor = null;
+            ContentValues values;
+            try {
+                if (pageLimit == null) {
+                    cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER);
+                } else {
+                    cursor = mDatabaseManager.getCursor(builder, null, selectionArgsArray, GET_SORT_ORDER, pageLimit);
+                }
+            } catch (RuntimeException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
+            }
+            int rowCount = 0;
+            LogPosition lastPosition = position;
+            while (cursor != null &&
+                    (values = mDatabaseManager.nextValues(cursor)) != null &&
+                    count < limit) {
+                rowCount++;
+                Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
+
+                /*
+                 * When we can't even read the identifier (in this case ContentValues is most likely empty).
+                 * That probably means it contained a record larger than 2MB (from a previous SDK version)
+                 * and we hit the cursor limit.
+                 * Get rid of first non pending log.
+                 */
+                if (dbIdentifier == null) {
+                    AppCenterLog.error(LOG_TAG, "Empty database record, probably content was larger than 2MB, need to delete as it's now corrupted.");
+                    List<Long> corruptedIds = getLogsIds(builder, selectionArgsArray);
+                    for (Long corruptedId : corruptedIds) {
+                        if (!mPendingDbIdentifiers.contains(corruptedId) && !candidates.containsKey(corruptedId)) {
+
+                            /* Found the record to delete that we could not read when selecting all fields. */
+                            deleteLog(largePayloadGroupDirectory, corruptedId);
+                            updateLogCount(group, null, -1);
+                            AppCenterLog.error(LOG_TAG, "Empty database corrupted empty record deleted, id=" + corruptedId);
+                            break;
                         }
-                    } else {
-                        logPayload = databasePayload;
-                    }
-                    String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
-                    Log log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
-
-                    /* Restore target token. */
-                    String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
-                    if (targetToken != null) {
-                        CryptoUtils.DecryptedData data = CryptoUtils.getInstance(mContext).decrypt(targetToken, false);
-                        log.addTransmissionTarget(data.getDecryptedData());
                     }
+                    continue;
+                }
 
-                    /* Add log to list and count. */
-                    candidates.put(dbIdentifier, log);
-                    count++;
-                } catch (JSONException e) {
+                /* Remember how far we read. */
+                Integer priority = values.getAsInteger(COLUMN_PRIORITY);
+                if (priority != null) {
+                    lastPosition = new LogPosition(group, priority, dbIdentifier);
+                }
+
+                /* If the log is already in pending state, then skip. Otherwise put the log to candidate container. */
+                if (!mPendingDbIdentifiers.contains(dbIdentifier)) {
+                    timestamps.put(dbIdentifier, values.getAsLong(COLUMN_TIMESTAMP));
+                    try {
 
-                    /* If it is not able to deserialize, delete and get another log. */
-                    AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
+                        candidates.put(dbIdentifier, readLog(values, dbIdentifier, largePayloadGroupDirectory, outLogs == null));
+                        count++;
+                    } catch (JSONException e) {
 
-                    /* Put the failed identifier to delete. */
-                    failedDbIdentifiers.add(dbIdentifier);
+                        /* If it is not able to deserialize, delete and get another log. */
+                        AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in the database", e);
+
+                        /* Put the failed identifier to delete. */
+                        failedDbIdentifiers.add(dbIdentifier);
+                    }
                 }
             }
-        }
-        if (cursor != null) {
-            try {
-                cursor.close();
-            } catch (RuntimeException ignore) {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (RuntimeException ignore) {
+                }
             }
+
+            /* A full scan stops only when there are no more logs or the limit is reached. */
+            if (pageLimit == null) {
+                position = lastPosition;
+                break;
+            }
+
+            /* Move to lower priorities when there are no more logs of the same priority. */
+            if (rowCount < pageSize) {
+                if (!samePriority) {
+                    break;
+                }
+                samePriority = false;
+            } else if (lastPosition == position) {
+
+                /* Stop if we could not move forward. */
+                break;
+            } else {
+                samePriority = true;
+            }
+            position = lastPosition;
+        }
+        if (position != null) {
+            mLogPositions.put(positionKey, position);
         }
 
         /* Delete any logs that cannot be de-serialized. */
         if (failedDbIdentifiers.size() > 0) {
             for (long id : failedDbIdentifiers) {
                 deleteLog(largePayloadGroupDirectory, id);
+                updateLogCount(group, timestamps.get(id), -1);
             }
             AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
         }
@@ -578,20 +1517,27 @@ public class DatabasePersistence extends Persistence {
         AppCenterLog.debug(LOG_TAG, "Returning " + candidates.size() + " log(s) with an ID, " + id);
         AppCenterLog.debug(LOG_TAG, "The SID/ID pairs for returning log(s) is/are:");
         List<Long> pendingDbIdentifiersGroup = new ArrayList<>();
-        for (Map.Entry<Long, Log> entry : candidates.entrySet()) {
+        for (Map.Entry<Long, Object> entry : candidates.entrySet()) {
             Long dbIdentifier = entry.getKey();
 
             /* Change a database identifier to pending state. */
             mPendingDbIdentifiers.add(dbIdentifier);
+            mPendingDbTimestamps.put(dbIdentifier, timestamps.get(dbIdentifier));
 
             /* Store a database identifier to a group of the ID. */
             pendingDbIdentifiersGroup.add(dbIdentifier);
 
             /* Add to output parameter. */
-            outLogs.add(entry.getValue());
+            if (outLogs != null) {
+                Log log = (Log) entry.getValue();
+                outLogs.add(log);
 
-            /* Log. */
-            AppCenterLog.debug(LOG_TAG, "\t" + entry.getValue().getSid() + " / " + dbIdentifier);
+                /* Log. */
+                AppCenterLog.debug(LOG_TAG, "\t" + log.getSid() + " / " + dbIdentifier);
+            } else {
+                outSerializedLogs.add((String) entry.getValue());
+                AppCenterLog.debug(LOG_TAG, "\t" + dbIdentifier);
+            }
         }
 
         /* Update pending IDs. */
@@ -599,10 +1545,154 @@ public class DatabasePersistence extends Persistence {
         return id;
     }
 
+    /**
+     * Read a log from a database row.
+     *
+     * @param values                     The database row.
+     * @param dbIdentifier               The database identifier of the log.
+     * @param largePayloadGroupDirectory The directory of large payloads of the log group.
+     * @param serialized                 True to get the log as serialized, false to get a {@link Log} object.
+     * @return The serialized log or the {@link Log} object.
+     * @throws JSONException If the log cannot be read.
+     */
+    private Object readLog(ContentValues values, long dbIdentifier, File largePayloadGroupDirectory, boolean serialized) throws JSONException {
+
+        /* Read payload, binary or JSON. */
+        String logPayload = null;
+        byte[] binaryPayload = null;
+        String databasePayload = values.getAsString(COLUMN_LOG);
+        byte[] blobPayload = values.containsKey(COLUMN_COMPRESSED_LOG) ? values.getAsByteArray(COLUMN_COMPRESSED_LOG) : null;
+        if (blobPayload != null) {
+            if (!BinaryJSONReader.isBinary(blobPayload)) {
+                blobPayload = PayloadCompression.decompress(blobPayload);
+            }
+
+            /* Compressed payloads can also be JSON, from before the binary format. */
+            if (BinaryJSONReader.isBinary(blobPayload)) {
+                binaryPayload = blobPayload;
+            } else {
+                logPayload = new String(blobPayload, PayloadCompression.CHARSET);
+            }
+        } else if (databasePayload == null) {
+            File file = getLargePayloadFile(largePayloadGroupDirectory, dbIdentifier);
+            AppCenterLog.debug(LOG_TAG, "Read payload file " + file);
+            logPayload = FileManager.read(file);
+            if (logPayload == null) {
+                throw new JSONException("Log payload is null and not stored as a file.");
+            }
+        } else {
+            logPayload = databasePayload;
+        }
+
+        /* Serialized logs are returned as they were stored, with the device stored separately. */
+        Long deviceId = values.containsKey(COLUMN_DEVICE_ID) ? values.getAsLong(COLUMN_DEVICE_ID) : null;
+        if (serialized) {
+            if (binaryPayload != null) {
+                logPayload = BinaryJSONReader.toJson(binaryPayload);
+            }
+            if (deviceId != null) {
+                int end = logPayload.lastIndexOf('}');
+                if (end < 0) {
+                    throw new JSONException("Log payload is not a JSON object.");
+                }
+                logPayload = logPayload.substring(0, end) + ",\"" + DEVICE_PROPERTY + "\":" + getSerializedDevice(deviceId) + logPayload.substring(end);
+            }
+            return logPayload;
+        }
+        String databasePayloadType = values.getAsString(COLUMN_DATA_TYPE);
+        Log log;
+        if (binaryPayload != null) {
+            log = getLogSerializer().deserializeLog(binaryPayload, databasePayloadType);
+        } else {
+            log = getLogSerializer().deserializeLog(logPayload, databasePayloadType);
+        }
+        if (deviceId != null) {
+            log.setDevice(getDevice(deviceId));
+        }
+
+        /* Restore target token. */
+        Long targetTokenId = values.containsKey(COLUMN_TARGET_TOKEN_ID) ? values.getAsLong(COLUMN_TARGET_TOKEN_ID) : null;
+        if (targetTokenId != null) {
+            log.addTransmissionTarget(getTargetToken(targetTokenId));
+        } else {
+            String targetToken = values.getAsString(COLUMN_TARGET_TOKEN);
+            if (targetToken != null) {
+                log.addTransmissionTarget(decryptTargetToken(targetToken));
+            }
+        }
+
+        return log;
+    }
+
+    /**
+     * Move all logs into another storage, keeping their group, priority and order.
+     * Moved logs and logs that cannot be read are deleted, logs the other storage failed to store are kept.
+     *
+     * @param persistence The storage to move the logs to.
+     * @return The number of moved logs.
+     */
+    int moveLogsTo(@NonNull Persistence persistence) {
+        int count = 0;
+        Map<Long, String> movedLogGroups = new LinkedHashMap<>();
+        Cursor cursor = null;
+        try {
+            cursor = mDatabaseManager.getCursor(null, null, null, PRIMARY_KEY);
+            ContentValues values;
+            while ((values = mDatabaseManager.nextValues(cursor)) != null) {
+                Long dbIdentifier = values.getAsLong(PRIMARY_KEY);
+                String group = values.getAsString(COLUMN_GROUP);
+                Integer priority = values.getAsInteger(COLUMN_PRIORITY);
+                if (dbIdentifier == null || group == null || priority == null) {
+                    continue;
+                }
+                Log log;
+                try {
+                    log = (Log) readLog(values, dbIdentifier, getLargePayloadGroupDirectory(group), false);
+                } catch (JSONException e) {
+                    AppCenterLog.error(LOG_TAG, "Failed to read a log to move, deleting it.", e);
+                    movedLogGroups.put(dbIdentifier, group);
+                    continue;
+                }
+                try {
+                    persistence.putLog(log, group, priority);
+                    movedLogGroups.put(dbIdentifier, group);
+                    count++;
+                } catch (PersistenceException e) {
+                    AppCenterLog.error(LOG_TAG, "Failed to move a log to another storage, keeping it.", e);
+                }
+            }
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to get logs: ", e);
+        } finally {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (RuntimeException ignore) {
+                }
+            }
+        }
+        for (Map.Entry<Long, String> entry : movedLogGroups.entrySet()) {
+            deleteLog(getLargePayloadGroupDirectory(entry.getValue()), entry.getKey());
+        }
+        mLogCounts = null;
+        return count;
+    }
+
+    /**
+     * Check whether logs are left in the database.
+     *
+     * @return true if there are logs left or if they cannot be counted, false otherwise.
+     */
+    boolean hasLogs() {
+        return mDatabaseManager.getRowCount() != 0;
+    }
+
     @Override
     public void clearPendingLogState() {
         mPendingDbIdentifiers.clear();
         mPendingDbIdentifiersGroups.clear();
+        mPendingDbTimestamps.clear();
+        mLogPositions.clear();
         AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
     }
 
@@ -629,4 +1719,176 @@ public class DatabasePersistence extends Persistence {
         }
         return result;
     }
+
+    /**
+     * Number of stored logs in a group, in total and by timestamp range.
+     */
+    @VisibleForTesting
+    static class LogCount {
+
+        /**
+         * Number of logs in the group.
+         */
+        int mCount;
+
+        /**
+         * Logs by {@link #TIMESTAMP_BUCKET_SIZE} range of their timestamp.
+         */
+        private final TreeMap<Long, TimestampBucket> mBuckets = new TreeMap<>();
+
+        /**
+         * Add logs to the count.
+         *
+         * @param timestamp The timestamp of the logs.
+         * @param delta     The number of logs added, negative if deleted.
+         * @return false if more logs were deleted than counted.
+         */
+        boolean add(long timestamp, int delta) {
+            return add(timestamp, timestamp, delta);
+        }
+
+        /**
+         * Add logs of the same timestamp range to the count.
+         *
+         * @param minTimestamp The oldest timestamp of the logs.
+         * @param maxTimestamp The newest timestamp of the logs, in the same range as the oldest.
+         * @param delta        The number of logs added, negative if deleted.
+         * @return false if more logs were deleted than counted.
+         */
+        boolean add(long minTimestamp, long maxTimestamp, int delta) {
+            long key = minTimestamp / TIMESTAMP_BUCKET_SIZE;
+            TimestampBucket bucket = mBuckets.get(key);
+            int newCount = (bucket != null ? bucket.mCount : 0) + delta;
+            if (newCount < 0) {
+                return false;
+            }
+            if (newCount == 0) {
+                mBuckets.remove(key);
+            } else {
+                if (bucket == null) {
+                    bucket = new TimestampBucket(minTimestamp, maxTimestamp);
+                    mBuckets.put(key, bucket);
+                } else {
+
+                    /* Bounds are not narrowed on deletion, they stay valid if less precise. */
+                    bucket.mMinTimestamp = Math.min(bucket.mMinTimestamp, minTimestamp);
+                    bucket.mMaxTimestamp = Math.max(bucket.mMaxTimestamp, maxTimestamp);
+                }
+                bucket.mCount = newCount;
+            }
+            mCount += delta;
+            return true;
+        }
+
+        /**
+         * Count logs with a timestamp before the specified one.
+         *
+         * @param timestamp The timestamp in milliseconds.
+         * @return The number of logs, or -1 if logs of the range of the timestamp are on both sides of it.
+         */
+        int countBefore(long timestamp) {
+            int count = 0;
+            for (TimestampBucket bucket : mBuckets.headMap(timestamp / TIMESTAMP_BUCKET_SIZE, true).values()) {
+                if (bucket.mMaxTimestamp < timestamp) {
+                    count += bucket.mCount;
+                } else if (bucket.mMinTimestamp < timestamp) {
+                    return -1;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Number of logs in a timestamp range and bounds of their timestamps.
+     */
+    private static class TimestampBucket {
+
+        /**
+         * Number of logs.
+         */
+        int mCount;
+
+        /**
+         * Lower bound of the timestamps of the logs.
+         */
+        long mMinTimestamp;
+
+        /**
+         * Upper bound of the timestamps of the logs.
+         */
+        long mMaxTimestamp;
+
+        TimestampBucket(long minTimestamp, long maxTimestamp) {
+            mMinTimestamp = minTimestamp;
+            mMaxTimestamp = maxTimestamp;
+        }
+    }
+
+    /**
+     * Log selected to be evicted.
+     */
+    private static class EvictedLog {
+
+        /**
+         * The database identifier of the log.
+         */
+        final long mId;
+
+        /**
+         * The group of the log.
+         */
+        final String mGroup;
+
+        /**
+         * The persistence priority of the log.
+         */
+        final int mPriority;
+
+        /**
+         * The timestamp of the log in milliseconds, null if unknown.
+         */
+        final Long mTimestamp;
+
+        /**
+         * Whether the payload is stored in a separate file.
+         */
+        final boolean mLargePayload;
+
+        EvictedLog(long id, String group, int priority, Long timestamp, boolean largePayload) {
+            mId = id;
+            mGroup = group;
+            mPriority = priority;
+            mTimestamp = timestamp;
+            mLargePayload = largePayload;
+        }
+    }
+
+    /**
+     * Position of a log in the order used by {@link #getLogs}.
+     */
+    @VisibleForTesting
+    static class LogPosition {
+
+        /**
+         * The group of the log.
+         */
+        final String mGroup;
+
+        /**
+         * The persistence priority of the log.
+         */
+        final int mPriority;
+
+        /**
+         * The database identifier of the log.
+         */
+        final long mId;
+
+        LogPosition(String group, int priority, long id) {
+            mGroup = group;
+            mPriority = priority;
+            mId = id;
+        }
+    }
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress log payloads stored in the database using deflate, with a preset dictionary for JSON payloads.
+ */
+class PayloadCompression {
+
+    /**
+     * Charset of payloads.
+     */
+    static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /**
+     * Preset dictionary made of strings frequently found in serialized logs, most frequent ones last
+     * as deflate reaches them with shorter distances.
+     * Stored payloads depend on it: it must never be modified.
+     */
+    @VisibleForTesting
+    static final byte[] DICTIONARY = ("" +
+
+            /* Common Schema logs. */
+            "{\"ver\":\"3.0\",\"name\":\"\",\"time\":\"\",\"iKey\":\"o:\",\"flags\":1,\"ext\":{\"protocol\":{\"devMake\":\"\",\"devModel\":\"\"}," +
+            "\"user\":{\"localId\":\"c:\",\"locale\":\"\"},\"os\":{\"name\":\"Android\",\"ver\":\"\"},\"app\":{\"id\":\"\",\"ver\":\"\",\"locale\":\"\",\"userId\":\"\"}," +
+            "\"net\":{\"provider\":\"\"},\"sdk\":{\"libVer\":\"appcenter.android-\",\"epoch\":\"\",\"seq\":1,\"installId\":\"\"},\"loc\":{\"tz\":\"\"}," +
+            "\"device\":{\"localId\":\"\"}},\"data\":{\"baseType\":\"\",\"baseData\":{}}}" +
+
+            /* Error logs. */
+            "{\"type\":\"managedError\",\"processId\":0,\"processName\":\"\",\"fatal\":true,\"appLaunchTimestamp\":\"\",\"architecture\":\"\"," +
+            "\"errorThreadId\":1,\"errorThreadName\":\"main\",\"exception\":{\"type\":\"java.lang.\",\"message\":\"\",\"wrapperSdkName\":\"\"," +
+            "\"frames\":[{\"className\":\"android.\",\"methodName\":\"\",\"lineNumber\":0,\"fileName\":\"\"}]},\"threads\":[{\"id\":1,\"name\":\"\",\"frames\":[]}]}" +
+            "{\"type\":\"errorAttachment\",\"contentType\":\"text/plain\",\"fileName\":\"\",\"data\":\"\",\"errorId\":\"\"}" +
+            "{\"type\":\"handledError\"}" +
+
+            /* Other App Center logs. */
+            "{\"type\":\"startService\",\"services\":[\"Analytics\",\"Crashes\",\"Distribute\"]}" +
+            "{\"type\":\"customProperties\",\"properties\":[{\"type\":\"string\",\"name\":\"\",\"value\":\"\"},{\"type\":\"boolean\"},{\"type\":\"number\"},{\"type\":\"dateTime\"},{\"type\":\"clear\"}]}" +
+            "{\"type\":\"page\",\"name\":\"\",\"properties\":{}}" +
+            "{\"type\":\"startSession\"}" +
+            "{\"type\":\"event\",\"id\":\"\",\"name\":\"\",\"typedProperties\":[{\"type\":\"string\",\"name\":\"\",\"value\":\"\"}],\"properties\":{}," +
+            "\"timestamp\":\"2019-01-01T00:00:00.000Z\",\"sid\":\"\",\"distributionGroupId\":\"\",\"userId\":\"\"}"
+    ).getBytes(CHARSET);
+
+    /**
+     * Size of the buffer used to compress or decompress.
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Compress a JSON payload.
+     *
+     * @param payload The payload.
+     * @return The compressed payload.
+     */
+    @NonNull
+    static byte[] compress(@NonNull byte[] payload) {
+        return compress(payload, DICTIONARY);
+    }
+
+    /**
+     * Compress a binary payload, see {@link com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer}.
+     * The preset dictionary is JSON text that binary payloads do not contain, so none is used.
+     *
+     * @param payload The binary payload.
+     * @return The compressed payload.
+     */
+    @NonNull
+    static byte[] compressBinary(@NonNull byte[] payload) {
+        return compress(payload, null);
+    }
+
+    @NonNull
+    private static byte[] compress(@NonNull byte[] payload, @Nullable byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(payload.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Decompress a payload.
+     *
+     * @param compressedPayload The compressed payload.
+     * @return The payload.
+     * @throws JSONException If the payload cannot be decompressed, so that it is handled like a log that cannot be deserialized.
+     */
+    @NonNull
+    static byte[] decompress(@NonNull byte[] compressedPayload) throws JSONException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressedPayload);
+            ByteArrayOutputStream output = new ByteArrayOutputStream(compressedPayload.length * 4);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        throw new JSONException("Compressed payload is truncated.");
+                    }
+                }
+                output.write(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new JSONException("Cannot decompress payload: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -28,6 +28,11 @@ public abstract class Persistence implements Closeable {
      */
     private LogSerializer mLogSerializer;
 
+    /**
+     * Listener for logs deleted by the storage itself.
+     */
+    private Listener mListener;
+
     /**
      * Writes a log to the storage with the given {@code group}.
      *
@@ -40,6 +45,23 @@ public abstract class Persistence implements Closeable {
     public abstract long putLog(@NonNull Log log, @NonNull String group,
                                 @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException;
 
+    /**
+     * Starts a group of {@link #putLog} calls that the storage can commit at once.
+     * Every call must be balanced with a call to {@link #endTransaction()}.
+     */
+    public void beginTransaction() {
+
+        /* By default, every write operation is committed on its own. */
+    }
+
+    /**
+     * Commits the {@link #putLog} calls made since {@link #beginTransaction()}.
+     */
+    public void endTransaction() {
+
+        /* By default, every write operation is committed on its own. */
+    }
+
     /**
      * Deletes a log with the give ID from the {@code group}.
      *
@@ -85,6 +107,22 @@ public abstract class Persistence implements Closeable {
     @Nullable
     public abstract String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to);
 
+    /**
+     * Gets an array of logs for the given {@code group} in the form they were serialized by {@link #putLog}.
+     * Logs are selected and tracked the same way as {@link #getLogs(String, Collection, int, List, Date, Date)},
+     * but they are not deserialized.
+     *
+     * @param group             The group of the storage for logs.
+     * @param pausedTargetKeys  List of target token keys to exclude from the log query.
+     * @param limit             The max number of logs to be returned.
+     * @param outSerializedLogs A list to receive the JSON of each log.
+     * @param from              A time to select only logs with time after specified.
+     * @param to                A time to select only logs with time before specified.
+     * @return An ID for {@code outSerializedLogs}. {@code null} if no logs exist.
+     */
+    @Nullable
+    public abstract String getSerializedLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<String> outSerializedLogs, @Nullable Date from, @Nullable Date to);
+
     /**
      * Clears all associations between logs of the {@code group} and ids returned by {@link #getLogs(String, Collection, int, List, Date, Date)}}.
      */
@@ -111,6 +149,25 @@ public abstract class Persistence implements Closeable {
         mLogSerializer = logSerializer;
     }
 
+    /**
+     * Gets the listener for logs deleted by the storage itself.
+     *
+     * @return The listener, null if not set.
+     */
+    @Nullable
+    Listener getListener() {
+        return mListener;
+    }
+
+    /**
+     * Sets a listener for logs deleted by the storage itself.
+     *
+     * @param listener The listener, null to remove it.
+     */
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+    }
+
     /**
      * Set maximum SQLite database size.
      *
@@ -119,6 +176,29 @@ public abstract class Persistence implements Closeable {
      */
     public abstract boolean setMaxStorageSize(long maxStorageSizeInBytes);
 
+    /**
+     * Enable or disable compression of the logs stored from now on.
+     * Logs already stored can be read either way.
+     *
+     * @param enabled true to compress, false to store logs as they are serialized.
+     */
+    public abstract void setCompressionEnabled(boolean enabled);
+
+    /**
+     * Listener for logs deleted by the storage itself.
+     */
+    public interface Listener {
+
+        /**
+         * Called when logs were deleted to make room for new logs because the storage is full.
+         * Logs already returned by {@link #getLogs} or {@link #getSerializedLogs} are not counted.
+         *
+         * @param group The group of the deleted logs.
+         * @param count The number of deleted logs that were not being sent.
+         */
+        void onLogsEvicted(@NonNull String group, int count);
+    }
+
     /**
      * Thrown when {@link Persistence} cannot write a log to the storage.
      */
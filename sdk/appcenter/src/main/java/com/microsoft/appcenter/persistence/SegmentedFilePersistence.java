@@ -0,0 +1,1254 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONReader;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.ingestion.models.one.PartAUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+import com.microsoft.appcenter.utils.storage.FileManager;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+import static com.microsoft.appcenter.AppCenter.LOG_TAG;
+
+/**
+ * Persistence storing logs in append-only segment files instead of a database.
+ * <p>
+ * Logs are appended to the current segment file until it reaches the segment size, then a new segment is started.
+ * Deleted logs are recorded in an acknowledgement file next to their segment,
+ * and a segment is deleted as a whole once all its logs are deleted.
+ * The index of stored logs is kept in memory and rebuilt from the segment files when the storage is opened.
+ */
+public class SegmentedFilePersistence extends Persistence {
+
+    /**
+     * Sub path of the directory where segments are stored.
+     */
+    @VisibleForTesting
+    static final String DIRECTORY = "/appcenter/log_segments";
+
+    /**
+     * Segment file extension.
+     */
+    @VisibleForTesting
+    static final String SEGMENT_FILE_EXTENSION = ".seg";
+
+    /**
+     * Acknowledgement file extension, listing the identifiers of the deleted logs of the segment with the same name.
+     */
+    @VisibleForTesting
+    static final String ACK_FILE_EXTENSION = ".ack";
+
+    /**
+     * First bytes of a segment file.
+     */
+    private static final int SEGMENT_MAGIC = 0x41435347;
+
+    /**
+     * Version of the segment format.
+     */
+    private static final byte SEGMENT_VERSION = 1;
+
+    /**
+     * Size of the segment header: magic and version.
+     */
+    @VisibleForTesting
+    static final int SEGMENT_HEADER_SIZE = 5;
+
+    /**
+     * Size after which a segment is no longer appended to.
+     */
+    @VisibleForTesting
+    static final int SEGMENT_SIZE = 64 * 1024;
+
+    /**
+     * Minimum number of segments fitting in the maximum storage size, segments are smaller for small storage sizes.
+     */
+    private static final int MIN_SEGMENT_COUNT = 4;
+
+    /**
+     * Maximum storage size until {@link #setMaxStorageSize(long)} is called.
+     */
+    @VisibleForTesting
+    static final long DEFAULT_MAX_STORAGE_SIZE = 10 * 1024 * 1024;
+
+    /**
+     * Ratio of the maximum storage size to go back to when evicting logs,
+     * so that the next logs can be stored without evicting again.
+     */
+    private static final float EVICTION_LOW_WATER_MARK = 0.9f;
+
+    /**
+     * Size of a record besides its strings and payload: length, identifier, priority, timestamp,
+     * 4 string lengths, payload length and checksum.
+     */
+    @VisibleForTesting
+    static final int RECORD_OVERHEAD = 4 + 8 + 1 + 8 + 4 * 2 + 4 + 4;
+
+    /**
+     * Maximum number of target tokens kept in memory in each direction of the encryption.
+     */
+    private static final int TARGET_TOKEN_CACHE_SIZE = 32;
+
+    /**
+     * Order of log selection: higher priority first, then by insertion order.
+     */
+    private static final Comparator<Record> RECORD_ORDER = new Comparator<Record>() {
+
+        @Override
+        public int compare(Record record1, Record record2) {
+            if (record1.mPriority != record2.mPriority) {
+                return record2.mPriority - record1.mPriority;
+            }
+            return record1.mId < record2.mId ? -1 : (record1.mId == record2.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Order of log eviction: lower priority first, then by insertion order.
+     */
+    private static final Comparator<Record> EVICTION_ORDER = new Comparator<Record>() {
+
+        @Override
+        public int compare(Record record1, Record record2) {
+            if (record1.mPriority != record2.mPriority) {
+                return record1.mPriority - record2.mPriority;
+            }
+            return record1.mId < record2.mId ? -1 : (record1.mId == record2.mId ? 0 : 1);
+        }
+    };
+
+    /**
+     * Segment file name filter.
+     */
+    private static final FilenameFilter SEGMENT_FILTER = new FilenameFilter() {
+
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(SEGMENT_FILE_EXTENSION);
+        }
+    };
+
+    /**
+     * Application context.
+     */
+    private final Context mContext;
+
+    /**
+     * Directory of segment files.
+     */
+    private final File mDirectory;
+
+    /**
+     * Segments ordered by sequence number, the last one can be appended to.
+     */
+    @VisibleForTesting
+    final List<Segment> mSegments = new ArrayList<>();
+
+    /**
+     * Stored logs by group, in selection order.
+     */
+    private final Map<String, TreeSet<Record>> mRecords = new HashMap<>();
+
+    /**
+     * Pending logs by group and batch identifier.
+     */
+    private final Map<String, List<Record>> mPendingBatches = new HashMap<>();
+
+    /**
+     * Encrypted target tokens by clear text token.
+     */
+    private final Map<String, String> mEncryptedTargetTokens = newTargetTokenCache();
+
+    /**
+     * Clear text target tokens by encrypted token.
+     */
+    private final Map<String, String> mTargetTokens = newTargetTokenCache();
+
+    /**
+     * Channel to append to the last segment, null until the segment is opened.
+     */
+    private FileChannel mChannel;
+
+    /**
+     * Segment {@link #mChannel} appends to.
+     */
+    private Segment mChannelSegment;
+
+    /**
+     * Identifier of the next stored log.
+     */
+    private long mNextId;
+
+    /**
+     * Size of segment and acknowledgement files in bytes.
+     */
+    @VisibleForTesting
+    long mUsedSize;
+
+    /**
+     * Maximum size of segment and acknowledgement files in bytes.
+     */
+    private long mMaxSize = DEFAULT_MAX_STORAGE_SIZE;
+
+    /**
+     * Whether new log payloads are stored compressed.
+     */
+    private boolean mCompressionEnabled;
+
+    /**
+     * Whether a transaction started by {@link #beginTransaction()} is in progress.
+     */
+    private boolean mInTransaction;
+
+    /**
+     * Initializes the storage in the default directory and loads the logs stored there.
+     *
+     * @param context application context.
+     */
+    public SegmentedFilePersistence(Context context) {
+        this(context, getDefaultDirectory());
+    }
+
+    /**
+     * Initializes the storage and loads the logs stored in the directory.
+     *
+     * @param context   application context.
+     * @param directory directory of segment files.
+     */
+    @VisibleForTesting
+    SegmentedFilePersistence(Context context, @NonNull File directory) {
+        mContext = context;
+        mDirectory = directory;
+
+        //noinspection ResultOfMethodCallIgnored we handle errors at read/write time for each file.
+        mDirectory.mkdirs();
+        loadSegments();
+    }
+
+    @NonNull
+    private static File getDefaultDirectory() {
+        return new File(Constants.FILES_PATH + DIRECTORY);
+    }
+
+    /**
+     * Move the logs left in segment files into another storage, if segmented storage was used before.
+     * The segment files are deleted once all logs are moved.
+     *
+     * @param persistence The storage to move the logs to, with a log serializer.
+     * @return true if no logs are left in segment files, false if some could not be moved and are kept for a next attempt.
+     */
+    public static boolean moveStoredLogs(@NonNull Context context, @NonNull Persistence persistence) {
+        File directory = getDefaultDirectory();
+        if (!directory.exists()) {
+            return true;
+        }
+        SegmentedFilePersistence segmentedFilePersistence = new SegmentedFilePersistence(context, directory);
+        segmentedFilePersistence.setLogSerializer(persistence.getLogSerializer());
+        int count = segmentedFilePersistence.moveLogsTo(persistence);
+        boolean moved = !segmentedFilePersistence.hasLogs();
+        segmentedFilePersistence.close();
+        if (moved) {
+            segmentedFilePersistence.deleteDirectory();
+        }
+        AppCenterLog.debug(LOG_TAG, "Moved " + count + " logs from segment files to another storage.");
+        return moved;
+    }
+
+    /**
+     * Move the logs stored by {@link DatabasePersistence} into this storage if any.
+     * The database is deleted once all logs are moved. The log serializer must be set before.
+     *
+     * @return true if no logs are left in the database, false if some could not be moved and are kept for a next attempt.
+     */
+    public boolean importDatabaseLogs() {
+        if (!mContext.getDatabasePath(DatabasePersistence.DATABASE).exists()) {
+            return true;
+        }
+        DatabasePersistence databasePersistence = new DatabasePersistence(mContext);
+        databasePersistence.setLogSerializer(getLogSerializer());
+        int count = databasePersistence.moveLogsTo(this);
+        boolean moved = !databasePersistence.hasLogs();
+        databasePersistence.close();
+        if (moved) {
+            mContext.deleteDatabase(DatabasePersistence.DATABASE);
+        }
+        AppCenterLog.debug(LOG_TAG, "Moved " + count + " logs from the Persistence database to segment files.");
+        return moved;
+    }
+
+    /**
+     * Create a map evicting its least recently used entry above {@link #TARGET_TOKEN_CACHE_SIZE} entries.
+     */
+    private static Map<String, String> newTargetTokenCache() {
+        return new LinkedHashMap<String, String>(TARGET_TOKEN_CACHE_SIZE, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > TARGET_TOKEN_CACHE_SIZE;
+            }
+        };
+    }
+
+    @Override
+    public boolean setMaxStorageSize(long maxStorageSizeInBytes) {
+        if (maxStorageSizeInBytes < mUsedSize) {
+            AppCenterLog.error(LOG_TAG, "Could not change maximum storage size to " + maxStorageSizeInBytes + " bytes, " + mUsedSize + " bytes are already used.");
+            return false;
+        }
+        mMaxSize = maxStorageSizeInBytes;
+        AppCenterLog.info(LOG_TAG, "Changed maximum storage size to " + maxStorageSizeInBytes + " bytes.");
+        return true;
+    }
+
+    @Override
+    public void setCompressionEnabled(boolean enabled) {
+        mCompressionEnabled = enabled;
+    }
+
+    @Override
+    public void beginTransaction() {
+        mInTransaction = true;
+    }
+
+    @Override
+    public void endTransaction() {
+        if (mInTransaction) {
+            mInTransaction = false;
+            sync();
+        }
+    }
+
+    @Override
+    public long putLog(@NonNull Log log, @NonNull String group, @IntRange(from = Flags.NORMAL, to = Flags.CRITICAL) int flags) throws PersistenceException {
+        try {
+            AppCenterLog.debug(LOG_TAG, "Storing a log to segment files for log type " + log.getType() + " with flags=" + flags);
+            byte[] binaryPayload = getLogSerializer().serializeLogToBinary(log);
+            byte[] payload = binaryPayload;
+            if (mCompressionEnabled) {
+                byte[] compressedPayload = PayloadCompression.compressBinary(payload);
+                if (compressedPayload.length < payload.length) {
+                    payload = compressedPayload;
+                }
+            }
+            String targetKey = null;
+            String encryptedTargetToken = null;
+            if (log instanceof CommonSchemaLog) {
+
+                /* One Collector limits the JSON it receives, whatever the stored size is. */
+                String json = BinaryJSONReader.toJson(binaryPayload);
+
+                //noinspection CharsetObjectCanBeUsed min API level 19 required to fix this warning.
+                if (json.getBytes("UTF-8").length >= DatabasePersistence.PAYLOAD_MAX_SIZE) {
+                    throw new PersistenceException("Log is larger than " + DatabasePersistence.PAYLOAD_MAX_SIZE + " bytes, cannot send to OneCollector.");
+                }
+                String targetToken = log.getTransmissionTargetTokens().iterator().next();
+                targetKey = PartAUtils.getTargetKey(targetToken);
+                encryptedTargetToken = encryptTargetToken(targetToken);
+            }
+            int priority = Flags.getPersistenceFlag(flags, false);
+            long timestamp = log.getTimestamp().getTime();
+            long id = mNextId;
+            byte[] record = encodeRecord(id, priority, timestamp, group, log.getType(), targetKey, encryptedTargetToken, payload);
+            if (record.length + SEGMENT_HEADER_SIZE > mMaxSize) {
+                throw new PersistenceException("Log is too large (" + record.length + " bytes) to store. " +
+                        "Current maximum storage size is " + mMaxSize + " bytes.");
+            }
+
+            /* Evict logs in bulk when the storage is full. */
+            if (mUsedSize + record.length + SEGMENT_HEADER_SIZE > mMaxSize) {
+                evictLogs(priority, mUsedSize + record.length + SEGMENT_HEADER_SIZE - (long) (mMaxSize * EVICTION_LOW_WATER_MARK));
+                if (mUsedSize + record.length + SEGMENT_HEADER_SIZE > mMaxSize) {
+                    throw new PersistenceException("Failed to store a log, storage is full.");
+                }
+            }
+            Segment segment = append(record);
+            Record entry = new Record(id, group, priority, timestamp, targetKey, segment, (int) segment.mSize - record.length, record.length);
+            segment.mLiveCount++;
+            segment.mLiveSize += record.length;
+            getGroupRecords(group).add(entry);
+            mNextId++;
+            AppCenterLog.debug(LOG_TAG, "Stored a log to segment " + segment.mSequence + " for log type " + log.getType() + " with id=" + id);
+            return id;
+        } catch (JSONException e) {
+            throw new PersistenceException("Cannot convert to JSON string.", e);
+        } catch (IOException e) {
+            throw new PersistenceException("Cannot write log to segment file.", e);
+        }
+    }
+
+    @Override
+    public void deleteLogs(@NonNull String group, @NonNull String id) {
+        AppCenterLog.debug(LOG_TAG, "Deleting logs from segment files for " + group + " with " + id);
+        List<Record> records = mPendingBatches.remove(group + id);
+        if (records != null) {
+            deleteRecords(records);
+        }
+    }
+
+    @Override
+    public void deleteLogs(String group) {
+        AppCenterLog.debug(LOG_TAG, "Deleting all logs from segment files for " + group);
+        TreeSet<Record> records = mRecords.get(group);
+        if (records != null) {
+            deleteRecords(new ArrayList<>(records));
+        }
+        for (Iterator<String> iterator = mPendingBatches.keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().startsWith(group)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public int countLogs(@NonNull String group) {
+        TreeSet<Record> records = mRecords.get(group);
+        return records == null ? 0 : records.size();
+    }
+
+    @Override
+    public int countLogs(@NonNull Date timestamp) {
+        int count = 0;
+        long time = timestamp.getTime();
+        for (TreeSet<Record> records : mRecords.values()) {
+            for (Record record : records) {
+                if (record.mTimestamp < time) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Nullable
+    @Override
+    public String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<Log> outLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, outLogs, null, from, to);
+    }
+
+    @Nullable
+    @Override
+    public String getSerializedLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, @IntRange(from = 0) int limit, @NonNull List<String> outSerializedLogs, @Nullable Date from, @Nullable Date to) {
+        return getLogs(group, pausedTargetKeys, limit, null, outSerializedLogs, from, to);
+    }
+
+    @Nullable
+    private String getLogs(@NonNull String group, @NonNull Collection<String> pausedTargetKeys, int limit, @Nullable List<Log> outLogs, @Nullable List<String> outSerializedLogs, @Nullable Date from, @Nullable Date to) {
+        AppCenterLog.debug(LOG_TAG, "Trying to get " + limit + " logs from segment files for " + group);
+        TreeSet<Record> records = mRecords.get(group);
+        List<Record> selectedRecords = new ArrayList<>();
+        List<Record> failedRecords = new ArrayList<>();
+        if (records != null) {
+            for (Record record : records) {
+                if (selectedRecords.size() >= limit) {
+                    break;
+                }
+                if (record.mPending || (record.mTargetKey != null && pausedTargetKeys.contains(record.mTargetKey))
+                        || (from != null && record.mTimestamp < from.getTime()) || (to != null && record.mTimestamp >= to.getTime())) {
+                    continue;
+                }
+                try {
+                    RecordContent content = readRecord(record);
+                    byte[] payload = content.mPayload;
+                    if (!BinaryJSONReader.isBinary(payload)) {
+                        payload = PayloadCompression.decompress(payload);
+                    }
+                    if (outLogs != null) {
+                        Log log = getLogSerializer().deserializeLog(payload, content.mType);
+                        if (content.mEncryptedTargetToken != null) {
+                            log.addTransmissionTarget(decryptTargetToken(content.mEncryptedTargetToken));
+                        }
+                        outLogs.add(log);
+                    } else if (outSerializedLogs != null) {
+                        outSerializedLogs.add(BinaryJSONReader.toJson(payload));
+                    }
+                    selectedRecords.add(record);
+                } catch (JSONException | IOException e) {
+                    AppCenterLog.error(LOG_TAG, "Cannot deserialize a log in segment files", e);
+                    failedRecords.add(record);
+                }
+            }
+        }
+
+        /* Delete any logs that cannot be read. */
+        if (!failedRecords.isEmpty()) {
+            deleteRecords(failedRecords);
+            AppCenterLog.warn(LOG_TAG, "Deleted logs that cannot be deserialized");
+        }
+        if (selectedRecords.isEmpty()) {
+            AppCenterLog.debug(LOG_TAG, "No logs found in segment files at the moment");
+            return null;
+        }
+
+        /* Mark logs as pending under a new batch identifier. */
+        String id = UUID.randomUUID().toString();
+        for (Record record : selectedRecords) {
+            record.mPending = true;
+        }
+        mPendingBatches.put(group + id, selectedRecords);
+        AppCenterLog.debug(LOG_TAG, "Returning " + selectedRecords.size() + " log(s) with an ID, " + id);
+        return id;
+    }
+
+    @Override
+    public void clearPendingLogState() {
+        for (List<Record> records : mPendingBatches.values()) {
+            for (Record record : records) {
+                record.mPending = false;
+            }
+        }
+        mPendingBatches.clear();
+        AppCenterLog.debug(LOG_TAG, "Cleared pending log states");
+    }
+
+    @Override
+    public void close() {
+        closeChannel();
+    }
+
+    /**
+     * Move all logs into another storage, keeping their group, priority and order.
+     * Moved logs and logs that cannot be read are deleted, logs the other storage failed to store are kept.
+     *
+     * @param persistence The storage to move the logs to.
+     * @return The number of moved logs.
+     */
+    int moveLogsTo(@NonNull Persistence persistence) {
+        List<Record> records = new ArrayList<>();
+        for (TreeSet<Record> groupRecords : mRecords.values()) {
+            records.addAll(groupRecords);
+        }
+        Collections.sort(records, new Comparator<Record>() {
+
+            @Override
+            public int compare(Record record1, Record record2) {
+                return record1.mId < record2.mId ? -1 : (record1.mId == record2.mId ? 0 : 1);
+            }
+        });
+        int count = 0;
+        List<Record> movedRecords = new ArrayList<>();
+        for (Record record : records) {
+            Log log;
+            try {
+                RecordContent content = readRecord(record);
+                byte[] payload = content.mPayload;
+                if (!BinaryJSONReader.isBinary(payload)) {
+                    payload = PayloadCompression.decompress(payload);
+                }
+                log = getLogSerializer().deserializeLog(payload, content.mType);
+                if (content.mEncryptedTargetToken != null) {
+                    log.addTransmissionTarget(decryptTargetToken(content.mEncryptedTargetToken));
+                }
+            } catch (JSONException | IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to read a log to move, deleting it.", e);
+                movedRecords.add(record);
+                continue;
+            }
+            try {
+                persistence.putLog(log, record.mGroup, record.mPriority);
+                movedRecords.add(record);
+                count++;
+            } catch (PersistenceException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to move a log to another storage, keeping it.", e);
+            }
+        }
+        deleteRecords(movedRecords);
+        mPendingBatches.clear();
+        return count;
+    }
+
+    /**
+     * Check whether logs are left in segment files.
+     *
+     * @return true if there are logs left, false otherwise.
+     */
+    boolean hasLogs() {
+        return !mRecords.isEmpty();
+    }
+
+    /**
+     * Delete all segment files and the directory.
+     */
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                FileManager.delete(file);
+            }
+        }
+        FileManager.delete(mDirectory);
+    }
+
+    /**
+     * Read segment files to rebuild the index of stored logs.
+     */
+    private void loadSegments() {
+        File[] files = mDirectory.listFiles(SEGMENT_FILTER);
+        if (files == null) {
+            return;
+        }
+        List<Segment> segments = new ArrayList<>();
+        for (File file : files) {
+            String name = file.getName();
+            try {
+                long sequence = Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_EXTENSION.length()));
+                segments.add(new Segment(sequence, file, new File(mDirectory, sequence + ACK_FILE_EXTENSION)));
+            } catch (NumberFormatException e) {
+                AppCenterLog.warn(LOG_TAG, "Deleting unexpected file in segment directory: " + name);
+                FileManager.delete(file);
+            }
+        }
+        Collections.sort(segments, new Comparator<Segment>() {
+
+            @Override
+            public int compare(Segment segment1, Segment segment2) {
+                return segment1.mSequence < segment2.mSequence ? -1 : (segment1.mSequence == segment2.mSequence ? 0 : 1);
+            }
+        });
+        for (Segment segment : segments) {
+            try {
+                loadSegment(segment);
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Cannot read segment " + segment.mFile, e);
+                segment.mLiveCount = 0;
+            }
+            mSegments.add(segment);
+            mUsedSize += segment.mSize + segment.mAckSize;
+        }
+
+        /* Delete segments without any log left, the last one is kept for appending only if it has logs. */
+        for (Segment segment : new ArrayList<>(mSegments)) {
+            if (segment.mLiveCount == 0) {
+                deleteSegment(segment);
+            }
+        }
+        AppCenterLog.debug(LOG_TAG, "Loaded " + mSegments.size() + " segments using " + mUsedSize + " bytes.");
+    }
+
+    /**
+     * Read the records of a segment, skipping the ones listed in its acknowledgement file.
+     */
+    private void loadSegment(Segment segment) throws IOException {
+        Set<Long> deletedIds = new HashSet<>();
+        if (segment.mAckFile.exists()) {
+            byte[] ackBytes = FileManager.readBytes(segment.mAckFile);
+            if (ackBytes != null) {
+                ByteBuffer ackBuffer = ByteBuffer.wrap(ackBytes);
+                while (ackBuffer.remaining() >= 8) {
+                    deletedIds.add(ackBuffer.getLong());
+                }
+                segment.mAckSize = ackBytes.length;
+            }
+        }
+        RandomAccessFile file = new RandomAccessFile(segment.mFile, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            long fileSize = channel.size();
+            if (fileSize < SEGMENT_HEADER_SIZE || fileSize > Integer.MAX_VALUE) {
+                segment.mSize = fileSize;
+                return;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            if (buffer.getInt(0) != SEGMENT_MAGIC || buffer.get(4) != SEGMENT_VERSION) {
+                AppCenterLog.error(LOG_TAG, "Invalid segment header in " + segment.mFile);
+                segment.mSize = fileSize;
+                return;
+            }
+            int position = SEGMENT_HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            byte[] bytes = new byte[0];
+            while (fileSize - position >= RECORD_OVERHEAD) {
+                int length = buffer.getInt(position);
+                if (length < RECORD_OVERHEAD - 8 || length > fileSize - position - 8) {
+                    break;
+                }
+                if (bytes.length < length) {
+                    bytes = new byte[length];
+                }
+                buffer.position(position + 4);
+                buffer.get(bytes, 0, length);
+                crc.reset();
+                crc.update(bytes, 0, length);
+                if ((int) crc.getValue() != buffer.getInt()) {
+                    break;
+                }
+                ByteBuffer recordBuffer = ByteBuffer.wrap(bytes, 0, length);
+                long id = recordBuffer.getLong();
+                int priority = recordBuffer.get();
+                long timestamp = recordBuffer.getLong();
+                String group = readString(recordBuffer);
+                readString(recordBuffer);
+                String targetKey = readString(recordBuffer);
+                int size = length + 8;
+                if (!deletedIds.contains(id) && group != null) {
+                    getGroupRecords(group).add(new Record(id, group, priority, timestamp, targetKey, segment, position, size));
+                    segment.mLiveCount++;
+                    segment.mLiveSize += size;
+                }
+                mNextId = Math.max(mNextId, id + 1);
+                position += size;
+            }
+
+            /* Drop what was partially written when the process stopped. */
+            if (position < fileSize) {
+                AppCenterLog.warn(LOG_TAG, "Truncating segment " + segment.mFile + " after " + position + " valid bytes.");
+                channel.truncate(position);
+            }
+            segment.mSize = position;
+            segment.mBuffer = position < fileSize ? null : buffer;
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Append a record to the last segment, starting a new segment if it is full.
+     *
+     * @return The segment the record was appended to.
+     */
+    private Segment append(byte[] record) throws IOException {
+        Segment segment = mSegments.isEmpty() ? null : mSegments.get(mSegments.size() - 1);
+        if (segment == null || (segment.mSize > SEGMENT_HEADER_SIZE && segment.mSize + record.length > getSegmentSize())) {
+            long sequence = segment == null ? 0 : segment.mSequence + 1;
+            segment = new Segment(sequence, new File(mDirectory, sequence + SEGMENT_FILE_EXTENSION), new File(mDirectory, sequence + ACK_FILE_EXTENSION));
+            FileChannel channel = openChannel(segment);
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putInt(SEGMENT_MAGIC);
+            header.put(SEGMENT_VERSION);
+            header.flip();
+            write(channel, header, 0);
+            segment.mSize = SEGMENT_HEADER_SIZE;
+            mSegments.add(segment);
+            mUsedSize += SEGMENT_HEADER_SIZE;
+        }
+        FileChannel channel = openChannel(segment);
+        try {
+            write(channel, ByteBuffer.wrap(record), segment.mSize);
+        } catch (IOException e) {
+
+            /* Drop what was partially written. */
+            channel.truncate(segment.mSize);
+            throw e;
+        }
+        segment.mSize += record.length;
+        mUsedSize += record.length;
+        if (!mInTransaction) {
+            sync();
+        }
+        return segment;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Get the channel to append to a segment, closing the channel of the previous segment if any.
+     */
+    private FileChannel openChannel(Segment segment) throws IOException {
+        if (mChannelSegment != segment) {
+            closeChannel();
+            mChannel = new RandomAccessFile(segment.mFile, "rw").getChannel();
+            mChannelSegment = segment;
+        }
+        return mChannel;
+    }
+
+    private void closeChannel() {
+        if (mChannel != null) {
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to close segment file.", e);
+            }
+            mChannel = null;
+            mChannelSegment = null;
+        }
+    }
+
+    /**
+     * Flush appended records to the disk.
+     */
+    private void sync() {
+        if (mChannel != null) {
+            try {
+                mChannel.force(false);
+            } catch (IOException e) {
+                AppCenterLog.error(LOG_TAG, "Failed to flush segment file.", e);
+            }
+        }
+    }
+
+    /**
+     * Segments are smaller for small storage sizes, so that evicting logs can free whole segments.
+     */
+    private long getSegmentSize() {
+        return Math.min(SEGMENT_SIZE, mMaxSize / MIN_SEGMENT_COUNT);
+    }
+
+    /**
+     * Read a record from its segment.
+     */
+    @NonNull
+    private RecordContent readRecord(Record record) throws IOException, JSONException {
+        ByteBuffer buffer = readRecordBytes(record);
+        int end = record.mOffset + record.mSize;
+        buffer.position(record.mOffset + 4 + 8 + 1 + 8);
+        readString(buffer);
+        RecordContent content = new RecordContent();
+        content.mType = readString(buffer);
+        readString(buffer);
+        content.mEncryptedTargetToken = readString(buffer);
+        int payloadLength = buffer.getInt();
+        if (payloadLength < 0 || payloadLength > end - buffer.position()) {
+            throw new JSONException("Invalid log record.");
+        }
+        content.mPayload = new byte[payloadLength];
+        buffer.get(content.mPayload);
+        return content;
+    }
+
+    @NonNull
+    private static byte[] encodeRecord(long id, int priority, long timestamp, @NonNull String group, String type, String targetKey, String encryptedTargetToken, @NonNull byte[] payload) {
+        byte[] groupBytes = group.getBytes(PayloadCompression.CHARSET);
+        byte[] typeBytes = type == null ? null : type.getBytes(PayloadCompression.CHARSET);
+        byte[] targetKeyBytes = targetKey == null ? null : targetKey.getBytes(PayloadCompression.CHARSET);
+        byte[] targetTokenBytes = encryptedTargetToken == null ? null : encryptedTargetToken.getBytes(PayloadCompression.CHARSET);
+        int size = RECORD_OVERHEAD + groupBytes.length + length(typeBytes) + length(targetKeyBytes) + length(targetTokenBytes) + payload.length;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size - 8);
+        buffer.putLong(id);
+        buffer.put((byte) priority);
+        buffer.putLong(timestamp);
+        writeString(buffer, groupBytes);
+        writeString(buffer, typeBytes);
+        writeString(buffer, targetKeyBytes);
+        writeString(buffer, targetTokenBytes);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, size - 8);
+        buffer.putInt((int) crc.getValue());
+        return buffer.array();
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void writeString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) -1);
+        } else {
+            buffer.putShort((short) bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    @Nullable
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, PayloadCompression.CHARSET);
+    }
+
+    @NonNull
+    private TreeSet<Record> getGroupRecords(String group) {
+        TreeSet<Record> records = mRecords.get(group);
+        if (records == null) {
+            records = new TreeSet<>(RECORD_ORDER);
+            mRecords.put(group, records);
+        }
+        return records;
+    }
+
+    /**
+     * Delete records: remove them from the index, acknowledge them in their segment and delete segments without logs.
+     */
+    private void deleteRecords(@NonNull Collection<Record> records) {
+        Map<Segment, List<Long>> deletedIds = new LinkedHashMap<>();
+        for (Record record : records) {
+            TreeSet<Record> groupRecords = mRecords.get(record.mGroup);
+            if (groupRecords == null || !groupRecords.remove(record)) {
+                continue;
+            }
+            if (groupRecords.isEmpty()) {
+                mRecords.remove(record.mGroup);
+            }
+            record.mPending = false;
+            Segment segment = record.mSegment;
+            segment.mLiveCount--;
+            segment.mLiveSize -= record.mSize;
+            List<Long> segmentIds = deletedIds.get(segment);
+            if (segmentIds == null) {
+                segmentIds = new ArrayList<>();
+                deletedIds.put(segment, segmentIds);
+            }
+            segmentIds.add(record.mId);
+        }
+        for (Map.Entry<Segment, List<Long>> entry : deletedIds.entrySet()) {
+            Segment segment = entry.getKey();
+            if (segment.mLiveCount == 0) {
+                deleteSegment(segment);
+            } else {
+                acknowledge(segment, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Append identifiers of deleted logs to the acknowledgement file of a segment.
+     */
+    private void acknowledge(Segment segment, List<Long> ids) {
+        ByteBuffer buffer = ByteBuffer.allocate(ids.size() * 8);
+        for (Long id : ids) {
+            buffer.putLong(id);
+        }
+        FileOutputStream outputStream = null;
+        try {
+            outputStream = new FileOutputStream(segment.mAckFile, true);
+            outputStream.write(buffer.array());
+            segment.mAckSize += buffer.capacity();
+            mUsedSize += buffer.capacity();
+        } catch (IOException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to acknowledge deleted logs in " + segment.mAckFile, e);
+        } finally {
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+
+    private void deleteSegment(Segment segment) {
+        if (mChannelSegment == segment) {
+            closeChannel();
+        }
+        FileManager.delete(segment.mFile);
+        FileManager.delete(segment.mAckFile);
+        mSegments.remove(segment);
+        mUsedSize -= segment.mSize + segment.mAckSize;
+        segment.mBuffer = null;
+        AppCenterLog.debug(LOG_TAG, "Deleted segment " + segment.mSequence);
+    }
+
+    /**
+     * Evict logs to free storage space, lowest priority and oldest first, never logs with a higher priority than the new log.
+     * Space of segments that still contain logs is reclaimed by copying their remaining logs to the last segment.
+     *
+     * @param priority The priority of the log to store.
+     * @param size     The storage size to free.
+     */
+    private void evictLogs(int priority, long size) throws IOException {
+        List<Record> candidates = new ArrayList<>();
+        for (TreeSet<Record> records : mRecords.values()) {
+            for (Record record : records) {
+                if (record.mPriority <= priority) {
+                    candidates.add(record);
+                }
+            }
+        }
+        Collections.sort(candidates, EVICTION_ORDER);
+        List<Record> evictedRecords = new ArrayList<>();
+        Map<String, Integer> evictedCounts = new HashMap<>();
+        Set<Record> pendingRecords = new HashSet<>();
+        for (List<Record> batch : mPendingBatches.values()) {
+            pendingRecords.addAll(batch);
+        }
+        long evictedSize = 0;
+        for (Record record : candidates) {
+            if (evictedSize >= size) {
+                break;
+            }
+            evictedRecords.add(record);
+            evictedSize += record.mSize;
+
+            /* Logs being sent are reported when their batch completes. */
+            if (!pendingRecords.contains(record)) {
+                Integer count = evictedCounts.get(record.mGroup);
+                evictedCounts.put(record.mGroup, count == null ? 1 : count + 1);
+            }
+        }
+
+        /* Evicted logs may be pending. */
+        for (List<Record> batch : mPendingBatches.values()) {
+            batch.removeAll(evictedRecords);
+        }
+        deleteRecords(evictedRecords);
+        compactSegments(mUsedSize - (long) (mMaxSize * EVICTION_LOW_WATER_MARK));
+        Listener listener = getListener();
+        for (Map.Entry<String, Integer> entry : evictedCounts.entrySet()) {
+            AppCenterLog.warn(LOG_TAG, "Storage is full, deleted " + entry.getValue() + " logs from " + entry.getKey() + ".");
+            if (listener != null) {
+                listener.onLogsEvicted(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Copy remaining logs of the oldest segments with deleted logs to the last segment, then delete them.
+     *
+     * @param size The storage size to free.
+     */
+    private void compactSegments(long size) throws IOException {
+        long freedSize = 0;
+        for (Segment segment : new ArrayList<>(mSegments)) {
+            if (freedSize >= size || segment == mSegments.get(mSegments.size() - 1)) {
+                break;
+            }
+            long wastedSize = segment.mSize + segment.mAckSize - segment.mLiveSize - SEGMENT_HEADER_SIZE;
+            if (wastedSize <= 0) {
+                continue;
+            }
+            List<Record> records = new ArrayList<>();
+            for (TreeSet<Record> groupRecords : mRecords.values()) {
+                for (Record record : groupRecords) {
+                    if (record.mSegment == segment) {
+                        records.add(record);
+                    }
+                }
+            }
+            Collections.sort(records, EVICTION_ORDER);
+            for (Record record : records) {
+                ByteBuffer buffer = readRecordBytes(record);
+                byte[] bytes = new byte[record.mSize];
+                buffer.get(bytes);
+                Segment newSegment = append(bytes);
+                record.mSegment = newSegment;
+                record.mOffset = (int) newSegment.mSize - bytes.length;
+                newSegment.mLiveCount++;
+                newSegment.mLiveSize += bytes.length;
+            }
+            deleteSegment(segment);
+            freedSize += wastedSize;
+        }
+    }
+
+    /**
+     * Get a buffer positioned on the bytes of a record, mapping its segment again if it was appended to after mapping.
+     */
+    private ByteBuffer readRecordBytes(Record record) throws IOException {
+        Segment segment = record.mSegment;
+        if (segment.mBuffer == null || segment.mBuffer.capacity() < record.mOffset + record.mSize) {
+            RandomAccessFile file = new RandomAccessFile(segment.mFile, "r");
+            try {
+                segment.mBuffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, segment.mSize);
+            } finally {
+                file.close();
+            }
+            if (segment.mBuffer.capacity() < record.mOffset + record.mSize) {
+                throw new IOException("Log record is truncated.");
+            }
+        }
+        ByteBuffer buffer = segment.mBuffer.duplicate();
+        buffer.position(record.mOffset);
+        return buffer;
+    }
+
+    /**
+     * Encrypt a target token, caching the result as tokens are shared by many logs.
+     */
+    private String encryptTargetToken(@NonNull String targetToken) {
+        String encryptedTargetToken = mEncryptedTargetTokens.get(targetToken);
+        if (encryptedTargetToken == null) {
+            encryptedTargetToken = CryptoUtils.getInstance(mContext).encrypt(targetToken);
+            mEncryptedTargetTokens.put(targetToken, encryptedTargetToken);
+            mTargetTokens.put(encryptedTargetToken, targetToken);
+        }
+        return encryptedTargetToken;
+    }
+
+    /**
+     * Decrypt a target token, caching the result as tokens are shared by many logs.
+     */
+    private String decryptTargetToken(@NonNull String encryptedTargetToken) {
+        String targetToken = mTargetTokens.get(encryptedTargetToken);
+        if (targetToken == null) {
+            targetToken = CryptoUtils.getInstance(mContext).decrypt(encryptedTargetToken, false).getDecryptedData();
+            mTargetTokens.put(encryptedTargetToken, targetToken);
+        }
+        return targetToken;
+    }
+
+    /**
+     * Segment file state.
+     */
+    @VisibleForTesting
+    static class Segment {
+
+        /**
+         * Sequence number, also the file name.
+         */
+        final long mSequence;
+
+        /**
+         * Segment file.
+         */
+        final File mFile;
+
+        /**
+         * Acknowledgement file.
+         */
+        final File mAckFile;
+
+        /**
+         * Size of the segment file.
+         */
+        long mSize;
+
+        /**
+         * Size of the acknowledgement file.
+         */
+        long mAckSize;
+
+        /**
+         * Number of logs not deleted yet.
+         */
+        int mLiveCount;
+
+        /**
+         * Size of the records of logs not deleted yet.
+         */
+        long mLiveSize;
+
+        /**
+         * Read only mapping of the segment file, null until needed.
+         */
+        MappedByteBuffer mBuffer;
+
+        Segment(long sequence, File file, File ackFile) {
+            mSequence = sequence;
+            mFile = file;
+            mAckFile = ackFile;
+        }
+    }
+
+    /**
+     * Index entry of a stored log.
+     */
+    private static class Record {
+
+        /**
+         * Log identifier.
+         */
+        final long mId;
+
+        /**
+         * Group.
+         */
+        final String mGroup;
+
+        /**
+         * Persistence priority.
+         */
+        final int mPriority;
+
+        /**
+         * Log timestamp in milliseconds.
+         */
+        final long mTimestamp;
+
+        /**
+         * Target key of common schema logs, null otherwise.
+         */
+        final String mTargetKey;
+
+        /**
+         * Segment containing the record.
+         */
+        Segment mSegment;
+
+        /**
+         * Position of the record in the segment.
+         */
+        int mOffset;
+
+        /**
+         * Size of the record in the segment.
+         */
+        final int mSize;
+
+        /**
+         * Whether the log was returned by getLogs and not deleted yet.
+         */
+        boolean mPending;
+
+        Record(long id, String group, int priority, long timestamp, String targetKey, Segment segment, int offset, int size) {
+            mId = id;
+            mGroup = group;
+            mPriority = priority;
+            mTimestamp = timestamp;
+            mTargetKey = targetKey;
+            mSegment = segment;
+            mOffset = offset;
+            mSize = size;
+        }
+    }
+
+    /**
+     * Content of a record read when getting logs.
+     */
+    private static class RecordContent {
+
+        /**
+         * Log type.
+         */
+        String mType;
+
+        /**
+         * Encrypted target token, null if not a common schema log.
+         */
+        String mEncryptedTargetToken;
+
+        /**
+         * Binary payload, compressed or not.
+         */
+        byte[] mPayload;
+    }
+}
@@ -157,6 +157,20 @@ public class NetworkStateHelper implements Closeable {
         return mConnected.get() || isAnyNetworkConnected();
     }
 
+    /**
+     * Check whether the active network is metered, for example mobile data, so that the SDK can save bytes.
+     *
+     * @return true if metered, false if not or unknown.
+     */
+    public boolean isNetworkMetered() {
+        try {
+            return mConnectivityManager.isActiveNetworkMetered();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Could not check if network is metered.", e);
+            return false;
+        }
+    }
+
     /**
      * Check if any network is connected.
      *
@@ -5,6 +5,8 @@
 
 package com.microsoft.appcenter.utils.context;
 
+import android.util.JsonReader;
+
 import com.microsoft.appcenter.ingestion.models.Model;
 import com.microsoft.appcenter.ingestion.models.json.JSONDateUtils;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
@@ -13,9 +15,10 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.json.JSONStringer;
 
+import java.io.IOException;
 import java.util.Date;
 
-final class AuthTokenHistoryEntry implements Model {
+final class AuthTokenHistoryEntry implements Model.StreamingModel {
 
     private static final String AUTH_TOKEN = "authToken";
 
@@ -85,6 +88,28 @@ final class AuthTokenHistoryEntry implements Model {
         setExpiresOn(expiresOn != null ? JSONDateUtils.toDate(expiresOn) : null);
     }
 
+    @Override
+    public void read(JsonReader reader) throws IOException, JSONException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (AUTH_TOKEN.equals(name)) {
+                setAuthToken(JSONUtils.readString(reader));
+            } else if (HOME_ACCOUNT_ID.equals(name)) {
+                setHomeAccountId(JSONUtils.readString(reader));
+            } else if (TIME.equals(name)) {
+                String time = JSONUtils.readString(reader);
+                setTime(time != null ? JSONDateUtils.toDate(time) : null);
+            } else if (EXPIRES_ON.equals(name)) {
+                String expiresOn = JSONUtils.readString(reader);
+                setExpiresOn(expiresOn != null ? JSONDateUtils.toDate(expiresOn) : null);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
     @Override
     public void write(JSONStringer writer) throws JSONException {
         JSONUtils.write(writer, AUTH_TOKEN, getAuthToken());
@@ -266,6 +266,20 @@ public class DatabaseManager implements Closeable {
      * @return If a log was inserted, the database identifier. Otherwise -1.
      */
     public long put(@NonNull ContentValues values, @NonNull String priorityColumn) {
+        return put(values, priorityColumn, null);
+    }
+
+    /**
+     * Stores the entry to the table. If the table is full, the oldest logs are discarded until the
+     * new one can fit. If the log is larger than the max table size, database will be cleared and
+     * the log is not inserted.
+     *
+     * @param values         The entry to be stored.
+     * @param priorityColumn When storage full and deleting data, use this column to determine which entries to delete first.
+     * @param outDeletedIds  A list to receive the identifiers of the entries deleted to make room, null to ignore them.
+     * @return If a log was inserted, the database identifier. Otherwise -1.
+     */
+    public long put(@NonNull ContentValues values, @NonNull String priorityColumn, @Nullable List<Long> outDeletedIds) {
         Long id = null;
         Cursor cursor = null;
         try {
@@ -287,6 +301,9 @@ public class DatabaseManager implements Closeable {
                     if (cursor.moveToNext()) {
                         long deletedId = cursor.getLong(0);
                         delete(deletedId);
+                        if (outDeletedIds != null) {
+                            outDeletedIds.add(deletedId);
+                        }
                         AppCenterLog.debug(LOG_TAG, "Deleted log id=" + deletedId);
                     } else {
                         throw e;
@@ -306,6 +323,37 @@ public class DatabaseManager implements Closeable {
         return id;
     }
 
+    /**
+     * Begins a transaction so that the following write operations are committed at once
+     * by {@link #endTransaction()}.
+     *
+     * @return true if the transaction was started, false otherwise.
+     */
+    public boolean beginTransaction() {
+        try {
+            getDatabase().beginTransaction();
+            return true;
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to begin transaction on database " + mDatabase + ".", e);
+            return false;
+        }
+    }
+
+    /**
+     * Commits the transaction started by {@link #beginTransaction()}.
+     * Operations failing inside the transaction have already been handled by each operation,
+     * so the transaction is always marked successful.
+     */
+    public void endTransaction() {
+        try {
+            SQLiteDatabase db = getDatabase();
+            db.setTransactionSuccessful();
+            db.endTransaction();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Failed to end transaction on database " + mDatabase + ".", e);
+        }
+    }
+
     /**
      * Deletes the entry by the identifier from the database.
      *
@@ -421,6 +469,41 @@ public class DatabaseManager implements Closeable {
         return getCursor(mDefaultTable, queryBuilder, columns, selectionArgs, sortOrder);
     }
 
+    /**
+     * Gets a cursor for a limited number of rows in the table where key matches value if specified.
+     *
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself).
+     * @return A cursor for the first rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
+        return getCursor(queryBuilder, columns, selectionArgs, null, sortOrder, limit);
+    }
+
+    /**
+     * Gets a cursor for a limited number of grouped rows in the table where key matches value if specified.
+     *
+     * @param queryBuilder  The query builder that contains SQL query.
+     * @param columns       Columns to select, null for all.
+     * @param selectionArgs The array of values for selection.
+     * @param groupBy       How to group rows (GROUP BY clause without GROUP BY itself).
+     * @param sortOrder     Sorting order (ORDER BY clause without ORDER BY itself).
+     * @param limit         Maximum number of rows (LIMIT clause without LIMIT itself).
+     * @return A cursor for the first rows that matches the given criteria.
+     * @throws RuntimeException If an error occurs.
+     */
+    public Cursor getCursor(@Nullable SQLiteQueryBuilder queryBuilder, String[] columns, @Nullable String[] selectionArgs, @Nullable String groupBy, @Nullable String sortOrder, @Nullable String limit) throws RuntimeException {
+        if (queryBuilder == null) {
+            queryBuilder = SQLiteUtils.newSQLiteQueryBuilder();
+        }
+        queryBuilder.setTables(mDefaultTable);
+        return queryBuilder.query(getDatabase(), columns, null, selectionArgs, groupBy, null, sortOrder, limit);
+    }
+
     /**
      * Gets a cursor for all rows in the table, all rows where key matches value if specified.
      *
@@ -554,6 +637,23 @@ public class DatabaseManager implements Closeable {
         }
     }
 
+    /**
+     * Gets the size of the database pages in use, free pages that can be reused are not counted.
+     *
+     * @return The used size of database in bytes, or -1 if operation failed.
+     */
+    public long getUsedSize() {
+        try {
+            SQLiteDatabase db = getDatabase();
+            long pageCount = DatabaseUtils.longForQuery(db, "PRAGMA page_count", null);
+            long freePageCount = DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null);
+            return (pageCount - freePageCount) * db.getPageSize();
+        } catch (RuntimeException e) {
+            AppCenterLog.error(LOG_TAG, "Could not get used database size.", e);
+            return -1;
+        }
+    }
+
     /**
      * Database listener.
      */
@@ -16,6 +16,7 @@ import android.os.HandlerThread;
 import android.os.Looper;
 
 import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.channel.UploadPolicyEngine;
 import com.microsoft.appcenter.ingestion.models.StartServiceLog;
 import com.microsoft.appcenter.ingestion.models.json.JSONUtils;
 import com.microsoft.appcenter.ingestion.models.json.LogFactory;
@@ -72,7 +73,8 @@ import static org.powermock.api.mockito.PowerMockito.whenNew;
         CustomProperties.class,
         InstrumentationRegistryHelper.class,
         NetworkStateHelper.class,
-        JSONUtils.class
+        JSONUtils.class,
+        UploadPolicyEngine.class
 })
 public class AbstractAppCenterTest {
 
@@ -5,15 +5,28 @@
 
 package com.microsoft.appcenter;
 
+import android.content.Context;
+import android.os.Handler;
+
+import com.microsoft.appcenter.channel.DefaultChannel;
+import com.microsoft.appcenter.channel.UploadPolicyEngine;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.utils.AppCenterLog;
 import com.microsoft.appcenter.utils.async.AppCenterFuture;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyNew;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.when;
 
 public class AppCenterStorageTest extends AbstractAppCenterTest {
@@ -106,4 +119,79 @@ public class AppCenterStorageTest extends AbstractAppCenterTest {
         /* And result returned to developer. */
         assertTrue(future.get());
     }
+
+    @Test
+    public void storageCompressionIsAppliedAtStart() {
+        AppCenter.setStorageCompressionEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setStorageCompressionEnabled(true);
+        verify(mChannel, never()).setStorageCompressionEnabled(false);
+    }
+
+    @Test
+    public void storageCompressionCanChangeAfterStart() {
+
+        /* Disabled by default. */
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setStorageCompressionEnabled(false);
+
+        /* Change after start. */
+        AppCenter.setStorageCompressionEnabled(true);
+        verify(mChannel).setStorageCompressionEnabled(true);
+    }
+
+    @Test
+    public void adaptiveBatchingCanChangeBeforeAndAfterStart() {
+        AppCenter.setAdaptiveBatchingEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setAdaptiveBatchingEnabled(true);
+        verify(mChannel, never()).setAdaptiveBatchingEnabled(false);
+
+        /* Change after start. */
+        AppCenter.setAdaptiveBatchingEnabled(false);
+        verify(mChannel).setAdaptiveBatchingEnabled(false);
+    }
+
+    @Test
+    public void requestCoalescingCanChangeBeforeAndAfterStart() {
+        AppCenter.setRequestCoalescingEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verify(mChannel).setRequestCoalescingEnabled(true);
+        verify(mChannel, never()).setRequestCoalescingEnabled(false);
+
+        /* Change after start. */
+        AppCenter.setRequestCoalescingEnabled(false);
+        verify(mChannel).setRequestCoalescingEnabled(false);
+    }
+
+    @Test
+    public void segmentedStorageIsAppliedAtStart() throws Exception {
+        AppCenter.setSegmentedStorageEnabled(true);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), any(Handler.class), eq(true));
+    }
+
+    @Test
+    public void segmentedStorageCannotChangeAfterStart() throws Exception {
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        AppCenter.setSegmentedStorageEnabled(true);
+        verifyNew(DefaultChannel.class).withArguments(any(Context.class), anyString(), any(LogSerializer.class), any(Handler.class), eq(false));
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString());
+    }
+
+    @Test
+    public void uploadJobIdBaseCanOnlyChangeBeforeStart() {
+        mockStatic(UploadPolicyEngine.class);
+        AppCenter.setUploadJobIdBase(Integer.MAX_VALUE);
+        AppCenter.setUploadJobIdBase(1000);
+        AppCenter.start(mApplication, DUMMY_APP_SECRET, DummyService.class);
+        AppCenter.setUploadJobIdBase(2000);
+        verifyStatic();
+        UploadPolicyEngine.setJobIdBase(1000);
+        verifyStatic(never());
+        UploadPolicyEngine.setJobIdBase(Integer.MAX_VALUE);
+        verifyStatic(never());
+        UploadPolicyEngine.setJobIdBase(2000);
+    }
 }
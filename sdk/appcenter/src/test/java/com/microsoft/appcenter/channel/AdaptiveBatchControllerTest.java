@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import org.junit.Test;
+
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.PARALLEL_INCREASE_THRESHOLD;
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.TARGET_LATENCY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveBatchControllerTest {
+
+    @Test
+    public void initialDecision() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 3);
+        AdaptiveBatchController.Decision decision = controller.getDecision();
+        assertEquals(40, decision.getLogsPerBatch());
+        assertEquals(3, decision.getParallelBatches());
+        assertEquals(-1, decision.getAverageLatency());
+        assertEquals(-1, decision.getThroughput());
+        assertEquals(0, decision.getFailureRate(), 0);
+    }
+
+    @Test
+    public void increaseBatchSizeOnFastFullBatches() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 3);
+
+        /* Partial batches mean there were not more logs waiting. */
+        assertFalse(controller.onSuccess(20, 0, 100));
+        assertEquals(40, controller.getLogsPerBatch());
+
+        /* Full batches grow additively. */
+        assertTrue(controller.onSuccess(40, 0, 100));
+        assertEquals(50, controller.getLogsPerBatch());
+        assertTrue(controller.onSuccess(50, 0, 100));
+        assertEquals(60, controller.getLogsPerBatch());
+
+        /* Up to the maximum. */
+        for (int i = 0; i < 100; i++) {
+            controller.onSuccess(controller.getLogsPerBatch(), 0, 100);
+        }
+        assertEquals(40 * AdaptiveBatchController.MAX_BATCH_SIZE_FACTOR, controller.getLogsPerBatch());
+        assertFalse(controller.onSuccess(controller.getLogsPerBatch(), 0, 100));
+    }
+
+    @Test
+    public void decreaseOnSlowUploads() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 3);
+        assertTrue(controller.onSuccess(40, 0, TARGET_LATENCY + 1));
+        assertEquals(20, controller.getLogsPerBatch());
+        assertEquals(1, controller.getParallelBatches());
+
+        /* Down to the minimum. */
+        for (int i = 0; i < 10; i++) {
+            controller.onSuccess(1, 0, TARGET_LATENCY + 1);
+        }
+        assertEquals(40 / AdaptiveBatchController.MIN_BATCH_SIZE_DIVISOR, controller.getLogsPerBatch());
+        assertFalse(controller.onSuccess(1, 0, TARGET_LATENCY + 1));
+
+        /* Batches keep at least 1 log. */
+        controller = new AdaptiveBatchController(3, 1);
+        controller.onFailure(true);
+        controller.onFailure(true);
+        assertEquals(1, controller.getLogsPerBatch());
+    }
+
+    @Test
+    public void decreaseOnNetworkFailuresOnly() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 4);
+        assertFalse(controller.onFailure(false));
+        assertEquals(40, controller.getLogsPerBatch());
+        assertEquals(4, controller.getParallelBatches());
+        assertEquals(0.3, controller.getDecision().getFailureRate(), 0.001);
+        assertTrue(controller.onFailure(true));
+        assertEquals(20, controller.getLogsPerBatch());
+        assertEquals(2, controller.getParallelBatches());
+
+        /* Failure rate decreases with successes. */
+        controller.onSuccess(1, 0, 100);
+        assertTrue(controller.getDecision().getFailureRate() < 1);
+    }
+
+    @Test
+    public void increaseParallelismAfterConsecutiveFastUploads() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 2);
+        controller.onFailure(true);
+        assertEquals(1, controller.getParallelBatches());
+        for (int i = 1; i < PARALLEL_INCREASE_THRESHOLD; i++) {
+            assertFalse(controller.onSuccess(1, 0, 100));
+        }
+        assertTrue(controller.onSuccess(1, 0, 100));
+        assertEquals(2, controller.getParallelBatches());
+
+        /* Never above configured value. */
+        for (int i = 0; i < PARALLEL_INCREASE_THRESHOLD * 2; i++) {
+            controller.onSuccess(1, 0, 100);
+        }
+        assertEquals(2, controller.getParallelBatches());
+    }
+
+    @Test
+    public void measurements() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(40, 2);
+        controller.onSuccess(1, 2000, 1000);
+        AdaptiveBatchController.Decision decision = controller.getDecision();
+        assertEquals(1000, decision.getAverageLatency());
+        assertEquals(2000, decision.getThroughput());
+
+        /* Moving averages, throughput unchanged when payload size is unknown. */
+        controller.onSuccess(1, 0, 2000);
+        decision = controller.getDecision();
+        assertEquals(1300, decision.getAverageLatency());
+        assertEquals(2000, decision.getThroughput());
+        assertTrue(decision.toString().contains("logsPerBatch=40"));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.net.SocketException;
+import java.util.Date;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.channel.AdaptiveBatchController.TARGET_LATENCY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class DefaultChannelAdaptiveBatchingTest extends AbstractDefaultChannelTest {
+
+    private Persistence mockPersistence(int logCount) {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(anyString())).thenReturn(logCount);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer());
+        return persistence;
+    }
+
+    private static Ingestion mockSuccessfulIngestion() {
+        Ingestion ingestion = mock(Ingestion.class);
+        when(ingestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        return ingestion;
+    }
+
+    @Test
+    public void fixedBatchSizeByDefault() {
+        Persistence persistence = mockPersistence(100);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mockSuccessfulIngestion(), mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Every batch has the configured size. */
+        verify(persistence, never()).getLogs(anyString(), anyListOf(String.class), eq(12), anyListOf(Log.class), any(Date.class), any(Date.class));
+        AdaptiveBatchController.Decision decision = channel.getBatchingDecision(TEST_GROUP);
+        assertEquals(10, decision.getLogsPerBatch());
+        assertEquals(-1, decision.getAverageLatency());
+    }
+
+    @Test
+    public void growBatchSizeOnFastUploads() {
+        Persistence persistence = mockPersistence(100);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mockSuccessfulIngestion(), mAppCenterHandler);
+        channel.setAdaptiveBatchingEnabled(true);
+        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Each full batch sent fast makes the next one bigger, the 10 remaining logs wait for the timer. */
+        InOrder inOrder = inOrder(persistence);
+        for (int size : new int[]{10, 12, 14, 16, 18, 20}) {
+            inOrder.verify(persistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(size), anyListOf(Log.class), any(Date.class), any(Date.class));
+        }
+        assertEquals(22, channel.getBatchingDecision(TEST_GROUP).getLogsPerBatch());
+        assertNull(channel.getBatchingDecision("other"));
+    }
+
+    @Test
+    public void shrinkBatchSizeOnSlowUploads() {
+        Persistence persistence = mockPersistence(120);
+        Ingestion ingestion = mock(Ingestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setAdaptiveBatchingEnabled(true);
+        channel.addGroup(TEST_GROUP, 40, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        ArgumentCaptor<ServiceCallback> callback = ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(ingestion, times(MAX_PARALLEL_BATCHES)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), callback.capture());
+
+        /* Complete first call slowly. */
+        when(System.currentTimeMillis()).thenReturn(TARGET_LATENCY + 1);
+        callback.getAllValues().get(0).onCallSucceeded("", null);
+        AdaptiveBatchController.Decision decision = channel.getBatchingDecision(TEST_GROUP);
+        assertEquals(20, decision.getLogsPerBatch());
+        assertEquals(1, decision.getParallelBatches());
+        assertEquals(TARGET_LATENCY + 1, decision.getAverageLatency());
+
+        /* No new batch while still above the parallel limit. */
+        verify(ingestion, times(MAX_PARALLEL_BATCHES)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void measureLatencyOfSuccessfulAttemptOnly() {
+        Persistence persistence = mockPersistence(120);
+        Ingestion ingestion = mock(Ingestion.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setAdaptiveBatchingEnabled(true);
+        channel.addGroup(TEST_GROUP, 40, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        ArgumentCaptor<ServiceCallback> callback = ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(ingestion, times(MAX_PARALLEL_BATCHES)).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), callback.capture());
+
+        /* The call succeeds on a retry long after it was made: the retry delay is not counted. */
+        Ingestion.AttemptListener attemptListener = (Ingestion.AttemptListener) callback.getAllValues().get(0);
+        attemptListener.onAttemptStarted();
+        when(System.currentTimeMillis()).thenReturn(10 * TARGET_LATENCY);
+        attemptListener.onAttemptStarted();
+        when(System.currentTimeMillis()).thenReturn(10 * TARGET_LATENCY + 100);
+        callback.getAllValues().get(0).onCallSucceeded("", null);
+        AdaptiveBatchController.Decision decision = channel.getBatchingDecision(TEST_GROUP);
+        assertEquals(100, decision.getAverageLatency());
+
+        /* So the upload is seen as fast and the batch grows. */
+        assertEquals(50, decision.getLogsPerBatch());
+    }
+
+    @Test
+    public void shrinkBatchSizeOnNetworkFailure() {
+        Persistence persistence = mockPersistence(100);
+        Ingestion ingestion = mock(Ingestion.class);
+        when(ingestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException()));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.setAdaptiveBatchingEnabled(true);
+        channel.addGroup(TEST_GROUP, 40, BATCH_TIME_INTERVAL, 2, null, null);
+        AdaptiveBatchController.Decision decision = channel.getBatchingDecision(TEST_GROUP);
+        assertEquals(20, decision.getLogsPerBatch());
+        assertEquals(1, decision.getParallelBatches());
+        assertEquals(0.3, decision.getFailureRate(), 0.001);
+
+        /* Next batches after network is back use the reduced size. */
+        channel.setEnabled(true);
+        verify(persistence).getLogs(eq(TEST_GROUP), anyListOf(String.class), eq(20), anyListOf(Log.class), any(Date.class), any(Date.class));
+    }
+}
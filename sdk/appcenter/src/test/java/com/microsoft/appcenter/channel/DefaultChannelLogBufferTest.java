@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.UUID;
+
+import static com.microsoft.appcenter.channel.DefaultChannel.LOG_BUFFER_FLUSH_DELAY;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DefaultChannelLogBufferTest extends AbstractDefaultChannelTest {
+
+    @Test
+    public void persistWhenBufferIsFull() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler, 3);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Logs are staged and a flush is scheduled only once. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence, never()).putLog(any(Log.class), anyString(), anyInt());
+        verify(mAppCenterHandler).postDelayed(any(Runnable.class), eq(LOG_BUFFER_FLUSH_DELAY));
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Reaching the buffer size persists all logs in a single transaction. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        InOrder inOrder = inOrder(persistence);
+        inOrder.verify(persistence).beginTransaction();
+        inOrder.verify(persistence, times(3)).putLog(any(Log.class), eq(TEST_GROUP), eq(Flags.NORMAL));
+        inOrder.verify(persistence).endTransaction();
+        verify(mAppCenterHandler).removeCallbacks(any(Runnable.class));
+        assertEquals(3, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void persistAfterDelay() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler, 50);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        verify(persistence, never()).putLog(any(Log.class), anyString(), anyInt());
+
+        /* Run the scheduled flush. */
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mAppCenterHandler).postDelayed(runnable.capture(), eq(LOG_BUFFER_FLUSH_DELAY));
+        runnable.getValue().run();
+        verify(persistence).putLog(log, TEST_GROUP, Flags.NORMAL);
+        verify(persistence).beginTransaction();
+        verify(persistence).endTransaction();
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Nothing more to persist. */
+        channel.flushLogBuffer();
+        verify(persistence).beginTransaction();
+    }
+
+    @Test
+    public void persistCriticalLogRightAway() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler, 50);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Log normalLog = mock(Log.class);
+        Log criticalLog = mock(Log.class);
+        channel.enqueue(normalLog, TEST_GROUP, Flags.DEFAULTS);
+        channel.enqueue(criticalLog, TEST_GROUP, Flags.CRITICAL);
+
+        /* Critical log is persisted with the logs staged before it. */
+        InOrder inOrder = inOrder(persistence);
+        inOrder.verify(persistence).beginTransaction();
+        inOrder.verify(persistence).putLog(normalLog, TEST_GROUP, Flags.NORMAL);
+        inOrder.verify(persistence).putLog(criticalLog, TEST_GROUP, Flags.CRITICAL);
+        inOrder.verify(persistence).endTransaction();
+    }
+
+    @Test
+    public void persistOnShutdown() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler, 50);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        channel.shutdown();
+        InOrder inOrder = inOrder(persistence);
+        inOrder.verify(persistence).putLog(log, TEST_GROUP, Flags.NORMAL);
+        inOrder.verify(persistence).clearPendingLogState();
+    }
+
+    @Test
+    public void persistBeforeClear() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler, 50);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        Log log = mock(Log.class);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        channel.clear(TEST_GROUP);
+        InOrder inOrder = inOrder(persistence);
+        inOrder.verify(persistence).putLog(log, TEST_GROUP, Flags.NORMAL);
+        inOrder.verify(persistence).deleteLogs(TEST_GROUP);
+    }
+
+    @Test
+    public void persistFailureOfStagedLog() throws Persistence.PersistenceException {
+        Persistence persistence = mock(Persistence.class);
+        Channel.GroupListener listener = mock(Channel.GroupListener.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(AppCenterIngestion.class), mAppCenterHandler, 50);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+        Log log = mock(Log.class);
+        Persistence.PersistenceException exception = new Persistence.PersistenceException("mock", null);
+        doThrow(exception).when(persistence).putLog(log, TEST_GROUP, Flags.NORMAL);
+        channel.enqueue(log, TEST_GROUP, Flags.DEFAULTS);
+        channel.flushLogBuffer();
+        verify(listener).onBeforeSending(log);
+        verify(listener).onFailure(log, exception);
+        verify(persistence).endTransaction();
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+}
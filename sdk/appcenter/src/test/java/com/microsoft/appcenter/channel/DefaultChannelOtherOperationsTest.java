@@ -14,12 +14,14 @@ import com.microsoft.appcenter.ingestion.models.Log;
 import com.microsoft.appcenter.persistence.Persistence;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Matchers;
 
 import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -32,6 +34,7 @@ import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
@@ -214,4 +217,55 @@ public class DefaultChannelOtherOperationsTest extends AbstractDefaultChannelTes
         assertTrue(channel.setMaxStorageSize(20480));
         assertFalse(channel.setMaxStorageSize(2));
     }
+
+    @Test
+    public void checkSetStorageCompressionForwarding() {
+        Persistence persistence = mock(Persistence.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        channel.setStorageCompressionEnabled(true);
+        verify(persistence).setCompressionEnabled(true);
+    }
+
+    @Test
+    public void logsEvictedFromStorage() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(TEST_GROUP)).thenReturn(3);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        ArgumentCaptor<Persistence.Listener> persistenceListener = ArgumentCaptor.forClass(Persistence.Listener.class);
+        verify(persistence).setListener(persistenceListener.capture());
+        Channel.GroupListener groupListener = mock(Channel.GroupListener.class);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, groupListener);
+
+        /* Evicted logs are no longer pending and the group is notified. */
+        persistenceListener.getValue().onLogsEvicted(TEST_GROUP, 2);
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(groupListener).onLogsEvicted(2);
+
+        /* Pending count does not go negative. */
+        persistenceListener.getValue().onLogsEvicted(TEST_GROUP, 2);
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+
+        /* Ignore unknown groups. */
+        persistenceListener.getValue().onLogsEvicted("other", 1);
+        verify(groupListener, times(2)).onLogsEvicted(2);
+        verify(groupListener, never()).onLogsEvicted(1);
+    }
+
+    @Test
+    public void logsEvictedFromStorageWithPausedTarget() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.countLogs(TEST_GROUP)).thenReturn(3);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, mock(Ingestion.class), mAppCenterHandler);
+        ArgumentCaptor<Persistence.Listener> persistenceListener = ArgumentCaptor.forClass(Persistence.Listener.class);
+        verify(persistence).setListener(persistenceListener.capture());
+        Channel.GroupListener groupListener = mock(Channel.GroupListener.class);
+        channel.addGroup(TEST_GROUP, 50, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, groupListener);
+        channel.pauseGroup(TEST_GROUP, "iKey-token");
+
+        /* Evicted logs may be logs of the paused target, pending count is only capped by stored logs. */
+        when(persistence.countLogs(TEST_GROUP)).thenReturn(2);
+        persistenceListener.getValue().onLogsEvicted(TEST_GROUP, 2);
+        assertEquals(2, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        verify(groupListener).onLogsEvicted(2);
+    }
 }
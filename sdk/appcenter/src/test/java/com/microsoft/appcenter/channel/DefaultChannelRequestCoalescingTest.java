@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.http.HttpException;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.net.SocketException;
+import java.util.Date;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.channel.DefaultChannel.CLEAR_BATCH_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings("unchecked")
+public class DefaultChannelRequestCoalescingTest extends AbstractDefaultChannelTest {
+
+    private static final String OTHER_GROUP = "group_other";
+
+    private static final int PENDING_LOG_COUNT = 5;
+
+    private Persistence mPersistence;
+
+    private Ingestion mIngestion;
+
+    private Channel.GroupListener mListener;
+
+    private Channel.GroupListener mOtherListener;
+
+    @Before
+    public void setUpChannel() {
+        mPersistence = mock(Persistence.class);
+        when(mPersistence.countLogs(anyString())).thenReturn(PENDING_LOG_COUNT);
+        when(mPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer());
+        mIngestion = mock(Ingestion.class);
+        mListener = mock(Channel.GroupListener.class);
+        mOtherListener = mock(Channel.GroupListener.class);
+    }
+
+    private DefaultChannel createChannel(boolean coalescingEnabled, Ingestion otherIngestion, long otherBatchTimeInterval) {
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mPersistence, mIngestion, mAppCenterHandler);
+        channel.setRequestCoalescingEnabled(coalescingEnabled);
+        channel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, mListener);
+        channel.addGroup(OTHER_GROUP, 10, otherBatchTimeInterval, MAX_PARALLEL_BATCHES, otherIngestion, mOtherListener);
+
+        /* Both groups wait for their timer. */
+        assertTrue(channel.getGroupState(TEST_GROUP).mScheduled);
+        assertTrue(channel.getGroupState(OTHER_GROUP).mScheduled);
+        return channel;
+    }
+
+    private ServiceCallback triggerAndCaptureCall(DefaultChannel channel, int expectedLogCount) {
+        channel.getGroupState(TEST_GROUP).mRunnable.run();
+        ArgumentCaptor<LogContainer> batch = ArgumentCaptor.forClass(LogContainer.class);
+        ArgumentCaptor<ServiceCallback> callback = ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(mIngestion).sendAsync(anyString(), anyString(), any(UUID.class), batch.capture(), callback.capture());
+        assertEquals(expectedLogCount, batch.getValue().getLogs().size());
+        return callback.getValue();
+    }
+
+    @Test
+    public void oneRequestPerGroupByDefault() {
+        DefaultChannel channel = createChannel(false, null, BATCH_TIME_INTERVAL);
+        triggerAndCaptureCall(channel, PENDING_LOG_COUNT);
+        verify(mPersistence, never()).getLogs(eq(OTHER_GROUP), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class));
+        assertTrue(channel.getGroupState(OTHER_GROUP).mScheduled);
+    }
+
+    @Test
+    public void coalesceWaitingGroups() {
+        DefaultChannel channel = createChannel(true, null, BATCH_TIME_INTERVAL);
+        ServiceCallback callback = triggerAndCaptureCall(channel, PENDING_LOG_COUNT * 2);
+        DefaultChannel.GroupState otherGroupState = channel.getGroupState(OTHER_GROUP);
+        assertFalse(otherGroupState.mScheduled);
+        verify(mAppCenterHandler).removeCallbacks(otherGroupState.mRunnable);
+        assertEquals(0, otherGroupState.mPendingLogCount);
+        assertEquals(1, otherGroupState.mSendingBatches.size());
+        verify(mOtherListener, times(PENDING_LOG_COUNT)).onBeforeSending(any(Log.class));
+
+        /* Each group gets the result of its own logs. */
+        callback.onCallSucceeded("", null);
+        verify(mListener, times(PENDING_LOG_COUNT)).onSuccess(any(Log.class));
+        verify(mOtherListener, times(PENDING_LOG_COUNT)).onSuccess(any(Log.class));
+        verify(mPersistence).deleteLogs(eq(TEST_GROUP), anyString());
+        verify(mPersistence).deleteLogs(eq(OTHER_GROUP), anyString());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mSendingBatches.size());
+        assertEquals(0, otherGroupState.mSendingBatches.size());
+    }
+
+    @Test
+    public void doNotCoalesceOtherIngestionOrCustomInterval() {
+        DefaultChannel channel = createChannel(true, mock(Ingestion.class), BATCH_TIME_INTERVAL);
+        triggerAndCaptureCall(channel, PENDING_LOG_COUNT);
+        assertTrue(channel.getGroupState(OTHER_GROUP).mScheduled);
+
+        /* Custom interval is honored. */
+        setUpChannel();
+        channel = createChannel(true, null, 10000);
+        triggerAndCaptureCall(channel, PENDING_LOG_COUNT);
+        assertTrue(channel.getGroupState(OTHER_GROUP).mScheduled);
+    }
+
+    @Test
+    public void recoverableFailureKeepsLogsOfAllGroups() {
+        DefaultChannel channel = createChannel(true, null, BATCH_TIME_INTERVAL);
+        ServiceCallback callback = triggerAndCaptureCall(channel, PENDING_LOG_COUNT * 2);
+        callback.onCallFailed(new SocketException());
+        assertFalse(channel.isEnabled());
+        assertEquals(PENDING_LOG_COUNT, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+        assertEquals(PENDING_LOG_COUNT, channel.getGroupState(OTHER_GROUP).mPendingLogCount);
+        verify(mListener, never()).onFailure(any(Log.class), any(Exception.class));
+        verify(mOtherListener, never()).onFailure(any(Log.class), any(Exception.class));
+    }
+
+    @Test
+    public void fatalFailureFailsLogsOfAllGroups() {
+        DefaultChannel channel = createChannel(true, null, BATCH_TIME_INTERVAL);
+        ServiceCallback callback = triggerAndCaptureCall(channel, PENDING_LOG_COUNT * 2);
+
+        /* No other stored logs to fail when the channel is suspended. */
+        when(mPersistence.getLogs(anyString(), anyListOf(String.class), eq(CLEAR_BATCH_SIZE), anyListOf(Log.class), any(Date.class), any(Date.class))).thenReturn(null);
+        HttpException exception = new HttpException(400);
+        callback.onCallFailed(exception);
+        assertFalse(channel.isEnabled());
+        verify(mListener, times(PENDING_LOG_COUNT)).onFailure(any(Log.class), eq(exception));
+        verify(mOtherListener, times(PENDING_LOG_COUNT)).onFailure(any(Log.class), eq(exception));
+    }
+}
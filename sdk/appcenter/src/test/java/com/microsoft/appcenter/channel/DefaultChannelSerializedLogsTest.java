@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.AppCenterIngestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DefaultChannelSerializedLogsTest extends AbstractDefaultChannelTest {
+
+    private static Answer<String> getGetSerializedLogsAnswer() {
+        return new Answer<String>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public String answer(InvocationOnMock invocation) {
+                Object[] args = invocation.getArguments();
+                int length = (int) args[2];
+                List<String> serializedLogs = (List<String>) args[3];
+                for (int i = 0; i < length; i++) {
+                    serializedLogs.add("{\"type\":\"mock\"}");
+                }
+                return UUID.randomUUID().toString();
+            }
+        };
+    }
+
+    @Test
+    public void sendSerializedLogsWithoutListener() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getSerializedLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<String>>any(), any(Date.class), any(Date.class))).then(getGetSerializedLogsAnswer());
+        AppCenterIngestion ingestion = mock(AppCenterIngestion.class);
+        when(ingestion.isSerializedLogsSupported()).thenReturn(true);
+        when(ingestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+
+        /* Enqueuing 1 log triggers sending it. */
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify logs were not deserialized. */
+        verify(persistence, never()).getLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any(), any(Date.class), any(Date.class));
+        ArgumentCaptor<LogContainer> container = ArgumentCaptor.forClass(LogContainer.class);
+        verify(ingestion).sendAsync(anyString(), anyString(), any(UUID.class), container.capture(), any(ServiceCallback.class));
+        assertNull(container.getValue().getLogs());
+        assertEquals(Collections.singletonList("{\"type\":\"mock\"}"), container.getValue().getSerializedLogs());
+
+        /* Verify logs were deleted after being sent. */
+        verify(persistence).deleteLogs(eq(TEST_GROUP), anyString());
+        assertEquals(0, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+
+    @Test
+    public void sendSerializedLogsWhenListenerCanBeSkipped() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getSerializedLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<String>>any(), any(Date.class), any(Date.class))).then(getGetSerializedLogsAnswer());
+        AppCenterIngestion ingestion = mock(AppCenterIngestion.class);
+        when(ingestion.isSerializedLogsSupported()).thenReturn(true);
+        when(ingestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        Channel.GroupListener listener = mock(Channel.GroupListener.class);
+        when(listener.canSendWithoutCallbacks()).thenReturn(true);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify no callbacks. */
+        verify(listener, never()).onBeforeSending(any(Log.class));
+        verify(listener, never()).onSuccess(any(Log.class));
+        verify(persistence).deleteLogs(eq(TEST_GROUP), anyString());
+    }
+
+    @Test
+    public void sendLogObjectsWhenListenerNeedsCallbacks() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<Log>>any(), any(Date.class), any(Date.class))).then(getGetLogsAnswer(1));
+        AppCenterIngestion ingestion = mock(AppCenterIngestion.class);
+        when(ingestion.isSerializedLogsSupported()).thenReturn(true);
+        when(ingestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer());
+        Channel.GroupListener listener = mock(Channel.GroupListener.class);
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, listener);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Verify logs were deserialized for callbacks. */
+        verify(persistence, never()).getSerializedLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<String>>any(), any(Date.class), any(Date.class));
+        verify(listener).onBeforeSending(any(Log.class));
+        verify(listener).onSuccess(any(Log.class));
+    }
+
+    @Test
+    public void recoverableFailureRestoresPendingCount() {
+        Persistence persistence = mock(Persistence.class);
+        when(persistence.getSerializedLogs(anyString(), anyListOf(String.class), anyInt(), Matchers.<List<String>>any(), any(Date.class), any(Date.class))).then(getGetSerializedLogsAnswer());
+        AppCenterIngestion ingestion = mock(AppCenterIngestion.class);
+        when(ingestion.isSerializedLogsSupported()).thenReturn(true);
+        when(ingestion.sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class))).then(getSendAsyncAnswer(new SocketException()));
+        DefaultChannel channel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), persistence, ingestion, mAppCenterHandler);
+        channel.addGroup(TEST_GROUP, 1, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        channel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+
+        /* Logs are kept and counted as pending again. */
+        verify(persistence, never()).deleteLogs(anyString(), anyString());
+        verify(persistence).clearPendingLogState();
+        assertEquals(1, channel.getGroupState(TEST_GROUP).mPendingLogCount);
+    }
+}
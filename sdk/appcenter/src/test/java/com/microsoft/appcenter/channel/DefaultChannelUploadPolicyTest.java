@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Flags;
+import com.microsoft.appcenter.UploadPolicy;
+import com.microsoft.appcenter.http.ServiceCallback;
+import com.microsoft.appcenter.ingestion.Ingestion;
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.LogContainer;
+import com.microsoft.appcenter.persistence.Persistence;
+import com.microsoft.appcenter.utils.storage.SharedPreferencesManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+
+import java.util.Date;
+import java.util.UUID;
+
+import static com.microsoft.appcenter.channel.DefaultChannel.UPLOAD_DEFERRED_PREFIX;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+public class DefaultChannelUploadPolicyTest extends AbstractDefaultChannelTest {
+
+    private static final long MAX_STALENESS = 60000;
+
+    private final UploadPolicy mUploadPolicy = new UploadPolicy(true, false, MAX_STALENESS);
+
+    @Mock
+    private UploadPolicyEngine mUploadPolicyEngine;
+
+    private Persistence mPersistence;
+
+    private Ingestion mIngestion;
+
+    private DefaultChannel mChannel;
+
+    @Before
+    public void setUpChannel() throws Exception {
+        whenNew(UploadPolicyEngine.class).withAnyArguments().thenReturn(mUploadPolicyEngine);
+        mPersistence = mock(Persistence.class);
+        when(mPersistence.countLogs(anyString())).thenReturn(5);
+        when(mPersistence.getLogs(anyString(), anyListOf(String.class), anyInt(), anyListOf(Log.class), any(Date.class), any(Date.class))).then(getGetLogsAnswer());
+        mIngestion = mock(Ingestion.class);
+        mChannel = new DefaultChannel(mock(Context.class), UUID.randomUUID().toString(), mPersistence, mIngestion, mAppCenterHandler);
+        when(System.currentTimeMillis()).thenReturn(1000L);
+    }
+
+    private void decide(boolean critical, UploadPolicyEngine.Reason reason) {
+        when(mUploadPolicyEngine.evaluate(eq(TEST_GROUP), eq(mUploadPolicy), eq(critical), anyLong())).thenReturn(new UploadPolicyEngine.Decision(TEST_GROUP, reason, 0));
+    }
+
+    @Test
+    public void noPolicyByDefault() {
+        mChannel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        verify(mAppCenterHandler).postDelayed(mChannel.getGroupState(TEST_GROUP).mRunnable, BATCH_TIME_INTERVAL);
+        verify(mUploadPolicyEngine, never()).evaluate(anyString(), any(UploadPolicy.class), anyBoolean(), anyLong());
+    }
+
+    @Test
+    public void waitForConditions() {
+        decide(false, UploadPolicyEngine.Reason.METERED_NETWORK);
+        mChannel.setUploadPolicy(TEST_GROUP, mUploadPolicy);
+        mChannel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        DefaultChannel.GroupState groupState = mChannel.getGroupState(TEST_GROUP);
+        assertTrue(groupState.mUploadDeferred);
+        assertFalse(groupState.mScheduled);
+        verify(mAppCenterHandler, never()).postDelayed(any(Runnable.class), anyLong());
+        verifyStatic();
+        SharedPreferencesManager.putLong(UPLOAD_DEFERRED_PREFIX + TEST_GROUP, 1000L);
+        verify(mUploadPolicyEngine).scheduleCheck(TEST_GROUP, mUploadPolicy, MAX_STALENESS);
+
+        /* New logs keep waiting without evaluating again. */
+        mChannel.enqueue(mock(Log.class), TEST_GROUP, Flags.DEFAULTS);
+        verify(mUploadPolicyEngine).evaluate(anyString(), any(UploadPolicy.class), anyBoolean(), anyLong());
+
+        /* Scheduled check still waiting, with less time left. */
+        when(SharedPreferencesManager.getLong(UPLOAD_DEFERRED_PREFIX + TEST_GROUP)).thenReturn(1000L);
+        when(System.currentTimeMillis()).thenReturn(11000L);
+        mChannel.checkDeferredUploads();
+        verify(mUploadPolicyEngine).scheduleCheck(TEST_GROUP, mUploadPolicy, MAX_STALENESS - 10000);
+
+        /* Conditions met. */
+        decide(false, UploadPolicyEngine.Reason.CONDITIONS_MET);
+        mChannel.checkDeferredUploads();
+        assertFalse(groupState.mUploadDeferred);
+        verify(mAppCenterHandler).postDelayed(groupState.mRunnable, BATCH_TIME_INTERVAL);
+        verifyStatic();
+        SharedPreferencesManager.remove(UPLOAD_DEFERRED_PREFIX + TEST_GROUP);
+        verify(mUploadPolicyEngine).cancelCheck(TEST_GROUP);
+    }
+
+    @Test
+    public void criticalLogsDoNotWait() {
+        decide(false, UploadPolicyEngine.Reason.NOT_CHARGING);
+        decide(true, UploadPolicyEngine.Reason.CRITICAL);
+        mChannel.setUploadPolicy(TEST_GROUP, mUploadPolicy);
+        mChannel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        DefaultChannel.GroupState groupState = mChannel.getGroupState(TEST_GROUP);
+        assertTrue(groupState.mUploadDeferred);
+
+        /* Critical log makes the group send. */
+        mChannel.enqueue(mock(Log.class), TEST_GROUP, Flags.CRITICAL);
+        assertFalse(groupState.mUploadDeferred);
+        assertTrue(groupState.mCriticalLogPending);
+        verify(mAppCenterHandler).postDelayed(groupState.mRunnable, BATCH_TIME_INTERVAL);
+        groupState.mRunnable.run();
+        verify(mIngestion).sendAsync(anyString(), anyString(), any(UUID.class), any(LogContainer.class), any(ServiceCallback.class));
+        assertFalse(groupState.mCriticalLogPending);
+    }
+
+    @Test
+    public void removePolicy() {
+        decide(false, UploadPolicyEngine.Reason.METERED_NETWORK);
+        mChannel.setUploadPolicy(TEST_GROUP, mUploadPolicy);
+        mChannel.addGroup(TEST_GROUP, 10, BATCH_TIME_INTERVAL, MAX_PARALLEL_BATCHES, null, null);
+        mChannel.setUploadPolicy(TEST_GROUP, null);
+        DefaultChannel.GroupState groupState = mChannel.getGroupState(TEST_GROUP);
+        assertFalse(groupState.mUploadDeferred);
+        verify(mAppCenterHandler).postDelayed(groupState.mRunnable, BATCH_TIME_INTERVAL);
+        verify(mUploadPolicyEngine).cancelCheck(TEST_GROUP);
+        verify(mUploadPolicyEngine, times(1)).evaluate(anyString(), any(UploadPolicy.class), anyBoolean(), anyLong());
+
+        /* Disabled channel does not check deferred groups. */
+        mChannel.setUploadPolicy(TEST_GROUP, mUploadPolicy);
+        mChannel.setEnabled(false);
+        mChannel.checkDeferredUploads();
+        verify(mUploadPolicyEngine, times(1)).evaluate(anyString(), any(UploadPolicy.class), anyBoolean(), anyLong());
+    }
+
+    @Test
+    public void listenersAndShutdown() {
+        UploadPolicyEngine.Listener listener = mock(UploadPolicyEngine.Listener.class);
+        mChannel.addUploadDecisionListener(listener);
+        verify(mUploadPolicyEngine).addListener(listener);
+        mChannel.removeUploadDecisionListener(listener);
+        verify(mUploadPolicyEngine).removeListener(listener);
+        mChannel.shutdown();
+        verify(mUploadPolicyEngine).close();
+    }
+}
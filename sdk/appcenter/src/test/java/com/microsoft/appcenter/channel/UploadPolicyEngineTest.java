@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.channel;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+
+import com.microsoft.appcenter.AppCenter;
+import com.microsoft.appcenter.UploadPolicy;
+import com.microsoft.appcenter.test.TestUtils;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.Arrays;
+
+import static com.microsoft.appcenter.channel.UploadPolicyEngine.CHECK_INTERVAL;
+import static com.microsoft.appcenter.channel.UploadPolicyEngine.DEFAULT_JOB_ID_BASE;
+import static com.microsoft.appcenter.channel.UploadPolicyEngine.JOB_ID_COUNT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.verifyStatic;
+import static org.powermock.api.mockito.PowerMockito.whenNew;
+
+@PrepareForTest({AppCenterLog.class, NetworkStateHelper.class, UploadPolicyEngine.class})
+public class UploadPolicyEngineTest {
+
+    private static final String GROUP = "group_test";
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Mock
+    private Context mContext;
+
+    @Mock
+    private Handler mHandler;
+
+    @Mock
+    private Runnable mCheckRunnable;
+
+    @Mock
+    private NetworkStateHelper mNetworkStateHelper;
+
+    @Mock
+    private ConnectivityManager mConnectivityManager;
+
+    @Mock
+    private Intent mBatteryStatus;
+
+    private UploadPolicyEngine mUploadPolicyEngine;
+
+    @Before
+    public void setUp() {
+        mockStatic(AppCenterLog.class);
+        mockStatic(NetworkStateHelper.class);
+        when(NetworkStateHelper.getSharedInstance(any(Context.class))).thenReturn(mNetworkStateHelper);
+        when(mContext.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mConnectivityManager);
+        when(mContext.registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class))).thenReturn(mBatteryStatus);
+        mUploadPolicyEngine = new UploadPolicyEngine(mContext, mHandler, mCheckRunnable);
+        UploadPolicyEngine.setJobIdBase(DEFAULT_JOB_ID_BASE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mUploadPolicyEngine.close();
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
+    }
+
+    @Test
+    public void decisions() {
+        UploadPolicyEngine.Listener listener = mock(UploadPolicyEngine.Listener.class);
+        mUploadPolicyEngine.addListener(listener);
+        UploadPolicy uploadPolicy = new UploadPolicy(true, true, 1000);
+        when(mNetworkStateHelper.isNetworkMetered()).thenReturn(true);
+
+        /* Critical and stale logs are sent whatever the conditions. */
+        UploadPolicyEngine.Decision decision = mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, true, 0);
+        assertEquals(UploadPolicyEngine.Reason.CRITICAL, decision.getReason());
+        assertFalse(decision.isDeferred());
+        assertEquals(UploadPolicyEngine.Reason.MAX_STALENESS_REACHED, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 1000).getReason());
+
+        /* Wait for unmetered network. */
+        decision = mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 999);
+        assertEquals(UploadPolicyEngine.Reason.METERED_NETWORK, decision.getReason());
+        assertTrue(decision.isDeferred());
+        assertEquals(GROUP, decision.getGroupName());
+        assertEquals(999, decision.getWaitingTime());
+        verify(listener).onUploadDecision(decision);
+
+        /* Then for charging. */
+        when(mNetworkStateHelper.isNetworkMetered()).thenReturn(false);
+        assertEquals(UploadPolicyEngine.Reason.NOT_CHARGING, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+        when(mBatteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0)).thenReturn(BatteryManager.BATTERY_PLUGGED_USB);
+        assertEquals(UploadPolicyEngine.Reason.CONDITIONS_MET, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+
+        /* Battery status failure counts as not charging. */
+        when(mContext.registerReceiver(any(BroadcastReceiver.class), any(IntentFilter.class))).thenThrow(new SecurityException());
+        assertEquals(UploadPolicyEngine.Reason.NOT_CHARGING, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+
+        /* No staleness limit and no condition. */
+        assertEquals(UploadPolicyEngine.Reason.CONDITIONS_MET, mUploadPolicyEngine.evaluate(GROUP, new UploadPolicy(false, false, -1), false, Long.MAX_VALUE).getReason());
+        mUploadPolicyEngine.removeListener(listener);
+        mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, true, 0);
+        verify(listener, times(7)).onUploadDecision(any(UploadPolicyEngine.Decision.class));
+    }
+
+    @Test
+    public void scheduleOnHandlerBeforeLollipop() {
+        UploadPolicy uploadPolicy = new UploadPolicy(true, false, 0);
+        mUploadPolicyEngine.scheduleCheck(GROUP, uploadPolicy, 1000);
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandler).postDelayed(runnable.capture(), eq(1000L));
+
+        /* A later check does not replace an earlier one. */
+        mUploadPolicyEngine.scheduleCheck(GROUP, uploadPolicy, -1);
+        verify(mHandler, times(1)).postDelayed(any(Runnable.class), anyLong());
+
+        /* Check then schedule the next one. */
+        runnable.getValue().run();
+        verify(mCheckRunnable).run();
+        mUploadPolicyEngine.scheduleCheck(GROUP, uploadPolicy, -1);
+        verify(mHandler).postDelayed(runnable.getValue(), CHECK_INTERVAL);
+
+        /* Jobs are not used. */
+        mUploadPolicyEngine.cancelCheck(GROUP);
+        verify(mContext, never()).getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        verify(mConnectivityManager, never()).isDefaultNetworkActive();
+    }
+
+    @Test
+    public void scheduleJobFromLollipop() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+        JobScheduler jobScheduler = mock(JobScheduler.class);
+        when(mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE)).thenReturn(jobScheduler);
+        JobInfo.Builder builder = mock(JobInfo.Builder.class);
+        JobInfo jobInfo = mock(JobInfo.class);
+        when(builder.build()).thenReturn(jobInfo);
+        whenNew(JobInfo.Builder.class).withAnyArguments().thenReturn(builder);
+
+        /* Schedule with the policy as constraints. */
+        mUploadPolicyEngine.scheduleCheck(GROUP, new UploadPolicy(true, true, 1000), 500);
+        verify(builder).setRequiredNetworkType(JobInfo.NETWORK_TYPE_UNMETERED);
+        verify(builder).setRequiresCharging(true);
+        verify(builder).setOverrideDeadline(500);
+        verify(jobScheduler).schedule(jobInfo);
+        mUploadPolicyEngine.scheduleCheck(GROUP, new UploadPolicy(false, false, 0), -1);
+        verify(builder).setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY);
+        verify(builder, times(1)).setOverrideDeadline(anyLong());
+        verify(mHandler, never()).postDelayed(any(Runnable.class), anyLong());
+
+        /* Job start and radio activity trigger a check. */
+        UploadPolicyEngine.onJobStarted();
+        verify(mHandler).post(mCheckRunnable);
+        ArgumentCaptor<ConnectivityManager.OnNetworkActiveListener> listener = ArgumentCaptor.forClass(ConnectivityManager.OnNetworkActiveListener.class);
+        verify(mConnectivityManager).addDefaultNetworkActiveListener(listener.capture());
+        listener.getValue().onNetworkActive();
+        verify(mHandler, times(2)).post(mCheckRunnable);
+
+        /* Active radio allows sending without charging. */
+        UploadPolicy uploadPolicy = new UploadPolicy(false, true, 0);
+        assertEquals(UploadPolicyEngine.Reason.NOT_CHARGING, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+        when(mConnectivityManager.isDefaultNetworkActive()).thenReturn(true);
+        assertEquals(UploadPolicyEngine.Reason.CONDITIONS_MET, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+
+        /* Cancel. */
+        mUploadPolicyEngine.cancelCheck(GROUP);
+        verify(jobScheduler).cancel(UploadPolicyEngine.getJobId(GROUP));
+
+        /* Close stops listening in this process. */
+        mUploadPolicyEngine.close();
+        verify(mConnectivityManager).removeDefaultNetworkActiveListener(listener.getValue());
+        UploadPolicyEngine.onJobStarted();
+        verify(mHandler, times(2)).post(mCheckRunnable);
+    }
+
+    @Test
+    public void scheduleJobFailures() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+        UploadPolicy uploadPolicy = new UploadPolicy(true, true, 0);
+
+        /* No system services. */
+        when(mContext.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(null);
+        mUploadPolicyEngine.scheduleCheck(GROUP, uploadPolicy, -1);
+        mUploadPolicyEngine.cancelCheck(GROUP);
+        assertEquals(UploadPolicyEngine.Reason.NOT_CHARGING, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+
+        /* Scheduling and listening fail. */
+        when(mContext.getSystemService(Context.CONNECTIVITY_SERVICE)).thenReturn(mConnectivityManager);
+        doThrow(new SecurityException()).when(mConnectivityManager).addDefaultNetworkActiveListener(any(ConnectivityManager.OnNetworkActiveListener.class));
+        JobScheduler jobScheduler = mock(JobScheduler.class);
+        when(jobScheduler.schedule(any(JobInfo.class))).thenThrow(new IllegalArgumentException());
+        when(mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE)).thenReturn(jobScheduler);
+        whenNew(JobInfo.Builder.class).withAnyArguments().thenReturn(mock(JobInfo.Builder.class));
+        mUploadPolicyEngine.scheduleCheck(GROUP, uploadPolicy, -1);
+        verify(jobScheduler).schedule(any(JobInfo.class));
+        when(mConnectivityManager.isDefaultNetworkActive()).thenThrow(new SecurityException());
+        assertEquals(UploadPolicyEngine.Reason.NOT_CHARGING, mUploadPolicyEngine.evaluate(GROUP, uploadPolicy, false, 0).getReason());
+    }
+
+    @Test
+    public void jobIds() {
+        int jobId = UploadPolicyEngine.getJobId(GROUP);
+        assertTrue(jobId >= DEFAULT_JOB_ID_BASE && jobId < DEFAULT_JOB_ID_BASE + JOB_ID_COUNT);
+        assertEquals(jobId, UploadPolicyEngine.getJobId(GROUP));
+        assertNotEquals(jobId, UploadPolicyEngine.getJobId(GROUP + "_critical"));
+
+        /* Groups with colliding hashes get different identifiers. */
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        int collidingJobId = UploadPolicyEngine.getJobId("Aa");
+        assertNotEquals(collidingJobId, UploadPolicyEngine.getJobId("BB"));
+        assertEquals(collidingJobId, UploadPolicyEngine.getJobId("Aa"));
+
+        /* Base can be changed. */
+        UploadPolicyEngine.setJobIdBase(1000);
+        jobId = UploadPolicyEngine.getJobId(GROUP);
+        assertTrue(jobId >= 1000 && jobId < 1000 + JOB_ID_COUNT);
+
+        /* Identifiers are shared when there are too many groups. */
+        for (int i = 0; i < JOB_ID_COUNT; i++) {
+            UploadPolicyEngine.getJobId(GROUP + i);
+        }
+        verifyStatic();
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString());
+    }
+
+    @Test
+    public void doNotReplaceApplicationJobs() throws Exception {
+        TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+        JobScheduler jobScheduler = mock(JobScheduler.class);
+        when(mContext.getSystemService(Context.JOB_SCHEDULER_SERVICE)).thenReturn(jobScheduler);
+        whenNew(JobInfo.Builder.class).withAnyArguments().thenReturn(mock(JobInfo.Builder.class));
+        JobInfo uploadJob = mock(JobInfo.class);
+        when(uploadJob.getId()).thenReturn(UploadPolicyEngine.getJobId(GROUP));
+        ComponentName uploadService = mock(ComponentName.class);
+        when(uploadService.getClassName()).thenReturn(UploadJobService.class.getName());
+        when(uploadJob.getService()).thenReturn(uploadService);
+        JobInfo applicationJob = mock(JobInfo.class);
+        when(applicationJob.getId()).thenReturn(UploadPolicyEngine.getJobId(GROUP + "_critical"));
+        ComponentName applicationService = mock(ComponentName.class);
+        when(applicationService.getClassName()).thenReturn("com.mock.MockJobService");
+        when(applicationJob.getService()).thenReturn(applicationService);
+        when(jobScheduler.getAllPendingJobs()).thenReturn(Arrays.asList(uploadJob, applicationJob));
+
+        /* Our own pending job is replaced. */
+        mUploadPolicyEngine.scheduleCheck(GROUP, new UploadPolicy(true, false, 0), -1);
+        verify(jobScheduler).schedule(any(JobInfo.class));
+        mUploadPolicyEngine.cancelCheck(GROUP);
+        verify(jobScheduler).cancel(UploadPolicyEngine.getJobId(GROUP));
+
+        /* The job of the application is neither replaced nor cancelled. */
+        mUploadPolicyEngine.scheduleCheck(GROUP + "_critical", new UploadPolicy(true, false, 0), -1);
+        verify(jobScheduler).schedule(any(JobInfo.class));
+        mUploadPolicyEngine.cancelCheck(GROUP + "_critical");
+        verify(jobScheduler, never()).cancel(UploadPolicyEngine.getJobId(GROUP + "_critical"));
+        verifyStatic(times(2));
+        AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import com.microsoft.appcenter.utils.NetworkStateHelper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import static com.microsoft.appcenter.http.CompressionPolicy.ENCODING_REJECTED_DURATION;
+import static com.microsoft.appcenter.http.CompressionPolicy.MAX_COMPRESSION_TIME_PER_MB;
+import static com.microsoft.appcenter.http.CompressionPolicy.MIN_COMPRESSION_LENGTH;
+import static com.microsoft.appcenter.http.CompressionPolicy.MIN_SAMPLES;
+import static com.microsoft.appcenter.http.CompressionPolicy.NO_COMPRESSION;
+import static com.microsoft.appcenter.http.CompressionPolicy.PROBE_INTERVAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+import static org.powermock.api.mockito.PowerMockito.when;
+
+@PrepareForTest({CompressionPolicy.class, System.class})
+public class CompressionPolicyTest {
+
+    private static final String ORIGIN = "https://mock:443";
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    private CompressionPolicy mCompressionPolicy;
+
+    private NetworkStateHelper mNetworkStateHelper;
+
+    @Before
+    public void setUp() {
+        mockStatic(System.class);
+        mCompressionPolicy = new CompressionPolicy();
+        mNetworkStateHelper = mock(NetworkStateHelper.class);
+        mCompressionPolicy.setNetworkStateHelper(mNetworkStateHelper);
+    }
+
+    private static long millis(double duration) {
+        return (long) (duration * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private void compress(int level, long uncompressedBytes, long compressedBytes, long duration, int count) {
+        for (int i = 0; i < count; i++) {
+            mCompressionPolicy.onCompressed(ORIGIN, level, uncompressedBytes, compressedBytes, duration);
+        }
+    }
+
+    @Test
+    public void sharedInstance() {
+        assertSame(CompressionPolicy.getSharedInstance(), CompressionPolicy.getSharedInstance());
+    }
+
+    @Test
+    public void levelByLengthAndNetwork() {
+        assertEquals(NO_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 0));
+        assertEquals(NO_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, MIN_COMPRESSION_LENGTH - 1));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, MIN_COMPRESSION_LENGTH));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+
+        /* Save bytes on metered network. */
+        when(mNetworkStateHelper.isNetworkMetered()).thenReturn(true);
+        assertEquals(Deflater.BEST_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, MIN_COMPRESSION_LENGTH));
+
+        /* Without network information. */
+        mCompressionPolicy.setNetworkStateHelper(null);
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(null, MIN_COMPRESSION_LENGTH));
+    }
+
+    @Test
+    public void stepDownWhenCompressionIsSlow() {
+        when(mNetworkStateHelper.isNetworkMetered()).thenReturn(true);
+        compress(Deflater.BEST_COMPRESSION, MEGABYTE, MEGABYTE / 10, millis(MAX_COMPRESSION_TIME_PER_MB), MIN_SAMPLES);
+        assertEquals(Deflater.BEST_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+
+        /* A single slow measure is not enough. */
+        mCompressionPolicy = new CompressionPolicy();
+        mCompressionPolicy.setNetworkStateHelper(mNetworkStateHelper);
+        mCompressionPolicy.onCompressed(ORIGIN, Deflater.BEST_COMPRESSION, MEGABYTE / 2, MEGABYTE / 20, millis(MAX_COMPRESSION_TIME_PER_MB * 2));
+        assertEquals(Deflater.BEST_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+        compress(Deflater.BEST_COMPRESSION, MEGABYTE / 2, MEGABYTE / 20, millis(MAX_COMPRESSION_TIME_PER_MB), MIN_SAMPLES - 1);
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+        compress(Deflater.DEFAULT_COMPRESSION, MEGABYTE, MEGABYTE / 10, millis(MAX_COMPRESSION_TIME_PER_MB * 2), MIN_SAMPLES);
+        assertEquals(Deflater.BEST_SPEED, mCompressionPolicy.getLevel(ORIGIN, -1));
+
+        /* Not measured durations are ignored, other origins are not affected. */
+        mCompressionPolicy.onCompressed(ORIGIN, Deflater.DEFAULT_COMPRESSION, MEGABYTE, MEGABYTE / 10, -1);
+        assertEquals(Deflater.BEST_SPEED, mCompressionPolicy.getLevel(ORIGIN, -1));
+        assertEquals(Deflater.BEST_COMPRESSION, mCompressionPolicy.getLevel("https://other:443", -1));
+
+        /* Faster compression brings the level back. */
+        compress(Deflater.DEFAULT_COMPRESSION, MEGABYTE, MEGABYTE / 10, millis(1), 10);
+        compress(Deflater.BEST_COMPRESSION, MEGABYTE, MEGABYTE / 10, millis(1), 10);
+        assertEquals(Deflater.BEST_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+    }
+
+    @Test
+    public void probeHigherLevelFromTimeToTime() {
+        compress(Deflater.DEFAULT_COMPRESSION, MEGABYTE, MEGABYTE / 10, millis(MAX_COMPRESSION_TIME_PER_MB * 2), MIN_SAMPLES);
+        for (int i = 1; i < PROBE_INTERVAL; i++) {
+            assertEquals(Deflater.BEST_SPEED, mCompressionPolicy.getLevel(ORIGIN, -1));
+        }
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+        assertEquals(Deflater.BEST_SPEED, mCompressionPolicy.getLevel(ORIGIN, -1));
+
+        /* On metered network, the next level up is probed. */
+        when(mNetworkStateHelper.isNetworkMetered()).thenReturn(true);
+        compress(Deflater.BEST_COMPRESSION, MEGABYTE, MEGABYTE / 10, millis(MAX_COMPRESSION_TIME_PER_MB * 2), MIN_SAMPLES);
+        for (int i = 2; i < PROBE_INTERVAL; i++) {
+            assertEquals(Deflater.BEST_SPEED, mCompressionPolicy.getLevel(ORIGIN, -1));
+        }
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, -1));
+    }
+
+    @Test
+    public void skipWhenNotUseful() {
+        mCompressionPolicy.onCompressed(ORIGIN, Deflater.DEFAULT_COMPRESSION, 0, 0, 0);
+        compress(Deflater.DEFAULT_COMPRESSION, 10000, 9900, 0, MIN_SAMPLES - 1);
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+        mCompressionPolicy.onCompressed(ORIGIN, Deflater.DEFAULT_COMPRESSION, 10000, 9900, 0);
+        for (int i = 1; i < PROBE_INTERVAL; i++) {
+            assertEquals(NO_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+        }
+
+        /* Probe from time to time. */
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+        assertEquals(NO_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+
+        /* Compress again when ratio gets better. */
+        compress(Deflater.DEFAULT_COMPRESSION, 10000, 1000, 0, 5);
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+    }
+
+    @Test
+    public void encodingRejected() {
+        when(System.nanoTime()).thenReturn(-10L);
+        mCompressionPolicy.onEncodingRejected(ORIGIN);
+        assertEquals(NO_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel("https://other:443", 10000));
+
+        /* Compression is tried again after a while. */
+        when(System.nanoTime()).thenReturn(ENCODING_REJECTED_DURATION - 11);
+        assertEquals(NO_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+        when(System.nanoTime()).thenReturn(ENCODING_REJECTED_DURATION - 10);
+        assertEquals(Deflater.DEFAULT_COMPRESSION, mCompressionPolicy.getLevel(ORIGIN, 10000));
+    }
+}
@@ -17,6 +17,7 @@ import com.microsoft.appcenter.utils.HandlerUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -34,6 +35,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -45,7 +47,9 @@ import java.util.UUID;
 import java.util.concurrent.Executor;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import javax.net.ssl.HttpsURLConnection;
@@ -56,8 +60,11 @@ import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
@@ -93,9 +100,17 @@ public class DefaultHttpClientTest {
     @Captor
     private ArgumentCaptor<Map<String, String>> mHeadersCaptor;
 
+    @Before
+    public void setUp() {
+
+        /* Compression statistics from previous tests would change compression levels. */
+        CompressionPolicy.unsetInstance();
+    }
+
     @After
     public void tearDown() throws Exception {
         TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
+        CompressionPolicy.unsetInstance();
     }
 
     /**
@@ -231,7 +246,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -285,7 +300,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         httpClient.close();
 
         /* Verify payload. */
@@ -329,7 +344,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -396,7 +411,7 @@ public class DefaultHttpClientTest {
         httpClient.callAsync(urlString, METHOD_POST, headers, null, serviceCallback);
         verify(serviceCallback).onCallFailed(new HttpException(100, "Continue"));
         verifyNoMoreInteractions(serviceCallback);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
     }
 
     @Test
@@ -433,7 +448,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Install-ID", installId.toString());
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         httpClient.close();
     }
 
@@ -469,7 +484,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -535,7 +550,7 @@ public class DefaultHttpClientTest {
         verifyNoMoreInteractions(serviceCallback);
         verify(urlConnection).setRequestMethod("GET");
         verify(urlConnection, never()).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(inputStream).close();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate, never()).buildRequestBody();
@@ -616,7 +631,7 @@ public class DefaultHttpClientTest {
         httpClient.callAsync(urlString, METHOD_POST, headers, callTemplate, serviceCallback);
         verify(serviceCallback).onCallFailed(new HttpException(503, "Busy"));
         verifyNoMoreInteractions(serviceCallback);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
 
         /* Verify socket tagged to avoid strict mode error. */
         verifyStatic();
@@ -952,13 +967,23 @@ public class DefaultHttpClientTest {
         /* Mock ingestion to fail on saturated executor in AsyncTask. */
         DefaultHttpClientCallTask call = mock(DefaultHttpClientCallTask.class);
         whenNew(DefaultHttpClientCallTask.class).withAnyArguments().thenReturn(call);
-        RejectedExecutionException exception = new RejectedExecutionException();
-        when(call.executeOnExecutor(any(Executor.class))).thenThrow(exception);
-        DefaultHttpClient httpClient = new DefaultHttpClient();
+        final RejectedExecutionException exception = new RejectedExecutionException();
+        final DefaultHttpClient httpClient = new DefaultHttpClient();
+        when(call.executeOnExecutor(any(Executor.class))).then(new Answer<Object>() {
+
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+
+                /* The task is tracked in onPreExecute before the executor rejects it. */
+                httpClient.onStart((DefaultHttpClientCallTask) invocation.getMock());
+                throw exception;
+            }
+        });
 
         /* Test. */
         ServiceCallback serviceCallback = mock(ServiceCallback.class);
         assertNotNull(httpClient.callAsync("", "", new HashMap<String, String>(), mock(HttpClient.CallTemplate.class), serviceCallback));
+        assertTrue(httpClient.getTasks().isEmpty());
 
         /* Verify the callback call from "main" thread. */
         semaphore.acquireUninterruptibly();
@@ -966,6 +991,22 @@ public class DefaultHttpClientTest {
         verify(serviceCallback, never()).onCallSucceeded(notNull(String.class), anyMapOf(String.class, String.class));
     }
 
+    @Test
+    public void useSharedNetworkExecutorByDefault() {
+        assertSame(NetworkExecutor.getSharedInstance(), new DefaultHttpClient().getExecutor());
+        assertSame(NetworkExecutor.getSharedInstance(), new DefaultHttpClient(false).getExecutor());
+    }
+
+    @Test
+    public void useProvidedExecutor() throws Exception {
+        DefaultHttpClientCallTask call = mock(DefaultHttpClientCallTask.class);
+        whenNew(DefaultHttpClientCallTask.class).withAnyArguments().thenReturn(call);
+        Executor executor = mock(Executor.class);
+        DefaultHttpClient httpClient = new DefaultHttpClient(true, executor);
+        httpClient.callAsync("", "", new HashMap<String, String>(), mock(HttpClient.CallTemplate.class), mock(ServiceCallback.class));
+        verify(call).executeOnExecutor(executor);
+    }
+
     @Test
     public void sendGzipWithoutVerboseLogging() throws Exception {
 
@@ -1020,7 +1061,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1085,7 +1126,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1150,7 +1191,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection, never()).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1222,7 +1263,7 @@ public class DefaultHttpClientTest {
         verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
         verify(urlConnection).setRequestMethod("POST");
         verify(urlConnection).setDoOutput(true);
-        verify(urlConnection).disconnect();
+        verify(urlConnection, never()).disconnect();
         verify(callTemplate).onBeforeCalling(eq(url), anyMapOf(String.class, String.class));
         verify(callTemplate).buildRequestBody();
         httpClient.close();
@@ -1240,6 +1281,309 @@ public class DefaultHttpClientTest {
         }));
     }
 
+    /**
+     * Mock a streaming call template writing the payload in small pieces.
+     */
+    private static HttpClient.StreamingCallTemplate mockStreamingCallTemplate(final String payload) throws Exception {
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn(payload);
+        doAnswer(new Answer<Void>() {
+
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Writer writer = (Writer) invocation.getArguments()[0];
+                for (int i = 0; i < payload.length(); i += 100) {
+                    writer.write(payload, i, Math.min(100, payload.length() - i));
+                }
+                return null;
+            }
+        }).when(callTemplate).writeRequestBody(any(Writer.class));
+        return callTemplate;
+    }
+
+    private static String generatePayload(int length) {
+        StringBuilder payloadBuilder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            payloadBuilder.append((char) ('a' + i % 26));
+        }
+        return payloadBuilder.toString();
+    }
+
+    private static HttpsURLConnection mockConnection(String urlString, OutputStream outputStream) throws Exception {
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(url.openConnection()).thenReturn(urlConnection);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getOutputStream()).thenReturn(outputStream);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        return urlConnection;
+    }
+
+    @Test
+    public void streamSmallPayloadWithFixedLength() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mockConnection("https://mock", buffer);
+        String payload = generatePayload(1399);
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(payload);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://mock", METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK", Collections.<String, String>emptyMap());
+
+        /* Payload is sent as is with its length. */
+        verify(callTemplate, never()).buildRequestBody();
+        verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
+        verify(urlConnection).setRequestProperty("Content-Type", "application/json");
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        verify(urlConnection).setFixedLengthStreamingMode(1399);
+        verify(urlConnection, never()).setChunkedStreamingMode(anyInt());
+        assertEquals(payload, buffer.toString());
+        httpClient.close();
+    }
+
+    @Test
+    public void streamLargePayloadWithGzip() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mockConnection("https://mock", buffer);
+        String payload = generatePayload(100000);
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(payload);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://mock", METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK", Collections.<String, String>emptyMap());
+
+        /* Payload is compressed on the fly and sent in chunks. */
+        verify(callTemplate, never()).buildRequestBody();
+        verify(callTemplate).onBeforeCalling(any(URL.class), anyMapOf(String.class, String.class));
+        verify(urlConnection).setRequestProperty("Content-Encoding", "gzip");
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        verify(urlConnection, never()).setFixedLengthStreamingMode(anyInt());
+        GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        byte[] readBuffer = new byte[1024];
+        int length;
+        while ((length = gzipStream.read(readBuffer)) > 0) {
+            decompressed.write(readBuffer, 0, length);
+        }
+        assertEquals(payload, decompressed.toString());
+        httpClient.close();
+    }
+
+    @Test
+    public void measureStreamedCompressionWithoutNetworkTime() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        CompressionPolicy compressionPolicy = spy(new CompressionPolicy());
+        TestUtils.setInternalState(CompressionPolicy.class, "sSharedInstance", compressionPolicy);
+
+        /* Simulate a slow network. */
+        final long networkDelay = 200;
+        OutputStream slowStream = new ByteArrayOutputStream() {
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                try {
+                    Thread.sleep(networkDelay);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                super.write(b, off, len);
+            }
+        };
+        mockConnection("https://mock", slowStream);
+        String payload = generatePayload(100000);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://mock", METHOD_POST, new HashMap<String, String>(), mockStreamingCallTemplate(payload), mock(ServiceCallback.class));
+
+        /* Compression time is reported without the time spent sending. */
+        ArgumentCaptor<Long> duration = ArgumentCaptor.forClass(Long.class);
+        verify(compressionPolicy).onCompressed(eq("https://mock:443"), anyInt(), eq(100000L), anyLong(), duration.capture());
+        assertTrue(duration.getValue() >= 0);
+        assertTrue(duration.getValue() < TimeUnit.MILLISECONDS.toNanos(networkDelay));
+        httpClient.close();
+    }
+
+    @Test
+    public void recordAttemptMetrics() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        HttpMetrics.getSharedInstance().reset();
+
+        /* Use a host that is not called by other tests. Streamed and compressed. */
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mockConnection("https://metrics/streamed", buffer);
+        String payload = generatePayload(100000);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://metrics/streamed", METHOD_POST, new HashMap<String, String>(), mockStreamingCallTemplate(payload), mock(ServiceCallback.class));
+        verify(urlConnection).connect();
+        int streamedBytes = buffer.size();
+
+        /* Built in memory, not compressed, failing. */
+        buffer = new ByteArrayOutputStream();
+        urlConnection = mockConnection("https://metrics/built", buffer);
+        when(urlConnection.getResponseCode()).thenReturn(503);
+        when(urlConnection.getErrorStream()).thenReturn(new ByteArrayInputStream("Busy".getBytes()));
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn("{a:1}");
+        httpClient.callAsync("https://metrics/built", METHOD_POST, new HashMap<String, String>(), callTemplate, mock(ServiceCallback.class));
+
+        /* Network error before connection. */
+        urlConnection = mockConnection("https://metrics/get", buffer);
+        doThrow(new IOException()).when(urlConnection).connect();
+        httpClient.callAsync("https://metrics/get", METHOD_GET, new HashMap<String, String>(), null, mock(ServiceCallback.class));
+        httpClient.close();
+
+        /* Verify metrics of the endpoint. */
+        HttpMetrics.EndpointMetrics metrics = HttpMetrics.getSharedInstance().getSnapshot().get("https://metrics:443");
+        assertNotNull(metrics);
+        assertEquals(3, metrics.getAttemptCount());
+        assertEquals(Long.valueOf(1), metrics.getStatusCodeCounts().get(200));
+        assertEquals(Long.valueOf(1), metrics.getStatusCodeCounts().get(503));
+        assertEquals(Long.valueOf(1), metrics.getStatusCodeCounts().get(HttpMetrics.NO_RESPONSE));
+        assertEquals(100000 + 5, metrics.getUncompressedRequestBytes());
+        assertEquals(streamedBytes + 5, metrics.getRequestBytes());
+        assertTrue(streamedBytes < 100000);
+        assertEquals(2 + 4, metrics.getResponseBytes());
+        assertEquals(2, metrics.getConnectLatency().getCount());
+        assertEquals(2, metrics.getTimeToFirstByte().getCount());
+        assertEquals(3, metrics.getAttemptLatency().getCount());
+        HttpMetrics.getSharedInstance().reset();
+    }
+
+    @Test
+    public void sendUncompressedWhenServerRejectsCompression() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+
+        /* First connection rejects compressed body, use a host not called by other tests. */
+        String urlString = "https://rejecting/logs";
+        URL url = mock(URL.class);
+        whenNew(URL.class).withArguments(urlString).thenReturn(url);
+        HttpsURLConnection rejectingConnection = mock(HttpsURLConnection.class);
+        when(rejectingConnection.getResponseCode()).thenReturn(415);
+        when(rejectingConnection.getErrorStream()).thenReturn(new ByteArrayInputStream("Unsupported".getBytes()));
+        when(rejectingConnection.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mock(HttpsURLConnection.class);
+        when(urlConnection.getResponseCode()).thenReturn(200);
+        when(urlConnection.getOutputStream()).thenReturn(buffer);
+        when(urlConnection.getInputStream()).thenReturn(new ByteArrayInputStream("OK".getBytes()));
+        when(url.openConnection()).thenReturn(rejectingConnection).thenReturn(urlConnection);
+        String payload = generatePayload(2000);
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        when(callTemplate.buildRequestBody()).thenReturn(payload);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+
+        /* Request is sent again uncompressed in the same call. */
+        verify(serviceCallback).onCallSucceeded("OK", Collections.<String, String>emptyMap());
+        verifyNoMoreInteractions(serviceCallback);
+        verify(rejectingConnection).setRequestProperty("Content-Encoding", "gzip");
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        assertEquals(payload, buffer.toString());
+
+        /* Next calls to that server are not compressed. */
+        buffer = new ByteArrayOutputStream();
+        urlConnection = mockConnection(urlString, buffer);
+        httpClient.callAsync(urlString, METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        assertEquals(payload, buffer.toString());
+        httpClient.close();
+    }
+
+    @Test
+    public void streamLargePayloadWhenCompressionDisabled() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mockConnection("https://mock", buffer);
+        String payload = generatePayload(2000);
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(payload);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient(false);
+        httpClient.callAsync("https://mock", METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK", Collections.<String, String>emptyMap());
+        verify(urlConnection, never()).setRequestProperty(eq("Content-Encoding"), anyString());
+        verify(urlConnection).setChunkedStreamingMode(anyInt());
+        assertEquals(payload, buffer.toString());
+        httpClient.close();
+    }
+
+    @Test
+    public void doNotStreamWithVerboseLogging() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.VERBOSE);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mockConnection("https://mock", buffer);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "custom");
+        String payload = generatePayload(100);
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(payload);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://mock", METHOD_POST, headers, callTemplate, serviceCallback);
+        verify(serviceCallback).onCallSucceeded("OK", Collections.<String, String>emptyMap());
+        verify(callTemplate).buildRequestBody();
+        verify(callTemplate, never()).writeRequestBody(any(Writer.class));
+        verify(urlConnection).setFixedLengthStreamingMode(100);
+        assertEquals(payload, buffer.toString());
+        httpClient.close();
+    }
+
+    @Test
+    public void cancelledOnStreaming() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        HttpsURLConnection urlConnection = mockConnection("https://mock", buffer);
+        HttpClient.StreamingCallTemplate callTemplate = mockStreamingCallTemplate(generatePayload(100000));
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall(new Consumer<DefaultHttpClientCallTask>() {
+
+            @Override
+            public void accept(DefaultHttpClientCallTask call) {
+                when(call.isCancelled()).thenReturn(false, false, true);
+            }
+        });
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://mock", METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verifyZeroInteractions(serviceCallback);
+        verify(urlConnection, never()).getResponseCode();
+        verify(urlConnection).disconnect();
+        httpClient.close();
+    }
+
+    @Test
+    public void failedToStreamPayload() throws Exception {
+        mockStatic(AppCenterLog.class);
+        when(AppCenterLog.getLogLevel()).thenReturn(Log.DEBUG);
+        HttpsURLConnection urlConnection = mockConnection("https://mock", new ByteArrayOutputStream());
+        HttpClient.StreamingCallTemplate callTemplate = mock(HttpClient.StreamingCallTemplate.class);
+        JSONException exception = new JSONException("mock");
+        doThrow(exception).when(callTemplate).writeRequestBody(any(Writer.class));
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        mockCall();
+        DefaultHttpClient httpClient = new DefaultHttpClient();
+        httpClient.callAsync("https://mock", METHOD_POST, new HashMap<String, String>(), callTemplate, serviceCallback);
+        verify(serviceCallback).onCallFailed(exception);
+        verify(urlConnection, never()).getOutputStream();
+        verify(urlConnection).disconnect();
+        httpClient.close();
+    }
+
     @Test
     public void failedToConnectWithHttpUrl() throws Exception {
         String urlString = "http://mock/get";
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+public class HttpClientMetricsCollectorTest {
+
+    private static HttpClient mockHttpClient(final Exception failure) {
+        HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).then(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocation) {
+                ServiceCallback serviceCallback = (ServiceCallback) invocation.getArguments()[4];
+                if (failure == null) {
+                    serviceCallback.onCallSucceeded("OK", null);
+                } else {
+                    serviceCallback.onCallFailed(failure);
+                }
+                return mock(ServiceCall.class);
+            }
+        });
+        return httpClient;
+    }
+
+    @Test
+    public void success() throws IOException {
+        HttpMetrics httpMetrics = mock(HttpMetrics.class);
+        HttpClient httpClient = mockHttpClient(null);
+        HttpClientMetricsCollector collector = new HttpClientMetricsCollector(httpClient, httpMetrics);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        Map<String, String> headers = new HashMap<>();
+        HttpClient.CallTemplate callTemplate = mock(HttpClient.CallTemplate.class);
+        ServiceCall call = collector.callAsync("https://mock/logs", METHOD_GET, headers, callTemplate, serviceCallback);
+        verify(httpClient).callAsync(eq("https://mock/logs"), eq(METHOD_GET), eq(headers), eq(callTemplate), any(ServiceCallback.class));
+        verify(serviceCallback).onCallSucceeded("OK", null);
+        verify(httpMetrics).onCallCompleted(eq("https://mock/logs"), eq(200), anyLong());
+        verifyNoMoreInteractions(serviceCallback);
+
+        /* Cancel and close are forwarded. */
+        call.cancel();
+        collector.close();
+        verify(httpClient).close();
+    }
+
+    @Test
+    public void failure() {
+        HttpMetrics httpMetrics = mock(HttpMetrics.class);
+        HttpException exception = new HttpException(503);
+        HttpClientMetricsCollector collector = new HttpClientMetricsCollector(mockHttpClient(exception), httpMetrics);
+        ServiceCallback serviceCallback = mock(ServiceCallback.class);
+        collector.callAsync("https://mock/logs", METHOD_GET, null, null, serviceCallback);
+        verify(serviceCallback).onCallFailed(exception);
+        verify(httpMetrics).onCallCompleted(eq("https://mock/logs"), eq(503), anyLong());
+
+        /* No HTTP response. */
+        IOException ioException = new IOException();
+        collector = new HttpClientMetricsCollector(mockHttpClient(ioException), httpMetrics);
+        collector.callAsync("https://mock/logs", METHOD_GET, null, null, serviceCallback);
+        verify(serviceCallback).onCallFailed(ioException);
+        verify(httpMetrics).onCallCompleted(eq("https://mock/logs"), eq(HttpMetrics.NO_RESPONSE), anyLong());
+    }
+}
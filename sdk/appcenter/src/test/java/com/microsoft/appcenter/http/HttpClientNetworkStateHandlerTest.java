@@ -10,25 +10,39 @@ import android.net.ConnectivityManager;
 import android.net.Network;
 import android.net.NetworkRequest;
 import android.os.Build;
+import android.os.Handler;
 
 import com.microsoft.appcenter.test.TestUtils;
 import com.microsoft.appcenter.utils.NetworkStateHelper;
 
+import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.SocketException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.http.HttpClientNetworkStateHandler.REPLAY_BURST;
+import static com.microsoft.appcenter.http.HttpClientNetworkStateHandler.REPLAY_INTERVAL;
+import static com.microsoft.appcenter.http.HttpClientRetryer.RETRY_INTERVALS;
+import static org.junit.Assert.assertEquals;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -38,6 +52,14 @@ import static org.mockito.Mockito.when;
 @SuppressWarnings("unused")
 public class HttpClientNetworkStateHandlerTest {
 
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        EndpointHealth.unsetInstance();
+    }
+
     @Test
     public void success() throws IOException {
 
@@ -290,4 +312,229 @@ public class HttpClientNetworkStateHandlerTest {
         thread.interrupt();
         TestUtils.setInternalState(Build.VERSION.class, "SDK_INT", 0);
     }
+
+    private static HttpClient.PersistableCallTemplate persistableCallTemplate(String key) throws Exception {
+        HttpClient.PersistableCallTemplate callTemplate = mock(HttpClient.PersistableCallTemplate.class);
+        when(callTemplate.getRequestKey()).thenReturn(key);
+        when(callTemplate.buildRequestBody()).thenReturn("body-" + key);
+        return callTemplate;
+    }
+
+    private static Handler storageHandler() {
+        Handler handler = mock(Handler.class);
+        when(handler.post(any(Runnable.class))).thenAnswer(new Answer<Boolean>() {
+
+            @Override
+            public Boolean answer(InvocationOnMock invocation) {
+                ((Runnable) invocation.getArguments()[0]).run();
+                return true;
+            }
+        });
+        return handler;
+    }
+
+    private int countStoredRequests() {
+        String[] names = new File(mTemporaryFolder.getRoot(), "requests").list();
+        return names != null ? names.length : 0;
+    }
+
+    @Test
+    public void replayIsRateLimited() throws Exception {
+        HttpClient httpClient = mock(HttpClient.class);
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        Handler handler = mock(Handler.class);
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, null, handler, null);
+        int callCount = REPLAY_BURST + 2;
+        for (int i = 0; i < callCount; i++) {
+            decorator.callAsync("http://mock/" + i, METHOD_GET, null, null, mock(ServiceCallback.class));
+        }
+
+        /* First calls are submitted at once, the other ones one by one. */
+        decorator.onNetworkStateUpdated(true);
+        for (int i = 0; i < REPLAY_BURST; i++) {
+            verify(httpClient).callAsync(eq("http://mock/" + i), eq(METHOD_GET), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        }
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(handler).postDelayed(runnable.capture(), eq(REPLAY_INTERVAL));
+        verify(handler).postDelayed(any(Runnable.class), eq(2 * REPLAY_INTERVAL));
+        assertEquals(2, decorator.getPendingCallCount());
+
+        /* Scheduled calls are not submitted twice. */
+        decorator.onNetworkStateUpdated(true);
+        verify(handler, times(2)).postDelayed(any(Runnable.class), any(Long.class));
+        runnable.getValue().run();
+        verify(httpClient).callAsync(eq("http://mock/" + REPLAY_BURST), eq(METHOD_GET), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        assertEquals(1, decorator.getPendingCallCount());
+
+        /* Close stops the scheduled calls. */
+        decorator.close();
+        verify(handler, times(1)).removeCallbacks(any(Runnable.class));
+        assertEquals(0, decorator.getPendingCallCount());
+    }
+
+    @Test
+    public void persistableCallSucceeds() throws Exception {
+        PersistentRequestQueue queue = new PersistentRequestQueue(new File(mTemporaryFolder.getRoot(), "requests"), PersistentRequestQueueTest.mockCryptoUtils());
+        HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.callAsync(anyString(), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).thenAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallSucceeded("", null);
+                return mock(ServiceCall.class);
+            }
+        });
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, queue, mock(Handler.class), storageHandler());
+
+        /* Calls made offline are stored, deduplicated by key. Cancel deletes them. */
+        ServiceCallback callback = mock(ServiceCallback.class);
+        decorator.callAsync("http://mock/a", METHOD_POST, null, persistableCallTemplate("a"), mock(ServiceCallback.class)).cancel();
+        assertEquals(0, countStoredRequests());
+        HttpClient.PersistableCallTemplate callTemplate = persistableCallTemplate("b");
+        decorator.callAsync("http://mock/b", METHOD_POST, null, callTemplate, callback);
+        ServiceCallback otherCallback = mock(ServiceCallback.class);
+        decorator.callAsync("http://mock/c", METHOD_GET, null, mock(HttpClient.CallTemplate.class), otherCallback);
+        assertEquals(1, countStoredRequests());
+
+        /* The call keeps its callback, the stored request is deleted once sent. */
+        decorator.onNetworkStateUpdated(true);
+        verify(callback).onCallSucceeded("", null);
+        verify(otherCallback).onCallSucceeded("", null);
+        assertEquals(0, countStoredRequests());
+        verify(httpClient, never()).callAsync(eq("http://mock/a"), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void storedCallsReplayedAfterClose() throws Exception {
+        File directory = new File(mTemporaryFolder.getRoot(), "requests");
+        HttpClient httpClient = mock(HttpClient.class);
+        final ArgumentCaptor<HttpClient.CallTemplate> callTemplate = ArgumentCaptor.forClass(HttpClient.CallTemplate.class);
+        final ArgumentCaptor<ServiceCallback> serviceCallback = ArgumentCaptor.forClass(ServiceCallback.class);
+        when(httpClient.callAsync(anyString(), anyString(), any(Map.class), callTemplate.capture(), serviceCallback.capture())).thenReturn(mock(ServiceCall.class));
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, new PersistentRequestQueue(directory, PersistentRequestQueueTest.mockCryptoUtils()), mock(Handler.class), storageHandler());
+        ServiceCallback callback = mock(ServiceCallback.class);
+        Map<String, String> headers = new HashMap<>();
+        headers.put("mock", "value");
+        decorator.callAsync("http://mock/a", METHOD_POST, headers, persistableCallTemplate("a"), callback);
+        decorator.close();
+        assertEquals(1, countStoredRequests());
+
+        /* Simulate new process: first call online replays the stored call. */
+        when(networkStateHelper.isNetworkConnected()).thenReturn(true);
+        Handler handler = mock(Handler.class);
+        decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, new PersistentRequestQueue(directory, PersistentRequestQueueTest.mockCryptoUtils()), handler, storageHandler());
+        decorator.callAsync("http://mock/b", METHOD_GET, null, null, mock(ServiceCallback.class));
+        verify(httpClient).callAsync(eq("http://mock/a"), eq(METHOD_POST), eq(headers), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        assertEquals("body-a", callTemplate.getValue().buildRequestBody());
+        callTemplate.getValue().onBeforeCalling(null, headers);
+
+        /* Recoverable failures are retried. */
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        for (int i = 0; i < RETRY_INTERVALS.length; i++) {
+            serviceCallback.getValue().onCallFailed(new SocketException());
+            verify(handler, times(i + 1)).postDelayed(retry.capture(), anyLong());
+            retry.getValue().run();
+            verify(httpClient, times(i + 2)).callAsync(eq("http://mock/a"), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        }
+
+        /* Then kept for next network change. */
+        serviceCallback.getValue().onCallFailed(new SocketException());
+        assertEquals(1, countStoredRequests());
+        verify(handler, times(RETRY_INTERVALS.length)).postDelayed(any(Runnable.class), anyLong());
+        decorator.callAsync("http://mock/b", METHOD_GET, null, null, mock(ServiceCallback.class));
+        verify(httpClient, times(RETRY_INTERVALS.length + 1)).callAsync(eq("http://mock/a"), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        decorator.onNetworkStateUpdated(true);
+        verify(httpClient, times(RETRY_INTERVALS.length + 2)).callAsync(eq("http://mock/a"), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Non recoverable failure: deleted. */
+        serviceCallback.getValue().onCallFailed(new HttpException(400));
+        assertEquals(0, countStoredRequests());
+        verifyNoMoreInteractions(callback);
+    }
+
+    @Test
+    public void callSubmittedBeforeBeingStoredKeepsCallback() throws Exception {
+        HttpClient httpClient = mock(HttpClient.class);
+        when(httpClient.callAsync(anyString(), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class))).thenAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallSucceeded("", null);
+                return mock(ServiceCall.class);
+            }
+        });
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        Handler storageHandler = mock(Handler.class);
+        PersistentRequestQueue queue = new PersistentRequestQueue(new File(mTemporaryFolder.getRoot(), "requests"), PersistentRequestQueueTest.mockCryptoUtils());
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, queue, mock(Handler.class), storageHandler);
+
+        /* Network comes back before the storage thread stores the request. */
+        HttpClient.PersistableCallTemplate callTemplate = persistableCallTemplate("a");
+        ServiceCallback callback = mock(ServiceCallback.class);
+        decorator.callAsync("http://mock/a", METHOD_POST, null, callTemplate, callback);
+        when(networkStateHelper.isNetworkConnected()).thenReturn(true);
+        decorator.onNetworkStateUpdated(true);
+        verify(callback).onCallSucceeded("", null);
+
+        /* Storage is done in order on the storage thread: stored, then deleted. */
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(storageHandler, times(3)).post(runnable.capture());
+        runnable.getAllValues().get(0).run();
+        assertEquals(1, countStoredRequests());
+        runnable.getAllValues().get(1).run();
+        runnable.getAllValues().get(2).run();
+        assertEquals(0, countStoredRequests());
+        verify(httpClient).callAsync(anyString(), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void storedCallsLoadedAfterCloseAreReleased() throws Exception {
+        File directory = new File(mTemporaryFolder.getRoot(), "requests");
+        PersistentRequestQueue.Request request = new PersistentRequestQueue.Request("a", System.currentTimeMillis(), "http://mock/a", METHOD_POST, new HashMap<String, String>(), "body");
+        new PersistentRequestQueue(directory, PersistentRequestQueueTest.mockCryptoUtils()).add(request);
+        HttpClient httpClient = mock(HttpClient.class);
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        when(networkStateHelper.isNetworkConnected()).thenReturn(true);
+        Handler storageHandler = mock(Handler.class);
+        PersistentRequestQueue queue = new PersistentRequestQueue(directory, PersistentRequestQueueTest.mockCryptoUtils());
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, queue, mock(Handler.class), storageHandler);
+
+        /* Client is closed while stored requests are loading: they are not sent by this client. */
+        decorator.onNetworkStateUpdated(true);
+        decorator.close();
+        ArgumentCaptor<Runnable> runnable = ArgumentCaptor.forClass(Runnable.class);
+        verify(storageHandler).post(runnable.capture());
+        runnable.getValue().run();
+        verify(httpClient, never()).callAsync(anyString(), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        assertEquals(0, decorator.getPendingCallCount());
+
+        /* But are still available for replay. */
+        assertEquals(1, queue.takeStoredRequests().size());
+    }
+
+    @Test
+    public void closeCancelsStoredCalls() throws Exception {
+        File directory = new File(mTemporaryFolder.getRoot(), "requests");
+        PersistentRequestQueue.Request request = new PersistentRequestQueue.Request("a", System.currentTimeMillis(), "http://mock/a", METHOD_POST, new HashMap<String, String>(), "body");
+        new PersistentRequestQueue(directory, PersistentRequestQueueTest.mockCryptoUtils()).add(request);
+        HttpClient httpClient = mock(HttpClient.class);
+        ServiceCall serviceCall = mock(ServiceCall.class);
+        ArgumentCaptor<ServiceCallback> serviceCallback = ArgumentCaptor.forClass(ServiceCallback.class);
+        when(httpClient.callAsync(anyString(), anyString(), any(Map.class), any(HttpClient.CallTemplate.class), serviceCallback.capture())).thenReturn(serviceCall);
+        NetworkStateHelper networkStateHelper = mock(NetworkStateHelper.class);
+        when(networkStateHelper.isNetworkConnected()).thenReturn(true);
+        PersistentRequestQueue queue = new PersistentRequestQueue(directory, PersistentRequestQueueTest.mockCryptoUtils());
+        HttpClientNetworkStateHandler decorator = new HttpClientNetworkStateHandler(httpClient, networkStateHelper, queue, mock(Handler.class), storageHandler());
+        decorator.onNetworkStateUpdated(true);
+        verify(httpClient).callAsync(eq("http://mock/a"), eq(METHOD_POST), any(Map.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Replay is cancelled on close and the request is kept for later. */
+        decorator.close();
+        verify(serviceCall).cancel();
+        serviceCallback.getValue().onCallSucceeded("", null);
+        assertEquals(1, countStoredRequests());
+        assertEquals(1, queue.takeStoredRequests().size());
+    }
 }
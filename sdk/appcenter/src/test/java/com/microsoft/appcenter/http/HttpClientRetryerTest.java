@@ -8,27 +8,39 @@ package com.microsoft.appcenter.http;
 import android.os.Handler;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatcher;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
 
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_KEY;
 import static com.microsoft.appcenter.http.DefaultHttpClient.CONTENT_TYPE_VALUE;
 import static com.microsoft.appcenter.http.DefaultHttpClient.X_MS_RETRY_AFTER_MS_HEADER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyMapOf;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.longThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
 
 @SuppressWarnings("unused")
 public class HttpClientRetryerTest {
@@ -52,7 +64,7 @@ public class HttpClientRetryerTest {
             public boolean matches(Object argument) {
                 long interval = (Long) argument;
                 long retryInterval = HttpClientRetryer.RETRY_INTERVALS[retryIndex];
-                return interval >= retryInterval / 2 && interval <= retryInterval;
+                return interval >= 0 && interval < retryInterval;
             }
         }));
     }
@@ -165,9 +177,14 @@ public class HttpClientRetryerTest {
         HttpClient retryer = new HttpClientRetryer(httpClient, handler);
         simulateRetryAfterDelay(handler);
         retryer.callAsync(null, null, null, null, callback);
-        verifyDelay(handler, 0);
-        verifyDelay(handler, 1);
-        verifyDelay(handler, 2);
+
+        /* Delay ranges overlap with full jitter, check them in order. */
+        ArgumentCaptor<Long> delays = ArgumentCaptor.forClass(Long.class);
+        verify(handler, times(HttpClientRetryer.RETRY_INTERVALS.length)).postDelayed(any(Runnable.class), delays.capture());
+        for (int i = 0; i < HttpClientRetryer.RETRY_INTERVALS.length; i++) {
+            long delay = delays.getAllValues().get(i);
+            assertTrue(delay >= 0 && delay < HttpClientRetryer.RETRY_INTERVALS[i]);
+        }
         verifyNoMoreInteractions(handler);
         verify(callback).onCallFailed(new HttpException(408));
         verifyNoMoreInteractions(callback);
@@ -215,6 +232,31 @@ public class HttpClientRetryerTest {
         verifyNoMoreInteractions(callback);
     }
 
+    @Test
+    public void exhaustRetriesUsingRetryHeader() {
+        final HttpException expectedException = new HttpException(503, "", Collections.singletonMap(X_MS_RETRY_AFTER_MS_HEADER, "1234"));
+        ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallFailed(expectedException);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler);
+        simulateRetryAfterDelay(handler);
+        retryer.callAsync(null, null, null, null, callback);
+
+        /* Delays requested by the server count as retries. */
+        verify(handler, times(HttpClientRetryer.RETRY_INTERVALS.length)).postDelayed(any(Runnable.class), eq(1234L));
+        verifyNoMoreInteractions(handler);
+        verify(callback).onCallFailed(expectedException);
+        verifyNoMoreInteractions(callback);
+    }
+
     @Test
     public void cancel() throws InterruptedException {
         final ServiceCall call = mock(ServiceCall.class);
@@ -235,4 +277,147 @@ public class HttpClientRetryerTest {
         verifyNoMoreInteractions(callback);
         verify(call).cancel();
     }
+    @Test
+    public void waitForCircuitBeforeCalling() {
+        String url = "https://mock/logs";
+        ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallSucceeded("mockSuccessPayload", null);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        EndpointHealth endpointHealth = mock(EndpointHealth.class);
+        when(endpointHealth.acquire("https://mock:443")).thenReturn(1000L).thenReturn(0L);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler, endpointHealth);
+
+        /* Call is delayed while circuit is open. */
+        ServiceCall call = retryer.callAsync(url, "POST", null, null, callback);
+        verify(handler).postDelayed((Runnable) call, 1000L);
+        verify(httpClient, never()).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+
+        /* Cancelling while waiting does not fail. */
+        call.cancel();
+        verify(handler).removeCallbacks((Runnable) call);
+
+        /* Then made when allowed. */
+        ((Runnable) call).run();
+        verify(callback).onCallSucceeded("mockSuccessPayload", null);
+        verify(endpointHealth).onSuccess("https://mock:443");
+    }
+
+    @Test
+    public void doNotRetryWhenBudgetIsExhausted() {
+        ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        final SocketException exception = new SocketException();
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallFailed(exception);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        EndpointHealth endpointHealth = mock(EndpointHealth.class);
+        when(endpointHealth.canRetry()).thenReturn(false);
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler, endpointHealth);
+        ServiceCall call = retryer.callAsync("https://mock/logs", "POST", null, null, callback);
+
+        /* The first retry is always allowed. */
+        verify(endpointHealth).onFailure("https://mock:443", 0);
+        verify(handler).postDelayed(eq((Runnable) call), anyLong());
+        verify(callback, never()).onCallFailed(any(Exception.class));
+
+        /* Not the next ones. */
+        ((Runnable) call).run();
+        verify(endpointHealth, times(2)).onFailure("https://mock:443", 0);
+        verify(callback).onCallFailed(exception);
+        verify(handler).postDelayed(any(Runnable.class), anyLong());
+    }
+
+    @Test
+    public void reportServerAnswersAsHealthy() {
+        ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        final HttpException exception = new HttpException(400);
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallFailed(exception);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        EndpointHealth endpointHealth = mock(EndpointHealth.class);
+        HttpClient retryer = new HttpClientRetryer(httpClient, mock(Handler.class), endpointHealth);
+        retryer.callAsync("https://mock/logs", "POST", null, null, callback);
+        verify(endpointHealth).onSuccess("https://mock:443");
+        verify(endpointHealth, never()).onFailure(anyString(), anyLong());
+        verify(callback).onCallFailed(exception);
+    }
+
+    @Test
+    public void shareRetryAfterWithOtherCalls() {
+        ServiceCallback callback = mock(ServiceCallback.class);
+        HttpClient httpClient = mock(HttpClient.class);
+        final HttpException exception = new HttpException(429, "", Collections.singletonMap("retry-after", "2"));
+        doAnswer(new Answer<ServiceCall>() {
+
+            @Override
+            public ServiceCall answer(InvocationOnMock invocationOnMock) {
+                ((ServiceCallback) invocationOnMock.getArguments()[4]).onCallFailed(exception);
+                return mock(ServiceCall.class);
+            }
+        }).when(httpClient).callAsync(anyString(), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+        Handler handler = mock(Handler.class);
+        EndpointHealth endpointHealth = new EndpointHealth();
+        HttpClient retryer = new HttpClientRetryer(httpClient, handler, endpointHealth);
+        retryer.callAsync("https://mock/logs", "POST", null, null, callback);
+        verifyDelayFromHeader(handler, 2000);
+        assertEquals(EndpointHealth.State.OPEN, endpointHealth.getState("https://mock:443"));
+
+        /* Another call to the same origin waits. */
+        retryer.callAsync("https://mock/other", "GET", null, null, mock(ServiceCallback.class));
+        verify(handler).postDelayed(any(Runnable.class), longThat(new ArgumentMatcher<Long>() {
+
+            @Override
+            public boolean matches(Object argument) {
+                long delay = (Long) argument;
+                return delay > 0 && delay <= 2000 + EndpointHealth.PROBE_WAIT && delay != 2000;
+            }
+        }));
+
+        /* But not calls to other origins. */
+        retryer.callAsync("https://other/logs", "POST", null, null, mock(ServiceCallback.class));
+        verify(httpClient).callAsync(eq("https://other/logs"), anyString(), anyMapOf(String.class, String.class), any(HttpClient.CallTemplate.class), any(ServiceCallback.class));
+    }
+
+    @Test
+    public void parseRetryAfter() {
+        assertEquals(0, HttpClientRetryer.getRetryAfter(new SocketException()));
+        assertEquals(0, HttpClientRetryer.getRetryAfter(new HttpException(503)));
+        assertEquals(1234, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap(X_MS_RETRY_AFTER_MS_HEADER, "1234"))));
+        assertEquals(0, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap(X_MS_RETRY_AFTER_MS_HEADER, "invalid"))));
+        assertEquals(120000, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap("Retry-After", "120"))));
+        assertEquals(0, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap("Retry-After", "invalid"))));
+
+        /* Delays are capped. */
+        assertEquals(HttpClientRetryer.MAX_RETRY_AFTER, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap(X_MS_RETRY_AFTER_MS_HEADER, "86400000"))));
+        assertEquals(HttpClientRetryer.MAX_RETRY_AFTER, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap("Retry-After", "86400"))));
+
+        /* HTTP date. */
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        String date = format.format(new Date(System.currentTimeMillis() + 60000));
+        long retryAfter = HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap("Retry-After", date)));
+        assertTrue(retryAfter > 55000 && retryAfter <= 60000);
+        date = format.format(new Date(System.currentTimeMillis() - 60000));
+        assertEquals(0, HttpClientRetryer.getRetryAfter(new HttpException(503, "", Collections.singletonMap("Retry-After", date))));
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static com.microsoft.appcenter.http.HttpMetrics.LATENCY_BUCKETS;
+import static com.microsoft.appcenter.http.HttpMetrics.NO_RESPONSE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+public class HttpMetricsTest {
+
+    private static final String ENDPOINT = "https://mock:443";
+
+    private HttpMetrics mHttpMetrics;
+
+    @Before
+    public void setUp() {
+        mHttpMetrics = new HttpMetrics();
+    }
+
+    @Test
+    public void sharedInstance() {
+        assertSame(HttpMetrics.getSharedInstance(), HttpMetrics.getSharedInstance());
+    }
+
+    @Test
+    public void aggregateByEndpoint() {
+        mHttpMetrics.onCallCompleted("https://mock/logs?api-version=1.0.0", 200, 120);
+        mHttpMetrics.onCallCompleted("https://mock/other", 503, 30000);
+        mHttpMetrics.onCallCompleted("https://other/logs", NO_RESPONSE, 5);
+        mHttpMetrics.onAttemptCompleted("https://mock/logs", 200, 80, 30, 120, 2000, 500, 2);
+        mHttpMetrics.onAttemptCompleted("https://mock/logs", 503, 0, 20, 25, 2000, 500, 4);
+        mHttpMetrics.onAttemptCompleted("https://mock/logs", NO_RESPONSE, -1, -1, 10, 0, 0, 0);
+        mHttpMetrics.onRetry("https://mock/logs");
+        mHttpMetrics.onRetry("https://mock/logs");
+        mHttpMetrics.onConnectivityWait("https://mock/logs", 60000);
+
+        /* Invalid URLs are ignored. */
+        mHttpMetrics.onCallCompleted("bad url", 200, 1);
+        mHttpMetrics.onAttemptCompleted(null, 200, 1, 1, 1, 1, 1, 1);
+        mHttpMetrics.onRetry("bad url");
+        mHttpMetrics.onConnectivityWait("bad url", 1);
+
+        Map<String, HttpMetrics.EndpointMetrics> snapshot = mHttpMetrics.getSnapshot();
+        assertEquals(2, snapshot.size());
+        HttpMetrics.EndpointMetrics metrics = snapshot.get(ENDPOINT);
+        assertNotNull(metrics);
+        assertEquals(2, metrics.getCallCount());
+        assertEquals(1, metrics.getFailedCallCount());
+        assertEquals(3, metrics.getAttemptCount());
+        assertEquals(2, metrics.getRetryCount());
+        assertEquals(Long.valueOf(1), metrics.getStatusCodeCounts().get(200));
+        assertEquals(Long.valueOf(1), metrics.getStatusCodeCounts().get(503));
+        assertEquals(Long.valueOf(1), metrics.getStatusCodeCounts().get(NO_RESPONSE));
+        assertEquals(2, metrics.getCallLatency().getCount());
+        assertEquals(30120, metrics.getCallLatency().getSum());
+        assertEquals(30000, metrics.getCallLatency().getMax());
+        assertEquals(2, metrics.getConnectLatency().getCount());
+        assertEquals(2, metrics.getTimeToFirstByte().getCount());
+        assertEquals(3, metrics.getAttemptLatency().getCount());
+        assertEquals(1, metrics.getConnectivityWait().getCount());
+        assertEquals(4000, metrics.getUncompressedRequestBytes());
+        assertEquals(1000, metrics.getRequestBytes());
+        assertEquals(6, metrics.getResponseBytes());
+        metrics = snapshot.get("https://other:443");
+        assertEquals(1, metrics.getCallCount());
+        assertEquals(1, metrics.getFailedCallCount());
+
+        /* Snapshot is a copy. */
+        mHttpMetrics.onCallCompleted("https://mock/logs", 200, 1);
+        assertEquals(2, snapshot.get(ENDPOINT).getCallCount());
+        assertEquals(3, mHttpMetrics.getSnapshot().get(ENDPOINT).getCallCount());
+
+        /* Reset. */
+        mHttpMetrics.reset();
+        assertTrue(mHttpMetrics.getSnapshot().isEmpty());
+    }
+
+    @Test
+    public void histogram() {
+        HttpMetrics.Histogram histogram = new HttpMetrics.Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        histogram.record(-1);
+        histogram.record(0);
+        histogram.record(10);
+        histogram.record(11);
+        histogram.record(400);
+        histogram.record(100000);
+        assertEquals(5, histogram.getCount());
+        assertEquals(100421, histogram.getSum());
+        assertEquals(100000, histogram.getMax());
+        assertArrayEquals(LATENCY_BUCKETS, histogram.getBucketUpperBounds());
+        long[] counts = histogram.getBucketCounts();
+        assertEquals(LATENCY_BUCKETS.length + 1, counts.length);
+        assertEquals(2, counts[0]);
+        assertEquals(1, counts[1]);
+        assertEquals(1, counts[5]);
+        assertEquals(1, counts[LATENCY_BUCKETS.length]);
+        assertEquals(10, histogram.getPercentile(0));
+        assertEquals(10, histogram.getPercentile(40));
+        assertEquals(25, histogram.getPercentile(60));
+        assertEquals(500, histogram.getPercentile(80));
+        assertEquals(100000, histogram.getPercentile(100));
+
+        /* Percentile is capped to the largest value. */
+        histogram = new HttpMetrics.Histogram();
+        histogram.record(300);
+        assertEquals(300, histogram.getPercentile(50));
+    }
+
+    @Test
+    public void listeners() {
+        HttpMetrics.Listener listener = mock(HttpMetrics.Listener.class);
+        HttpMetrics.Listener failingListener = mock(HttpMetrics.Listener.class);
+        doThrow(new RuntimeException()).when(failingListener).onCallCompleted(ENDPOINT, 200, 10);
+        mHttpMetrics.addListener(failingListener);
+        mHttpMetrics.addListener(listener);
+        mHttpMetrics.onCallCompleted("https://mock/logs", 200, 10);
+        verify(listener).onCallCompleted(ENDPOINT, 200, 10);
+        verify(failingListener).onCallCompleted(ENDPOINT, 200, 10);
+
+        /* No notification after removal or for invalid URLs. */
+        mHttpMetrics.removeListener(listener);
+        mHttpMetrics.onCallCompleted("https://mock/logs", 200, 10);
+        mHttpMetrics.removeListener(failingListener);
+        mHttpMetrics.onCallCompleted("bad url", 200, 10);
+        verifyNoMoreInteractions(listener);
+    }
+}
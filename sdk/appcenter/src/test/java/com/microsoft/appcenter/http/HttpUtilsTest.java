@@ -7,17 +7,26 @@ package com.microsoft.appcenter.http;
 
 import android.content.Context;
 
+import org.junit.After;
 import org.junit.Test;
 
 import static com.microsoft.appcenter.http.HttpUtils.MAX_CHARACTERS_DISPLAYED_FOR_SECRET;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @SuppressWarnings("unused")
 public class HttpUtilsTest {
 
+    @After
+    public void tearDown() {
+        HttpUtils.setHttpClientFactory(null);
+    }
+
     @Test
     public void hideEmptySecret() {
         assertEquals("", HttpUtils.hideSecret(""));
@@ -105,7 +114,31 @@ public class HttpUtilsTest {
         assertFalse(defaultHttpClient.isCompressionEnabled());
     }
 
+    @Test
+    public void customHttpClientFactory() {
+        HttpClient.Factory factory = mock(HttpClient.Factory.class);
+        HttpClient customHttpClient = mock(HttpClient.class);
+        when(factory.createHttpClient(false)).thenReturn(customHttpClient);
+        HttpUtils.setHttpClientFactory(factory);
+
+        /* Custom client is still decorated by network state handler, retryer then metrics collector. */
+        HttpClient httpClient = HttpUtils.createHttpClient(mock(Context.class), false);
+        assertTrue(httpClient instanceof HttpClientMetricsCollector);
+        HttpClientDecorator retryer = (HttpClientDecorator) ((HttpClientDecorator) httpClient).getDecoratedApi();
+        assertTrue(retryer instanceof HttpClientRetryer);
+        HttpClientDecorator networkStateHandler = (HttpClientDecorator) retryer.getDecoratedApi();
+        assertTrue(networkStateHandler instanceof HttpClientNetworkStateHandler);
+        assertSame(customHttpClient, networkStateHandler.getDecoratedApi());
+        verify(factory).createHttpClient(false);
+
+        /* Reset to default client. */
+        HttpUtils.setHttpClientFactory(null);
+        httpClient = HttpUtils.createHttpClient(mock(Context.class));
+        assertTrue(getDefaultHttpClient((HttpClientDecorator) httpClient).isCompressionEnabled());
+    }
+
     private DefaultHttpClient getDefaultHttpClient(HttpClientDecorator httpClientDecorator) {
+        httpClientDecorator = (HttpClientDecorator) httpClientDecorator.getDecoratedApi();
         httpClientDecorator = (HttpClientDecorator) httpClientDecorator.getDecoratedApi();
         return (DefaultHttpClient) httpClientDecorator.getDecoratedApi();
     }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.os.Process;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NetworkExecutorTest {
+
+    private NetworkExecutor mExecutor;
+
+    @After
+    public void tearDown() throws Exception {
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void sharedInstance() {
+        NetworkExecutor executor = NetworkExecutor.getSharedInstance();
+        assertSame(executor, NetworkExecutor.getSharedInstance());
+        assertEquals(NetworkExecutor.DEFAULT_MAX_THREADS, executor.getMaximumPoolSize());
+        assertEquals(NetworkExecutor.DEFAULT_QUEUE_CAPACITY, executor.getQueue().remainingCapacity() + executor.getQueue().size());
+        assertTrue(executor.allowsCoreThreadTimeOut());
+    }
+
+    @Test
+    public void threadName() throws Exception {
+        mExecutor = new NetworkExecutor(1, 1, Process.THREAD_PRIORITY_BACKGROUND);
+        final AtomicReference<String> threadName = new AtomicReference<>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                threadName.set(Thread.currentThread().getName());
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("AppCenter.network-1", threadName.get());
+    }
+
+    @Test
+    public void rejectWhenSaturated() throws Exception {
+
+        /* Block the only thread and fill the queue. */
+        mExecutor = new NetworkExecutor(1, 1, Process.THREAD_PRIORITY_BACKGROUND);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = new Runnable() {
+
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        mExecutor.execute(blocking);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        mExecutor.execute(blocking);
+        assertEquals(0, mExecutor.getRejectedCount());
+
+        /* Extra calls are rejected and counted. */
+        for (int i = 1; i <= 2; i++) {
+            try {
+                mExecutor.execute(blocking);
+                fail("Expected rejection");
+            } catch (RejectedExecutionException ignored) {
+            }
+            assertEquals(i, mExecutor.getRejectedCount());
+        }
+
+        /* Release blocked calls. */
+        release.countDown();
+        mExecutor.shutdown();
+        assertTrue(mExecutor.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, mExecutor.getRejectedCount());
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.http;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.Constants;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Constants.APP_SECRET;
+import static com.microsoft.appcenter.Constants.AUTHORIZATION_HEADER;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_GET;
+import static com.microsoft.appcenter.http.DefaultHttpClient.METHOD_POST;
+import static com.microsoft.appcenter.http.PersistentRequestQueue.MAX_AGE;
+import static com.microsoft.appcenter.http.PersistentRequestQueue.MAX_REQUESTS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PersistentRequestQueueTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private File mDirectory;
+
+    private CryptoUtils mCryptoUtils;
+
+    @Before
+    public void setUp() {
+        mDirectory = new File(mTemporaryFolder.getRoot(), "requests");
+        mCryptoUtils = mockCryptoUtils();
+    }
+
+    static CryptoUtils mockCryptoUtils() {
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        when(cryptoUtils.encrypt(anyString())).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return "encrypted:" + invocation.getArguments()[0];
+            }
+        });
+        when(cryptoUtils.decrypt(anyString(), anyBoolean())).thenAnswer(new Answer<CryptoUtils.DecryptedData>() {
+
+            @Override
+            public CryptoUtils.DecryptedData answer(InvocationOnMock invocation) {
+                String data = (String) invocation.getArguments()[0];
+                return new CryptoUtils.DecryptedData(data.substring("encrypted:".length()), null);
+            }
+        });
+        return cryptoUtils;
+    }
+
+    private static PersistentRequestQueue.Request request(String key, long time) {
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Install-ID", "mockId");
+        return new PersistentRequestQueue.Request(key, time, "https://mock/" + key, METHOD_POST, headers, "{\"key\":\"" + key + "é\"}");
+    }
+
+    private int countFiles() {
+        String[] names = mDirectory.list();
+        return names != null ? names.length : 0;
+    }
+
+    @Test
+    public void sharedInstance() {
+        String filesPath = Constants.FILES_PATH;
+        try {
+            Constants.FILES_PATH = mTemporaryFolder.getRoot().getAbsolutePath();
+            Context context = mock(Context.class);
+            assertNotNull(PersistentRequestQueue.getSharedInstance(context));
+            assertSame(PersistentRequestQueue.getSharedInstance(context), PersistentRequestQueue.getSharedInstance(context));
+        } finally {
+            Constants.FILES_PATH = filesPath;
+        }
+    }
+
+    @Test
+    public void storedRequestsAreReplayedByNextProcessOnly() {
+        long now = System.currentTimeMillis();
+        PersistentRequestQueue queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        String id1 = queue.add(request("b", now));
+        assertNotNull(id1);
+        Map<String, String> noHeaders = Collections.emptyMap();
+        String id2 = queue.add(new PersistentRequestQueue.Request("a", now - 1, "https://mock/a", METHOD_GET, noHeaders, null));
+        assertNotNull(id2);
+
+        /* Requests of the current process are tracked by their calls. */
+        assertEquals(0, queue.takeStoredRequests().size());
+
+        /* Simulate a new process: oldest request first, handed out once. */
+        queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        List<PersistentRequestQueue.Request> requests = queue.takeStoredRequests();
+        assertEquals(2, requests.size());
+        PersistentRequestQueue.Request request = requests.get(0);
+        assertEquals(id2, request.mId);
+        assertEquals("a", request.mKey);
+        assertEquals(METHOD_GET, request.mMethod);
+        assertEquals(0, request.mHeaders.size());
+        assertNull(request.mBody);
+        request = requests.get(1);
+        assertEquals(id1, request.mId);
+        assertEquals(now, request.mTime);
+        assertEquals("https://mock/b", request.mUrl);
+        assertEquals(METHOD_POST, request.mMethod);
+        assertEquals("mockId", request.mHeaders.get("Install-ID"));
+        assertEquals("{\"key\":\"bé\"}", request.mBody);
+        assertEquals(0, queue.takeStoredRequests().size());
+
+        /* Release makes a request available again, remove deletes it. */
+        queue.release(id1);
+        queue.remove(id2);
+        queue.release(id2);
+        requests = queue.takeStoredRequests();
+        assertEquals(1, requests.size());
+        assertEquals(id1, requests.get(0).mId);
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    public void credentialHeadersAreEncrypted() throws IOException {
+        PersistentRequestQueue.Request request = request("a", System.currentTimeMillis());
+        request.mHeaders.put(APP_SECRET, "mockSecret");
+        request.mHeaders.put(AUTHORIZATION_HEADER, "Bearer mockToken");
+        String id = new PersistentRequestQueue(mDirectory, mCryptoUtils).add(request);
+        assertEquals(id, request.mId);
+
+        /* Secrets are not written in clear. */
+        byte[] content = new byte[(int) new File(mDirectory, id).length()];
+        FileInputStream inputStream = new FileInputStream(new File(mDirectory, id));
+        assertEquals(content.length, inputStream.read(content));
+        inputStream.close();
+        String fileContent = new String(content, "UTF-8");
+        assertTrue(fileContent.contains("encrypted:mockSecret"));
+        assertTrue(fileContent.contains("encrypted:Bearer mockToken"));
+        assertFalse(fileContent.contains("encrypted:mockId"));
+
+        /* And restored on replay. */
+        List<PersistentRequestQueue.Request> requests = new PersistentRequestQueue(mDirectory, mCryptoUtils).takeStoredRequests();
+        assertEquals(1, requests.size());
+        assertEquals("mockSecret", requests.get(0).mHeaders.get(APP_SECRET));
+        assertEquals("Bearer mockToken", requests.get(0).mHeaders.get(AUTHORIZATION_HEADER));
+        assertEquals("mockId", requests.get(0).mHeaders.get("Install-ID"));
+    }
+
+    @Test
+    public void deduplicate() {
+        long now = System.currentTimeMillis();
+        PersistentRequestQueue queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        queue.add(request("a", now));
+        queue.add(request("b", now));
+        String id = queue.add(request("a", now + 1));
+        assertEquals(2, countFiles());
+
+        /* Also replaces stored requests of a previous process. */
+        queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        String newId = queue.add(request("a", now + 2));
+        assertEquals(2, countFiles());
+        List<PersistentRequestQueue.Request> requests = queue.takeStoredRequests();
+        assertEquals(1, requests.size());
+        assertEquals("b", requests.get(0).mKey);
+        assertTrue(new File(mDirectory, newId).exists());
+        assertTrue(!new File(mDirectory, id).exists());
+    }
+
+    @Test
+    public void bounded() {
+        long now = System.currentTimeMillis();
+        PersistentRequestQueue queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        for (int i = 0; i < MAX_REQUESTS + 5; i++) {
+            assertNotNull(queue.add(request("key" + i, now)));
+        }
+        assertEquals(MAX_REQUESTS, countFiles());
+        assertEquals(MAX_REQUESTS, new PersistentRequestQueue(mDirectory, mCryptoUtils).takeStoredRequests().size());
+    }
+
+    @Test
+    public void expiredAndCorruptedRequestsAreDeleted() throws IOException {
+        long now = System.currentTimeMillis();
+        PersistentRequestQueue queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        queue.add(request("expired", now - MAX_AGE - 1));
+        queue.add(request("valid", now));
+        FileOutputStream outputStream = new FileOutputStream(new File(mDirectory, "corrupted.req"));
+        outputStream.write(new byte[]{0, 0});
+        outputStream.close();
+        outputStream = new FileOutputStream(new File(mDirectory, "version.req"));
+        outputStream.write(new byte[]{0, 0, 0, 42});
+        outputStream.close();
+        assertEquals(4, countFiles());
+        List<PersistentRequestQueue.Request> requests = new PersistentRequestQueue(mDirectory, mCryptoUtils).takeStoredRequests();
+        assertEquals(1, requests.size());
+        assertEquals("valid", requests.get(0).mKey);
+        assertEquals(1, countFiles());
+    }
+
+    @Test
+    public void storageFailure() throws IOException {
+
+        /* Directory cannot be created as a file has the same name. */
+        assertTrue(mDirectory.createNewFile());
+        PersistentRequestQueue queue = new PersistentRequestQueue(mDirectory, mCryptoUtils);
+        assertNull(queue.add(request("a", 0)));
+        assertEquals(0, queue.takeStoredRequests().size());
+    }
+}
@@ -28,6 +28,7 @@ import org.mockito.stubbing.Answer;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -46,6 +47,7 @@ import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.notNull;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.doReturn;
@@ -116,6 +118,11 @@ public class AppCenterIngestionTest {
         assertNotNull(callTemplate.get());
         assertEquals("mockPayload", callTemplate.get().buildRequestBody());
         assertEquals(authToken, authToken);
+
+        /* Verify payload can be streamed. */
+        StringWriter writer = new StringWriter();
+        ((HttpClient.StreamingCallTemplate) callTemplate.get()).writeRequestBody(writer);
+        verify(serializer).serializeContainer(container, writer);
         
         /* Verify close. */
         ingestion.close();
@@ -238,7 +245,21 @@ public class AppCenterIngestionTest {
         AppCenterLog.verbose(anyString(), anyString());
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void onBeforeCallingNotifiesAttempt() {
+        AttemptServiceCallback serviceCallback = mock(AttemptServiceCallback.class);
+        HttpClient.CallTemplate callTemplate = getCallTemplate(UUID.randomUUID().toString(), null, serviceCallback);
+        callTemplate.onBeforeCalling(mock(URL.class), mock(Map.class));
+        callTemplate.onBeforeCalling(mock(URL.class), mock(Map.class));
+        verify(serviceCallback, times(2)).onAttemptStarted();
+    }
+
     private HttpClient.CallTemplate getCallTemplate(String appSecret, String authToken) {
+        return getCallTemplate(appSecret, authToken, mock(ServiceCallback.class));
+    }
+
+    private HttpClient.CallTemplate getCallTemplate(String appSecret, String authToken, ServiceCallback serviceCallback) {
 
         /* Configure mock HTTP to get an instance of IngestionCallTemplate. */
         final ServiceCall call = mock(ServiceCall.class);
@@ -253,7 +274,10 @@ public class AppCenterIngestionTest {
         });
         AppCenterIngestion ingestion = new AppCenterIngestion(mock(Context.class), mock(LogSerializer.class));
         ingestion.setLogUrl("http://mock");
-        assertEquals(call, ingestion.sendAsync(authToken, appSecret, UUID.randomUUID(), mock(LogContainer.class), mock(ServiceCallback.class)));
+        assertEquals(call, ingestion.sendAsync(authToken, appSecret, UUID.randomUUID(), mock(LogContainer.class), serviceCallback));
         return callTemplate.get();
     }
-}
\ No newline at end of file
+
+    private interface AttemptServiceCallback extends ServiceCallback, Ingestion.AttemptListener {
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@SuppressWarnings("unused")
+public class BinaryJSONStringerTest {
+
+    private static byte[] encodeSample() throws JSONException {
+        BinaryJSONStringer writer = new BinaryJSONStringer();
+        writer.object();
+        writer.key("type").value("event");
+        writer.key("name").value("a \"quoted\"\n/name\u0001");
+        writer.key("count").value(42);
+        writer.key("negative").value(-1L);
+        writer.key("max").value(Long.MAX_VALUE);
+        writer.key("min").value(Long.MIN_VALUE);
+        writer.key("double").value(1.5);
+        writer.key("whole").value(2.0);
+        writer.key("negativeZero").value(-0d);
+        writer.key("enabled").value(true);
+        writer.key("disabled").value(false);
+        writer.key("nothing").value(null);
+        writer.key("unicode").value("é€😀");
+        writer.key("frames").array();
+        writer.object().key("name").value("event").endObject();
+        writer.object().key("name").value("event").endObject();
+        writer.endArray();
+        writer.endObject();
+        return writer.toByteArray();
+    }
+
+    @Test
+    public void toJson() throws JSONException {
+        byte[] data = encodeSample();
+        assertTrue(BinaryJSONReader.isBinary(data));
+        assertEquals("{\"type\":\"event\",\"name\":\"a \\\"quoted\\\"\\n\\/name\\u0001\",\"count\":42,\"negative\":-1," +
+                "\"max\":9223372036854775807,\"min\":-9223372036854775808,\"double\":1.5,\"whole\":2,\"negativeZero\":-0," +
+                "\"enabled\":true,\"disabled\":false,\"nothing\":null,\"unicode\":\"é€😀\"," +
+                "\"frames\":[{\"name\":\"event\"},{\"name\":\"event\"}]}", BinaryJSONReader.toJson(data));
+    }
+
+    private static String readAll(Reader reader) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        char[] buffer = new char[3];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+            builder.append(buffer, 0, count);
+        }
+        reader.close();
+        return builder.toString();
+    }
+
+    @Test
+    public void toJsonReader() throws JSONException, IOException {
+        byte[] data = encodeSample();
+        assertEquals(BinaryJSONReader.toJson(data), readAll(BinaryJSONReader.toJsonReader(data)));
+
+        /* Scalar root and empty containers. */
+        BinaryJSONStringer writer = new BinaryJSONStringer();
+        writer.array().object().endObject().array().endArray().value("a").endArray();
+        assertEquals("[{},[],\"a\"]", readAll(BinaryJSONReader.toJsonReader(writer.toByteArray())));
+        writer = new BinaryJSONStringer();
+        writer.value(1L);
+        assertEquals("1", readAll(BinaryJSONReader.toJsonReader(writer.toByteArray())));
+    }
+
+    @Test(expected = IOException.class)
+    public void toJsonReaderTruncated() throws JSONException, IOException {
+        byte[] data = encodeSample();
+        readAll(BinaryJSONReader.toJsonReader(Arrays.copyOf(data, data.length - 1)));
+    }
+
+    @Test(expected = IOException.class)
+    public void toJsonReaderTrailingData() throws JSONException, IOException {
+        byte[] data = encodeSample();
+        readAll(BinaryJSONReader.toJsonReader(Arrays.copyOf(data, data.length + 1)));
+    }
+
+    @Test(expected = JSONException.class)
+    public void toJsonReaderNotBinary() throws JSONException {
+        BinaryJSONReader.toJsonReader("{}".getBytes());
+    }
+
+    @Test
+    public void stringsAreWrittenOnce() throws JSONException {
+        String value = UUID.randomUUID().toString();
+        BinaryJSONStringer writer = new BinaryJSONStringer();
+        writer.array();
+        for (int i = 0; i < 100; i++) {
+            writer.value(value);
+        }
+        writer.endArray();
+        byte[] data = writer.toByteArray();
+        assertTrue(data.length < value.length() + 2 * 100 + 10);
+        StringBuilder expected = new StringBuilder("[");
+        for (int i = 0; i < 100; i++) {
+            expected.append(i > 0 ? "," : "").append('"').append(value).append('"');
+        }
+        assertEquals(expected.append(']').toString(), BinaryJSONReader.toJson(data));
+    }
+
+    @Test
+    public void toStringConvertsToJson() throws JSONException {
+        BinaryJSONStringer writer = new BinaryJSONStringer();
+        assertNull(writer.toString());
+        writer.object().key("name").value("value");
+        try {
+            writer.toString();
+            fail("Incomplete value should not be converted");
+        } catch (IllegalStateException ignored) {
+        }
+        writer.endObject();
+        assertEquals("{\"name\":\"value\"}", writer.toString());
+    }
+
+    @Test(expected = JSONException.class)
+    public void nullKey() throws JSONException {
+        new BinaryJSONStringer().object().key(null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void nestingProblem() throws JSONException {
+        new BinaryJSONStringer().endObject();
+    }
+
+    @Test(expected = JSONException.class)
+    public void notANumber() throws JSONException {
+        new BinaryJSONStringer().value(Double.NaN);
+    }
+
+    @Test(expected = JSONException.class)
+    public void infiniteNumber() throws JSONException {
+        new BinaryJSONStringer().value((Object) Double.POSITIVE_INFINITY);
+    }
+
+    @Test
+    public void isBinary() {
+        assertFalse(BinaryJSONReader.isBinary(new byte[0]));
+        assertFalse(BinaryJSONReader.isBinary("{}".getBytes()));
+        assertFalse(BinaryJSONReader.isBinary(new byte[]{0x78, (byte) 0x9C}));
+    }
+
+    @Test(expected = JSONException.class)
+    public void readTruncated() throws JSONException {
+        byte[] data = encodeSample();
+        BinaryJSONReader.toJson(Arrays.copyOf(data, data.length - 1));
+    }
+
+    @Test(expected = JSONException.class)
+    public void readTruncatedString() throws JSONException {
+        byte[] data = encodeSample();
+        BinaryJSONReader.toJson(Arrays.copyOf(data, 6));
+    }
+
+    @Test(expected = JSONException.class)
+    public void readTrailingData() throws JSONException {
+        byte[] data = encodeSample();
+        data = Arrays.copyOf(data, data.length + 1);
+        data[data.length - 1] = BinaryJSONStringer.TAG_NULL;
+        BinaryJSONReader.toJson(data);
+    }
+
+    @Test(expected = JSONException.class)
+    public void readUnsupportedVersion() throws JSONException {
+        byte[] data = encodeSample();
+        data[1] = BinaryJSONStringer.VERSION + 1;
+        BinaryJSONReader.toJson(data);
+    }
+
+    @Test(expected = JSONException.class)
+    public void readNotBinary() throws JSONException {
+        BinaryJSONReader.toJson("{}".getBytes());
+    }
+
+    @Test(expected = JSONException.class)
+    public void readInvalidTag() throws JSONException {
+        BinaryJSONReader.toJson(new byte[]{BinaryJSONStringer.MAGIC, BinaryJSONStringer.VERSION, 42});
+    }
+
+    @Test(expected = JSONException.class)
+    public void readInvalidStringReference() throws JSONException {
+        BinaryJSONReader.toJson(new byte[]{BinaryJSONStringer.MAGIC, BinaryJSONStringer.VERSION, BinaryJSONStringer.TAG_STRING_REFERENCE, 0});
+    }
+
+    @Test(expected = JSONException.class)
+    public void readInvalidVarint() throws JSONException {
+        byte[] data = new byte[14];
+        Arrays.fill(data, (byte) 0xFF);
+        data[0] = BinaryJSONStringer.MAGIC;
+        data[1] = BinaryJSONStringer.VERSION;
+        data[2] = BinaryJSONStringer.TAG_LONG;
+        BinaryJSONReader.toJson(data);
+    }
+}
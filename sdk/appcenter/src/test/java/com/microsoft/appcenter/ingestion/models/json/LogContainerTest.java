@@ -53,4 +53,20 @@ public class LogContainerTest {
         TestUtils.compareSelfNullClass(container1);
         TestUtils.checkNotEquals(container1, container2);
     }
+
+    @Test
+    public void compareSerializedLogContainer() {
+        LogContainer container1 = new LogContainer();
+        LogContainer container2 = new LogContainer();
+        container1.setSerializedLogs(Collections.singletonList("{}"));
+        TestUtils.compareSelfNullClass(container1);
+        TestUtils.checkNotEquals(container1, container2);
+
+        container2.setSerializedLogs(Collections.singletonList("{}"));
+        TestUtils.compareSelfNullClass(container1);
+        TestUtils.checkEquals(container1, container2);
+
+        container2.setSerializedLogs(Collections.singletonList("{\"type\":\"mock\"}"));
+        TestUtils.checkNotEquals(container1, container2);
+    }
 }
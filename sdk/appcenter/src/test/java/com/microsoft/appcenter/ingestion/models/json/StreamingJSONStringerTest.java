@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.ingestion.models.json;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@SuppressWarnings("unused")
+public class StreamingJSONStringerTest {
+
+    @Test
+    public void resetAndWriteTo() throws Exception {
+        StreamingJSONStringer writer = new StreamingJSONStringer();
+        assertNull(writer.toString());
+        writer.object().key("first").value(1).endObject();
+        writer.reset();
+        assertNull(writer.toString());
+        writer.array().value("second").endArray();
+        assertEquals(10, writer.length());
+        StringWriter stringWriter = new StringWriter();
+        writer.writeTo(stringWriter);
+        assertEquals("[\"second\"]", stringWriter.toString());
+        assertEquals("[\"second\"]", writer.toString());
+
+        /* Reset after an error. */
+        writer.reset();
+        writer.object().key("key");
+        writer.reset();
+        writer.object().endObject();
+        assertEquals("{}", writer.toString());
+
+        /* Large buffers are released but the writer still works. */
+        writer.reset();
+        char[] large = new char[100000];
+        Arrays.fill(large, 'a');
+        writer.array().value(new String(large)).endArray();
+        writer.reset();
+        writer.array().value(1).endArray();
+        assertEquals("[1]", writer.toString());
+    }
+
+    @Test
+    public void dateValue() throws Exception {
+        StreamingJSONStringer writer = new StreamingJSONStringer();
+        writer.array();
+        writer.dateValue(1499449436123L).endArray();
+        assertEquals("[\"2017-07-07T17:43:56.123Z\"]", writer.toString());
+
+        /* Dates out of the fast range use the formatter. */
+        writer.reset();
+        long time = JSONDateUtils.MAX_TIME + 1;
+        writer.object().key("date");
+        writer.dateValue(time).endObject();
+        assertEquals("{\"date\":\"" + JSONDateUtils.toString(time) + "\"}", writer.toString());
+
+        /* Buffer grows for dates. */
+        writer.reset();
+        char[] large = new char[1020];
+        Arrays.fill(large, 'a');
+        writer.array().value(new String(large));
+        JSONDateUtils.write(writer, new Date(0));
+        writer.endArray();
+        assertEquals("[\"" + new String(large) + "\",\"1970-01-01T00:00:00.000Z\"]", writer.toString());
+    }
+
+    @Test(expected = JSONException.class)
+    public void dateValueWithoutKey() throws JSONException {
+        StreamingJSONStringer writer = new StreamingJSONStringer();
+        writer.object();
+        writer.dateValue(0);
+    }
+
+    @Test(expected = JSONException.class)
+    public void nullKey() throws JSONException {
+        new StreamingJSONStringer().object().key(null);
+    }
+
+    @Test(expected = JSONException.class)
+    public void keyInArray() throws JSONException {
+        new StreamingJSONStringer().array().key("key");
+    }
+
+    @Test(expected = JSONException.class)
+    public void valueWithoutKey() throws JSONException {
+        new StreamingJSONStringer().object().value(1);
+    }
+
+    @Test(expected = JSONException.class)
+    public void topLevelValue() throws JSONException {
+        new StreamingJSONStringer().value(true);
+    }
+
+    @Test(expected = JSONException.class)
+    public void multipleRoots() throws JSONException {
+        new StreamingJSONStringer().object().endObject().object();
+    }
+
+    @Test(expected = JSONException.class)
+    public void mismatchedEnd() throws JSONException {
+        new StreamingJSONStringer().object().endArray();
+    }
+
+    @Test(expected = JSONException.class)
+    public void endWithoutStart() throws JSONException {
+        new StreamingJSONStringer().endObject();
+    }
+
+    @Test(expected = JSONException.class)
+    public void notANumber() throws JSONException {
+        new StreamingJSONStringer().array().value(Double.NaN);
+    }
+
+    @Test(expected = JSONException.class)
+    public void infiniteNumber() throws JSONException {
+        new StreamingJSONStringer().array().value((Object) Double.POSITIVE_INFINITY);
+    }
+}
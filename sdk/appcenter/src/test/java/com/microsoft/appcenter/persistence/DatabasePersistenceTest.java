@@ -14,9 +14,12 @@ import android.database.sqlite.SQLiteQueryBuilder;
 
 import com.microsoft.appcenter.AppCenter;
 import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer;
 import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
 import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
 import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
 import com.microsoft.appcenter.utils.storage.DatabaseManager;
 
 import org.json.JSONException;
@@ -28,22 +31,29 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.rule.PowerMockRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import static com.microsoft.appcenter.Flags.CRITICAL;
 import static com.microsoft.appcenter.Flags.NORMAL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.isNotNull;
 import static org.mockito.Matchers.isNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
@@ -51,7 +61,7 @@ import static org.powermock.api.mockito.PowerMockito.verifyStatic;
 import static org.powermock.api.mockito.PowerMockito.whenNew;
 
 @SuppressWarnings("unused")
-@PrepareForTest({AppCenterLog.class, DatabaseManager.class, DatabasePersistence.class})
+@PrepareForTest({AppCenterLog.class, CryptoUtils.class, DatabaseManager.class, DatabasePersistence.class})
 public class DatabasePersistenceTest {
 
     @Rule
@@ -73,6 +83,9 @@ public class DatabasePersistenceTest {
         Cursor mockCursor = mock(Cursor.class);
         when(mockCursor.getInt(anyInt())).thenReturn(expectedCount);
         when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+
+        /* Loading counts in memory fails, count with a query instead. */
+        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString(), anyString())).thenThrow(new RuntimeException());
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Get count. */
@@ -93,6 +106,9 @@ public class DatabasePersistenceTest {
         Cursor mockCursor = mock(Cursor.class);
         when(mockCursor.moveToNext()).thenThrow(new RuntimeException());
         when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+
+        /* Loading counts in memory fails, count with a query instead. */
+        when(mockDatabaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString(), anyString(), anyString())).thenThrow(new RuntimeException());
         DatabasePersistence persistence = new DatabasePersistence(mock(Context.class), 1, DatabasePersistence.SCHEMA);
 
         /* Try to get logs count. */
@@ -105,11 +121,488 @@ public class DatabasePersistenceTest {
             persistence.close();
         }
 
-        /* There is an error log. */
-        verifyStatic();
+        /* There are error logs for both ways of counting. */
+        verifyStatic(times(2));
         AppCenterLog.error(eq(AppCenter.LOG_TAG), anyString(), any(RuntimeException.class));
     }
 
+    @Test
+    public void countLogsFromMemory() throws Exception {
+
+        /* Mock a grouped count of 2 logs in group 1 and 3 logs in group 2, in 2 different timestamp ranges. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        Cursor countCursor = mock(Cursor.class);
+        long range = DatabasePersistence.TIMESTAMP_BUCKET_SIZE;
+        when(countCursor.moveToNext()).thenReturn(true, true, true, false);
+        when(countCursor.getString(0)).thenReturn("g1", "g1", "g2");
+        when(countCursor.getLong(1)).thenReturn(range, 2 * range, range);
+        when(countCursor.getLong(2)).thenReturn(range, 2 * range, range);
+        when(countCursor.getInt(3)).thenReturn(1, 1, 3);
+        when(databaseManager.getCursor(isNull(SQLiteQueryBuilder.class), any(String[].class), isNull(String[].class), anyString(), isNull(String.class), isNull(String.class))).thenReturn(countCursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+
+        /* Counts are loaded once. */
+        assertEquals(2, persistence.countLogs("g1"));
+        assertEquals(3, persistence.countLogs("g2"));
+        assertEquals(0, persistence.countLogs("g3"));
+        assertEquals(4, persistence.countLogs(new Date(2 * range)));
+        assertEquals(5, persistence.countLogs(new Date(2 * range + 1)));
+        verify(databaseManager).getCursor(isNull(SQLiteQueryBuilder.class), any(String[].class), isNull(String[].class), anyString(), isNull(String.class), isNull(String.class));
+
+        /* Putting a log updates the count. */
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(1L);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(new byte[0]);
+        persistence.setLogSerializer(logSerializer);
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date(500));
+        persistence.putLog(log, "g3", NORMAL);
+        assertEquals(1, persistence.countLogs("g3"));
+        assertEquals(1, persistence.countLogs(new Date(range)));
+
+        /* Deleting a group resets its count. */
+        persistence.deleteLogs("g1");
+        assertEquals(0, persistence.countLogs("g1"));
+        assertEquals(4, persistence.countLogs(new Date(2 * range + 1)));
+
+        /* Never counted with a query. */
+        verify(databaseManager, never()).getCursor(any(SQLiteQueryBuilder.class), eq(new String[]{"COUNT(*)"}), any(String[].class), anyString());
+
+        /* Evicting logs to put a new one requires loading counts again: the previous log of group 3 was replaced. */
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).then(new Answer<Long>() {
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Long answer(InvocationOnMock invocation) {
+                ((List<Long>) invocation.getArguments()[2]).add(1L);
+                return 2L;
+            }
+        });
+        Cursor reloadCursor = mock(Cursor.class);
+        when(reloadCursor.moveToNext()).thenReturn(true, true, false);
+        when(reloadCursor.getString(0)).thenReturn("g2", "g3");
+        when(reloadCursor.getLong(1)).thenReturn(range, 500L);
+        when(reloadCursor.getLong(2)).thenReturn(range, 500L);
+        when(reloadCursor.getInt(3)).thenReturn(3, 1);
+        when(databaseManager.getCursor(isNull(SQLiteQueryBuilder.class), any(String[].class), isNull(String[].class), anyString(), isNull(String.class), isNull(String.class))).thenReturn(reloadCursor);
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+        persistence.putLog(log, "g3", NORMAL);
+        assertEquals(1, persistence.countLogs("g3"));
+        assertEquals(3, persistence.countLogs("g2"));
+        verify(listener).onLogsEvicted("g3", 1);
+        verify(listener, never()).onLogsEvicted(eq("g2"), anyInt());
+    }
+
+    @Test
+    public void countLogsWithinTimestampRangeWithQuery() throws Exception {
+
+        /* Mock 2 logs of the same timestamp range. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        Cursor countCursor = mock(Cursor.class);
+        when(countCursor.moveToNext()).thenReturn(true, false);
+        when(countCursor.getString(0)).thenReturn("g1");
+        when(countCursor.getLong(1)).thenReturn(1000L);
+        when(countCursor.getLong(2)).thenReturn(2000L);
+        when(countCursor.getInt(3)).thenReturn(2);
+        when(databaseManager.getCursor(isNull(SQLiteQueryBuilder.class), any(String[].class), isNull(String[].class), anyString(), isNull(String.class), isNull(String.class))).thenReturn(countCursor);
+        Cursor queryCursor = mock(Cursor.class);
+        when(queryCursor.getInt(0)).thenReturn(1);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), eq(new String[]{"COUNT(*)"}), any(String[].class), anyString())).thenReturn(queryCursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+
+        /* Counting on either side of the range does not need a query. */
+        assertEquals(0, persistence.countLogs(new Date(1000)));
+        assertEquals(2, persistence.countLogs(new Date(2001)));
+        verify(databaseManager, never()).getCursor(any(SQLiteQueryBuilder.class), eq(new String[]{"COUNT(*)"}), any(String[].class), anyString());
+
+        /* Counting in the middle of the range does. */
+        assertEquals(1, persistence.countLogs(new Date(1500)));
+        verify(databaseManager).getCursor(any(SQLiteQueryBuilder.class), eq(new String[]{"COUNT(*)"}), eq(new String[]{"1500"}), anyString());
+    }
+
+    @Test
+    public void getLogsInAllStorageFormats() throws Exception {
+
+        /* Mock a binary log, a compressed binary log, a compressed JSON log and a JSON log. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        byte[] binaryPayload = ((BinaryJSONStringer) new BinaryJSONStringer().object().key("type").value("binary").endObject()).toByteArray();
+        ContentValues binaryValues = mockBlobLogValues(1L, binaryPayload);
+        ContentValues compressedBinaryValues = mockBlobLogValues(2L, PayloadCompression.compress(binaryPayload));
+        ContentValues compressedValues = mockBlobLogValues(3L, PayloadCompression.compress("{\"type\":\"compressed\"}".getBytes("UTF-8")));
+        MockCursor mockCursor = new MockCursor(Arrays.asList(binaryValues, compressedBinaryValues, compressedValues, mockLogValues(4L, NORMAL)));
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+
+        /* All formats are read as JSON. */
+        List<String> outLogs = new ArrayList<>();
+        persistence.getSerializedLogs("mock", Collections.<String>emptyList(), 4, outLogs, null, null);
+        assertEquals(Arrays.asList("{\"type\":\"binary\"}", "{\"type\":\"binary\"}", "{\"type\":\"compressed\"}", "{}"), outLogs);
+    }
+
+    @Test
+    public void getBinaryLogsAsObjects() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        byte[] binaryPayload = ((BinaryJSONStringer) new BinaryJSONStringer().object().key("type").value("binary").endObject()).toByteArray();
+        MockCursor mockCursor = new MockCursor(Arrays.asList(mockBlobLogValues(1L, binaryPayload), mockLogValues(2L, NORMAL)));
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        Log binaryLog = mock(Log.class);
+        Log jsonLog = mock(Log.class);
+        when(logSerializer.deserializeLog(any(byte[].class), anyString())).thenReturn(binaryLog);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(jsonLog);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Binary logs are decoded without JSON text. */
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 2, outLogs, null, null);
+        assertEquals(Arrays.asList(binaryLog, jsonLog), outLogs);
+        verify(logSerializer).deserializeLog(eq(binaryPayload), anyString());
+    }
+
+    @Test
+    public void encryptTargetTokenOncePerTarget() throws Exception {
+        mockStatic(CryptoUtils.class);
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.encrypt(anyString())).thenReturn("encrypted");
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(1L, 2L, 3L);
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mock(Cursor.class));
+        when(databaseManager.replace(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(ContentValues.class))).thenReturn(7L, 8L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(((BinaryJSONStringer) new BinaryJSONStringer().object().endObject()).toByteArray());
+        persistence.setLogSerializer(logSerializer);
+
+        /* Put 2 logs for the same target then a log for another target. */
+        persistence.putLog(mockCommonSchemaLog("token1-key"), "test", NORMAL);
+        persistence.putLog(mockCommonSchemaLog("token1-key"), "test", NORMAL);
+        persistence.putLog(mockCommonSchemaLog("token2-key"), "test", NORMAL);
+
+        /* Each token is encrypted and stored once. */
+        verify(cryptoUtils).encrypt("token1-key");
+        verify(cryptoUtils).encrypt("token2-key");
+        verify(databaseManager, times(2)).replace(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(ContentValues.class));
+        assertEquals((Long) 7L, persistence.mTargetTokenIdentifiers.get("token1-key"));
+        assertEquals((Long) 8L, persistence.mTargetTokenIdentifiers.get("token2-key"));
+        assertEquals("token2-key", persistence.mTargetTokens.get(8L));
+
+        /* Unused tokens are deleted when a new target is stored. */
+        verify(databaseManager, times(2)).delete(eq(DatabasePersistence.TARGET_TOKEN_TABLE), anyString(), isNull(String[].class));
+    }
+
+    @Test
+    public void commonSchemaLogSizeLimitAppliesToJson() throws Exception {
+        mockStatic(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(mock(CryptoUtils.class));
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mock(Cursor.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setCompressionEnabled(true);
+        char[] value = new char[2 * 1024 * 1024];
+        Arrays.fill(value, 'x');
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(((BinaryJSONStringer) new BinaryJSONStringer().object().key("data").value(new String(value)).endObject()).toByteArray());
+        persistence.setLogSerializer(logSerializer);
+
+        /* The compressed payload is small but the JSON sent to One Collector is too large. */
+        try {
+            persistence.putLog(mockCommonSchemaLog("token-key"), "test", NORMAL);
+            fail("Common schema log larger than One Collector limit is not supposed to be stored.");
+        } catch (PersistenceException ignored) {
+        }
+        verify(databaseManager, never()).put(any(ContentValues.class), anyString(), anyListOf(Long.class));
+
+        /* Same log for App Center is stored compressed in the database. */
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date());
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(1L);
+        assertEquals(1L, persistence.putLog(log, "test", NORMAL));
+    }
+
+    @Test
+    public void reuseStoredTargetTokenWithoutEncryption() throws Exception {
+        mockStatic(CryptoUtils.class);
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(1L);
+        when(cryptoUtils.decrypt("encrypted4", false)).thenReturn(new CryptoUtils.DecryptedData("other-key", null));
+        when(cryptoUtils.decrypt("encrypted5", false)).thenReturn(new CryptoUtils.DecryptedData("token-key", null));
+        Cursor cursor = mock(Cursor.class);
+        when(cursor.moveToNext()).thenReturn(true, true, true, false);
+        when(cursor.getLong(0)).thenReturn(4L, 5L, 6L);
+        when(cursor.getString(1)).thenReturn("encrypted4", "encrypted5", "encrypted6");
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(cursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(((BinaryJSONStringer) new BinaryJSONStringer().object().endObject()).toByteArray());
+        persistence.setLogSerializer(logSerializer);
+        persistence.putLog(mockCommonSchemaLog("token-key"), "test", NORMAL);
+        assertEquals((Long) 5L, persistence.mTargetTokenIdentifiers.get("token-key"));
+
+        /* Stored tokens are decrypted until the token is found. */
+        verify(cryptoUtils).decrypt("encrypted4", false);
+        verify(cryptoUtils).decrypt("encrypted5", false);
+        verify(cryptoUtils, never()).decrypt("encrypted6", false);
+        verify(cryptoUtils, never()).encrypt(anyString());
+        verify(databaseManager, never()).replace(anyString(), any(ContentValues.class), any(String[].class));
+    }
+
+    @Test
+    public void storeTargetTokenInLogIfTokenTableFails() throws Exception {
+        mockStatic(CryptoUtils.class);
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.encrypt("token-key")).thenReturn("encrypted1", "encrypted2");
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(1L);
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mock(Cursor.class));
+        when(databaseManager.replace(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(ContentValues.class))).thenReturn(-1L);
+        ContentValues contentValues = mock(ContentValues.class);
+        whenNew(ContentValues.class).withNoArguments().thenReturn(contentValues);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(((BinaryJSONStringer) new BinaryJSONStringer().object().endObject()).toByteArray());
+        persistence.setLogSerializer(logSerializer);
+        persistence.putLog(mockCommonSchemaLog("token-key"), "test", NORMAL);
+
+        /* The log is stored with its encrypted token so that it can still be sent. */
+        verify(contentValues).put(DatabasePersistence.COLUMN_TARGET_TOKEN, "encrypted2");
+        verify(contentValues).put(DatabasePersistence.COLUMN_TARGET_TOKEN_ID, (Long) null);
+        verify(databaseManager).put(eq(contentValues), anyString(), anyListOf(Long.class));
+        assertNull(persistence.mTargetTokenIdentifiers.get("token-key"));
+    }
+
+    @Test
+    public void decryptTargetTokenOncePerTarget() throws Exception {
+        mockStatic(CryptoUtils.class);
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.decrypt("encrypted1", false)).thenReturn(new CryptoUtils.DecryptedData("token1-key", null));
+        when(cryptoUtils.decrypt("legacy", false)).thenReturn(new CryptoUtils.DecryptedData("token2-key", null));
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        Cursor tokenCursor = mock(Cursor.class);
+        when(tokenCursor.moveToNext()).thenReturn(true);
+        when(tokenCursor.getString(0)).thenReturn("encrypted1");
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(tokenCursor);
+
+        /* Mock 2 logs referencing the same token and 2 logs stored with the same encrypted token before the token table. */
+        List<ContentValues> logValues = new ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            ContentValues values = mockLogValues(id, NORMAL);
+            if (id <= 2) {
+                when(values.containsKey(DatabasePersistence.COLUMN_TARGET_TOKEN_ID)).thenReturn(true);
+                when(values.getAsLong(DatabasePersistence.COLUMN_TARGET_TOKEN_ID)).thenReturn(3L);
+            } else {
+                when(values.getAsString(DatabasePersistence.COLUMN_TARGET_TOKEN)).thenReturn("legacy");
+            }
+            logValues.add(values);
+        }
+        MockCursor mockCursor = new MockCursor(logValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        List<Log> logs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            logs.add(mock(Log.class));
+        }
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(logs.get(0), logs.get(1), logs.get(2), logs.get(3));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* Get logs: each distinct token is decrypted once. */
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 4, outLogs, null, null);
+        assertEquals(logs, outLogs);
+        verify(logs.get(0)).addTransmissionTarget("token1-key");
+        verify(logs.get(1)).addTransmissionTarget("token1-key");
+        verify(logs.get(2)).addTransmissionTarget("token2-key");
+        verify(logs.get(3)).addTransmissionTarget("token2-key");
+        verify(cryptoUtils).decrypt("encrypted1", false);
+        verify(cryptoUtils).decrypt("legacy", false);
+        verify(databaseManager).getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString());
+    }
+
+    @Test
+    public void reEncryptTargetTokenWithNewAlgorithm() throws Exception {
+        mockStatic(CryptoUtils.class);
+        CryptoUtils cryptoUtils = mock(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(cryptoUtils);
+        when(cryptoUtils.decrypt("old", false)).thenReturn(new CryptoUtils.DecryptedData("token-key", "new"));
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        Cursor tokenCursor = mock(Cursor.class);
+        when(tokenCursor.moveToNext()).thenReturn(true);
+        when(tokenCursor.getString(0)).thenReturn("old");
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(tokenCursor);
+        ContentValues values = mockLogValues(1L, NORMAL);
+        when(values.containsKey(DatabasePersistence.COLUMN_TARGET_TOKEN_ID)).thenReturn(true);
+        when(values.getAsLong(DatabasePersistence.COLUMN_TARGET_TOKEN_ID)).thenReturn(3L);
+        MockCursor mockCursor = new MockCursor(Collections.singletonList(values));
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        Log log = mock(Log.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(log);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+        persistence.getLogs("test", Collections.<String>emptyList(), 1, new ArrayList<Log>(), null, null);
+        verify(log).addTransmissionTarget("token-key");
+        verify(databaseManager).replace(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(ContentValues.class));
+    }
+
+    @Test
+    public void moveLogsToAnotherPersistenceKeepsLogsNotMoved() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        List<ContentValues> logValues = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            ContentValues values = mockLogValues(id, NORMAL);
+            when(values.getAsString(DatabasePersistence.COLUMN_GROUP)).thenReturn("test");
+            logValues.add(values);
+        }
+        MockCursor mockCursor = new MockCursor(logValues);
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        Log log1 = mock(Log.class);
+        Log log2 = mock(Log.class);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(log1, log2).thenThrow(new JSONException("mock"));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+        Persistence destination = mock(Persistence.class);
+        when(destination.putLog(log2, "test", NORMAL)).thenThrow(new PersistenceException("mock"));
+        assertEquals(1, persistence.moveLogsTo(destination));
+
+        /* The moved log and the log that cannot be read are deleted, the log the destination failed to store is kept. */
+        verify(databaseManager).delete(1L);
+        verify(databaseManager, never()).delete(2L);
+        verify(databaseManager).delete(3L);
+        verify(databaseManager, never()).delete(anyString(), any());
+    }
+
+    @Test
+    public void missingTargetTokenDeletesLog() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        when(databaseManager.getCursor(eq(DatabasePersistence.TARGET_TOKEN_TABLE), any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString())).thenReturn(mock(Cursor.class));
+        ContentValues values = mockLogValues(1L, NORMAL);
+        when(values.containsKey(DatabasePersistence.COLUMN_TARGET_TOKEN_ID)).thenReturn(true);
+        when(values.getAsLong(DatabasePersistence.COLUMN_TARGET_TOKEN_ID)).thenReturn(3L);
+        MockCursor mockCursor = new MockCursor(Collections.singletonList(values));
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 1, outLogs, null, null);
+        assertTrue(outLogs.isEmpty());
+        verify(databaseManager).delete(1L);
+    }
+
+    @Test
+    public void getCorruptedCompressedLog() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        ContentValues compressedValues = mockLogValues(1L, NORMAL);
+        when(compressedValues.containsKey(DatabasePersistence.COLUMN_COMPRESSED_LOG)).thenReturn(true);
+        when(compressedValues.getAsByteArray(DatabasePersistence.COLUMN_COMPRESSED_LOG)).thenReturn(new byte[]{1, 2, 3});
+        MockCursor mockCursor = new MockCursor(Collections.singletonList(compressedValues));
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+
+        /* The log is deleted like a log that cannot be deserialized. */
+        List<String> outLogs = new ArrayList<>();
+        persistence.getSerializedLogs("mock", Collections.<String>emptyList(), 1, outLogs, null, null);
+        assertTrue(outLogs.isEmpty());
+        verify(databaseManager).delete(1L);
+    }
+
+    @Test
+    public void evictLogsInBulkWhenStorageIsFull() throws Exception {
+
+        /* Mock a full database. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(1000L);
+        when(databaseManager.getUsedSize()).thenReturn(1000L);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(4L);
+        when(databaseManager.delete(anyString(), anyString(), any(String[].class))).thenReturn(2);
+
+        /* Mock logs in eviction order, 200 bytes each with the row overhead. */
+        Cursor cursor = mock(Cursor.class);
+        when(cursor.moveToNext()).thenReturn(true, true, true, false);
+        when(cursor.getLong(0)).thenReturn(1L, 2L, 3L);
+        when(cursor.getString(1)).thenReturn("g1", "g2", "g1");
+        when(cursor.getInt(2)).thenReturn(NORMAL);
+        when(cursor.getLong(3)).thenReturn(100L, 200L, 300L);
+        when(cursor.getLong(4)).thenReturn(200L - DatabasePersistence.LOG_ROW_OVERHEAD);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), any(String[].class), eq(new String[]{String.valueOf(NORMAL)}), anyString())).thenReturn(cursor);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(new byte[2]);
+        persistence.setLogSerializer(logSerializer);
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date(500));
+
+        /* Putting a log goes back under the low water mark: the 2 oldest logs are enough. */
+        assertEquals(4L, persistence.putLog(log, "g3", NORMAL));
+        String priority = String.valueOf(NORMAL);
+        verify(databaseManager).delete(eq(DatabasePersistence.TABLE), anyString(), eq(new String[]{priority, priority, "2"}));
+        verify(listener).onLogsEvicted("g1", 1);
+        verify(listener).onLogsEvicted("g2", 1);
+        verify(databaseManager).put(any(ContentValues.class), anyString(), anyListOf(Long.class));
+    }
+
+    @Test
+    public void doNotEvictLogsWhenStorageHasRoom() throws Exception {
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.getMaxSize()).thenReturn(10000L);
+        when(databaseManager.getUsedSize()).thenReturn(1000L);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(1L);
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(new byte[0]);
+        persistence.setLogSerializer(logSerializer);
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date());
+        persistence.putLog(log, "g1", NORMAL);
+        verify(databaseManager, never()).getCursor(any(SQLiteQueryBuilder.class), any(String[].class), any(String[].class), anyString());
+        verify(databaseManager, never()).delete(anyString(), anyString(), any(String[].class));
+    }
+
     @Test
     public void clearPendingLogState() throws Exception {
 
@@ -372,6 +865,9 @@ public class DatabasePersistenceTest {
         };
         mockCursor.mockBuildValues(databaseManager);
         when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+
+        /* Next logs are selected after the last one returned. */
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString(), anyString())).thenReturn(mockCursor);
         idValues = new ArrayList<>(4);
 
         /* Here the id cursor will also skip the new corrupted log which id would be 3. */
@@ -402,6 +898,52 @@ public class DatabasePersistenceTest {
         verify(databaseManager).delete(anyLong());
     }
 
+    @Test
+    public void getLogsResumesAfterLastSelectedLog() throws Exception {
+
+        /* Mock instances. */
+        DatabaseManager databaseManager = mock(DatabaseManager.class);
+        whenNew(DatabaseManager.class).withAnyArguments().thenReturn(databaseManager);
+        when(databaseManager.nextValues(any(Cursor.class))).thenCallRealMethod();
+        LogSerializer logSerializer = mock(LogSerializer.class);
+        when(logSerializer.deserializeLog(anyString(), anyString())).thenReturn(mock(Log.class));
+        DatabasePersistence persistence = new DatabasePersistence(mock(Context.class));
+        persistence.setLogSerializer(logSerializer);
+
+        /* First call scans logs from the start. */
+        MockCursor mockCursor = new MockCursor(Arrays.asList(mockLogValues(1L, NORMAL), mockLogValues(2L, NORMAL), mockLogValues(3L, NORMAL)));
+        mockCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString())).thenReturn(mockCursor);
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 2, outLogs, null, null);
+        assertEquals(2, outLogs.size());
+
+        /* Next call selects only logs after the last one returned. */
+        MockCursor nextCursor = new MockCursor(Collections.singletonList(mockLogValues(3L, NORMAL)));
+        nextCursor.mockBuildValues(databaseManager);
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), eq(new String[]{"mock", String.valueOf(NORMAL), "2"}), anyString(), eq("2"))).thenReturn(nextCursor);
+        MockCursor lowerPriorityCursor = new MockCursor(Collections.<ContentValues>emptyList());
+        when(databaseManager.getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), eq(new String[]{"mock", String.valueOf(NORMAL)}), anyString(), eq("1"))).thenReturn(lowerPriorityCursor);
+        outLogs = new ArrayList<>();
+        persistence.getLogs("mock", Collections.<String>emptyList(), 2, outLogs, null, null);
+        assertEquals(1, outLogs.size());
+        verify(databaseManager).getCursor(any(SQLiteQueryBuilder.class), isNull(String[].class), any(String[].class), anyString());
+
+        /* A new critical log must be selected first, so scan from the start again. */
+        when(databaseManager.getMaxSize()).thenReturn(Long.MAX_VALUE);
+        when(databaseManager.put(any(ContentValues.class), anyString(), anyListOf(Long.class))).thenReturn(4L);
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(new byte[0]);
+        Log log = mock(Log.class);
+        when(log.getTimestamp()).thenReturn(new Date());
+        persistence.putLog(log, "mock", CRITICAL);
+        assertTrue(persistence.mLogPositions.isEmpty());
+
+        /* Clearing pending state also needs to scan from the start. */
+        persistence.getLogs("mock", Collections.<String>emptyList(), 2, new ArrayList<Log>(), null, null);
+        persistence.clearPendingLogState();
+        assertTrue(persistence.mLogPositions.isEmpty());
+    }
+
     @Test
     public void checkSetStorageSizeForwarding() throws Exception {
 
@@ -426,7 +968,7 @@ public class DatabasePersistenceTest {
 
         /* Set a mock log serializer. */
         LogSerializer logSerializer = mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(Log.class))).thenThrow(new JSONException("JSON exception"));
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenThrow(new JSONException("JSON exception"));
         persistence.setLogSerializer(logSerializer);
 
         /* Persist a log. */
@@ -442,13 +984,36 @@ public class DatabasePersistenceTest {
 
         /* Set a mock log serializer. */
         LogSerializer logSerializer = mock(LogSerializer.class);
-        when(logSerializer.serializeLog(any(Log.class))).thenReturn("mock");
+        when(logSerializer.serializeLogToBinary(any(Log.class))).thenReturn(new byte[0]);
         persistence.setLogSerializer(logSerializer);
 
         /* Persist a log. */
         persistence.putLog(mock(Log.class), "test-p1", NORMAL);
     }
 
+    private static ContentValues mockLogValues(long id, int priority) {
+        ContentValues values = mock(ContentValues.class);
+        when(values.getAsLong(DatabaseManager.PRIMARY_KEY)).thenReturn(id);
+        when(values.getAsInteger(DatabasePersistence.COLUMN_PRIORITY)).thenReturn(priority);
+        when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn("{}");
+        return values;
+    }
+
+    private static CommonSchemaLog mockCommonSchemaLog(String targetToken) {
+        CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton(targetToken));
+        when(log.getTimestamp()).thenReturn(new Date());
+        return log;
+    }
+
+    private static ContentValues mockBlobLogValues(long id, byte[] payload) {
+        ContentValues values = mockLogValues(id, NORMAL);
+        when(values.getAsString(DatabasePersistence.COLUMN_LOG)).thenReturn(null);
+        when(values.containsKey(DatabasePersistence.COLUMN_COMPRESSED_LOG)).thenReturn(true);
+        when(values.getAsByteArray(DatabasePersistence.COLUMN_COMPRESSED_LOG)).thenReturn(payload);
+        return values;
+    }
+
     private static class MockCursor extends CursorWrapper {
 
         private final List<ContentValues> mList;
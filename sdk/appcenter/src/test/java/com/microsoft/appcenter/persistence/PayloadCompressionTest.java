@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadCompressionTest {
+
+    private static final String EVENT_LOG = "{\"type\":\"event\",\"timestamp\":\"2019-06-21T12:34:56.789Z\",\"sid\":\"32ba6bf6-d1dc-4f36-8bb3-7e4d7cbf2e0a\"," +
+            "\"id\":\"a0b93f66-9b5c-4c70-8b6b-1e1f4f0b1d5e\",\"name\":\"Clicked\",\"properties\":{\"button\":\"ok\"}}";
+
+    @Test
+    public void compressAndDecompress() throws Exception {
+        byte[] payload = EVENT_LOG.getBytes("UTF-8");
+        byte[] compressed = PayloadCompression.compress(payload);
+        assertEquals(EVENT_LOG, new String(PayloadCompression.decompress(compressed), "UTF-8"));
+    }
+
+    @Test
+    public void compressAndDecompressLargePayload() throws Exception {
+        StringBuilder builder = new StringBuilder("[");
+        for (int i = 0; i < 1000; i++) {
+            builder.append(EVENT_LOG).append(',');
+        }
+        builder.append("\"é€\"]");
+        String payload = builder.toString();
+        byte[] compressed = PayloadCompression.compress(payload.getBytes("UTF-8"));
+        assertEquals(payload, new String(PayloadCompression.decompress(compressed), "UTF-8"));
+        assertTrue(compressed.length * 10 < payload.length());
+    }
+
+    @Test
+    public void dictionaryImprovesCompressionOfSmallLogs() throws Exception {
+        byte[] payload = EVENT_LOG.getBytes("UTF-8");
+        Deflater deflater = new Deflater();
+        deflater.setInput(payload);
+        deflater.finish();
+        byte[] buffer = new byte[payload.length * 2];
+        int withoutDictionary = deflater.deflate(buffer);
+        deflater.end();
+        int withDictionary = PayloadCompression.compress(payload).length;
+        assertTrue(withDictionary < withoutDictionary);
+        assertTrue(withDictionary < payload.length);
+    }
+
+    @Test
+    public void compressBinaryWithoutDictionary() throws Exception {
+        BinaryJSONStringer writer = new BinaryJSONStringer();
+        writer.object().key("type").value("event").key("name").value("Clicked").endObject();
+        byte[] payload = writer.toByteArray();
+        byte[] compressed = PayloadCompression.compressBinary(payload);
+        assertArrayEquals(payload, PayloadCompression.decompress(compressed));
+
+        /* The header of the deflate stream does not require a dictionary, the bit is set for JSON payloads. */
+        assertEquals(0, compressed[1] & 0x20);
+        assertEquals(0x20, PayloadCompression.compress(payload)[1] & 0x20);
+    }
+
+    @Test(expected = JSONException.class)
+    public void decompressInvalidData() throws Exception {
+        PayloadCompression.decompress(new byte[]{1, 2, 3, 4});
+    }
+
+    @Test(expected = JSONException.class)
+    public void decompressTruncatedData() throws Exception {
+        byte[] compressed = PayloadCompression.compress(EVENT_LOG.getBytes("UTF-8"));
+        PayloadCompression.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+}
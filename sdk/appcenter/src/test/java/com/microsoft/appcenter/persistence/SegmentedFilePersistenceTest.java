@@ -0,0 +1,556 @@
+/*
+ * Copyright (c) Microsoft Corporation. All rights reserved.
+ * Licensed under the MIT License.
+ */
+
+package com.microsoft.appcenter.persistence;
+
+import android.content.Context;
+
+import com.microsoft.appcenter.ingestion.models.Log;
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONReader;
+import com.microsoft.appcenter.ingestion.models.json.BinaryJSONStringer;
+import com.microsoft.appcenter.ingestion.models.json.LogSerializer;
+import com.microsoft.appcenter.ingestion.models.one.CommonSchemaLog;
+import com.microsoft.appcenter.persistence.Persistence.PersistenceException;
+import com.microsoft.appcenter.utils.AppCenterLog;
+import com.microsoft.appcenter.utils.crypto.CryptoUtils;
+
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.microsoft.appcenter.Flags.CRITICAL;
+import static com.microsoft.appcenter.Flags.NORMAL;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.powermock.api.mockito.PowerMockito.mockStatic;
+
+@SuppressWarnings("unused")
+@PrepareForTest({AppCenterLog.class, CryptoUtils.class})
+public class SegmentedFilePersistenceTest {
+
+    @Rule
+    public PowerMockRule mPowerMockRule = new PowerMockRule();
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    /**
+     * Log names by log, used as payloads.
+     */
+    private final Map<Log, String> mLogNames = new HashMap<>();
+
+    /**
+     * Logs by name, returned when deserializing.
+     */
+    private final Map<String, Log> mLogs = new HashMap<>();
+
+    private LogSerializer mLogSerializer;
+
+    private CryptoUtils mCryptoUtils;
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws Exception {
+        mockStatic(AppCenterLog.class);
+        mockStatic(CryptoUtils.class);
+        mCryptoUtils = mock(CryptoUtils.class);
+        when(CryptoUtils.getInstance(any(Context.class))).thenReturn(mCryptoUtils);
+        when(mCryptoUtils.encrypt(anyString())).thenAnswer(new Answer<String>() {
+
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return "encrypted:" + invocation.getArguments()[0];
+            }
+        });
+        when(mCryptoUtils.decrypt(anyString(), eq(false))).thenAnswer(new Answer<CryptoUtils.DecryptedData>() {
+
+            @Override
+            public CryptoUtils.DecryptedData answer(InvocationOnMock invocation) {
+                String data = (String) invocation.getArguments()[0];
+                return new CryptoUtils.DecryptedData(data.substring("encrypted:".length()), null);
+            }
+        });
+        mLogSerializer = mock(LogSerializer.class);
+        when(mLogSerializer.serializeLogToBinary(any(Log.class))).thenAnswer(new Answer<byte[]>() {
+
+            @Override
+            public byte[] answer(InvocationOnMock invocation) throws Throwable {
+                BinaryJSONStringer writer = new BinaryJSONStringer();
+                writer.object().key("name").value(mLogNames.get((Log) invocation.getArguments()[0])).endObject();
+                return writer.toByteArray();
+            }
+        });
+        when(mLogSerializer.deserializeLog(any(byte[].class), anyString())).thenAnswer(new Answer<Log>() {
+
+            @Override
+            public Log answer(InvocationOnMock invocation) throws Throwable {
+                Log log = mLogs.get(BinaryJSONReader.toJson((byte[]) invocation.getArguments()[0]));
+                if (log == null) {
+                    throw new JSONException("Unknown log");
+                }
+                return log;
+            }
+        });
+        mDirectory = mTemporaryFolder.newFolder("segments");
+    }
+
+    private SegmentedFilePersistence newPersistence() {
+        SegmentedFilePersistence persistence = new SegmentedFilePersistence(mock(Context.class), mDirectory);
+        persistence.setLogSerializer(mLogSerializer);
+        return persistence;
+    }
+
+    private Log mockLog(String name) {
+        return mockLog(mock(Log.class), name, 1000);
+    }
+
+    private Log mockLog(Log log, String name, long time) {
+        when(log.getType()).thenReturn("mock");
+        when(log.getTimestamp()).thenReturn(new Date(time));
+        mLogNames.put(log, name);
+        mLogs.put("{\"name\":\"" + name + "\"}", log);
+        return log;
+    }
+
+    private CommonSchemaLog mockCommonSchemaLog(String name, String targetToken, long time) {
+        CommonSchemaLog log = mock(CommonSchemaLog.class);
+        when(log.getTransmissionTargetTokens()).thenReturn(Collections.singleton(targetToken));
+        mockLog(log, name, time);
+        return log;
+    }
+
+    @Test
+    public void putGetAndDeleteLogs() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Log log1 = mockLog("1");
+        Log log2 = mockLog("2");
+        Log log3 = mockLog("3");
+        Log other = mockLog("other");
+        persistence.putLog(log1, "test", NORMAL);
+        persistence.putLog(log2, "test", NORMAL);
+        persistence.putLog(log3, "test", CRITICAL);
+        persistence.putLog(other, "other", NORMAL);
+        assertEquals(3, persistence.countLogs("test"));
+        assertEquals(1, persistence.countLogs("other"));
+        assertEquals(4, persistence.countLogs(new Date(1001)));
+        assertEquals(0, persistence.countLogs(new Date(1000)));
+
+        /* Critical logs come first. */
+        List<Log> logs = new ArrayList<>();
+        String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertNotNull(batchId);
+        assertEquals(2, logs.size());
+        assertEquals(log3, logs.get(0));
+        assertEquals(log1, logs.get(1));
+
+        /* Pending logs are skipped. */
+        logs.clear();
+        String batchId2 = persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertEquals(Collections.singletonList(log2), logs);
+        logs.clear();
+        assertNull(persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null));
+
+        /* Delete a batch. */
+        persistence.deleteLogs("test", batchId);
+        assertEquals(1, persistence.countLogs("test"));
+
+        /* Pending state is cleared. */
+        persistence.clearPendingLogState();
+        persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertEquals(Collections.singletonList(log2), logs);
+
+        /* Delete a group. */
+        persistence.deleteLogs("test");
+        assertEquals(0, persistence.countLogs("test"));
+        persistence.deleteLogs("test", batchId2);
+        persistence.deleteLogs("other");
+        assertEquals(0, persistence.countLogs("other"));
+
+        /* Files are deleted with their last log. */
+        assertEquals(0, persistence.mUsedSize);
+        String[] files = mDirectory.list();
+        assertNotNull(files);
+        assertEquals(0, files.length);
+        persistence.close();
+    }
+
+    @Test
+    public void getSerializedLogs() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        persistence.putLog(mockLog("1"), "test", NORMAL);
+        List<String> logs = new ArrayList<>();
+        assertNotNull(persistence.getSerializedLogs("test", Collections.<String>emptyList(), 2, logs, null, null));
+        assertEquals(Collections.singletonList("{\"name\":\"1\"}"), logs);
+    }
+
+    @Test
+    public void reloadLogsFromSegments() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Log log1 = mockLog("1");
+        Log log2 = mockLog("2");
+        Log log3 = mockLog("3");
+        persistence.beginTransaction();
+        persistence.putLog(log1, "test", NORMAL);
+        long id2 = persistence.putLog(log2, "test", NORMAL);
+        persistence.putLog(log3, "test", CRITICAL);
+        persistence.endTransaction();
+        List<Log> logs = new ArrayList<>();
+        String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 1, logs, null, null);
+        persistence.deleteLogs("test", batchId);
+        persistence.close();
+
+        /* Deleted logs stay deleted, pending state is lost. */
+        persistence = newPersistence();
+        assertEquals(2, persistence.countLogs("test"));
+        logs.clear();
+        persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertEquals(log1, logs.get(0));
+        assertEquals(log2, logs.get(1));
+
+        /* New logs get new identifiers. */
+        assertTrue(persistence.putLog(mockLog("4"), "test", NORMAL) > id2);
+    }
+
+    @Test
+    public void truncateTornRecords() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Log log = mockLog("1");
+        persistence.putLog(log, "test", NORMAL);
+        long usedSize = persistence.mUsedSize;
+        persistence.close();
+
+        /* Simulate a partially written record. */
+        File segment = new File(mDirectory, "0" + SegmentedFilePersistence.SEGMENT_FILE_EXTENSION);
+        FileOutputStream outputStream = new FileOutputStream(segment, true);
+        outputStream.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        outputStream.close();
+        persistence = newPersistence();
+        assertEquals(usedSize, persistence.mUsedSize);
+        assertEquals(usedSize, segment.length());
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertEquals(Collections.singletonList(log), logs);
+
+        /* Appending goes on after the valid records. */
+        Log log2 = mockLog("2");
+        persistence.putLog(log2, "test", NORMAL);
+        persistence.close();
+        persistence = newPersistence();
+        assertEquals(2, persistence.countLogs("test"));
+    }
+
+    @Test
+    public void ignoreCorruptedSegments() throws Exception {
+        File corrupted = new File(mDirectory, "0" + SegmentedFilePersistence.SEGMENT_FILE_EXTENSION);
+        FileOutputStream outputStream = new FileOutputStream(corrupted);
+        outputStream.write(new byte[]{1, 2, 3, 4, 5, 6});
+        outputStream.close();
+        File unexpected = new File(mDirectory, "unexpected" + SegmentedFilePersistence.SEGMENT_FILE_EXTENSION);
+        assertTrue(unexpected.createNewFile());
+        SegmentedFilePersistence persistence = newPersistence();
+        assertFalse(corrupted.exists());
+        assertFalse(unexpected.exists());
+        assertEquals(0, persistence.mUsedSize);
+        persistence.putLog(mockLog("1"), "test", NORMAL);
+        assertEquals(1, persistence.countLogs("test"));
+    }
+
+    @Test
+    public void deleteLogsThatCannotBeDeserialized() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Log log = mockLog("1");
+        persistence.putLog(log, "test", NORMAL);
+        persistence.putLog(mockLog("2"), "test", NORMAL);
+        mLogs.remove("{\"name\":\"2\"}");
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertEquals(Collections.singletonList(log), logs);
+        assertEquals(1, persistence.countLogs("test"));
+    }
+
+    @Test
+    public void filterByTargetKeyAndTime() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        CommonSchemaLog log1 = mockCommonSchemaLog("1", "key1-token1", 1000);
+        CommonSchemaLog log2 = mockCommonSchemaLog("2", "key2-token2", 2000);
+        CommonSchemaLog log3 = mockCommonSchemaLog("3", "key1-token1", 3000);
+        persistence.putLog(log1, "test", NORMAL);
+        persistence.putLog(log2, "test", NORMAL);
+        persistence.putLog(log3, "test", NORMAL);
+
+        /* Each target token is encrypted once. */
+        verify(mCryptoUtils).encrypt("key1-token1");
+        verify(mCryptoUtils).encrypt("key2-token2");
+
+        /* Filter by time. */
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, logs, new Date(2000), new Date(3000));
+        assertEquals(Collections.<Log>singletonList(log2), logs);
+        verify(log2).addTransmissionTarget("key2-token2");
+        persistence.clearPendingLogState();
+
+        /* Filter by paused target key. */
+        logs.clear();
+        persistence.getLogs("test", Collections.singletonList("key1"), 10, logs, null, null);
+        assertEquals(Collections.<Log>singletonList(log2), logs);
+        persistence.clearPendingLogState();
+        logs.clear();
+        persistence.getLogs("test", Collections.singletonList("key2"), 10, logs, null, null);
+        assertEquals(2, logs.size());
+        verify(log1).addTransmissionTarget("key1-token1");
+        verify(log3).addTransmissionTarget("key1-token1");
+
+        /* Tokens encrypted by this instance are not decrypted. */
+        verify(mCryptoUtils, never()).decrypt(anyString(), eq(false));
+
+        /* Decryption is cached after reopening. */
+        persistence.close();
+        persistence = newPersistence();
+        logs.clear();
+        persistence.getLogs("test", Collections.<String>emptyList(), 10, logs, null, null);
+        assertEquals(3, logs.size());
+        verify(mCryptoUtils).decrypt("encrypted:key1-token1", false);
+        verify(mCryptoUtils).decrypt("encrypted:key2-token2", false);
+    }
+
+    @Test
+    public void compressPayloads() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            name.append("repeated name ");
+        }
+        SegmentedFilePersistence persistence = newPersistence();
+        persistence.setCompressionEnabled(true);
+        Log log = mockLog(name.toString());
+        persistence.putLog(log, "test", NORMAL);
+        assertTrue(persistence.mUsedSize < name.length() / 2);
+
+        /* Compressed and uncompressed logs can be read. */
+        persistence.setCompressionEnabled(false);
+        Log log2 = mockLog("2");
+        persistence.putLog(log2, "test", NORMAL);
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 2, logs, null, null);
+        assertEquals(log, logs.get(0));
+        assertEquals(log2, logs.get(1));
+    }
+
+    @Test
+    public void commonSchemaLogSizeLimitAppliesToJson() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 2 * 1024 * 1024; i++) {
+            name.append('x');
+        }
+        SegmentedFilePersistence persistence = newPersistence();
+        persistence.setCompressionEnabled(true);
+
+        /* The compressed payload is small but the JSON sent to One Collector is too large. */
+        try {
+            persistence.putLog(mockCommonSchemaLog(name.toString(), "key-token", 1000), "test", NORMAL);
+            fail("Expected a PersistenceException");
+        } catch (PersistenceException ignore) {
+        }
+        assertEquals(0, persistence.countLogs("test"));
+
+        /* Other logs are not limited. */
+        persistence.putLog(mockLog(name.toString()), "test", NORMAL);
+        assertEquals(1, persistence.countLogs("test"));
+    }
+
+    @Test
+    public void evictLogsWhenStorageIsFull() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+        assertTrue(persistence.setMaxStorageSize(4096));
+
+        /* Fill storage with critical logs first, then normal logs. */
+        int count = 0;
+        Log critical = mockLog("critical");
+        persistence.putLog(critical, "critical", CRITICAL);
+        while (persistence.mUsedSize < 3500) {
+            persistence.putLog(mockLog("normal" + count++), "test", NORMAL);
+        }
+        assertEquals(count, persistence.countLogs("test"));
+
+        /* Storing more evicts the oldest normal logs in bulk. */
+        for (int i = 0; i < 20; i++) {
+            persistence.putLog(mockLog("more" + i), "test", NORMAL);
+        }
+        assertTrue(persistence.mUsedSize <= 4096);
+        assertEquals(1, persistence.countLogs("critical"));
+        verify(listener, never()).onLogsEvicted(eq("critical"), anyInt());
+        verify(listener, atLeastOnce()).onLogsEvicted(eq("test"), anyInt());
+        List<Log> logs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 1000, logs, null, null);
+        assertEquals(persistence.countLogs("test"), logs.size());
+        assertFalse(logs.contains(mLogs.get("{\"name\":\"normal0\"}")));
+        assertTrue(logs.contains(mLogs.get("{\"name\":\"more19\"}")));
+
+        /* Storage size is consistent with files after reopening. */
+        persistence.close();
+        long usedSize = persistence.mUsedSize;
+        int testCount = persistence.countLogs("test");
+        persistence = newPersistence();
+        assertEquals(usedSize, persistence.mUsedSize);
+        assertEquals(testCount, persistence.countLogs("test"));
+        assertEquals(1, persistence.countLogs("critical"));
+    }
+
+    @Test
+    public void doNotReportEvictedLogsBeingSent() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Persistence.Listener listener = mock(Persistence.Listener.class);
+        persistence.setListener(listener);
+        assertTrue(persistence.setMaxStorageSize(4096));
+        int count = 0;
+        while (persistence.mUsedSize < 3500) {
+            persistence.putLog(mockLog("normal" + count++), "test", NORMAL);
+        }
+
+        /* All stored logs are being sent. */
+        List<Log> logs = new ArrayList<>();
+        assertNotNull(persistence.getLogs("test", Collections.<String>emptyList(), count, logs, null, null));
+        assertEquals(count, logs.size());
+
+        /* Evicting them does not report them, they were already subtracted from pending logs. */
+        int stored = count;
+        do {
+            persistence.putLog(mockLog("more" + stored++), "test", NORMAL);
+        } while (persistence.countLogs("test") == stored);
+        assertTrue(persistence.countLogs("test") < stored);
+        verify(listener, never()).onLogsEvicted(anyString(), anyInt());
+    }
+
+    @Test
+    public void doNotEvictHigherPriorityLogs() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        assertTrue(persistence.setMaxStorageSize(2048));
+        int count = 0;
+        while (persistence.mUsedSize < 1800) {
+            persistence.putLog(mockLog("critical" + count++), "test", CRITICAL);
+        }
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            name.append('n');
+        }
+        try {
+            persistence.putLog(mockLog(name.toString()), "test", NORMAL);
+            throw new AssertionError("Storage should be full");
+        } catch (PersistenceException e) {
+            assertEquals(count, persistence.countLogs("test"));
+        }
+    }
+
+    @Test(expected = PersistenceException.class)
+    public void logTooLarge() throws Exception {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            name.append((char) ('a' + i % 26)).append(i);
+        }
+        SegmentedFilePersistence persistence = newPersistence();
+        persistence.setMaxStorageSize(4096);
+        persistence.putLog(mockLog(name.toString()), "test", NORMAL);
+    }
+
+    @Test
+    public void setMaxStorageSizeSmallerThanUsed() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        persistence.putLog(mockLog("1"), "test", NORMAL);
+        assertFalse(persistence.setMaxStorageSize(persistence.mUsedSize - 1));
+        assertTrue(persistence.setMaxStorageSize(persistence.mUsedSize));
+    }
+
+    @Test
+    public void startNewSegmentWhenFull() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        persistence.setMaxStorageSize(4096);
+        for (int i = 0; i < 30; i++) {
+            persistence.putLog(mockLog("log" + i), "test", NORMAL);
+        }
+        assertTrue(persistence.mSegments.size() > 1);
+        for (SegmentedFilePersistence.Segment segment : persistence.mSegments) {
+            assertTrue(segment.mSize <= 1024);
+        }
+
+        /* Deleting logs of a sealed segment deletes it. */
+        List<Log> logs = new ArrayList<>();
+        File firstSegment = persistence.mSegments.get(0).mFile;
+        String batchId = persistence.getLogs("test", Collections.<String>emptyList(), 30, logs, null, null);
+        persistence.deleteLogs("test", batchId);
+        assertFalse(firstSegment.exists());
+        assertEquals(0, persistence.mSegments.size());
+    }
+
+    @Test
+    public void moveLogsToAnotherPersistence() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Log log1 = mockLog("1");
+        CommonSchemaLog log2 = mockCommonSchemaLog("2", "key-token", 1000);
+        persistence.putLog(log1, "test", CRITICAL);
+        persistence.putLog(log2, "other", NORMAL);
+        persistence.putLog(mockLog("corrupted"), "test", NORMAL);
+        mLogs.remove("{\"name\":\"corrupted\"}");
+        Persistence destination = mock(Persistence.class);
+        assertEquals(2, persistence.moveLogsTo(destination));
+        verify(destination).putLog(log1, "test", CRITICAL);
+        verify(destination).putLog(log2, "other", NORMAL);
+        verify(destination, times(2)).putLog(any(Log.class), anyString(), anyInt());
+        verify(log2).addTransmissionTarget("key-token");
+        assertEquals(0, persistence.countLogs("test"));
+        assertEquals(0, persistence.countLogs("other"));
+        assertEquals(0, persistence.mUsedSize);
+        assertFalse(persistence.hasLogs());
+    }
+
+    @Test
+    public void keepLogsNotMovedToAnotherPersistence() throws Exception {
+        SegmentedFilePersistence persistence = newPersistence();
+        Log log1 = mockLog("1");
+        Log log2 = mockLog("2");
+        persistence.putLog(log1, "test", NORMAL);
+        persistence.putLog(log2, "test", NORMAL);
+        Persistence destination = mock(Persistence.class);
+        when(destination.putLog(log2, "test", NORMAL)).thenThrow(new PersistenceException("mock"));
+        assertEquals(1, persistence.moveLogsTo(destination));
+
+        /* Only the moved log is deleted. */
+        assertTrue(persistence.hasLogs());
+        assertEquals(1, persistence.countLogs("test"));
+        List<Log> outLogs = new ArrayList<>();
+        persistence.getLogs("test", Collections.<String>emptyList(), 2, outLogs, null, null);
+        assertEquals(Collections.singletonList(log2), outLogs);
+    }
+}
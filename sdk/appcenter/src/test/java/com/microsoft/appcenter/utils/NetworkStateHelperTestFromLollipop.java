@@ -53,6 +53,16 @@ public class NetworkStateHelperTestFromLollipop extends AbstractNetworkStateHelp
         assertFalse(new NetworkStateHelper(mContext).isNetworkConnected());
     }
 
+    @Test
+    public void networkMetered() {
+        NetworkStateHelper helper = new NetworkStateHelper(mContext);
+        assertFalse(helper.isNetworkMetered());
+        when(mConnectivityManager.isActiveNetworkMetered()).thenReturn(true);
+        assertTrue(helper.isNetworkMetered());
+        when(mConnectivityManager.isActiveNetworkMetered()).thenThrow(new SecurityException());
+        assertFalse(helper.isNetworkMetered());
+    }
+
     @Test
     public void permissionDenied() {
         doThrow(new SecurityException())